@@ -66,4 +66,19 @@ public interface LayerProvider {
      */
     @NonNull Collection<Marker> getMarkers();
 
+    /**
+     * Whether this LayerProvider may be called from other threads than the server thread
+     *
+     * <p>Markers of thread safe layers are collected and serialized on worker threads, so slow providers
+     * don't hold up the server. Layers which aren't thread safe are collected and serialized on the server
+     * thread.</p>
+     *
+     * <p>Default implementation always returns {@code false}</p>
+     *
+     * @return boolean
+     */
+    default boolean threadSafe() {
+        return false;
+    }
+
 }
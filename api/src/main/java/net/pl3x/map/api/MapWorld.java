@@ -38,4 +38,23 @@ public interface MapWorld {
      */
     @NonNull UUID uuid();
 
+    /**
+     * Get whether bulk ingestion mode is enabled for this world.
+     *
+     * @return whether bulk ingestion is enabled
+     * @see #bulkIngestion(boolean)
+     */
+    boolean bulkIngestion();
+
+    /**
+     * Set whether bulk ingestion mode is enabled for this world.
+     *
+     * <p>While enabled, changes are tracked per region instead of per chunk, and regions are only
+     * rendered once they stop changing. This is intended to be enabled while large amounts of
+     * chunks are being generated or modified, i.e. during world pre-generation.</p>
+     *
+     * @param bulkIngestion whether to enable bulk ingestion
+     */
+    void bulkIngestion(boolean bulkIngestion);
+
 }
@@ -1,8 +1,13 @@
 package net.pl3x.map.api;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import net.pl3x.map.api.marker.Marker;
@@ -10,9 +15,15 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
- * A simple {@link LayerProvider} implementation, backed by a Map.
+ * A simple {@link VersionedLayerProvider} implementation, backed by a Map.
+ *
+ * <p>Only markers which were added, removed or {@link #markChanged(Key) marked changed} since the last update
+ * are serialized again. A marker changed in place after it was added, through one of its setters, is only
+ * shown changed once it is added again or marked changed.</p>
  */
-public final class SimpleLayerProvider implements LayerProvider {
+public final class SimpleLayerProvider implements VersionedLayerProvider {
+    // how many changes are remembered for changedSince, past that every marker counts as changed
+    private static final int MAX_CHANGES = 4096;
 
     private final Supplier<String> labelSupplier;
     private final Map<Key, Marker> markers = new ConcurrentHashMap<>();
@@ -20,13 +31,18 @@ public final class SimpleLayerProvider implements LayerProvider {
     private final boolean showControls;
     private final int layerPriority;
     private final int zIndex;
+    private final boolean threadSafe;
+    private final Deque<Change> changes = new ArrayDeque<>();
+    private long version;
+    private long oldestKnownVersion;
 
-    private SimpleLayerProvider(final @NonNull Supplier<String> labelSupplier, final boolean defaultHidden, final boolean showControls, final int layerPriority, final int zIndex) {
+    private SimpleLayerProvider(final @NonNull Supplier<String> labelSupplier, final boolean defaultHidden, final boolean showControls, final int layerPriority, final int zIndex, final boolean threadSafe) {
         this.labelSupplier = labelSupplier;
         this.defaultHidden = defaultHidden;
         this.showControls = showControls;
         this.layerPriority = layerPriority;
         this.zIndex = zIndex;
+        this.threadSafe = threadSafe;
     }
 
     /**
@@ -50,13 +66,35 @@ public final class SimpleLayerProvider implements LayerProvider {
     }
 
     /**
-     * Add a new marker to this layer
+     * Add a new marker to this layer, or replace the marker with the same key
+     *
+     * <p>Adding a marker again after changing it in place publishes the change, like {@link #markChanged(Key)}.</p>
      *
      * @param key    key
      * @param marker marker
      */
     public void addMarker(final @NonNull Key key, final @NonNull Marker marker) {
-        this.markers.put(key, marker);
+        synchronized (this.changes) {
+            this.markers.put(key, marker);
+            this.changed(key);
+        }
+    }
+
+    /**
+     * Mark a marker as changed, after it was changed in place through its setters. Changes to a marker made
+     * without calling this, or adding the marker again, aren't shown on the map.
+     *
+     * @param key key of the changed marker
+     * @return whether a marker is registered for the key
+     */
+    public boolean markChanged(final @NonNull Key key) {
+        synchronized (this.changes) {
+            if (!this.markers.containsKey(key)) {
+                return false;
+            }
+            this.changed(key);
+            return true;
+        }
     }
 
     /**
@@ -67,14 +105,36 @@ public final class SimpleLayerProvider implements LayerProvider {
      * @return the existing marker or {@code null}
      */
     public @Nullable Marker removeMarker(final @NonNull Key key) {
-        return this.markers.remove(key);
+        synchronized (this.changes) {
+            final Marker removed = this.markers.remove(key);
+            if (removed != null) {
+                this.changed(key);
+            }
+            return removed;
+        }
     }
 
     /**
      * Remove all registered markers
      */
     public void clearMarkers() {
-        this.markers.clear();
+        synchronized (this.changes) {
+            if (this.markers.isEmpty()) {
+                return;
+            }
+            this.markers.clear();
+            this.version++;
+            this.changes.clear();
+            this.oldestKnownVersion = this.version;
+        }
+    }
+
+    private void changed(final @NonNull Key key) {
+        this.version++;
+        if (this.changes.size() == MAX_CHANGES) {
+            this.oldestKnownVersion = this.changes.removeFirst().version();
+        }
+        this.changes.addLast(new Change(this.version, key));
     }
 
     /**
@@ -126,6 +186,45 @@ public final class SimpleLayerProvider implements LayerProvider {
         return this.markers.values();
     }
 
+    @Override
+    public boolean threadSafe() {
+        return this.threadSafe;
+    }
+
+    @Override
+    public long version() {
+        synchronized (this.changes) {
+            return this.version;
+        }
+    }
+
+    @Override
+    public @Nullable Set<Key> changedSince(final long version) {
+        synchronized (this.changes) {
+            if (version < this.oldestKnownVersion || version > this.version) {
+                return null;
+            }
+            final Set<Key> changed = new HashSet<>();
+            final Iterator<Change> iterator = this.changes.descendingIterator();
+            while (iterator.hasNext()) {
+                final Change change = iterator.next();
+                if (change.version() <= version) {
+                    break;
+                }
+                changed.add(change.key());
+            }
+            return changed;
+        }
+    }
+
+    @Override
+    public @NonNull Map<Key, Marker> getMarkersByKey() {
+        return this.registeredMarkers();
+    }
+
+    private record Change(long version, @NonNull Key key) {
+    }
+
     /**
      * Builder for {@link SimpleLayerProvider}
      */
@@ -136,6 +235,7 @@ public final class SimpleLayerProvider implements LayerProvider {
         private boolean showControls = true;
         private int layerPriority = 99;
         private int zIndex = 99;
+        private boolean threadSafe = false;
 
         private Builder(final @NonNull Supplier<String> labelSupplier) {
             this.labelSupplier = labelSupplier;
@@ -197,13 +297,28 @@ public final class SimpleLayerProvider implements LayerProvider {
             return this;
         }
 
+        /**
+         * Set whether this layer may be updated off the server thread. Only set this to {@code true} if the
+         * label supplier is safe to call from any thread, and markers aren't changed after they were added.
+         *
+         * <p>Default: {@code false}</p>
+         *
+         * @param threadSafe whether the layer is thread safe
+         * @return this builder
+         * @see LayerProvider#threadSafe()
+         */
+        public @NonNull Builder threadSafe(final boolean threadSafe) {
+            this.threadSafe = threadSafe;
+            return this;
+        }
+
         /**
          * Build a {@link SimpleLayerProvider} instance from the current state of this builder
          *
          * @return the built instance
          */
         public @NonNull SimpleLayerProvider build() {
-            return new SimpleLayerProvider(this.labelSupplier, this.defaultHidden, this.showControls, this.layerPriority, this.zIndex);
+            return new SimpleLayerProvider(this.labelSupplier, this.defaultHidden, this.showControls, this.layerPriority, this.zIndex, this.threadSafe);
         }
 
     }
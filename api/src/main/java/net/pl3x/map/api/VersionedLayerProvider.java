@@ -0,0 +1,57 @@
+package net.pl3x.map.api;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import net.pl3x.map.api.marker.Marker;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A {@link LayerProvider} which keeps track of which of its markers changed, so layers with many markers
+ * don't have to be compared and serialized as a whole on every update.
+ *
+ * <p>A layer whose version didn't change since the last update costs next to nothing to update, and of a
+ * layer whose version did, only the markers which changed are serialized again.</p>
+ *
+ * <p>Markers are only serialized again when their key is reported changed, so a marker edited in place
+ * must be reported as well, see {@link SimpleLayerProvider#markChanged(Key)}.</p>
+ */
+public interface VersionedLayerProvider extends LayerProvider {
+
+    /**
+     * Get the current version of this layer's markers, which increases whenever a marker is added, replaced or removed
+     *
+     * @return version
+     */
+    long version();
+
+    /**
+     * Get the keys of the markers which were added, replaced or removed since a version
+     *
+     * @param version version returned by {@link #version()} earlier
+     * @return keys of changed markers, or {@code null} if that isn't known anymore and every marker should be
+     *     considered changed
+     */
+    @Nullable Set<Key> changedSince(long version);
+
+    /**
+     * Get the markers to display, by key
+     *
+     * @return markers
+     */
+    @NonNull Map<Key, Marker> getMarkersByKey();
+
+    /**
+     * Get the markers to display
+     *
+     * <p>Default implementation returns the values of {@link #getMarkersByKey()}</p>
+     *
+     * @return markers
+     */
+    @Override
+    default @NonNull Collection<Marker> getMarkers() {
+        return this.getMarkersByKey().values();
+    }
+
+}
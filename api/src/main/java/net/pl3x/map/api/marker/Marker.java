@@ -11,6 +11,10 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 
 /**
  * Parent class to all map markers, also contains static factory methods for different marker types
+ *
+ * <p>Markers may be changed through their setters after they were added to a layer. Layers which keep track
+ * of their changes, like {@link net.pl3x.map.api.SimpleLayerProvider}, need to be told about such a change,
+ * with {@link net.pl3x.map.api.SimpleLayerProvider#markChanged(Key)} or by adding the marker again.</p>
  */
 public abstract class Marker {
 
@@ -31,6 +35,8 @@ public abstract class Marker {
     /**
      * Set the marker options for this marker
      *
+     * <p>A marker already added to a layer must be marked changed afterwards, see {@link Marker}.</p>
+     *
      * @param markerOptions new options
      * @return this marker
      */
@@ -42,6 +48,8 @@ public abstract class Marker {
     /**
      * Set the marker options for this marker
      *
+     * <p>A marker already added to a layer must be marked changed afterwards, see {@link Marker}.</p>
+     *
      * @param markerOptionsBuilder new options
      * @return this marker
      */
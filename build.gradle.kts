@@ -28,6 +28,10 @@ subprojects {
         }
     }
 
+    dependencies {
+        "testImplementation"("org.junit.jupiter", "junit-jupiter", "5.8.2")
+    }
+
     repositories {
         mavenCentral()
         maven("https://papermc.io/repo/repository/maven-public/")
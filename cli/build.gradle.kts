@@ -0,0 +1,23 @@
+plugins {
+    application
+    id("com.github.johnrengelman.shadow") version "7.1.0"
+}
+
+dependencies {
+    implementation("com.google.code.gson", "gson", "2.8.9")
+    compileOnly("org.checkerframework", "checker-qual", "3.19.0")
+}
+
+application {
+    mainClass.set("xyz.jpenilla.squaremap.cli.SquaremapCli")
+}
+
+tasks {
+    shadowJar {
+        archiveFileName.set("${rootProject.name}-cli-${project.version}.jar")
+        from(rootProject.projectDir.resolve("LICENSE"))
+    }
+    build {
+        dependsOn(shadowJar)
+    }
+}
@@ -0,0 +1,121 @@
+package xyz.jpenilla.squaremap.cli;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.anvil.RegionFile;
+import xyz.jpenilla.squaremap.cli.render.RegionRenderer;
+import xyz.jpenilla.squaremap.cli.render.TileWriter;
+
+/**
+ * The two stages of a render: region files into max zoom tiles, and max zoom tiles into the zoom levels below.
+ */
+@DefaultQualifier(NonNull.class)
+public final class RenderPipeline {
+    private final ExecutorService executor;
+    private final TileWriter writer;
+
+    public RenderPipeline(final ExecutorService executor, final TileWriter writer) {
+        this.executor = executor;
+        this.writer = writer;
+    }
+
+    /**
+     * Render region files into max zoom tiles.
+     *
+     * @param renderer    renderer
+     * @param regionFiles region files
+     * @param cancelled   checked before every region is rendered and again before its tile is written, regions
+     *                    whose tiles weren't written yet once it is true are skipped
+     * @param tiles       collects the tiles which were written
+     * @return whether every region was rendered
+     */
+    public boolean renderRegions(final RegionRenderer renderer, final List<Path> regionFiles, final BooleanSupplier cancelled, final Set<Tile> tiles) {
+        final AtomicInteger rendered = new AtomicInteger();
+        final List<Future<@Nullable Tile>> futures = new ArrayList<>();
+        for (final Path file : regionFiles) {
+            futures.add(this.executor.submit(() -> {
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                try (final @Nullable RegionFile region = RegionFile.open(file)) {
+                    if (region == null) {
+                        return null;
+                    }
+                    final int[] pixels = renderer.render(region);
+                    if (cancelled.getAsBoolean()) {
+                        return null;
+                    }
+                    this.writer.writeRegion(region.x(), region.z(), pixels);
+                    final int done = rendered.incrementAndGet();
+                    if (done % 64 == 0 || done == regionFiles.size()) {
+                        System.out.printf("Rendered %d/%d regions%n", done, regionFiles.size());
+                    }
+                    return new Tile(region.x(), region.z());
+                }
+            }));
+        }
+        return collect(futures, tiles) && !cancelled.getAsBoolean();
+    }
+
+    /**
+     * Build every zoom level below the max zoom, each from the one above it.
+     *
+     * @param regions max zoom tiles to build from
+     * @return whether every tile was written
+     */
+    public boolean writeZoomLevels(final Set<Tile> regions) {
+        boolean success = true;
+        Set<Tile> tiles = regions;
+        for (int zoom = this.writer.maxZoom() - 1; zoom >= 0; zoom--) {
+            final Set<Tile> parents = new HashSet<>();
+            for (final Tile tile : tiles) {
+                parents.add(new Tile(Math.floorDiv(tile.x(), 2), Math.floorDiv(tile.z(), 2)));
+            }
+            final int level = zoom;
+            final List<Future<@Nullable Tile>> futures = new ArrayList<>();
+            for (final Tile parent : parents) {
+                futures.add(this.executor.submit(() -> {
+                    this.writer.writeZoomedOut(level, parent.x(), parent.z());
+                    return parent;
+                }));
+            }
+            tiles = new HashSet<>();
+            success &= collect(futures, tiles);
+            System.out.printf("Wrote %d tiles for zoom %d%n", tiles.size(), zoom);
+        }
+        return success;
+    }
+
+    private static boolean collect(final List<Future<@Nullable Tile>> futures, final Set<Tile> tiles) {
+        boolean success = true;
+        for (final Future<@Nullable Tile> future : futures) {
+            try {
+                final @Nullable Tile tile = future.get();
+                if (tile != null) {
+                    tiles.add(tile);
+                }
+            } catch (final ExecutionException ex) {
+                System.err.println("Failed to render tile: " + ex.getCause());
+                success = false;
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return success;
+    }
+
+    public record Tile(int x, int z) {
+    }
+}
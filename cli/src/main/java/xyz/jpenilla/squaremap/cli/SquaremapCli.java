@@ -0,0 +1,185 @@
+package xyz.jpenilla.squaremap.cli;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.distributed.Coordinator;
+import xyz.jpenilla.squaremap.cli.distributed.WorkDirectory;
+import xyz.jpenilla.squaremap.cli.distributed.Worker;
+import xyz.jpenilla.squaremap.cli.render.ColorTable;
+import xyz.jpenilla.squaremap.cli.render.RegionRenderer;
+import xyz.jpenilla.squaremap.cli.render.TileWriter;
+
+/**
+ * Renders the region files of a world into squaremap tiles, without a server.
+ */
+@DefaultQualifier(NonNull.class)
+public final class SquaremapCli {
+    private static final String USAGE = """
+        Usage: java -jar squaremap-cli.jar [command] <options>
+
+        render (the default) renders a world on this machine:
+          --world <path>        folder holding the region folder of the dimension to render,
+                                i.e. world, world_nether/DIM-1 or world_the_end/DIM1
+          --colors <path>       color table exported from the server with /squaremap exportcolors <world>,
+                                found at plugins/squaremap/data/<world>/colors.json
+          --output <path>       tiles folder of the world, i.e. plugins/squaremap/web/tiles/<world>
+          --threads <n>         render threads, defaults to all cores
+          --max-zoom <n>        maximum zoom, defaults to the one the color table was exported with
+
+        A render can also be spread over several worker processes, on this or other machines, sharing
+        a work directory. Paths given to coordinate must resolve to the same files on every worker.
+
+        coordinate plans a render in a new work directory:
+          --work <path>         work directory
+          --world, --colors, --output, --max-zoom as for render
+          --unit-size <n>       width in regions of the squares of regions workers claim, defaults to 4
+          --lease-seconds <n>   time after which units of workers that stopped responding are
+                                handed to other workers, defaults to 120
+
+        work renders units of a planned render until all are done:
+          --work <path>         work directory
+          --threads <n>         render threads, defaults to all cores
+          --worker-id <id>      name of this worker, defaults to <host>-<pid>
+
+        status prints the progress of a render:
+          --work <path>         work directory
+
+        merge writes the lower zoom levels once all units are done:
+          --work <path>         work directory
+          --threads <n>         threads, defaults to all cores
+        """;
+    private static final Set<String> COMMANDS = Set.of("render", "coordinate", "work", "status", "merge");
+
+    private SquaremapCli() {
+    }
+
+    public static void main(final String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        final boolean hasCommand = args.length > 0 && COMMANDS.contains(args[0]);
+        final String command = hasCommand ? args[0] : "render";
+        final @Nullable Map<String, String> options = parseOptions(hasCommand ? Arrays.copyOfRange(args, 1, args.length) : args);
+        if (options == null || !hasRequiredOptions(command, options)) {
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            final boolean success = switch (command) {
+                case "coordinate" -> coordinate(options);
+                case "work" -> new Worker(WorkDirectory.open(Path.of(options.get("work"))), workerId(options), threads(options)).run();
+                case "status" -> Coordinator.status(WorkDirectory.open(Path.of(options.get("work"))));
+                case "merge" -> Coordinator.merge(WorkDirectory.open(Path.of(options.get("work"))), threads(options));
+                default -> render(options);
+            };
+            System.exit(success ? 0 : 1);
+        } catch (final IOException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static boolean hasRequiredOptions(final String command, final Map<String, String> options) {
+        final List<String> required = switch (command) {
+            case "coordinate" -> List.of("work", "world", "colors", "output");
+            case "work", "status", "merge" -> List.of("work");
+            default -> List.of("world", "colors", "output");
+        };
+        return options.keySet().containsAll(required);
+    }
+
+    private static @Nullable Map<String, String> parseOptions(final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                return null;
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int threads(final Map<String, String> options) {
+        return Integer.parseInt(options.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    }
+
+    private static String workerId(final Map<String, String> options) {
+        final @Nullable String id = options.get("worker-id");
+        if (id != null) {
+            return id;
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (final UnknownHostException ex) {
+            host = "worker";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    private static boolean coordinate(final Map<String, String> options) throws IOException {
+        final Path colors = Path.of(options.get("colors"));
+        final @Nullable String maxZoom = options.get("max-zoom");
+        Coordinator.plan(
+            Path.of(options.get("work")),
+            Path.of(options.get("world")),
+            colors,
+            Path.of(options.get("output")),
+            maxZoom == null ? ColorTable.load(colors).settings().zoomMax() : Integer.parseInt(maxZoom),
+            Math.max(1, Integer.parseInt(options.getOrDefault("unit-size", "4"))),
+            Duration.ofSeconds(Long.parseLong(options.getOrDefault("lease-seconds", "120")))
+        );
+        return true;
+    }
+
+    private static boolean render(final Map<String, String> options) throws IOException {
+        final Path regionDirectory = Path.of(options.get("world")).resolve("region");
+        if (!Files.isDirectory(regionDirectory)) {
+            throw new IllegalArgumentException("No region folder found at " + regionDirectory);
+        }
+        final ColorTable table = ColorTable.load(Path.of(options.get("colors")));
+        final int threads = threads(options);
+        final int maxZoom = Integer.parseInt(options.getOrDefault("max-zoom", Integer.toString(table.settings().zoomMax())));
+
+        final List<Path> regionFiles;
+        try (final Stream<Path> stream = Files.list(regionDirectory)) {
+            regionFiles = stream.filter(file -> file.getFileName().toString().endsWith(".mca")).sorted().toList();
+        }
+
+        final RegionRenderer renderer = new RegionRenderer(table, regionDirectory);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        final RenderPipeline pipeline = new RenderPipeline(executor, new TileWriter(Path.of(options.get("output")), maxZoom));
+        final long start = System.currentTimeMillis();
+        boolean success;
+
+        try {
+            System.out.printf("Rendering %d regions with %d threads%n", regionFiles.size(), threads);
+            final Set<RenderPipeline.Tile> regions = new HashSet<>();
+            success = pipeline.renderRegions(renderer, regionFiles, () -> false, regions);
+            success &= pipeline.writeZoomLevels(regions);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (renderer.outdatedChunks() > 0) {
+            System.err.printf("%d chunks were saved by a different game version than the color table was exported from and may not render correctly%n", renderer.outdatedChunks());
+        }
+        System.out.printf("Finished in %.1f seconds%n", (System.currentTimeMillis() - start) / 1000.0D);
+        return success;
+    }
+}
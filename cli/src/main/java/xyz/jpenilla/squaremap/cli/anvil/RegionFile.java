@@ -0,0 +1,150 @@
+package xyz.jpenilla.squaremap.cli.anvil;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.nbt.CompoundTag;
+import xyz.jpenilla.squaremap.cli.nbt.NbtReader;
+
+/**
+ * Reader for Anvil region files ({@code r.<x>.<z>.mca}).
+ *
+ * <p>The file starts with a 4 KiB table of chunk locations (3 byte sector offset, 1 byte sector count)
+ * followed by a 4 KiB table of timestamps. Chunks are stored in 4 KiB sectors as a 4 byte length,
+ * a 1 byte compression type and the compressed NBT. Chunks too large for the region file are
+ * stored next to it as {@code c.<x>.<z>.mcc}, flagged by the high bit of the compression type.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class RegionFile implements AutoCloseable {
+    private static final Pattern FILE_NAME = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca$");
+    private static final int SECTOR_SIZE = 4096;
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+    private static final int COMPRESSION_NONE = 3;
+    private static final int EXTERNAL_FLAG = 0x80;
+
+    private final Path file;
+    private final int x;
+    private final int z;
+    private final FileChannel channel;
+    private final int[] offsets = new int[1024];
+
+    private RegionFile(final Path file, final int x, final int z) throws IOException {
+        this.file = file;
+        this.x = x;
+        this.z = z;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        final ByteBuffer header = ByteBuffer.allocate(SECTOR_SIZE);
+        if (this.channel.size() >= SECTOR_SIZE) {
+            this.readFully(header, 0L);
+            header.flip();
+            header.asIntBuffer().get(this.offsets);
+        }
+    }
+
+    /**
+     * Open a region file.
+     *
+     * @param file file
+     * @return region file, or {@code null} if the file name is not a region file name
+     * @throws IOException when the file could not be opened
+     */
+    public static @Nullable RegionFile open(final Path file) throws IOException {
+        final Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new RegionFile(file, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    public static Path path(final Path regionDirectory, final int regionX, final int regionZ) {
+        return regionDirectory.resolve("r." + regionX + "." + regionZ + ".mca");
+    }
+
+    public int x() {
+        return this.x;
+    }
+
+    public int z() {
+        return this.z;
+    }
+
+    /**
+     * Read a chunk.
+     *
+     * @param localX chunk x within the region
+     * @param localZ chunk z within the region
+     * @return chunk tag, or {@code null} if the chunk does not exist
+     * @throws IOException when reading fails or the chunk is corrupt
+     */
+    public @Nullable CompoundTag read(final int localX, final int localZ) throws IOException {
+        final int location = this.offsets[(localZ & 31) << 5 | (localX & 31)];
+        if (location == 0) {
+            return null;
+        }
+        final long offset = (long) (location >>> 8) * SECTOR_SIZE;
+        final int sectors = location & 0xFF;
+
+        final ByteBuffer header = ByteBuffer.allocate(5);
+        this.readFully(header, offset);
+        header.flip();
+        final int length = header.getInt();
+        final int compression = header.get() & 0xFF;
+        if (length <= 0 || length > sectors * SECTOR_SIZE) {
+            throw new IOException(String.format("Invalid length %d for chunk [%d, %d] in %s", length, localX, localZ, this.file));
+        }
+
+        final InputStream raw;
+        if ((compression & EXTERNAL_FLAG) != 0) {
+            final int chunkX = this.x << 5 | localX & 31;
+            final int chunkZ = this.z << 5 | localZ & 31;
+            raw = Files.newInputStream(this.file.resolveSibling("c." + chunkX + "." + chunkZ + ".mcc"));
+        } else {
+            final ByteBuffer data = ByteBuffer.allocate(length - 1);
+            this.readFully(data, offset + 5);
+            raw = new ByteArrayInputStream(data.array());
+        }
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(decompress(raw, compression & ~EXTERNAL_FLAG)))) {
+            return NbtReader.readRoot(in);
+        }
+    }
+
+    private static InputStream decompress(final InputStream in, final int compression) throws IOException {
+        return switch (compression) {
+            case COMPRESSION_GZIP -> new GZIPInputStream(in);
+            case COMPRESSION_ZLIB -> new InflaterInputStream(in);
+            case COMPRESSION_NONE -> in;
+            default -> throw new IOException("Unknown chunk compression type " + compression);
+        };
+    }
+
+    private void readFully(final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = this.channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of region file " + this.file);
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
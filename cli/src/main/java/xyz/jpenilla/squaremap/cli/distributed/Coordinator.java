@@ -0,0 +1,168 @@
+package xyz.jpenilla.squaremap.cli.distributed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.RenderPipeline;
+import xyz.jpenilla.squaremap.cli.render.ColorTable;
+import xyz.jpenilla.squaremap.cli.render.TileWriter;
+
+/**
+ * Plans a distributed render into work units, reports on its progress, and once every unit is done,
+ * merges the max zoom tiles the workers wrote into the zoom levels below.
+ */
+@DefaultQualifier(NonNull.class)
+public final class Coordinator {
+    private static final Pattern REGION_FILE = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca$");
+
+    private Coordinator() {
+    }
+
+    /**
+     * Split the region files of a world into work units.
+     *
+     * <p>Units are squares of regions, so the regions to the north of a unit's regions,
+     * which are read for shading, are mostly read by the same worker.</p>
+     *
+     * @param workDirectory work directory
+     * @param world         dimension folder holding the region folder
+     * @param colors        color table
+     * @param output        tiles folder
+     * @param maxZoom       zoom to render the regions at
+     * @param unitSize      width of a unit in regions
+     * @param lease         time after the last heartbeat when a lease may be reclaimed
+     * @return planned work directory
+     * @throws IOException when the region folder could not be listed or the work directory written
+     */
+    public static WorkDirectory plan(
+        final Path workDirectory,
+        final Path world,
+        final Path colors,
+        final Path output,
+        final int maxZoom,
+        final int unitSize,
+        final Duration lease
+    ) throws IOException {
+        final Path regionDirectory = world.resolve("region");
+        if (!Files.isDirectory(regionDirectory)) {
+            throw new IllegalArgumentException("No region folder found at " + regionDirectory);
+        }
+        ColorTable.load(colors); // fail now rather than on every worker
+
+        final Map<UnitKey, List<String>> grouped = new TreeMap<>();
+        try (final Stream<Path> stream = Files.list(regionDirectory)) {
+            for (final Path file : (Iterable<Path>) stream::iterator) {
+                final String name = file.getFileName().toString();
+                final Matcher matcher = REGION_FILE.matcher(name);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                final UnitKey key = new UnitKey(
+                    Math.floorDiv(Integer.parseInt(matcher.group(1)), unitSize),
+                    Math.floorDiv(Integer.parseInt(matcher.group(2)), unitSize)
+                );
+                grouped.computeIfAbsent(key, k -> new ArrayList<>()).add(name);
+            }
+        }
+        if (grouped.isEmpty()) {
+            throw new IllegalArgumentException("No region files found in " + regionDirectory);
+        }
+
+        final List<List<String>> units = new ArrayList<>(grouped.values());
+        final WorkDirectory directory = WorkDirectory.create(
+            workDirectory,
+            new Job(world.toAbsolutePath(), colors.toAbsolutePath(), output.toAbsolutePath(), maxZoom, units.size(), lease),
+            units
+        );
+        System.out.printf("Planned %d units of %d regions%n", units.size(), units.stream().mapToInt(List::size).sum());
+        return directory;
+    }
+
+    /**
+     * Print how many units are done, leased and waiting.
+     *
+     * @param directory work directory
+     * @return whether every unit is done
+     * @throws IOException when the work directory could not be read
+     */
+    public static boolean status(final WorkDirectory directory) throws IOException {
+        final Job job = directory.job();
+        final Set<Integer> done = directory.done();
+        final Map<Integer, WorkDirectory.LeaseFile> leases = directory.leases();
+        int leased = 0;
+        int expired = 0;
+        if (!leases.isEmpty()) {
+            final FileTime now = directory.now("coordinator");
+            for (final Map.Entry<Integer, WorkDirectory.LeaseFile> entry : leases.entrySet()) {
+                if (done.contains(entry.getKey())) {
+                    continue;
+                }
+                if (entry.getValue().expired(now, job)) {
+                    expired++;
+                } else {
+                    leased++;
+                }
+            }
+        }
+        System.out.printf(
+            "%d/%d units done, %d leased, %d expired, %d waiting%n",
+            done.size(), job.units(), leased, expired, job.units() - done.size() - leased - expired
+        );
+        return done.size() == job.units();
+    }
+
+    /**
+     * Build the zoom levels below the max zoom from the tiles of every unit.
+     *
+     * @param directory work directory
+     * @param threads   threads
+     * @return whether every tile was written
+     * @throws IOException when the work directory could not be read, or a unit isn't done
+     */
+    public static boolean merge(final WorkDirectory directory, final int threads) throws IOException {
+        final Job job = directory.job();
+        final Set<Integer> done = directory.done();
+        if (done.size() < job.units()) {
+            throw new IOException((job.units() - done.size()) + " units are not done yet, wait for the workers to finish them");
+        }
+
+        final Set<RenderPipeline.Tile> regions = new HashSet<>();
+        for (int unit = 0; unit < job.units(); unit++) {
+            for (final String region : directory.regions(unit)) {
+                final Matcher matcher = REGION_FILE.matcher(region);
+                if (matcher.matches()) {
+                    regions.add(new RenderPipeline.Tile(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+                }
+            }
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            return new RenderPipeline(executor, new TileWriter(job.output(), job.maxZoom())).writeZoomLevels(regions);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private record UnitKey(int x, int z) implements Comparable<UnitKey> {
+        @Override
+        public int compareTo(final UnitKey other) {
+            return this.z != other.z ? Integer.compare(this.z, other.z) : Integer.compare(this.x, other.x);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package xyz.jpenilla.squaremap.cli.distributed;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Settings of a distributed render, shared by every worker through {@code job.properties} in the work directory.
+ *
+ * <p>Paths are stored as given to the coordinator, so with workers on several machines they need to
+ * resolve to the same shared storage on all of them.</p>
+ *
+ * @param world    dimension folder holding the region folder
+ * @param colors   color table
+ * @param output   tiles folder
+ * @param maxZoom  zoom the regions are rendered at
+ * @param units    number of work units
+ * @param lease    time after the last heartbeat when a lease may be reclaimed by another worker
+ */
+@DefaultQualifier(NonNull.class)
+public record Job(Path world, Path colors, Path output, int maxZoom, int units, Duration lease) {
+    static final String FILE_NAME = "job.properties";
+
+    static Job load(final Path workDirectory) throws IOException {
+        final Properties properties = new Properties();
+        try (final Reader reader = Files.newBufferedReader(workDirectory.resolve(FILE_NAME))) {
+            properties.load(reader);
+        }
+        try {
+            return new Job(
+                Path.of(properties.getProperty("world")),
+                Path.of(properties.getProperty("colors")),
+                Path.of(properties.getProperty("output")),
+                Integer.parseInt(properties.getProperty("max-zoom")),
+                Integer.parseInt(properties.getProperty("units")),
+                Duration.ofSeconds(Long.parseLong(properties.getProperty("lease-seconds")))
+            );
+        } catch (final RuntimeException ex) {
+            throw new IOException("Malformed " + FILE_NAME + " in " + workDirectory, ex);
+        }
+    }
+
+    void save(final Path workDirectory) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("world", this.world.toString());
+        properties.setProperty("colors", this.colors.toString());
+        properties.setProperty("output", this.output.toString());
+        properties.setProperty("max-zoom", Integer.toString(this.maxZoom));
+        properties.setProperty("units", Integer.toString(this.units));
+        properties.setProperty("lease-seconds", Long.toString(this.lease.toSeconds()));
+        try (final Writer writer = Files.newBufferedWriter(workDirectory.resolve(FILE_NAME))) {
+            properties.store(writer, "squaremap distributed render");
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package xyz.jpenilla.squaremap.cli.distributed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * A worker's claim on a work unit, the file {@code leases/<unit>.<attempt>}.
+ *
+ * <p>Attempts are claimed in order by atomically creating their file, so whoever creates
+ * {@code <unit>.<attempt + 1>} after this lease expired has taken the unit over. Heartbeats
+ * rewrite the file, which keeps its modification time, and with it the lease, fresh.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class Lease {
+    private final int unit;
+    private final int attempt;
+    private final Path file;
+    private final String worker;
+    private volatile boolean lost;
+
+    Lease(final int unit, final int attempt, final Path file, final String worker) {
+        this.unit = unit;
+        this.attempt = attempt;
+        this.file = file;
+        this.worker = worker;
+    }
+
+    public int unit() {
+        return this.unit;
+    }
+
+    public int attempt() {
+        return this.attempt;
+    }
+
+    /**
+     * Check whether another worker took the unit over after this lease expired. Once it did, this
+     * worker must not write anything for the unit anymore.
+     *
+     * @return whether the lease was lost
+     */
+    public boolean lost() {
+        if (!this.lost && this.takenOver()) {
+            this.lost = true;
+        }
+        return this.lost;
+    }
+
+    /**
+     * Refresh the lease, unless it was taken over.
+     *
+     * @throws IOException when the lease file could not be written
+     */
+    public void heartbeat() throws IOException {
+        if (this.lost()) {
+            return;
+        }
+        Files.writeString(this.file, this.worker, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private boolean takenOver() {
+        return Files.exists(this.file.resolveSibling(this.unit + "." + (this.attempt + 1)));
+    }
+}
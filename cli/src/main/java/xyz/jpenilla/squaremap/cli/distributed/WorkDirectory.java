@@ -0,0 +1,168 @@
+package xyz.jpenilla.squaremap.cli.distributed;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * The shared state of a distributed render. Any directory every worker can reach works, be it
+ * local for workers on one machine or a network share for workers on several.
+ *
+ * <pre>
+ * job.properties       the {@link Job}, written last so workers never see a half planned job
+ * units/&lt;unit&gt;         region file names of a work unit, one per line
+ * leases/&lt;unit&gt;.&lt;n&gt;    attempt n at rendering a unit, see {@link Lease}
+ * done/&lt;unit&gt;          written once a unit's tiles are all written
+ * clock/&lt;worker&gt;       touched to read the storage's clock
+ * </pre>
+ *
+ * <p>Only atomic file creation is relied on for mutual exclusion, and lease ages are measured against
+ * modification times the storage itself assigns, so clocks of different machines need not agree.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class WorkDirectory {
+    private final Path root;
+    private final Job job;
+
+    private WorkDirectory(final Path root, final Job job) {
+        this.root = root;
+        this.job = job;
+    }
+
+    /**
+     * Plan a job.
+     *
+     * @param root  work directory, which must not hold a job yet
+     * @param job   job
+     * @param units region file names of every work unit
+     * @return work directory
+     * @throws IOException when the job could not be written
+     */
+    public static WorkDirectory create(final Path root, final Job job, final List<List<String>> units) throws IOException {
+        if (Files.exists(root.resolve(Job.FILE_NAME))) {
+            throw new IOException(root + " already holds a job, use a new work directory for every render");
+        }
+        for (final String directory : List.of("units", "leases", "done", "clock")) {
+            Files.createDirectories(root.resolve(directory));
+        }
+        for (int unit = 0; unit < units.size(); unit++) {
+            Files.write(root.resolve("units").resolve(Integer.toString(unit)), units.get(unit));
+        }
+        job.save(root);
+        return new WorkDirectory(root, job);
+    }
+
+    public static WorkDirectory open(final Path root) throws IOException {
+        if (!Files.isRegularFile(root.resolve(Job.FILE_NAME))) {
+            throw new IOException("No job found in " + root + ", plan one with the coordinate command first");
+        }
+        return new WorkDirectory(root, Job.load(root));
+    }
+
+    public Job job() {
+        return this.job;
+    }
+
+    public List<String> regions(final int unit) throws IOException {
+        return Files.readAllLines(this.root.resolve("units").resolve(Integer.toString(unit)));
+    }
+
+    public Set<Integer> done() throws IOException {
+        final Set<Integer> done = new HashSet<>();
+        try (final Stream<Path> stream = Files.list(this.root.resolve("done"))) {
+            stream.forEach(file -> done.add(Integer.parseInt(file.getFileName().toString())));
+        }
+        return done;
+    }
+
+    public boolean isDone(final int unit) {
+        return Files.exists(this.root.resolve("done").resolve(Integer.toString(unit)));
+    }
+
+    public void markDone(final int unit, final String worker) throws IOException {
+        try {
+            Files.writeString(Files.createFile(this.root.resolve("done").resolve(Integer.toString(unit))), worker);
+        } catch (final FileAlreadyExistsException ignore) {
+            // an expired lease and its successor finished at the same time, the tiles are the same either way
+        }
+    }
+
+    /**
+     * @return latest lease file of every unit which was ever leased
+     */
+    public Map<Integer, LeaseFile> leases() throws IOException {
+        final Map<Integer, LeaseFile> leases = new HashMap<>();
+        try (final Stream<Path> stream = Files.list(this.root.resolve("leases"))) {
+            for (final Path file : (Iterable<Path>) stream::iterator) {
+                final String name = file.getFileName().toString();
+                final int dot = name.indexOf('.');
+                final int unit = Integer.parseInt(name.substring(0, dot));
+                final int attempt = Integer.parseInt(name.substring(dot + 1));
+                final @Nullable LeaseFile latest = leases.get(unit);
+                if (latest == null || latest.attempt() < attempt) {
+                    leases.put(unit, new LeaseFile(attempt, file));
+                }
+            }
+        }
+        return leases;
+    }
+
+    /**
+     * Try to claim a unit.
+     *
+     * @param unit    unit
+     * @param attempt attempt to claim, one past the latest lease file's attempt or {@code 0} if there is none
+     * @param worker  worker id
+     * @return lease, or {@code null} if another worker claimed the attempt first
+     * @throws IOException when the lease file could not be created
+     */
+    public @Nullable Lease claim(final int unit, final int attempt, final String worker) throws IOException {
+        final Path file = this.root.resolve("leases").resolve(unit + "." + attempt);
+        try {
+            Files.writeString(Files.createFile(file), worker);
+        } catch (final FileAlreadyExistsException ex) {
+            return null;
+        }
+        return new Lease(unit, attempt, file, worker);
+    }
+
+    /**
+     * Read the storage's clock, by touching a file and reading back the modification time it got.
+     *
+     * @param worker worker id
+     * @return current time of the storage
+     * @throws IOException when the clock file could not be written
+     */
+    public FileTime now(final String worker) throws IOException {
+        final Path file = this.root.resolve("clock").resolve(worker);
+        Files.writeString(file, worker);
+        return Files.getLastModifiedTime(file);
+    }
+
+    /**
+     * @param attempt attempt of the lease
+     * @param file    lease file
+     */
+    public record LeaseFile(int attempt, Path file) {
+        /**
+         * @param now  current time of the storage
+         * @param job  job
+         * @return whether the lease wasn't renewed for longer than the job's lease time
+         * @throws IOException when the lease file could not be read
+         */
+        public boolean expired(final FileTime now, final Job job) throws IOException {
+            return now.toMillis() - Files.getLastModifiedTime(this.file).toMillis() > job.lease().toMillis();
+        }
+    }
+}
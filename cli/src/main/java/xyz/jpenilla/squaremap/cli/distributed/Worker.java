@@ -0,0 +1,153 @@
+package xyz.jpenilla.squaremap.cli.distributed;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.RenderPipeline;
+import xyz.jpenilla.squaremap.cli.render.ColorTable;
+import xyz.jpenilla.squaremap.cli.render.RegionRenderer;
+import xyz.jpenilla.squaremap.cli.render.TileWriter;
+
+/**
+ * Claims work units of a distributed render and renders their regions into max zoom tiles, until every
+ * unit is done. Units leased by workers which stopped heartbeating are taken over once the lease expires.
+ */
+@DefaultQualifier(NonNull.class)
+public final class Worker {
+    private final WorkDirectory directory;
+    private final String id;
+    private final int threads;
+    private final Set<Integer> failed = new HashSet<>();
+
+    public Worker(final WorkDirectory directory, final String id, final int threads) {
+        this.directory = directory;
+        this.id = id;
+        this.threads = threads;
+    }
+
+    /**
+     * Work until every unit is done, or failed on this worker.
+     *
+     * @return whether every unit this worker claimed was rendered
+     * @throws IOException when the work directory or color table could not be read
+     */
+    public boolean run() throws IOException {
+        final Job job = this.directory.job();
+        final ColorTable table = ColorTable.load(job.colors());
+        final Path regionDirectory = job.world().resolve("region");
+        final RegionRenderer renderer = new RegionRenderer(table, regionDirectory);
+        final TileWriter writer = new TileWriter(job.output(), job.maxZoom());
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.threads));
+        final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "squaremap-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final RenderPipeline pipeline = new RenderPipeline(executor, writer);
+        final long idleMillis = Math.max(1000L, job.lease().toMillis() / 4);
+
+        try {
+            while (true) {
+                final Set<Integer> done = this.directory.done();
+                if (done.size() + this.failed.size() >= job.units()) {
+                    break;
+                }
+                final @Nullable Lease lease = this.claimNext(done);
+                if (lease == null) {
+                    // everything left is leased, wait for it to finish or for a lease to expire
+                    Thread.sleep(idleMillis);
+                    continue;
+                }
+
+                System.out.printf("Claimed unit %d (attempt %d)%n", lease.unit(), lease.attempt());
+                final long period = Math.max(1L, job.lease().toMillis() / 3);
+                final ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+                    try {
+                        lease.heartbeat();
+                    } catch (final IOException ex) {
+                        System.err.printf("Failed to renew lease of unit %d: %s%n", lease.unit(), ex.getMessage());
+                    }
+                }, period, period, TimeUnit.MILLISECONDS);
+
+                final List<Path> files = new ArrayList<>();
+                for (final String region : this.directory.regions(lease.unit())) {
+                    files.add(regionDirectory.resolve(region));
+                }
+                final boolean rendered;
+                try {
+                    rendered = pipeline.renderRegions(renderer, files, lease::lost, new HashSet<>());
+                } finally {
+                    heartbeat.cancel(false);
+                }
+
+                if (lease.lost()) {
+                    System.err.printf("Lease of unit %d expired and was taken over by another worker%n", lease.unit());
+                } else if (rendered) {
+                    this.directory.markDone(lease.unit(), this.id);
+                    System.out.printf("Finished unit %d%n", lease.unit());
+                } else {
+                    // leave the lease to expire, so another worker gets to retry the unit
+                    this.failed.add(lease.unit());
+                    System.err.printf("Failed to render unit %d%n", lease.unit());
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            heartbeats.shutdownNow();
+            executor.shutdownNow();
+        }
+
+        if (renderer.outdatedChunks() > 0) {
+            System.err.printf("%d chunks were saved by a different game version than the color table was exported from and may not render correctly%n", renderer.outdatedChunks());
+        }
+        return this.failed.isEmpty();
+    }
+
+    private @Nullable Lease claimNext(final Set<Integer> done) throws IOException {
+        final Job job = this.directory.job();
+        final Map<Integer, WorkDirectory.LeaseFile> leases = this.directory.leases();
+        @Nullable FileTime now = null;
+        // start at a different unit on every worker, so they don't all race for the same one
+        final int offset = Math.floorMod(this.id.hashCode(), job.units());
+        for (int i = 0; i < job.units(); i++) {
+            final int unit = (offset + i) % job.units();
+            if (done.contains(unit) || this.failed.contains(unit)) {
+                continue;
+            }
+            final WorkDirectory.@Nullable LeaseFile latest = leases.get(unit);
+            final int attempt;
+            if (latest == null) {
+                attempt = 0;
+            } else {
+                if (now == null) {
+                    now = this.directory.now(this.id);
+                }
+                if (!latest.expired(now, job)) {
+                    continue;
+                }
+                attempt = latest.attempt() + 1;
+            }
+            final @Nullable Lease lease = this.directory.claim(unit, attempt, this.id);
+            // the unit may have been finished since done was listed, its lease stops being renewed then
+            if (lease != null && !this.directory.isDone(unit)) {
+                return lease;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,64 @@
+package xyz.jpenilla.squaremap.cli.nbt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Read-only compound tag. Getters return an empty value when the key
+ * is missing or holds a different type of tag, like Minecraft's.
+ */
+@DefaultQualifier(NonNull.class)
+public final class CompoundTag {
+    static final CompoundTag EMPTY = new CompoundTag(Collections.emptyMap());
+
+    private final Map<String, Object> tags;
+
+    CompoundTag(final Map<String, Object> tags) {
+        this.tags = tags;
+    }
+
+    public boolean contains(final String key) {
+        return this.tags.containsKey(key);
+    }
+
+    public Map<String, Object> tags() {
+        return Collections.unmodifiableMap(this.tags);
+    }
+
+    public CompoundTag getCompound(final String key) {
+        return this.tags.get(key) instanceof CompoundTag compound ? compound : EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Object> getList(final String key) {
+        return this.tags.get(key) instanceof List<?> list ? (List<Object>) list : Collections.emptyList();
+    }
+
+    public String getString(final String key) {
+        return this.tags.get(key) instanceof String string ? string : "";
+    }
+
+    public byte getByte(final String key) {
+        return this.tags.get(key) instanceof Number number ? number.byteValue() : 0;
+    }
+
+    public int getInt(final String key) {
+        return this.tags.get(key) instanceof Number number ? number.intValue() : 0;
+    }
+
+    public long getLong(final String key) {
+        return this.tags.get(key) instanceof Number number ? number.longValue() : 0L;
+    }
+
+    public long[] getLongArray(final String key) {
+        return this.tags.get(key) instanceof long[] array ? array : new long[0];
+    }
+
+    public @Nullable Object get(final String key) {
+        return this.tags.get(key);
+    }
+}
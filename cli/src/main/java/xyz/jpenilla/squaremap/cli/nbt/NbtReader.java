@@ -0,0 +1,117 @@
+package xyz.jpenilla.squaremap.cli.nbt;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Minimal reader for uncompressed NBT.
+ *
+ * <p>Compounds are read as {@link CompoundTag}s, lists as {@link List}s, arrays as primitive
+ * arrays and everything else as the boxed primitive or {@link String}.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class NbtReader {
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+    private static final int MAX_DEPTH = 512;
+
+    private NbtReader() {
+    }
+
+    /**
+     * Read a named root compound.
+     *
+     * @param in input
+     * @return root compound
+     * @throws IOException when reading fails or the data is malformed
+     */
+    public static CompoundTag readRoot(final DataInput in) throws IOException {
+        final int type = in.readUnsignedByte();
+        if (type != TAG_COMPOUND) {
+            throw new IOException("Root tag must be a compound, got type " + type);
+        }
+        in.readUTF(); // root name
+        return readCompound(in, 0);
+    }
+
+    private static CompoundTag readCompound(final DataInput in, final int depth) throws IOException {
+        final Map<String, Object> tags = new HashMap<>();
+        while (true) {
+            final int type = in.readUnsignedByte();
+            if (type == TAG_END) {
+                return new CompoundTag(tags);
+            }
+            tags.put(in.readUTF(), readPayload(in, type, depth + 1));
+        }
+    }
+
+    private static Object readPayload(final DataInput in, final int type, final int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT nested too deep");
+        }
+        return switch (type) {
+            case TAG_BYTE -> in.readByte();
+            case TAG_SHORT -> in.readShort();
+            case TAG_INT -> in.readInt();
+            case TAG_LONG -> in.readLong();
+            case TAG_FLOAT -> in.readFloat();
+            case TAG_DOUBLE -> in.readDouble();
+            case TAG_BYTE_ARRAY -> {
+                final byte[] array = new byte[length(in)];
+                in.readFully(array);
+                yield array;
+            }
+            case TAG_STRING -> in.readUTF();
+            case TAG_LIST -> {
+                final int elementType = in.readUnsignedByte();
+                final int length = length(in);
+                final List<Object> list = new ArrayList<>(Math.min(length, 1024));
+                for (int i = 0; i < length; i++) {
+                    list.add(readPayload(in, elementType, depth + 1));
+                }
+                yield list;
+            }
+            case TAG_COMPOUND -> readCompound(in, depth);
+            case TAG_INT_ARRAY -> {
+                final int[] array = new int[length(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readInt();
+                }
+                yield array;
+            }
+            case TAG_LONG_ARRAY -> {
+                final long[] array = new long[length(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readLong();
+                }
+                yield array;
+            }
+            default -> throw new IOException("Unknown tag type " + type);
+        };
+    }
+
+    private static int length(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative length " + length);
+        }
+        return length;
+    }
+}
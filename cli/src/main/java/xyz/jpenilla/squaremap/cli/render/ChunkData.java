@@ -0,0 +1,189 @@
+package xyz.jpenilla.squaremap.cli.render;
+
+import java.util.Arrays;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.nbt.CompoundTag;
+
+/**
+ * Block states, biomes and surface heights of a chunk, decoded from its NBT into {@link ColorTable} ids.
+ *
+ * <p>Only the chunk format written since 1.18 is supported, where every section holds paletted
+ * {@code block_states} and {@code biomes} containers whose entries never span two longs.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class ChunkData {
+    private final ColorTable table;
+    private final int minSection;
+    private final int[][] states;
+    private final int[][] biomes;
+    private final int[] heights;
+
+    private ChunkData(final ColorTable table, final int minSection, final int[][] states, final int[][] biomes, final int[] heights) {
+        this.table = table;
+        this.minSection = minSection;
+        this.states = states;
+        this.biomes = biomes;
+        this.heights = heights;
+    }
+
+    /**
+     * Decode a chunk.
+     *
+     * @param table color table
+     * @param tag   chunk tag
+     * @return chunk, or {@code null} if the chunk is not fully generated
+     */
+    public static @Nullable ChunkData decode(final ColorTable table, final CompoundTag tag) {
+        final String status = tag.getString("Status");
+        if (!status.equals("full") && !status.equals("minecraft:full")) {
+            return null;
+        }
+
+        final int minSection = table.minY() >> 4;
+        final int sectionCount = table.height() >> 4;
+        final int[][] states = new int[sectionCount][];
+        final int[][] biomes = new int[sectionCount][];
+
+        for (final Object element : tag.getList("sections")) {
+            if (!(element instanceof CompoundTag section)) {
+                continue;
+            }
+            final int index = section.getByte("Y") - minSection;
+            if (index < 0 || index >= sectionCount) {
+                continue; // light only sections above and below the world
+            }
+
+            final CompoundTag blockStates = section.getCompound("block_states");
+            final List<Object> statePalette = blockStates.getList("palette");
+            if (!statePalette.isEmpty()) {
+                final int[] palette = new int[statePalette.size()];
+                boolean onlyAir = true;
+                for (int i = 0; i < palette.length; i++) {
+                    palette[i] = statePalette.get(i) instanceof CompoundTag entry ? table.stateId(entry) : table.airId();
+                    onlyAir &= table.is(palette[i], ColorTable.FLAG_AIR);
+                }
+                if (!onlyAir) {
+                    states[index] = unpack(blockStates.getLongArray("data"), palette, 4096, Math.max(4, ceilLog2(palette.length)));
+                }
+            }
+
+            final CompoundTag biomeContainer = section.getCompound("biomes");
+            final List<Object> biomePalette = biomeContainer.getList("palette");
+            if (!biomePalette.isEmpty()) {
+                final int[] palette = new int[biomePalette.size()];
+                for (int i = 0; i < palette.length; i++) {
+                    palette[i] = table.biomeId(String.valueOf(biomePalette.get(i)));
+                }
+                biomes[index] = unpack(biomeContainer.getLongArray("data"), palette, 64, ceilLog2(palette.length));
+            }
+        }
+
+        return new ChunkData(table, minSection, states, biomes, heights(table, tag, states));
+    }
+
+    /**
+     * Unpack a paletted container, entries are packed from the least significant bits and never span two longs.
+     */
+    private static int[] unpack(final long[] data, final int[] palette, final int size, final int bits) {
+        final int[] values = new int[size];
+        if (palette.length == 1 || data.length == 0) {
+            Arrays.fill(values, palette[0]);
+            return values;
+        }
+        final int perLong = 64 / bits;
+        final long mask = (1L << bits) - 1L;
+        for (int i = 0; i < size; i++) {
+            final int index = i / perLong;
+            if (index >= data.length) {
+                break;
+            }
+            final int entry = (int) (data[index] >>> (i % perLong) * bits & mask);
+            values[i] = entry < palette.length ? palette[entry] : palette[0];
+        }
+        return values;
+    }
+
+    /**
+     * Heights of the top non-air block of every column, from the saved world surface heightmap,
+     * or from the block states when it is missing or malformed.
+     */
+    private static int[] heights(final ColorTable table, final CompoundTag tag, final int[][] states) {
+        final int[] heights = new int[256];
+        final long[] raw = tag.getCompound("Heightmaps").getLongArray("WORLD_SURFACE");
+        final int bits = ceilLog2(table.height() + 1);
+        final int perLong = 64 / bits;
+        if (raw.length == (256 + perLong - 1) / perLong) {
+            final long mask = (1L << bits) - 1L;
+            for (int i = 0; i < 256; i++) {
+                heights[i] = (int) (raw[i / perLong] >>> (i % perLong) * bits & mask) + table.minY() - 1;
+            }
+            return heights;
+        }
+
+        for (int i = 0; i < 256; i++) {
+            heights[i] = table.minY() - 1;
+            column:
+            for (int section = states.length - 1; section >= 0; section--) {
+                if (states[section] == null) {
+                    continue;
+                }
+                for (int y = 15; y >= 0; y--) {
+                    // heightmap indices are x + z * 16, section indices y << 8 | z << 4 | x
+                    if (!table.is(states[section][y << 8 | i], ColorTable.FLAG_AIR)) {
+                        heights[i] = table.minY() + section * 16 + y;
+                        break column;
+                    }
+                }
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * @param x block x within the chunk
+     * @param y block y
+     * @param z block z within the chunk
+     * @return state id
+     */
+    public int state(final int x, final int y, final int z) {
+        final int section = (y >> 4) - this.minSection;
+        if (section < 0 || section >= this.states.length || this.states[section] == null) {
+            return this.table.airId();
+        }
+        return this.states[section][(y & 15) << 8 | (z & 15) << 4 | x & 15];
+    }
+
+    /**
+     * Biome of the 4x4x4 cell containing a block. Unlike the game this doesn't
+     * fuzz the cell borders, so biome edges come out slightly blockier.
+     *
+     * @param x block x within the chunk
+     * @param y block y
+     * @param z block z within the chunk
+     * @return biome id
+     */
+    public int biome(final int x, final int y, final int z) {
+        final int section = Math.max(0, Math.min(this.biomes.length - 1, (y >> 4) - this.minSection));
+        final int[] biomes = this.biomes[section];
+        if (biomes == null) {
+            return this.table.plainsId();
+        }
+        return biomes[(y >> 2 & 3) << 4 | (z >> 2 & 3) << 2 | x >> 2 & 3];
+    }
+
+    /**
+     * @param x block x within the chunk
+     * @param z block z within the chunk
+     * @return height of the top non-air block, or one below the world if there is none
+     */
+    public int height(final int x, final int z) {
+        return this.heights[(z & 15) << 4 | x & 15];
+    }
+
+    private static int ceilLog2(final int value) {
+        return value <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(value - 1);
+    }
+}
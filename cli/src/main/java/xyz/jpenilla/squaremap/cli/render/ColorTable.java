@@ -0,0 +1,233 @@
+package xyz.jpenilla.squaremap.cli.render;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.nbt.CompoundTag;
+
+/**
+ * Block and biome colors exported by the plugin's {@code exportcolors} command.
+ *
+ * <p>Block states and biomes are assigned dense ids, so decoded chunks can hold plain int arrays.
+ * Keep the flags in sync with {@code net.pl3x.map.plugin.data.ColorTableExporter}.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class ColorTable {
+    public static final int FORMAT = 1;
+
+    public static final int FLAG_AIR = 1;
+    public static final int FLAG_INVISIBLE = 1 << 1;
+    public static final int FLAG_ITERATE_UP_BASE = 1 << 2;
+    public static final int FLAG_GLASS = 1 << 3;
+    public static final int FLAG_CLEAR_GLASS = 1 << 4;
+    public static final int FLAG_FLUID = 1 << 5;
+    public static final int FLAG_WATER = 1 << 6;
+    public static final int FLAG_LAVA = 1 << 7;
+    public static final int FLAG_TINT_GRASS = 1 << 8;
+    public static final int FLAG_TINT_FOLIAGE = 1 << 9;
+    public static final int FLAG_TINT_WATER = 1 << 10;
+
+    private final Map<String, Integer> stateIds = new HashMap<>();
+    private final Map<String, Integer> firstStateIds = new HashMap<>();
+    private final Map<String, Integer> resolvedStates = new ConcurrentHashMap<>();
+    private final int[] colors;
+    private final int[] flags;
+    private final int airId;
+
+    private final Map<String, Integer> biomeIds = new HashMap<>();
+    private final int[] grassColors;
+    private final int[] foliageColors;
+    private final int[] waterColors;
+    private final int plainsId;
+
+    private final int dataVersion;
+    private final int minY;
+    private final int height;
+    private final int logicalHeight;
+    private final boolean hasCeiling;
+    private final int clearColor;
+    private final RenderSettings settings;
+
+    private ColorTable(final JsonObject json) throws IOException {
+        final int format = json.get("format").getAsInt();
+        if (format != FORMAT) {
+            throw new IOException("Unsupported color table format " + format + ", export it again with this version of squaremap");
+        }
+        this.dataVersion = json.get("data_version").getAsInt();
+        this.minY = json.get("min_y").getAsInt();
+        this.height = json.get("height").getAsInt();
+        this.logicalHeight = json.get("logical_height").getAsInt();
+        this.hasCeiling = json.get("has_ceiling").getAsBoolean();
+        this.clearColor = json.get("clear_color").getAsInt();
+
+        final JsonObject render = json.getAsJsonObject("render");
+        this.settings = new RenderSettings(
+            render.get("max_height").getAsInt(),
+            render.get("iterate_up").getAsBoolean(),
+            render.get("biomes").getAsBoolean(),
+            render.get("glass_clear").getAsBoolean(),
+            render.get("water_clear").getAsBoolean(),
+            render.get("water_checkerboard").getAsBoolean(),
+            render.get("lava_checkerboard").getAsBoolean(),
+            render.get("zoom_max").getAsInt()
+        );
+
+        final JsonObject states = json.getAsJsonObject("states");
+        this.colors = new int[states.size()];
+        this.flags = new int[states.size()];
+        int id = 0;
+        for (final Map.Entry<String, JsonElement> entry : states.entrySet()) {
+            final JsonArray values = entry.getValue().getAsJsonArray();
+            this.colors[id] = values.get(0).getAsInt();
+            this.flags[id] = values.get(1).getAsInt();
+            this.stateIds.put(entry.getKey(), id);
+            // the first state of every block stands in for its states which are missing from the table
+            final int properties = entry.getKey().indexOf('[');
+            this.firstStateIds.putIfAbsent(properties == -1 ? entry.getKey() : entry.getKey().substring(0, properties), id);
+            id++;
+        }
+        final Integer air = this.stateIds.get("minecraft:air");
+        if (air == null) {
+            throw new IOException("Color table is missing minecraft:air");
+        }
+        this.airId = air;
+
+        final JsonObject biomes = json.getAsJsonObject("biomes");
+        this.grassColors = new int[biomes.size()];
+        this.foliageColors = new int[biomes.size()];
+        this.waterColors = new int[biomes.size()];
+        id = 0;
+        for (final Map.Entry<String, JsonElement> entry : biomes.entrySet()) {
+            final JsonArray values = entry.getValue().getAsJsonArray();
+            this.grassColors[id] = values.get(0).getAsInt();
+            this.foliageColors[id] = values.get(1).getAsInt();
+            this.waterColors[id] = values.get(2).getAsInt();
+            this.biomeIds.put(entry.getKey(), id);
+            id++;
+        }
+        this.plainsId = this.biomeIds.getOrDefault("minecraft:plains", 0);
+    }
+
+    public static ColorTable load(final Path file) throws IOException {
+        try (final Reader reader = Files.newBufferedReader(file)) {
+            return new ColorTable(JsonParser.parseReader(reader).getAsJsonObject());
+        } catch (final RuntimeException ex) {
+            throw new IOException("Malformed color table " + file, ex);
+        }
+    }
+
+    /**
+     * Resolve a block state palette entry. Unknown states fall back to the first known state
+     * of their block, and unknown blocks to air.
+     *
+     * @param paletteEntry palette entry, with {@code Name} and {@code Properties}
+     * @return state id
+     */
+    public int stateId(final CompoundTag paletteEntry) {
+        final String name = paletteEntry.getString("Name");
+        final CompoundTag properties = paletteEntry.getCompound("Properties");
+        final String key;
+        if (properties.tags().isEmpty()) {
+            key = name;
+        } else {
+            final StringBuilder builder = new StringBuilder(name).append('[');
+            new TreeMap<>(properties.tags()).forEach((property, value) -> {
+                if (builder.charAt(builder.length() - 1) != '[') {
+                    builder.append(',');
+                }
+                builder.append(property).append('=').append(value);
+            });
+            key = builder.append(']').toString();
+        }
+        return this.resolvedStates.computeIfAbsent(key, k -> {
+            final Integer id = this.stateIds.get(k);
+            if (id != null) {
+                return id;
+            }
+            return this.firstStateIds.getOrDefault(name, this.airId);
+        });
+    }
+
+    public int biomeId(final String name) {
+        return this.biomeIds.getOrDefault(name, this.plainsId);
+    }
+
+    public int color(final int state) {
+        return this.colors[state];
+    }
+
+    public boolean is(final int state, final int flag) {
+        return (this.flags[state] & flag) != 0;
+    }
+
+    public int airId() {
+        return this.airId;
+    }
+
+    public int grassColor(final int biome) {
+        return this.grassColors[biome];
+    }
+
+    public int foliageColor(final int biome) {
+        return this.foliageColors[biome];
+    }
+
+    public int waterColor(final int biome) {
+        return this.waterColors[biome];
+    }
+
+    public int plainsId() {
+        return this.plainsId;
+    }
+
+    public int dataVersion() {
+        return this.dataVersion;
+    }
+
+    public int minY() {
+        return this.minY;
+    }
+
+    public int height() {
+        return this.height;
+    }
+
+    public int logicalHeight() {
+        return this.logicalHeight;
+    }
+
+    public boolean hasCeiling() {
+        return this.hasCeiling;
+    }
+
+    public int clearColor() {
+        return this.clearColor;
+    }
+
+    public RenderSettings settings() {
+        return this.settings;
+    }
+
+    public record RenderSettings(
+        int maxHeight,
+        boolean iterateUp,
+        boolean biomes,
+        boolean glassClear,
+        boolean waterClear,
+        boolean waterCheckerboard,
+        boolean lavaCheckerboard,
+        int zoomMax
+    ) {
+    }
+}
@@ -0,0 +1,259 @@
+package xyz.jpenilla.squaremap.cli.render;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.cli.anvil.RegionFile;
+import xyz.jpenilla.squaremap.cli.nbt.CompoundTag;
+
+/**
+ * Renders region files into region sized images, pixel for pixel like the plugin's {@code AbstractRender}.
+ *
+ * <p>Differences to the plugin: biome colors are not blended with neighbouring biomes, the swamp and
+ * dark forest grass color modifiers are not applied, and visibility limits are ignored.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class RegionRenderer {
+    public static final int SIZE = 512;
+    public static final int UNSET = Integer.MIN_VALUE;
+
+    private final ColorTable table;
+    private final ColorTable.RenderSettings settings;
+    private final Path regionDirectory;
+    private final AtomicLong outdatedChunks = new AtomicLong();
+
+    public RegionRenderer(final ColorTable table, final Path regionDirectory) {
+        this.table = table;
+        this.settings = table.settings();
+        this.regionDirectory = regionDirectory;
+    }
+
+    /**
+     * @return number of chunks rendered so far which were saved by a different game version than the color table was exported from
+     */
+    public long outdatedChunks() {
+        return this.outdatedChunks.get();
+    }
+
+    /**
+     * Render a region.
+     *
+     * @param region region file
+     * @return pixels, indexed {@code x + z * SIZE}, {@link #UNSET} where there is no chunk
+     * @throws IOException when the region file can't be read
+     */
+    public int[] render(final RegionFile region) throws IOException {
+        final int[] pixels = new int[SIZE * SIZE];
+        Arrays.fill(pixels, UNSET);
+
+        @Nullable RegionFile north = null;
+        try {
+            final Path northFile = RegionFile.path(this.regionDirectory, region.x(), region.z() - 1);
+            if (Files.isRegularFile(northFile)) {
+                north = RegionFile.open(northFile);
+            }
+
+            for (int chunkX = 0; chunkX < 32; chunkX++) {
+                int[] lastY = new int[16];
+                for (int chunkZ = 0; chunkZ < 32; chunkZ++) {
+                    if (chunkZ == 0 && north != null) {
+                        // this is the top line of the image, we need to
+                        // scan the bottom line of the region to the north
+                        // in order to get the correct lastY for shading
+                        final @Nullable ChunkData northChunk = this.chunk(north, chunkX, 31);
+                        if (northChunk != null) {
+                            lastY = this.getLastYFromBottomRow(northChunk);
+                        }
+                    }
+                    final @Nullable ChunkData chunk = this.chunk(region, chunkX, chunkZ);
+                    if (chunk != null) {
+                        this.scanChunk(pixels, chunkX << 4, chunkZ << 4, lastY, chunk);
+                    }
+                }
+            }
+        } finally {
+            if (north != null) {
+                north.close();
+            }
+        }
+        return pixels;
+    }
+
+    private @Nullable ChunkData chunk(final RegionFile region, final int chunkX, final int chunkZ) {
+        final @Nullable CompoundTag tag;
+        try {
+            tag = region.read(chunkX, chunkZ);
+        } catch (final IOException ex) {
+            System.err.printf("Failed to read chunk [%d, %d] of region [%d, %d]: %s%n", chunkX, chunkZ, region.x(), region.z(), ex.getMessage());
+            return null;
+        }
+        if (tag == null) {
+            return null;
+        }
+        if (tag.getInt("DataVersion") != this.table.dataVersion()) {
+            this.outdatedChunks.incrementAndGet();
+        }
+        return ChunkData.decode(this.table, tag);
+    }
+
+    private void scanChunk(final int[] pixels, final int baseX, final int baseZ, final int[] lastY, final ChunkData chunk) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                pixels[(baseX + x) + (baseZ + z) * SIZE] = this.scanBlock(chunk, x, z, lastY);
+            }
+        }
+    }
+
+    private int[] getLastYFromBottomRow(final ChunkData chunk) {
+        final int[] lastY = new int[16];
+        for (int x = 0; x < 16; x++) {
+            lastY[x] = this.surfaceY(chunk, x, 15);
+        }
+        return lastY;
+    }
+
+    private int maxHeight() {
+        return this.settings.maxHeight() == -1 ? this.table.logicalHeight() : this.settings.maxHeight();
+    }
+
+    private int surfaceY(final ChunkData chunk, final int x, final int z) {
+        final int yDiff = chunk.height(x, z) + 1;
+        int y = Math.min(yDiff, this.maxHeight());
+        y = this.settings.iterateUp() ? this.iterateUp(chunk, x, y, z) : this.iterateDown(chunk, x, y, z);
+        if (this.settings.glassClear() && this.table.is(chunk.state(x, y, z), ColorTable.FLAG_GLASS)) {
+            y = this.handleGlass(chunk, x, y, z);
+        }
+        return y;
+    }
+
+    private int scanBlock(final ChunkData chunk, final int x, final int z, final int[] lastY) {
+        final int yDiff = chunk.height(x, z) + 1;
+        int y = Math.min(yDiff, this.maxHeight());
+
+        if (yDiff <= this.table.minY() + 1) {
+            // no blocks found, show invisible/air
+            return this.table.clearColor();
+        }
+        y = this.settings.iterateUp() ? this.iterateUp(chunk, x, y, z) : this.iterateDown(chunk, x, y, z);
+        int state = chunk.state(x, y, z);
+
+        if (this.settings.glassClear() && this.table.is(state, ColorTable.FLAG_GLASS)) {
+            final int glassColor = this.table.color(state);
+            final float glassAlpha = this.table.is(state, ColorTable.FLAG_CLEAR_GLASS) ? 0.25F : 0.5F;
+            y = this.handleGlass(chunk, x, y, z);
+            state = chunk.state(x, y, z);
+            final int color = this.getColor(chunk, x, y, z, lastY, state);
+            return Colors.mix(color, glassColor, glassAlpha);
+        }
+
+        return this.getColor(chunk, x, y, z, lastY, state);
+    }
+
+    private int getColor(final ChunkData chunk, final int x, final int y, final int z, final int[] lastY, final int state) {
+        int color = this.table.color(state);
+
+        if (this.settings.biomes()) {
+            if (this.table.is(state, ColorTable.FLAG_TINT_GRASS)) {
+                color = this.table.grassColor(chunk.biome(x, y, z));
+            } else if (this.table.is(state, ColorTable.FLAG_TINT_FOLIAGE)) {
+                color = this.table.foliageColor(chunk.biome(x, y, z));
+            } else if (this.table.is(state, ColorTable.FLAG_TINT_WATER)) {
+                color = Colors.mix(color, this.table.waterColor(chunk.biome(x, y, z)), 0.8F);
+            }
+        }
+
+        final int odd = (x + z & 1);
+
+        if (y > this.table.minY() && this.table.is(state, ColorTable.FLAG_FLUID)) {
+            int under;
+            int fluidDepth = 0;
+            int yBelowSurface = y - 1;
+            do {
+                under = chunk.state(x, yBelowSurface--, z);
+                ++fluidDepth;
+            } while (yBelowSurface > this.table.minY() && fluidDepth <= 10 && this.table.is(under, ColorTable.FLAG_FLUID));
+            return this.getFluidColor(fluidDepth, color, state, under, odd);
+        }
+
+        double diffY = ((double) y - lastY[x]) * 4.0D / (double) 4 + ((double) odd - 0.5D) * 0.4D;
+        byte colorOffset = (byte) (diffY > 0.6D ? 2 : (diffY < -0.6D ? 0 : 1));
+        lastY[x] = y;
+        return Colors.shade(color, colorOffset);
+    }
+
+    private int getFluidColor(final int fluidCountY, int color, final int fluidState, final int underBlock, final int odd) {
+        boolean shaded = false;
+        if (this.table.is(fluidState, ColorTable.FLAG_WATER)) {
+            if (this.settings.waterCheckerboard()) {
+                color = applyDepthCheckerboard(fluidCountY, color, odd);
+                shaded = true;
+            }
+            if (this.settings.waterClear()) {
+                if (!this.settings.waterCheckerboard()) {
+                    color = Colors.shade(color, 0.85F - (fluidCountY * 0.01F)); // darken water color
+                }
+                color = Colors.mix(color, this.table.color(underBlock), 0.20F / (fluidCountY / 2.0F)); // mix block color with water color
+                shaded = true;
+            }
+        } else if (this.table.is(fluidState, ColorTable.FLAG_LAVA)) {
+            if (this.settings.lavaCheckerboard()) {
+                color = applyDepthCheckerboard(fluidCountY, color, odd);
+                shaded = true;
+            }
+        }
+        return shaded ? color : Colors.removeAlpha(color);
+    }
+
+    private static int applyDepthCheckerboard(final double fluidCountY, final int color, final double odd) {
+        double diffY = fluidCountY * 0.1D + odd * 0.2D;
+        byte colorOffset = (byte) (diffY < 0.5D ? 2 : (diffY > 0.9D ? 0 : 1));
+        return Colors.shade(color, colorOffset);
+    }
+
+    private boolean hidden(final int state) {
+        return this.table.color(state) == this.table.clearColor() || this.table.is(state, ColorTable.FLAG_INVISIBLE);
+    }
+
+    private int iterateDown(final ChunkData chunk, final int x, int y, final int z) {
+        final int minY = this.table.minY();
+        if (this.table.hasCeiling()) {
+            do {
+                y--;
+            } while (!this.table.is(chunk.state(x, y, z), ColorTable.FLAG_AIR) && y > minY);
+        }
+        do {
+            y--;
+        } while (this.hidden(chunk.state(x, y, z)) && y > minY);
+        return y;
+    }
+
+    private int iterateUp(final ChunkData chunk, final int x, int y, final int z) {
+        final int minY = this.table.minY();
+        final int height = y;
+        y = minY;
+        if (this.table.hasCeiling()) {
+            do {
+                y++;
+            } while (!this.table.is(chunk.state(x, y, z), ColorTable.FLAG_AIR) && y < height);
+            do {
+                y++;
+            } while (!this.table.is(chunk.state(x, y, z), ColorTable.FLAG_ITERATE_UP_BASE) && y < height);
+        }
+        do {
+            y--;
+        } while (this.hidden(chunk.state(x, y, z)) && y > minY);
+        return y;
+    }
+
+    private int handleGlass(final ChunkData chunk, final int x, int y, final int z) {
+        while (this.table.is(chunk.state(x, y, z), ColorTable.FLAG_GLASS)) {
+            y = this.iterateDown(chunk, x, y, z);
+        }
+        return y;
+    }
+}
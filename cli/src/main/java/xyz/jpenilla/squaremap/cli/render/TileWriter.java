@@ -0,0 +1,129 @@
+package xyz.jpenilla.squaremap.cli.render;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import javax.imageio.ImageIO;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Writes tiles in the plugin's {@code tiles/<world>/<zoom>/<x>_<z>.png} layout, where zoom
+ * {@code maxZoom} holds one full resolution tile per region and every zoom below it is built
+ * by sampling every other pixel of the 4 tiles it covers on the zoom above.
+ *
+ * <p>Like the plugin, pixels which were not rendered keep the contents of the existing tile.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class TileWriter {
+    private static final int SIZE = RegionRenderer.SIZE;
+
+    private final Path directory;
+    private final int maxZoom;
+
+    public TileWriter(final Path directory, final int maxZoom) {
+        this.directory = directory;
+        this.maxZoom = maxZoom;
+    }
+
+    public int maxZoom() {
+        return this.maxZoom;
+    }
+
+    /**
+     * Write the full resolution tile of a region.
+     *
+     * @param regionX region x
+     * @param regionZ region z
+     * @param pixels  pixels, indexed {@code x + z * SIZE}
+     * @throws IOException when the tile could not be read or written
+     */
+    public void writeRegion(final int regionX, final int regionZ, final int[] pixels) throws IOException {
+        final Path file = this.tile(this.maxZoom, regionX, regionZ);
+        final BufferedImage image = this.readOrCreate(file);
+        for (int z = 0; z < SIZE; z++) {
+            for (int x = 0; x < SIZE; x++) {
+                final int pixel = pixels[x + z * SIZE];
+                if (pixel != RegionRenderer.UNSET) {
+                    image.setRGB(x, z, pixel); // the clear map color is fully transparent already
+                }
+            }
+        }
+        write(image, file);
+    }
+
+    /**
+     * Build a tile from the 4 tiles it covers on the zoom above. Tiles which don't exist leave the
+     * corresponding quarter of the tile untouched.
+     *
+     * @param zoom  zoom, below {@link #maxZoom()}
+     * @param tileX tile x
+     * @param tileZ tile z
+     * @throws IOException when a tile could not be read or written
+     */
+    public void writeZoomedOut(final int zoom, final int tileX, final int tileZ) throws IOException {
+        final Path file = this.tile(zoom, tileX, tileZ);
+        final BufferedImage image = this.readOrCreate(file);
+        for (int dx = 0; dx < 2; dx++) {
+            for (int dz = 0; dz < 2; dz++) {
+                final @Nullable BufferedImage child = read(this.tile(zoom + 1, tileX * 2 + dx, tileZ * 2 + dz));
+                if (child == null) {
+                    continue;
+                }
+                final int baseX = dx * (SIZE / 2);
+                final int baseZ = dz * (SIZE / 2);
+                for (int x = 0; x < SIZE / 2; x++) {
+                    for (int z = 0; z < SIZE / 2; z++) {
+                        image.setRGB(baseX + x, baseZ + z, child.getRGB(x * 2, z * 2));
+                    }
+                }
+            }
+        }
+        write(image, file);
+    }
+
+    private Path tile(final int zoom, final int x, final int z) {
+        return this.directory.resolve(Integer.toString(zoom)).resolve(x + "_" + z + ".png");
+    }
+
+    private BufferedImage readOrCreate(final Path file) throws IOException {
+        final @Nullable BufferedImage existing = read(file);
+        if (existing != null && existing.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return existing;
+        }
+        final BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        if (existing != null) {
+            image.getGraphics().drawImage(existing, 0, 0, null);
+        }
+        return image;
+    }
+
+    private static @Nullable BufferedImage read(final Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        return ImageIO.read(file.toFile());
+    }
+
+    private static void write(final BufferedImage image, final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        // unique per write, a worker which lost its lease may still be writing the same tile
+        final Path tmp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+        try {
+            if (!ImageIO.write(image, "png", tmp.toFile())) {
+                throw new IOException("No png writer available");
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package xyz.jpenilla.squaremap.cli.distributed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkDirectoryTest {
+    private static final Job JOB = new Job(Path.of("world"), Path.of("colors.json"), Path.of("tiles"), 3, 2, Duration.ofSeconds(30));
+
+    @Test
+    void createAndOpen(@TempDir final Path root) throws IOException {
+        WorkDirectory.create(root, JOB, List.of(List.of("r.0.0.mca", "r.0.1.mca"), List.of("r.-1.0.mca")));
+
+        final WorkDirectory directory = WorkDirectory.open(root);
+        assertEquals(JOB, directory.job());
+        assertEquals(List.of("r.0.0.mca", "r.0.1.mca"), directory.regions(0));
+        assertEquals(List.of("r.-1.0.mca"), directory.regions(1));
+        assertTrue(directory.done().isEmpty());
+        assertTrue(directory.leases().isEmpty());
+    }
+
+    @Test
+    void jobIsOnlyPlannedOnce(@TempDir final Path root) throws IOException {
+        WorkDirectory.create(root, JOB, List.of(List.of(), List.of()));
+        assertThrows(IOException.class, () -> WorkDirectory.create(root, JOB, List.of(List.of(), List.of())));
+        assertThrows(IOException.class, () -> WorkDirectory.open(root.resolve("units")));
+    }
+
+    @Test
+    void attemptIsClaimedOnce(@TempDir final Path root) throws IOException {
+        final WorkDirectory directory = WorkDirectory.create(root, JOB, List.of(List.of(), List.of()));
+        final Lease lease = directory.claim(1, 0, "a");
+        assertNotNull(lease);
+        assertEquals(1, lease.unit());
+        assertEquals(0, lease.attempt());
+        assertNull(directory.claim(1, 0, "b"));
+        assertNotNull(directory.claim(0, 0, "b"));
+    }
+
+    @Test
+    void leasesListTheLatestAttempt(@TempDir final Path root) throws IOException {
+        final WorkDirectory directory = WorkDirectory.create(root, JOB, List.of(List.of(), List.of()));
+        directory.claim(0, 0, "a");
+        directory.claim(0, 1, "b");
+        directory.claim(1, 0, "a");
+
+        final Map<Integer, WorkDirectory.LeaseFile> leases = directory.leases();
+        assertEquals(1, leases.get(0).attempt());
+        assertEquals(0, leases.get(1).attempt());
+        assertEquals("b", Files.readString(leases.get(0).file()));
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver(@TempDir final Path root) throws IOException {
+        final WorkDirectory directory = WorkDirectory.create(root, JOB, List.of(List.of(), List.of()));
+        final Lease first = directory.claim(0, 0, "a");
+        assertNotNull(first);
+
+        final FileTime now = directory.now("b");
+        WorkDirectory.LeaseFile latest = directory.leases().get(0);
+        assertFalse(latest.expired(now, JOB));
+
+        // the storage's clock decides, the lease was last renewed longer ago than the job's lease time
+        Files.setLastModifiedTime(latest.file(), FileTime.fromMillis(now.toMillis() - JOB.lease().toMillis() - 1000L));
+        assertTrue(latest.expired(now, JOB));
+
+        final Lease second = directory.claim(0, latest.attempt() + 1, "b");
+        assertNotNull(second);
+        assertNull(directory.claim(0, latest.attempt() + 1, "c"));
+
+        // the previous holder notices before its next write, and doesn't renew its lease file
+        final FileTime expiredTime = Files.getLastModifiedTime(latest.file());
+        assertTrue(first.lost());
+        first.heartbeat();
+        assertEquals(expiredTime, Files.getLastModifiedTime(latest.file()));
+
+        second.heartbeat();
+        assertFalse(second.lost());
+        latest = directory.leases().get(0);
+        assertEquals(1, latest.attempt());
+        assertFalse(latest.expired(directory.now("b"), JOB));
+    }
+
+    @Test
+    void heartbeatRenewsTheLease(@TempDir final Path root) throws IOException {
+        final WorkDirectory directory = WorkDirectory.create(root, JOB, List.of(List.of(), List.of()));
+        final Lease lease = directory.claim(0, 0, "a");
+        assertNotNull(lease);
+        final Path file = directory.leases().get(0).file();
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0L));
+
+        lease.heartbeat();
+        assertFalse(lease.lost());
+        assertEquals("a", Files.readString(file));
+        assertFalse(directory.leases().get(0).expired(directory.now("a"), JOB));
+    }
+
+    @Test
+    void unitsAreDoneOnce(@TempDir final Path root) throws IOException {
+        final WorkDirectory directory = WorkDirectory.create(root, JOB, List.of(List.of(), List.of()));
+        assertFalse(directory.isDone(1));
+        directory.markDone(1, "a");
+        // a late finish of an expired lease is ignored
+        directory.markDone(1, "b");
+        assertTrue(directory.isDone(1));
+        assertFalse(directory.isDone(0));
+        assertEquals(Set.of(1), directory.done());
+    }
+}
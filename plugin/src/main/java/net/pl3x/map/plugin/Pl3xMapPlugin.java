@@ -30,7 +30,7 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 
 public final class Pl3xMapPlugin extends JavaPlugin {
     private static Pl3xMapPlugin instance;
-    private Pl3xMap pl3xMap;
+    private Pl3xMapApiProvider pl3xMap;
     private WorldManager worldManager;
     private PlayerManager playerManager;
     private UpdateWorldData updateWorldData;
@@ -159,6 +159,10 @@ public final class Pl3xMapPlugin extends JavaPlugin {
         return this.worldManager;
     }
 
+    public @NonNull MapUpdateListeners mapUpdateListeners() {
+        return this.mapUpdateListeners;
+    }
+
     private void setupApi() {
         this.pl3xMap = new Pl3xMapApiProvider(this);
         this.getServer().getServicesManager().register(Pl3xMap.class, this.pl3xMap, this, ServicePriority.Normal);
@@ -170,6 +174,7 @@ public final class Pl3xMapPlugin extends JavaPlugin {
         this.getServer().getServicesManager().unregister(Pl3xMap.class, this.pl3xMap);
         final Method unregister = ReflectionUtil.needMethod(Pl3xMapProvider.class, List.of("unregister"));
         ReflectionUtil.invokeOrThrow(unregister, null);
+        this.pl3xMap.shutdown();
         this.pl3xMap = null;
     }
 
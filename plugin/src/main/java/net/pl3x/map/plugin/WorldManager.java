@@ -10,6 +10,7 @@ import net.pl3x.map.plugin.data.MapWorld;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public final class WorldManager {
 
@@ -27,6 +28,19 @@ public final class WorldManager {
         }
     }
 
+    /**
+     * Allocation free variant of {@link #getWorldIfEnabled(World)}, for hot paths.
+     *
+     * @param world world
+     * @return map world, or {@code null} if the map is not enabled for the world
+     */
+    public @Nullable MapWorld getWorldIfEnabledOrNull(final @NonNull World world) {
+        if (WorldConfig.get(world).MAP_ENABLED) {
+            return this.getWorld(world);
+        }
+        return null;
+    }
+
     public @NonNull MapWorld getWorld(final @NonNull World world) {
         final MapWorld w = this.worlds.get(world.getUID());
         if (w != null) {
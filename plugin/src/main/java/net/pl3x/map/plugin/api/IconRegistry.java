@@ -1,46 +1,91 @@
 package net.pl3x.map.plugin.api;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.imageio.ImageIO;
 import net.pl3x.map.api.Key;
 import net.pl3x.map.api.Pair;
 import net.pl3x.map.api.Registry;
+import net.pl3x.map.plugin.Logging;
 import net.pl3x.map.plugin.util.FileUtil;
+import net.pl3x.map.plugin.util.Util;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
+/**
+ * Registered icons are kept in memory and written off the calling thread, packed into {@code atlas.png}
+ * with an {@code atlas.json} index which the web map loads once. Each icon is also written on its own,
+ * for clients which saw an icon before the atlas with it was loaded.
+ *
+ * <p>Nothing is written before {@link #startupFinished()}, so the icons of plugins which enable later don't
+ * get replaced by an atlas without them on every start. Icon files are only deleted when their key is
+ * unregistered, a key which was not registered again yet keeps the file of the last run.</p>
+ */
 public final class IconRegistry implements Registry<BufferedImage> {
+    private static final String ATLAS_IMAGE = "atlas.png";
+    private static final String ATLAS_INDEX = "atlas.json";
+    // icons are usually registered in a burst while plugins enable, they are written once after it
+    private static final long WRITE_DELAY_MILLIS = 500;
 
     private final Map<Key, BufferedImage> images = new ConcurrentHashMap<>();
     private final Path directory;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final Set<String> unregistered = ConcurrentHashMap.newKeySet();
+    private volatile boolean started;
+    // only used on the executor
+    private @Nullable String writtenSignature;
 
     public IconRegistry() {
         this.directory = FileUtil.WEB_DIR.resolve("images/icon/registered/");
         try {
-            if (Files.exists(this.directory)) {
-                FileUtil.deleteDirectory(this.directory);
-            }
             Files.createDirectories(this.directory);
         } catch (IOException e) {
             throw failedToCreateRegistry(e);
         }
+        // the atlas of the last run is kept when the same icons are registered again
+        this.executor.execute(() -> this.writtenSignature = this.readSignature());
+    }
+
+    /**
+     * Start writing icons, once every plugin had the chance to register theirs.
+     */
+    public void startupFinished() {
+        this.started = true;
+        this.scheduleWrite();
     }
 
     @Override
     public void register(@NonNull Key key, @NonNull BufferedImage value) {
-        if (this.hasEntry(key)) {
+        if (this.images.putIfAbsent(key, value) != null) {
             throw imageAlreadyRegistered(key);
         }
-        try {
-            ImageIO.write(value, "png", this.directory.resolve(key.getKey() + ".png").toFile());
-        } catch (IOException e) {
-            throw failedToWriteImage(key, e);
-        }
-        this.images.put(key, value);
+        this.unregistered.remove(key.getKey());
+        this.scheduleWrite();
     }
 
     @Override
@@ -49,11 +94,8 @@ public final class IconRegistry implements Registry<BufferedImage> {
         if (removed == null) {
             throw noImageRegistered(key);
         }
-        try {
-            Files.delete(this.directory.resolve(key.getKey() + ".png"));
-        } catch (IOException e) {
-            throw failedToDeleteImage(key, e);
-        }
+        this.unregistered.add(key.getKey());
+        this.scheduleWrite();
     }
 
     @Override
@@ -77,16 +119,157 @@ public final class IconRegistry implements Registry<BufferedImage> {
             .toList();
     }
 
-    private static @NonNull IllegalArgumentException failedToCreateRegistry(final @NonNull IOException e) {
-        return new IllegalArgumentException("Failed to setup icon registry", e);
+    /**
+     * Finish pending writes and stop the writer thread.
+     */
+    public void shutdown() {
+        // delayed writes still run after shutdown
+        Util.shutdownExecutor(this.executor, TimeUnit.SECONDS, 5);
+    }
+
+    private void scheduleWrite() {
+        if (this.started && this.writeScheduled.compareAndSet(false, true)) {
+            this.executor.schedule(this::write, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void write() {
+        this.writeScheduled.set(false);
+        final Map<String, BufferedImage> images = new TreeMap<>();
+        this.images.forEach((key, image) -> images.put(key.getKey(), image));
+        final String signature = signature(images);
+        if (signature.equals(this.writtenSignature)) {
+            return;
+        }
+        try {
+            this.writeIcons(images);
+            this.writeAtlas(images, signature);
+            this.writtenSignature = signature;
+        } catch (IOException e) {
+            Logging.warn("Failed to write registered icons", e);
+        }
+    }
+
+    private void writeIcons(final Map<String, BufferedImage> images) throws IOException {
+        for (final Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+            FileUtil.atomicWrite(this.icon(entry.getKey()), tmp -> writePng(entry.getValue(), tmp));
+        }
+        for (final String key : List.copyOf(this.unregistered)) {
+            if (!images.containsKey(key)) {
+                Files.deleteIfExists(this.icon(key));
+            }
+            this.unregistered.remove(key);
+        }
     }
 
-    private static @NonNull IllegalArgumentException failedToDeleteImage(final @NonNull Key key, final @NonNull IOException e) {
-        return new IllegalArgumentException(String.format("Failed to delete image for key '%s'", key.getKey()), e);
+    private Path icon(final String key) {
+        return this.directory.resolve(key + ".png");
     }
 
-    private static @NonNull IllegalArgumentException failedToWriteImage(final @NonNull Key key, final @NonNull IOException e) {
-        return new IllegalArgumentException(String.format("Failed to write image for key '%s'", key.getKey()), e);
+    private void writeAtlas(final Map<String, BufferedImage> images, final String signature) throws IOException {
+        // shelf packing, tallest first into rows about as wide as the atlas is tall
+        final List<Map.Entry<String, BufferedImage>> sorted = new ArrayList<>(images.entrySet());
+        sorted.sort(Comparator.comparingInt((Map.Entry<String, BufferedImage> entry) -> entry.getValue().getHeight()).reversed());
+        long area = 0;
+        int widest = 1;
+        for (final Map.Entry<String, BufferedImage> entry : sorted) {
+            area += (long) entry.getValue().getWidth() * entry.getValue().getHeight();
+            widest = Math.max(widest, entry.getValue().getWidth());
+        }
+        final int width = Math.max(widest, (int) Math.ceil(Math.sqrt(area)));
+
+        final Map<String, int[]> positions = new LinkedHashMap<>();
+        int x = 0;
+        int y = 0;
+        int rowHeight = 0;
+        for (final Map.Entry<String, BufferedImage> entry : sorted) {
+            final BufferedImage image = entry.getValue();
+            if (x + image.getWidth() > width) {
+                x = 0;
+                y += rowHeight;
+                rowHeight = 0;
+            }
+            positions.put(entry.getKey(), new int[]{x, y, image.getWidth(), image.getHeight()});
+            x += image.getWidth();
+            rowHeight = Math.max(rowHeight, image.getHeight());
+        }
+        final int height = Math.max(1, y + rowHeight);
+
+        final BufferedImage atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = atlas.createGraphics();
+        positions.forEach((key, position) -> graphics.drawImage(images.get(key), position[0], position[1], null));
+        graphics.dispose();
+        FileUtil.atomicWrite(this.directory.resolve(ATLAS_IMAGE), tmp -> writePng(atlas, tmp));
+
+        // the index is written last, it is what tells clients the atlas changed
+        FileUtil.atomicWrite(this.directory.resolve(ATLAS_INDEX), tmp -> {
+            try (final Writer writer = Files.newBufferedWriter(tmp);
+                 final JsonWriter json = new JsonWriter(writer)) {
+                json.beginObject();
+                json.name("signature").value(signature);
+                json.name("width").value(width);
+                json.name("height").value(height);
+                json.name("icons").beginObject();
+                for (final Map.Entry<String, int[]> entry : positions.entrySet()) {
+                    json.name(entry.getKey()).beginArray();
+                    for (final int value : entry.getValue()) {
+                        json.value(value);
+                    }
+                    json.endArray();
+                }
+                json.endObject();
+                json.endObject();
+            }
+        });
+    }
+
+    private static void writePng(final BufferedImage image, final Path file) throws IOException {
+        if (!ImageIO.write(image, "png", file.toFile())) {
+            throw new IOException("No png writer for image");
+        }
+    }
+
+    private @Nullable String readSignature() {
+        final Path index = this.directory.resolve(ATLAS_INDEX);
+        if (!Files.exists(index)) {
+            return null;
+        }
+        try (final Reader reader = Files.newBufferedReader(index)) {
+            final @Nullable JsonElement signature = JsonParser.parseReader(reader).getAsJsonObject().get("signature");
+            return signature == null ? null : signature.getAsString();
+        } catch (Exception e) {
+            // written again
+            return null;
+        }
+    }
+
+    // identifies the registered keys and their pixels
+    private static String signature(final Map<String, BufferedImage> images) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (final Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+            final BufferedImage image = entry.getValue();
+            final int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+            final ByteBuffer buffer = ByteBuffer.allocate((pixels.length + 2) * Integer.BYTES);
+            buffer.putInt(image.getWidth()).putInt(image.getHeight());
+            buffer.asIntBuffer().put(pixels);
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(buffer.array());
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static @NonNull IllegalArgumentException failedToCreateRegistry(final @NonNull IOException e) {
+        return new IllegalArgumentException("Failed to setup icon registry", e);
     }
 
     private static @NonNull IllegalArgumentException noImageRegistered(final @NonNull Key key) {
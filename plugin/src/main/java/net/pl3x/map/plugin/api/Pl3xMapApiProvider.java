@@ -24,6 +24,8 @@ public final class Pl3xMapApiProvider implements Pl3xMap {
     public Pl3xMapApiProvider(final @NonNull Pl3xMapPlugin plugin) {
         this.plugin = plugin;
         this.iconRegistry = new IconRegistry();
+        // scheduled tasks first run once the server finished starting
+        Bukkit.getScheduler().runTask(plugin, this.iconRegistry::startupFinished);
     }
 
     @Override
@@ -60,4 +62,8 @@ public final class Pl3xMapApiProvider implements Pl3xMap {
         return FileUtil.WEB_DIR;
     }
 
+    public void shutdown() {
+        this.iconRegistry.shutdown();
+    }
+
 }
@@ -19,11 +19,15 @@ import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.pl3x.map.plugin.Pl3xMapPlugin;
+import net.pl3x.map.plugin.command.commands.BulkIngestionCommand;
 import net.pl3x.map.plugin.command.commands.CancelRenderCommand;
 import net.pl3x.map.plugin.command.commands.ConfirmCommand;
+import net.pl3x.map.plugin.command.commands.ExportColorsCommand;
 import net.pl3x.map.plugin.command.commands.FullRenderCommand;
 import net.pl3x.map.plugin.command.commands.HelpCommand;
 import net.pl3x.map.plugin.command.commands.HideCommand;
+import net.pl3x.map.plugin.command.commands.ListenerStatsCommand;
+import net.pl3x.map.plugin.command.commands.MarkerStatsCommand;
 import net.pl3x.map.plugin.command.commands.PauseRenderCommand;
 import net.pl3x.map.plugin.command.commands.RadiusRenderCommand;
 import net.pl3x.map.plugin.command.commands.ReloadCommand;
@@ -78,6 +82,10 @@ public final class Commands {
             new CancelRenderCommand(plugin, this),
             new RadiusRenderCommand(plugin, this),
             new PauseRenderCommand(plugin, this),
+            new BulkIngestionCommand(plugin, this),
+            new ListenerStatsCommand(plugin, this),
+            new MarkerStatsCommand(plugin, this),
+            new ExportColorsCommand(plugin, this),
             new ResetMapCommand(plugin, this),
             new HideCommand(plugin, this),
             new ShowCommand(plugin, this)
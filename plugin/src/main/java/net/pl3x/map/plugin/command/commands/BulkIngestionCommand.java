@@ -0,0 +1,48 @@
+package net.pl3x.map.plugin.command.commands;
+
+import cloud.commandframework.context.CommandContext;
+import cloud.commandframework.minecraft.extras.MinecraftExtrasMetaKeys;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.Template;
+import net.pl3x.map.plugin.Pl3xMapPlugin;
+import net.pl3x.map.plugin.command.Commands;
+import net.pl3x.map.plugin.command.Pl3xMapCommand;
+import net.pl3x.map.plugin.command.argument.MapWorldArgument;
+import net.pl3x.map.plugin.configuration.Lang;
+import net.pl3x.map.plugin.data.MapWorld;
+import net.pl3x.map.plugin.util.CommandUtil;
+import org.bukkit.command.CommandSender;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+public final class BulkIngestionCommand extends Pl3xMapCommand {
+
+    public BulkIngestionCommand(final @NonNull Pl3xMapPlugin plugin, final @NonNull Commands commands) {
+        super(plugin, commands);
+    }
+
+    @Override
+    public void register() {
+        this.commands.registerSubcommand(builder ->
+                builder.literal("bulkingestion")
+                        .argument(MapWorldArgument.optional("world"), CommandUtil.description(Lang.OPTIONAL_WORLD_ARGUMENT_DESCRIPTION))
+                        .meta(MinecraftExtrasMetaKeys.DESCRIPTION, MiniMessage.miniMessage().parse(Lang.BULK_INGESTION_COMMAND_DESCRIPTION))
+                        .permission("squaremap.command.bulkingestion")
+                        .handler(this::executeBulkIngestion));
+    }
+
+    private void executeBulkIngestion(final @NonNull CommandContext<CommandSender> context) {
+        final CommandSender sender = context.getSender();
+        final MapWorld world = CommandUtil.resolveWorld(context);
+
+        world.bulkIngestion(!world.bulkIngestion());
+
+        if (world.bulkIngestion()) {
+            Lang.send(sender, Lang.BULK_INGESTION_ENABLED, Template.template("world", world.name()));
+        } else {
+            Lang.send(sender, Lang.BULK_INGESTION_DISABLED,
+                    Template.template("world", world.name()),
+                    Template.template("regions", Integer.toString(world.dirtyChunks().promotedRegions())));
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.pl3x.map.plugin.command.commands;
+
+import cloud.commandframework.context.CommandContext;
+import cloud.commandframework.minecraft.extras.MinecraftExtrasMetaKeys;
+import java.io.IOException;
+import java.nio.file.Path;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.Template;
+import net.pl3x.map.plugin.Logging;
+import net.pl3x.map.plugin.Pl3xMapPlugin;
+import net.pl3x.map.plugin.command.Commands;
+import net.pl3x.map.plugin.command.Pl3xMapCommand;
+import net.pl3x.map.plugin.command.argument.MapWorldArgument;
+import net.pl3x.map.plugin.configuration.Lang;
+import net.pl3x.map.plugin.data.ColorTableExporter;
+import net.pl3x.map.plugin.data.MapWorld;
+import net.pl3x.map.plugin.util.CommandUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+public final class ExportColorsCommand extends Pl3xMapCommand {
+
+    public ExportColorsCommand(final @NonNull Pl3xMapPlugin plugin, final @NonNull Commands commands) {
+        super(plugin, commands);
+    }
+
+    @Override
+    public void register() {
+        this.commands.registerSubcommand(builder ->
+                builder.literal("exportcolors")
+                        .argument(MapWorldArgument.optional("world"), CommandUtil.description(Lang.OPTIONAL_WORLD_ARGUMENT_DESCRIPTION))
+                        .meta(MinecraftExtrasMetaKeys.DESCRIPTION, MiniMessage.miniMessage().parse(Lang.EXPORT_COLORS_COMMAND_DESCRIPTION))
+                        .permission("squaremap.command.exportcolors")
+                        .handler(this::executeExportColors));
+    }
+
+    private void executeExportColors(final @NonNull CommandContext<CommandSender> context) {
+        final CommandSender sender = context.getSender();
+        final MapWorld world = CommandUtil.resolveWorld(context);
+        final Path file = world.dataPath().resolve("colors.json");
+
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            try {
+                ColorTableExporter.export(world, file);
+                Lang.send(sender, Lang.EXPORTED_COLORS,
+                        Template.template("world", world.name()),
+                        Template.template("path", file.toAbsolutePath().toString()));
+            } catch (final IOException ex) {
+                Logging.warn(String.format("Failed to export block colors for world '%s'", world.name()), ex);
+                Lang.send(sender, Lang.EXPORT_COLORS_FAILED, Template.template("world", world.name()));
+            }
+        });
+    }
+
+}
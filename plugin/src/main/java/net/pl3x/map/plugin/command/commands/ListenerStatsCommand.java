@@ -0,0 +1,41 @@
+package net.pl3x.map.plugin.command.commands;
+
+import cloud.commandframework.context.CommandContext;
+import cloud.commandframework.minecraft.extras.MinecraftExtrasMetaKeys;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.Template;
+import net.pl3x.map.plugin.Pl3xMapPlugin;
+import net.pl3x.map.plugin.command.Commands;
+import net.pl3x.map.plugin.command.Pl3xMapCommand;
+import net.pl3x.map.plugin.configuration.Lang;
+import org.bukkit.command.CommandSender;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+public final class ListenerStatsCommand extends Pl3xMapCommand {
+
+    public ListenerStatsCommand(final @NonNull Pl3xMapPlugin plugin, final @NonNull Commands commands) {
+        super(plugin, commands);
+    }
+
+    @Override
+    public void register() {
+        this.commands.registerSubcommand(builder ->
+                builder.literal("listenerstats")
+                        .meta(MinecraftExtrasMetaKeys.DESCRIPTION, MiniMessage.miniMessage().parse(Lang.LISTENER_STATS_COMMAND_DESCRIPTION))
+                        .permission("squaremap.command.listenerstats")
+                        .handler(this::execute));
+    }
+
+    public void execute(final @NonNull CommandContext<CommandSender> context) {
+        final CommandSender sender = context.getSender();
+        Lang.send(sender, Lang.LISTENER_STATS_HEADER);
+        plugin.mapUpdateListeners().counters().forEach((eventClass, counters) ->
+                Lang.send(sender, Lang.LISTENER_STATS_ENTRY,
+                        Template.template("event", eventClass.getSimpleName()),
+                        Template.template("received", Long.toString(counters.received())),
+                        Template.template("deduplicated", Long.toString(counters.deduplicated())),
+                        Template.template("forwarded", Long.toString(counters.forwarded())),
+                        Template.template("ignored", Long.toString(counters.ignored()))
+                ));
+    }
+}
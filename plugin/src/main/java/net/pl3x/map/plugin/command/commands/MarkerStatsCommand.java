@@ -0,0 +1,52 @@
+package net.pl3x.map.plugin.command.commands;
+
+import cloud.commandframework.context.CommandContext;
+import cloud.commandframework.minecraft.extras.MinecraftExtrasMetaKeys;
+import java.util.concurrent.TimeUnit;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.Template;
+import net.pl3x.map.plugin.Pl3xMapPlugin;
+import net.pl3x.map.plugin.command.Commands;
+import net.pl3x.map.plugin.command.Pl3xMapCommand;
+import net.pl3x.map.plugin.command.argument.MapWorldArgument;
+import net.pl3x.map.plugin.configuration.Lang;
+import net.pl3x.map.plugin.data.MapWorld;
+import net.pl3x.map.plugin.util.CommandUtil;
+import org.bukkit.command.CommandSender;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+public final class MarkerStatsCommand extends Pl3xMapCommand {
+
+    public MarkerStatsCommand(final @NonNull Pl3xMapPlugin plugin, final @NonNull Commands commands) {
+        super(plugin, commands);
+    }
+
+    @Override
+    public void register() {
+        this.commands.registerSubcommand(builder ->
+                builder.literal("markerstats")
+                        .argument(MapWorldArgument.optional("world"), CommandUtil.description(Lang.OPTIONAL_WORLD_ARGUMENT_DESCRIPTION))
+                        .meta(MinecraftExtrasMetaKeys.DESCRIPTION, MiniMessage.miniMessage().parse(Lang.MARKER_STATS_COMMAND_DESCRIPTION))
+                        .permission("squaremap.command.markerstats")
+                        .handler(this::execute));
+    }
+
+    public void execute(final @NonNull CommandContext<CommandSender> context) {
+        final CommandSender sender = context.getSender();
+        final MapWorld world = CommandUtil.resolveWorld(context);
+        Lang.send(sender, Lang.MARKER_STATS_HEADER, Template.template("world", world.name()));
+        world.updateMarkers().stats().forEach((layer, stats) ->
+                Lang.send(sender, Lang.MARKER_STATS_ENTRY,
+                        Template.template("layer", layer.getKey()),
+                        Template.template("main", millis(stats.mainThreadNanos())),
+                        Template.template("worker", millis(stats.workerNanos())),
+                        Template.template("max", millis(stats.maxWorkerNanos())),
+                        Template.template("timeouts", Long.toString(stats.timeouts())),
+                        Template.template("failures", Long.toString(stats.failures()))
+                ));
+    }
+
+    private static @NonNull String millis(final long nanos) {
+        return String.format("%.2f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1L));
+    }
+}
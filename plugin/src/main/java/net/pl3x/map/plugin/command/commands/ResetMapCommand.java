@@ -5,17 +5,18 @@ import cloud.commandframework.context.CommandContext;
 import cloud.commandframework.extra.confirmation.CommandConfirmationManager;
 import cloud.commandframework.minecraft.extras.MinecraftExtrasMetaKeys;
 import java.io.IOException;
-import java.nio.file.Path;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.kyori.adventure.text.minimessage.Template;
 import net.pl3x.map.plugin.Pl3xMapPlugin;
 import net.pl3x.map.plugin.command.Commands;
 import net.pl3x.map.plugin.command.Pl3xMapCommand;
 import net.pl3x.map.plugin.configuration.Lang;
+import net.pl3x.map.plugin.data.MapWorld;
 import net.pl3x.map.plugin.util.FileUtil;
 import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public final class ResetMapCommand extends Pl3xMapCommand {
 
@@ -37,9 +38,13 @@ public final class ResetMapCommand extends Pl3xMapCommand {
     private void executeResetMap(final @NonNull CommandContext<CommandSender> context) {
         final CommandSender sender = context.getSender();
         final World world = context.get("world");
-        final Path worldTilesDir = FileUtil.getWorldFolder(world);
+        final @Nullable MapWorld mapWorld = this.plugin.worldManager().worlds().get(world.getUID());
         try {
-            FileUtil.deleteSubdirectories(worldTilesDir);
+            if (mapWorld != null) {
+                mapWorld.tileStorage().deleteAll();
+            } else {
+                FileUtil.deleteSubdirectories(FileUtil.getWorldFolder(world));
+            }
         } catch (IOException e) {
             throw new IllegalStateException("Could not reset map", e);
         }
@@ -41,6 +41,12 @@ abstract class AbstractWorldConfig {
                 config.yaml.getInt("world-settings.default." + path));
     }
 
+    double getDouble(String path, double def) {
+        config.yaml.addDefault("world-settings.default." + path, def);
+        return config.yaml.getDouble("world-settings." + this.worldName + "." + path,
+                config.yaml.getDouble("world-settings.default." + path));
+    }
+
     String getString(String path, String def) {
         config.yaml.addDefault("world-settings.default." + path, def);
         return config.yaml.getString("world-settings." + this.worldName + "." + path,
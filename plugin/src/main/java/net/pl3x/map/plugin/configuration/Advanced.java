@@ -26,6 +26,7 @@ import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkPopulateEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.StructureGrowEvent;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
@@ -75,18 +76,22 @@ public class Advanced extends AbstractConfig {
             EntityExplodeEvent.class,
             EntityChangeBlockEvent.class,
             StructureGrowEvent.class,
-            ChunkPopulateEvent.class
+            ChunkPopulateEvent.class,
+            ChunkUnloadEvent.class
         );
         for (final Class<? extends Event> clazz : defaultOn) {
             EVENT_LISTENER_TOGGLES.put(clazz, config.getBoolean("settings.event-listeners." + clazz.getSimpleName(), true));
         }
 
+        // BlockFromToEvent and BlockPhysicsEvent fire in storms during physics and fluid cascades. Updates are
+        // de-duplicated per chunk before they are queued (see UpdateQueue), so they are safe to opt into, but
+        // any BlockPhysicsEvent listener moves the server onto the slower physics event dispatch path.
         final Set<Class<? extends Event>> defaultOff = Set.of(
             BlockFromToEvent.class,
+            BlockPhysicsEvent.class,
             PlayerJoinEvent.class,
             PlayerQuitEvent.class,
             PlayerMoveEvent.class,
-            BlockPhysicsEvent.class,
             BlockPistonExtendEvent.class,
             BlockPistonRetractEvent.class,
             ChunkLoadEvent.class
@@ -52,11 +52,19 @@ public class Config extends AbstractConfig {
     public static boolean HTTPD_ENABLED = true;
     public static String HTTPD_BIND = "0.0.0.0";
     public static int HTTPD_PORT = 8080;
+    public static int HTTPD_TILE_CACHE_MAX_SIZE_MB = 64;
+    public static boolean HTTPD_TILE_CACHE_PERSIST_HOT_SET = true;
+    public static boolean HTTPD_LIVE_UPDATES_ENABLED = true;
+    public static int HTTPD_TILE_JOURNAL_MAX_SIZE = 32768;
 
     private static void internalWebServerSettings() {
         HTTPD_ENABLED = config.getBoolean("settings.internal-webserver.enabled", HTTPD_ENABLED);
         HTTPD_BIND = config.getString("settings.internal-webserver.bind", HTTPD_BIND);
         HTTPD_PORT = config.getInt("settings.internal-webserver.port", HTTPD_PORT);
+        HTTPD_TILE_CACHE_MAX_SIZE_MB = config.getInt("settings.internal-webserver.tile-cache.max-size-mb", HTTPD_TILE_CACHE_MAX_SIZE_MB);
+        HTTPD_TILE_CACHE_PERSIST_HOT_SET = config.getBoolean("settings.internal-webserver.tile-cache.persist-hot-set", HTTPD_TILE_CACHE_PERSIST_HOT_SET);
+        HTTPD_LIVE_UPDATES_ENABLED = config.getBoolean("settings.internal-webserver.live-updates.enabled", HTTPD_LIVE_UPDATES_ENABLED);
+        HTTPD_TILE_JOURNAL_MAX_SIZE = config.getInt("settings.internal-webserver.tile-journal.max-size", HTTPD_TILE_JOURNAL_MAX_SIZE);
     }
 
     public static boolean UI_COORDINATES_ENABLED = true;
@@ -34,6 +34,23 @@ public final class Lang {
     public static String PAUSED_RENDER = "<green>Paused renders for <world>";
     @LangKey("unpaused-renders")
     public static String UNPAUSED_RENDER = "<green>Unpaused renders for <world>";
+    @LangKey("bulk-ingestion-enabled")
+    public static String BULK_INGESTION_ENABLED = "<green>Enabled bulk ingestion for <world>";
+    @LangKey("bulk-ingestion-disabled")
+    public static String BULK_INGESTION_DISABLED = "<green>Disabled bulk ingestion for <world> (<regions> regions queued)";
+    @LangKey("exported-colors")
+    public static String EXPORTED_COLORS = "<green>Exported block colors for <world> to <white><path>";
+    @LangKey("export-colors-failed")
+    public static String EXPORT_COLORS_FAILED = "<red>Failed to export block colors for <world>, see console for details";
+
+    @LangKey("listener-stats.header")
+    public static String LISTENER_STATS_HEADER = "<green>Map update listener statistics:";
+    @LangKey("listener-stats.entry")
+    public static String LISTENER_STATS_ENTRY = "<gray><event>: <white><received></white> received, <white><deduplicated></white> deduplicated, <white><forwarded></white> forwarded, <white><ignored></white> ignored";
+    @LangKey("marker-stats.header")
+    public static String MARKER_STATS_HEADER = "<green>Marker layer statistics for <world>:";
+    @LangKey("marker-stats.entry")
+    public static String MARKER_STATS_ENTRY = "<gray><layer>: <white><main>ms</white> on the server thread, <white><worker>ms</white> (max <white><max>ms</white>) on workers, <white><timeouts></white> timeouts, <white><failures></white> failures";
 
     @LangKey("command.message.console-must-specify-player")
     public static String CONSOLE_MUST_SPECIFY_PLAYER = "<red>You must specify a target player when running this command from console";
@@ -71,6 +88,14 @@ public final class Lang {
     public static String CANCEL_RENDER_COMMAND_DESCRIPTION = "Cancels a render for the specified world";
     @LangKey("command.description.pause-render")
     public static String PAUSE_RENDER_COMMAND_DESCRIPTION = "Pauses all renders for the specified world";
+    @LangKey("command.description.bulk-ingestion")
+    public static String BULK_INGESTION_COMMAND_DESCRIPTION = "Toggles bulk ingestion mode for the specified world, for use during world pre-generation";
+    @LangKey("command.description.export-colors")
+    public static String EXPORT_COLORS_COMMAND_DESCRIPTION = "Exports the block color table of the specified world for the offline renderer";
+    @LangKey("command.description.listener-stats")
+    public static String LISTENER_STATS_COMMAND_DESCRIPTION = "Shows how many events each map update listener received, deduplicated, forwarded and ignored";
+    @LangKey("command.description.marker-stats")
+    public static String MARKER_STATS_COMMAND_DESCRIPTION = "Shows how long updating each marker layer of the specified world took";
     @LangKey("command.argument.optional-world")
     public static String OPTIONAL_WORLD_ARGUMENT_DESCRIPTION = "Defaults to the players current world if not provided";
     @LangKey("command.description.radius-render")
@@ -47,6 +47,9 @@ public class WorldConfig extends AbstractWorldConfig {
     public boolean MAP_ITERATE_UP = false;
     public int MAP_MAX_HEIGHT = -1;
     public int MAP_RENDER_PROGRESS_INTERVAL = 1;
+    public boolean MAP_READ_UNLOADED_CHUNKS = true;
+    public String MAP_CHUNK_LOADS_PRIORITY = "low";
+    public int MAP_CHUNK_LOADS_MAX_OUTSTANDING = 16;
 
     private void worldSettings() {
         this.MAP_ENABLED = getBoolean("map.enabled", this.MAP_ENABLED);
@@ -57,6 +60,9 @@ public class WorldConfig extends AbstractWorldConfig {
         this.MAP_ITERATE_UP = getBoolean("map.iterate-up", this.MAP_ITERATE_UP);
         this.MAP_MAX_HEIGHT = getInt("map.max-height", this.MAP_MAX_HEIGHT);
         this.MAP_RENDER_PROGRESS_INTERVAL = getInt("map.render-progress-interval", this.MAP_RENDER_PROGRESS_INTERVAL);
+        this.MAP_READ_UNLOADED_CHUNKS = getBoolean("map.read-unloaded-chunks-from-region-files", this.MAP_READ_UNLOADED_CHUNKS);
+        this.MAP_CHUNK_LOADS_PRIORITY = getString("map.chunk-loads.priority", this.MAP_CHUNK_LOADS_PRIORITY);
+        this.MAP_CHUNK_LOADS_MAX_OUTSTANDING = getInt("map.chunk-loads.max-outstanding", this.MAP_CHUNK_LOADS_MAX_OUTSTANDING);
     }
 
     public boolean MAP_BIOMES = true;
@@ -87,6 +93,14 @@ public class WorldConfig extends AbstractWorldConfig {
         this.MAP_WATER_CHECKERBOARD = getBoolean("map.water.checkerboard", this.MAP_WATER_CHECKERBOARD);
     }
 
+    public String MAP_TILE_STORAGE_TYPE = "directory";
+    public int MAP_TILE_STORAGE_MAINTENANCE_INTERVAL_MINUTES = 10;
+
+    private void tileStorageSettings() {
+        this.MAP_TILE_STORAGE_TYPE = getString("map.tile-storage.type", this.MAP_TILE_STORAGE_TYPE);
+        this.MAP_TILE_STORAGE_MAINTENANCE_INTERVAL_MINUTES = Math.max(1, getInt("map.tile-storage.maintenance-interval-minutes", this.MAP_TILE_STORAGE_MAINTENANCE_INTERVAL_MINUTES));
+    }
+
     public int ZOOM_MAX = 3;
     public int ZOOM_DEFAULT = 3;
     public int ZOOM_EXTRA = 2;
@@ -101,12 +115,34 @@ public class WorldConfig extends AbstractWorldConfig {
     public int BACKGROUND_RENDER_MAX_CHUNKS_PER_INTERVAL = 1024;
     public int BACKGROUND_RENDER_INTERVAL_SECONDS = 15;
     public int BACKGROUND_RENDER_MAX_THREADS = -1;
+    public int BACKGROUND_RENDER_REGION_PROMOTION_THRESHOLD = 256;
+    public int BACKGROUND_RENDER_MAX_REGIONS_PER_INTERVAL = 2;
+    public int BACKGROUND_RENDER_CHECKPOINT_INTERVAL_SECONDS = 30;
 
     private void backgroundRenderSettings() {
         this.BACKGROUND_RENDER_ENABLED = getBoolean("map.background-render.enabled", this.BACKGROUND_RENDER_ENABLED);
         this.BACKGROUND_RENDER_MAX_CHUNKS_PER_INTERVAL = getInt("map.background-render.max-chunks-per-interval", this.BACKGROUND_RENDER_MAX_CHUNKS_PER_INTERVAL);
         this.BACKGROUND_RENDER_INTERVAL_SECONDS = getInt("map.background-render.interval-seconds", this.BACKGROUND_RENDER_INTERVAL_SECONDS);
         this.BACKGROUND_RENDER_MAX_THREADS = getInt("map.background-render.max-render-threads", this.BACKGROUND_RENDER_MAX_THREADS);
+        this.BACKGROUND_RENDER_REGION_PROMOTION_THRESHOLD = getInt("map.background-render.region-promotion-threshold", this.BACKGROUND_RENDER_REGION_PROMOTION_THRESHOLD);
+        this.BACKGROUND_RENDER_MAX_REGIONS_PER_INTERVAL = getInt("map.background-render.max-regions-per-interval", this.BACKGROUND_RENDER_MAX_REGIONS_PER_INTERVAL);
+        this.BACKGROUND_RENDER_CHECKPOINT_INTERVAL_SECONDS = Math.max(1, getInt("map.background-render.checkpoint-interval-seconds", this.BACKGROUND_RENDER_CHECKPOINT_INTERVAL_SECONDS));
+    }
+
+    public boolean LAZY_RENDER_ENABLED = false;
+    public int LAZY_RENDER_MAX_REGIONS_PER_INTERVAL = 4;
+    public int LAZY_RENDER_RETRY_SECONDS = 300;
+
+    private void lazyRenderSettings() {
+        this.LAZY_RENDER_ENABLED = getBoolean("map.lazy-render.enabled", this.LAZY_RENDER_ENABLED);
+        this.LAZY_RENDER_MAX_REGIONS_PER_INTERVAL = getInt("map.lazy-render.max-regions-per-interval", this.LAZY_RENDER_MAX_REGIONS_PER_INTERVAL);
+        this.LAZY_RENDER_RETRY_SECONDS = getInt("map.lazy-render.retry-seconds", this.LAZY_RENDER_RETRY_SECONDS);
+    }
+
+    public boolean CHANGE_DETECTION_SURFACE_FINGERPRINTS = false;
+
+    private void changeDetectionSettings() {
+        this.CHANGE_DETECTION_SURFACE_FINGERPRINTS = getBoolean("map.change-detection.surface-fingerprints", this.CHANGE_DETECTION_SURFACE_FINGERPRINTS);
     }
 
     public boolean PLAYER_TRACKER_ENABLED = true;
@@ -140,9 +176,31 @@ public class WorldConfig extends AbstractWorldConfig {
     }
 
     public int MARKER_API_UPDATE_INTERVAL_SECONDS = 5;
+    public int MARKER_API_THREADS = 2;
+    public int MARKER_API_PROVIDER_TIMEOUT_MILLIS = 5000;
+    public boolean MARKER_CELLS_ENABLED = false;
+    public int MARKER_CELL_SIZE = 1024;
+    public boolean MARKER_CELLS_BINARY = true;
+    public int MARKER_LEVELS = 1;
+    public double MARKER_SIMPLIFY_TOLERANCE = 1.0;
+    public boolean MARKER_MERGE_RECTANGLES = false;
+    public boolean MARKER_CLUSTER_ENABLED = true;
+    public int MARKER_CLUSTER_FROM_LEVEL = 2;
+    public int MARKER_CLUSTER_GRID_SIZE_PIXELS = 48;
 
     private void markerSettings() {
         this.MARKER_API_UPDATE_INTERVAL_SECONDS = getInt("map.markers.update-interval-seconds", this.MARKER_API_UPDATE_INTERVAL_SECONDS);
+        this.MARKER_API_THREADS = getInt("map.markers.threads", this.MARKER_API_THREADS);
+        this.MARKER_API_PROVIDER_TIMEOUT_MILLIS = getInt("map.markers.provider-timeout-millis", this.MARKER_API_PROVIDER_TIMEOUT_MILLIS);
+        this.MARKER_CELLS_ENABLED = getBoolean("map.markers.cells.enabled", this.MARKER_CELLS_ENABLED);
+        this.MARKER_CELL_SIZE = getInt("map.markers.cells.size", this.MARKER_CELL_SIZE);
+        this.MARKER_CELLS_BINARY = getBoolean("map.markers.cells.binary", this.MARKER_CELLS_BINARY);
+        this.MARKER_LEVELS = getInt("map.markers.geometry.levels-of-detail", this.MARKER_LEVELS);
+        this.MARKER_SIMPLIFY_TOLERANCE = getDouble("map.markers.geometry.simplify-tolerance-pixels", this.MARKER_SIMPLIFY_TOLERANCE);
+        this.MARKER_MERGE_RECTANGLES = getBoolean("map.markers.geometry.merge-rectangles", this.MARKER_MERGE_RECTANGLES);
+        this.MARKER_CLUSTER_ENABLED = getBoolean("map.markers.icon-clusters.enabled", this.MARKER_CLUSTER_ENABLED);
+        this.MARKER_CLUSTER_FROM_LEVEL = getInt("map.markers.icon-clusters.from-level-of-detail", this.MARKER_CLUSTER_FROM_LEVEL);
+        this.MARKER_CLUSTER_GRID_SIZE_PIXELS = getInt("map.markers.icon-clusters.grid-size-pixels", this.MARKER_CLUSTER_GRID_SIZE_PIXELS);
     }
 
     public boolean SPAWN_MARKER_ICON_ENABLED = true;
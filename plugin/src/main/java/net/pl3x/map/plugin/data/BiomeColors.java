@@ -10,7 +10,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 import javax.imageio.ImageIO;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Registry;
@@ -33,6 +36,7 @@ import xyz.jpenilla.reflectionremapper.ReflectionRemapper;
 import xyz.jpenilla.reflectionremapper.proxy.ReflectionProxyFactory;
 import xyz.jpenilla.reflectionremapper.proxy.annotation.FieldGetter;
 import xyz.jpenilla.reflectionremapper.proxy.annotation.Proxies;
+import xyz.jpenilla.squaremap.plugin.util.ChunkLoadLimiter;
 import xyz.jpenilla.squaremap.plugin.util.ChunkSnapshot;
 
 @DefaultQualifier(NonNull.class)
@@ -98,8 +102,16 @@ public final class BiomeColors {
     private final BlockPos.MutableBlockPos sharedBlockPos = new BlockPos.MutableBlockPos();
 
     public BiomeColors(final MapWorld world) {
+        this(world, UnaryOperator.identity());
+    }
+
+    /**
+     * @param world      world
+     * @param chunkLoads called with the future of every chunk load, i.e. to cancel them with a render
+     */
+    public BiomeColors(final MapWorld world, final UnaryOperator<CompletableFuture<@Nullable ChunkSnapshot>> chunkLoads) {
         this.world = world;
-        this.chunkSnapshotCache = ChunkSnapshotCache.sized(this.world.serverLevel(), CHUNK_SNAPSHOT_CACHE_SIZE);
+        this.chunkSnapshotCache = ChunkSnapshotCache.sized(this.world.chunkLoadLimiter(), this.world.config().MAP_READ_UNLOADED_CHUNKS, CHUNK_SNAPSHOT_CACHE_SIZE, chunkLoads);
 
         final Registry<Biome> biomeRegistry = biomeRegistry(world.serverLevel());
         for (final Biome biome : biomeRegistry) {
@@ -120,20 +132,40 @@ public final class BiomeColors {
     public int modifyColorFromBiome(int color, final ChunkSnapshot chunk, final BlockPos pos) {
         this.chunkSnapshotCache.put(chunk.pos().toLong(), chunk);
 
-        final BlockState data = chunk.getBlockState(pos);
-        final Material mat = data.getMaterial();
-        final Block block = data.getBlock();
+        switch (tint(chunk.getBlockState(pos))) {
+            case GRASS -> color = this.grass(pos);
+            case FOLIAGE -> color = this.foliage(pos);
+            case WATER -> {
+                int modColor = this.water(pos);
+                color = Colors.mix(color, modColor, 0.8F);
+            }
+        }
+
+        return color;
+    }
 
+    public static Tint tint(final BlockState state) {
+        final Block block = state.getBlock();
         if (grassColorBlocks.contains(block)) {
-            color = this.grass(pos);
+            return Tint.GRASS;
         } else if (foliageColorBlocks.contains(block)) {
-            color = this.foliage(pos);
-        } else if (waterColorBlocks.contains(block) || waterColorMaterials.contains(mat)) {
-            int modColor = this.water(pos);
-            color = Colors.mix(color, modColor, 0.8F);
+            return Tint.FOLIAGE;
+        } else if (waterColorBlocks.contains(block) || waterColorMaterials.contains(state.getMaterial())) {
+            return Tint.WATER;
         }
+        return Tint.NONE;
+    }
 
-        return color;
+    public int grassColor(final Biome biome) {
+        return this.grassColors.getInt(biome);
+    }
+
+    public int foliageColor(final Biome biome) {
+        return this.foliageColors.getInt(biome);
+    }
+
+    public int waterColor(final Biome biome) {
+        return this.waterColors.getInt(biome);
     }
 
     private static int[] init(final BufferedImage image) {
@@ -254,6 +286,13 @@ public final class BiomeColors {
     }
 
     // Utils for reflecting into BiomeFog/BiomeEffects
+    public enum Tint {
+        NONE,
+        GRASS,
+        FOLIAGE,
+        WATER
+    }
+
     private static final class BiomeSpecialEffectsHelper {
         private BiomeSpecialEffectsHelper() {
         }
@@ -300,9 +339,11 @@ public final class BiomeColors {
     }
 
     private record ChunkSnapshotCache(
-        ServerLevel level,
+        ChunkLoadLimiter loader,
+        boolean readUnloaded,
         int size,
-        Long2ObjectLinkedOpenHashMap<ChunkSnapshot> cache
+        Long2ObjectLinkedOpenHashMap<ChunkSnapshot> cache,
+        UnaryOperator<CompletableFuture<@Nullable ChunkSnapshot>> chunkLoads
     ) {
         public void put(long pos, ChunkSnapshot snapshot) {
             if (this.cache.size() >= this.size()) {
@@ -317,9 +358,12 @@ public final class BiomeColors {
                 return cached;
             }
 
-            @Nullable final ChunkSnapshot chunk = ChunkSnapshot.asyncSnapshot(this.level(), chunkPos.x, chunkPos.z)
-                // todo respect cancellation
-                .join();
+            final @Nullable ChunkSnapshot chunk;
+            try {
+                chunk = this.chunkLoads.apply(ChunkSnapshot.asyncSnapshot(this.loader(), chunkPos.x, chunkPos.z, this.readUnloaded())).join();
+            } catch (final CancellationException ex) {
+                return null; // the render was cancelled
+            }
             if (chunk == null) {
                 return null;
             }
@@ -333,9 +377,9 @@ public final class BiomeColors {
             return chunk;
         }
 
-        public static ChunkSnapshotCache sized(final ServerLevel level, final int size) {
+        public static ChunkSnapshotCache sized(final ChunkLoadLimiter loader, final boolean readUnloaded, final int size, final UnaryOperator<CompletableFuture<@Nullable ChunkSnapshot>> chunkLoads) {
             final Long2ObjectLinkedOpenHashMap<ChunkSnapshot> map = new Long2ObjectLinkedOpenHashMap<>(size);
-            return new ChunkSnapshotCache(level, size, map);
+            return new ChunkSnapshotCache(loader, readUnloaded, size, map, chunkLoads);
         }
     }
 }
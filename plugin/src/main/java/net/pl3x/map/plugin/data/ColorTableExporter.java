@@ -0,0 +1,165 @@
+package net.pl3x.map.plugin.data;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.Registry;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.StainedGlassBlock;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.state.properties.Property;
+import net.minecraft.world.level.material.Fluids;
+import net.pl3x.map.plugin.configuration.WorldAdvanced;
+import net.pl3x.map.plugin.configuration.WorldConfig;
+import net.pl3x.map.plugin.util.Colors;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Exports everything the offline renderer in {@code squaremap-cli} needs to know about a world to
+ * render it the way the plugin would: the map color and render flags of every block state, the
+ * biome colors, and the world's height limits and render settings.
+ *
+ * <p>Block states are keyed by block id followed by their properties sorted by name,
+ * i.e. {@code minecraft:wheat[age=7]}, matching the block state palettes in chunk data.
+ * Keep the flags in sync with {@code xyz.jpenilla.squaremap.cli.render.ColorTable}.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class ColorTableExporter {
+    public static final int FORMAT = 1;
+
+    public static final int FLAG_AIR = 1;
+    public static final int FLAG_INVISIBLE = 1 << 1;
+    public static final int FLAG_ITERATE_UP_BASE = 1 << 2;
+    public static final int FLAG_GLASS = 1 << 3;
+    public static final int FLAG_CLEAR_GLASS = 1 << 4;
+    public static final int FLAG_FLUID = 1 << 5;
+    public static final int FLAG_WATER = 1 << 6;
+    public static final int FLAG_LAVA = 1 << 7;
+    public static final int FLAG_TINT_GRASS = 1 << 8;
+    public static final int FLAG_TINT_FOLIAGE = 1 << 9;
+    public static final int FLAG_TINT_WATER = 1 << 10;
+
+    private ColorTableExporter() {
+    }
+
+    public static void export(final MapWorld world, final Path file) throws IOException {
+        final ServerLevel level = world.serverLevel();
+        final WorldConfig config = world.config();
+        final WorldAdvanced advanced = world.advanced();
+        final BiomeColors biomeColors = new BiomeColors(world);
+
+        Files.createDirectories(file.getParent());
+        FileUtil.atomicWrite(file, tmp -> {
+            try (final Writer writer = Files.newBufferedWriter(tmp);
+                 final JsonWriter json = new JsonWriter(writer)) {
+                json.beginObject();
+                json.name("format").value(FORMAT);
+                json.name("data_version").value(SharedConstants.getCurrentVersion().getWorldVersion());
+                json.name("world").value(world.name());
+
+                json.name("min_y").value(level.getMinBuildHeight());
+                json.name("height").value(level.getHeight());
+                json.name("logical_height").value(level.dimensionType().logicalHeight());
+                json.name("has_ceiling").value(level.dimensionType().hasCeiling());
+                json.name("clear_color").value(Colors.clearMapColor());
+
+                json.name("render").beginObject();
+                json.name("max_height").value(config.MAP_MAX_HEIGHT);
+                json.name("iterate_up").value(config.MAP_ITERATE_UP);
+                json.name("biomes").value(config.MAP_BIOMES);
+                json.name("glass_clear").value(config.MAP_GLASS_CLEAR);
+                json.name("water_clear").value(config.MAP_WATER_CLEAR);
+                json.name("water_checkerboard").value(config.MAP_WATER_CHECKERBOARD);
+                json.name("lava_checkerboard").value(config.MAP_LAVA_CHECKERBOARD);
+                json.name("zoom_max").value(config.ZOOM_MAX);
+                json.endObject();
+
+                // [color, flags]
+                json.name("states").beginObject();
+                for (final BlockState state : Block.BLOCK_STATE_REGISTRY) {
+                    json.name(stateKey(state)).beginArray()
+                        .value(world.getMapColor(state))
+                        .value(flags(state, advanced))
+                        .endArray();
+                }
+                json.endObject();
+
+                // [grass, foliage, water]
+                json.name("biomes").beginObject();
+                final Registry<Biome> biomeRegistry = BiomeColors.biomeRegistry(level);
+                for (final Biome biome : biomeRegistry) {
+                    json.name(String.valueOf(biomeRegistry.getKey(biome))).beginArray()
+                        .value(biomeColors.grassColor(biome))
+                        .value(biomeColors.foliageColor(biome))
+                        .value(biomeColors.waterColor(biome))
+                        .endArray();
+                }
+                json.endObject();
+
+                json.endObject();
+            }
+        });
+    }
+
+    private static int flags(final BlockState state, final WorldAdvanced advanced) {
+        final Block block = state.getBlock();
+        int flags = 0;
+        if (state.isAir()) {
+            flags |= FLAG_AIR;
+        }
+        if (advanced.invisibleBlocks.contains(block)) {
+            flags |= FLAG_INVISIBLE;
+        }
+        if (advanced.iterateUpBaseBlocks.contains(block)) {
+            flags |= FLAG_ITERATE_UP_BASE;
+        }
+        if (block == Blocks.GLASS) {
+            flags |= FLAG_GLASS | FLAG_CLEAR_GLASS;
+        } else if (block instanceof StainedGlassBlock) {
+            flags |= FLAG_GLASS;
+        }
+        if (!state.getFluidState().isEmpty()) {
+            flags |= FLAG_FLUID;
+            if (state.getFluidState().getType() == Fluids.WATER || state.getFluidState().getType() == Fluids.FLOWING_WATER) {
+                flags |= FLAG_WATER;
+            } else if (state.getFluidState().getType() == Fluids.LAVA || state.getFluidState().getType() == Fluids.FLOWING_LAVA) {
+                flags |= FLAG_LAVA;
+            }
+        }
+        flags |= switch (BiomeColors.tint(state)) {
+            case GRASS -> FLAG_TINT_GRASS;
+            case FOLIAGE -> FLAG_TINT_FOLIAGE;
+            case WATER -> FLAG_TINT_WATER;
+            case NONE -> 0;
+        };
+        return flags;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static String stateKey(final BlockState state) {
+        final StringBuilder key = new StringBuilder(Registry.BLOCK.getKey(state.getBlock()).toString());
+        if (!state.getValues().isEmpty()) {
+            key.append('[');
+            state.getValues().entrySet().stream()
+                .sorted(Comparator.comparing(entry -> entry.getKey().getName()))
+                .forEach(entry -> {
+                    if (key.charAt(key.length() - 1) != '[') {
+                        key.append(',');
+                    }
+                    final Property property = entry.getKey();
+                    key.append(property.getName()).append('=').append(property.getName((Comparable) entry.getValue()));
+                });
+            key.append(']');
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package net.pl3x.map.plugin.data;
+
+import java.util.Arrays;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * 256 bit mask of the block columns within a chunk which need to be re-scanned.
+ *
+ * <p>Bit {@code z << 4 | x} represents the column at chunk-local coordinates (x, z), meaning
+ * each {@code long} holds four rows of 16 columns running west to east.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class ColumnMask {
+    private final long[] bits = new long[4];
+
+    public static ColumnMask full() {
+        final ColumnMask mask = new ColumnMask();
+        mask.setAll();
+        return mask;
+    }
+
+    public static ColumnMask of(final int blockX, final int blockZ) {
+        final ColumnMask mask = new ColumnMask();
+        mask.set(blockX, blockZ);
+        return mask;
+    }
+
+    /**
+     * Mark a column as dirty. Only the lowest 4 bits of each coordinate are used,
+     * so block coordinates can be passed directly.
+     *
+     * @param x x coordinate
+     * @param z z coordinate
+     */
+    public void set(final int x, final int z) {
+        final int index = (z & 15) << 4 | (x & 15);
+        this.bits[index >> 6] |= 1L << (index & 63);
+    }
+
+    public boolean get(final int x, final int z) {
+        final int index = (z & 15) << 4 | (x & 15);
+        return (this.bits[index >> 6] & 1L << (index & 63)) != 0;
+    }
+
+    public void setAll() {
+        Arrays.fill(this.bits, -1L);
+    }
+
+    public void or(final ColumnMask other) {
+        for (int i = 0; i < this.bits.length; i++) {
+            this.bits[i] |= other.bits[i];
+        }
+    }
+
+    public boolean isFull() {
+        for (final long l : this.bits) {
+            if (l != -1L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        for (final long l : this.bits) {
+            if (l != 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the northernmost dirty z for the given x, or {@code -1} if no column with that x is dirty.
+     *
+     * @param x chunk-local x coordinate
+     * @return min z or -1
+     */
+    public int minZ(final int x) {
+        for (int z = 0; z < 16; z++) {
+            if (this.get(x, z)) {
+                return z;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the southernmost dirty z for the given x, or {@code -1} if no column with that x is dirty.
+     *
+     * @param x chunk-local x coordinate
+     * @return max z or -1
+     */
+    public int maxZ(final int x) {
+        for (int z = 15; z >= 0; z--) {
+            if (this.get(x, z)) {
+                return z;
+            }
+        }
+        return -1;
+    }
+
+    public static ColumnMask fromLongArray(final long[] bits) {
+        final ColumnMask mask = new ColumnMask();
+        System.arraycopy(bits, 0, mask.bits, 0, mask.bits.length);
+        return mask;
+    }
+
+    public long[] toLongArray() {
+        return this.bits.clone();
+    }
+
+    public ColumnMask copy() {
+        final ColumnMask copy = new ColumnMask();
+        System.arraycopy(this.bits, 0, copy.bits, 0, this.bits.length);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnMask[" + Long.toHexString(this.bits[3]) + ":" + Long.toHexString(this.bits[2])
+            + ":" + Long.toHexString(this.bits[1]) + ":" + Long.toHexString(this.bits[0]) + "]";
+    }
+}
@@ -0,0 +1,183 @@
+package net.pl3x.map.plugin.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Binary checkpoint of a {@link DirtyChunkTracker}.
+ *
+ * <p>Layout: magic, version, then the dirty chunks and promoted regions, each as a varint count
+ * followed by their coordinates packed into longs, sorted, and written as zigzag varint deltas.
+ * Every chunk is followed by its column mask, a single {@code 0} byte for a full mask or a
+ * {@code 1} byte and the 4 mask longs otherwise. The file ends with a CRC32 of everything before it.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class DirtyChunkCheckpoint {
+    private static final int MAGIC = 0x53514443; // SQDC
+    private static final int VERSION = 1;
+
+    private DirtyChunkCheckpoint() {
+    }
+
+    public static void write(final Path file, final DirtyChunkTracker.Snapshot snapshot) throws IOException {
+        FileUtil.atomicWrite(file, tmp -> {
+            try (final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                write(Channels.newOutputStream(channel), snapshot);
+                // make sure the contents are on disk before the file is moved over the previous checkpoint
+                channel.force(true);
+            }
+        });
+    }
+
+    static void write(final OutputStream stream, final DirtyChunkTracker.Snapshot snapshot) throws IOException {
+        final long[] chunks = snapshot.chunks();
+        final ColumnMask[] masks = snapshot.masks();
+        it.unimi.dsi.fastutil.Arrays.quickSort(0, chunks.length, (a, b) -> Long.compare(chunks[a], chunks[b]), (a, b) -> {
+            final long chunk = chunks[a];
+            chunks[a] = chunks[b];
+            chunks[b] = chunk;
+            final ColumnMask mask = masks[a];
+            masks[a] = masks[b];
+            masks[b] = mask;
+        });
+        final long[] regions = snapshot.regions();
+        Arrays.sort(regions);
+
+        final CRC32 crc = new CRC32();
+        final BufferedOutputStream buffered = new BufferedOutputStream(stream);
+        final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+
+        writeVarLong(out, chunks.length);
+        long last = 0L;
+        for (int i = 0; i < chunks.length; i++) {
+            writeVarLong(out, zigzag(chunks[i] - last));
+            last = chunks[i];
+            final ColumnMask mask = masks[i];
+            if (mask.isFull()) {
+                out.writeByte(0);
+            } else {
+                out.writeByte(1);
+                for (final long bits : mask.toLongArray()) {
+                    out.writeLong(bits);
+                }
+            }
+        }
+
+        writeVarLong(out, regions.length);
+        last = 0L;
+        for (final long region : regions) {
+            writeVarLong(out, zigzag(region - last));
+            last = region;
+        }
+
+        out.flush();
+        // the checksum itself is written past the checked stream
+        final DataOutputStream checksum = new DataOutputStream(buffered);
+        checksum.writeLong(crc.getValue());
+        checksum.flush();
+    }
+
+    /**
+     * Read a checkpoint, marking its contents in the given tracker.
+     *
+     * @param file    checkpoint file
+     * @param tracker tracker to restore into
+     * @throws IOException when the file could not be read, or is corrupt
+     */
+    public static void read(final Path file, final DirtyChunkTracker tracker) throws IOException {
+        read(Files.readAllBytes(file), tracker);
+    }
+
+    static void read(final byte[] bytes, final DirtyChunkTracker tracker) throws IOException {
+        if (bytes.length < Long.BYTES) {
+            throw new IOException("Truncated dirty chunk checkpoint");
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        final long expected = ByteBuffer.wrap(bytes, bytes.length - Long.BYTES, Long.BYTES).getLong();
+        if (crc.getValue() != expected) {
+            throw new IOException("Dirty chunk checkpoint checksum mismatch");
+        }
+
+        try (final InputStream stream = new ByteArrayInputStream(bytes, 0, bytes.length - Long.BYTES);
+             final DataInputStream in = new DataInputStream(stream)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a dirty chunk checkpoint");
+            }
+            final int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported dirty chunk checkpoint version " + version);
+            }
+
+            final long chunkCount = readVarLong(in);
+            long last = 0L;
+            for (long i = 0; i < chunkCount; i++) {
+                last += unzigzag(readVarLong(in));
+                final ChunkCoordinate coord = new ChunkCoordinate((int) (last >> 32), (int) last);
+                if (in.readUnsignedByte() == 0) {
+                    tracker.restore(coord, ColumnMask.full());
+                } else {
+                    tracker.restore(coord, ColumnMask.fromLongArray(new long[]{in.readLong(), in.readLong(), in.readLong(), in.readLong()}));
+                }
+            }
+
+            final long regionCount = readVarLong(in);
+            last = 0L;
+            for (long i = 0; i < regionCount; i++) {
+                last += unzigzag(readVarLong(in));
+                tracker.markRegion(new RegionCoordinate((int) (last >> 32), (int) last));
+            }
+        }
+    }
+
+    public static long pack(final int x, final int z) {
+        return (long) x << 32 | (z & 0xFFFFFFFFL);
+    }
+
+    private static long zigzag(final long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private static long unzigzag(final long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    private static void writeVarLong(final DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(final DataInputStream in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
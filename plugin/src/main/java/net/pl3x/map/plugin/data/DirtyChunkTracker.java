@@ -0,0 +1,313 @@
+package net.pl3x.map.plugin.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.pl3x.map.plugin.util.Numbers;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Tracks the chunks of a world which need to be re-rendered.
+ *
+ * <p>Chunks are tracked individually with a {@link ColumnMask} until the number of dirty chunks in
+ * a region reaches the promotion threshold, at which point the whole region is promoted to a single
+ * region job and its chunk entries are dropped. Rendering a region column by column only needs one
+ * snapshot per chunk, where rendering chunks one at a time needs three.</p>
+ *
+ * <p>While in bulk ingestion mode (i.e. during world pre-generation) every dirty chunk promotes its
+ * region immediately, and promoted regions are only handed out once they stop receiving updates.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class DirtyChunkTracker {
+    private final Map<ChunkCoordinate, ColumnMask> chunks = new LinkedHashMap<>();
+    private final Map<RegionCoordinate, Integer> dirtyChunksPerRegion = new HashMap<>();
+    // promoted region -> time it was last marked
+    private final Map<RegionCoordinate, Long> promotedRegions = new LinkedHashMap<>();
+    // chunks and promoted regions handed out to a render which has not completed yet, still checkpointed
+    private final Map<ChunkCoordinate, ColumnMask> inFlightChunks = new HashMap<>();
+    private final Set<RegionCoordinate> inFlightRegions = new HashSet<>();
+    // regions whose tiles were requested from the web map but are missing, not checkpointed
+    private final Set<RegionCoordinate> requestedRegions = new LinkedHashSet<>();
+    private final int promotionThreshold;
+    private volatile boolean bulkIngestion = false;
+    private volatile int generation = 1;
+    private long modifications = 0L;
+
+    /**
+     * @param promotionThreshold dirty chunk count at which a region is promoted, or {@code -1} to never promote
+     */
+    public DirtyChunkTracker(final int promotionThreshold) {
+        this.promotionThreshold = promotionThreshold;
+    }
+
+    public boolean bulkIngestion() {
+        return this.bulkIngestion;
+    }
+
+    public void bulkIngestion(final boolean bulkIngestion) {
+        this.bulkIngestion = bulkIngestion;
+    }
+
+    /**
+     * Get the current generation, which is advanced every time dirty chunks or regions are polled.
+     *
+     * @return generation
+     */
+    public int generation() {
+        return this.generation;
+    }
+
+    public synchronized void markChunk(final ChunkCoordinate coord) {
+        this.mark(coord, true, 0, 0);
+    }
+
+    public synchronized void markColumn(final int blockX, final int blockZ) {
+        this.mark(new ChunkCoordinate(Numbers.blockToChunk(blockX), Numbers.blockToChunk(blockZ)), false, blockX, blockZ);
+    }
+
+    public synchronized void markRegion(final RegionCoordinate region) {
+        this.promote(region);
+    }
+
+    /**
+     * Queue a region to be rendered ahead of the other dirty regions, because its tile was requested but
+     * doesn't exist.
+     *
+     * @param region region
+     */
+    public synchronized void request(final RegionCoordinate region) {
+        this.requestedRegions.add(region);
+    }
+
+    private void mark(final ChunkCoordinate coord, final boolean wholeChunk, final int blockX, final int blockZ) {
+        this.modifications++;
+        final RegionCoordinate region = coord.regionCoordinate();
+        if (this.promotedRegions.containsKey(region)) {
+            this.promotedRegions.put(region, System.currentTimeMillis());
+            return;
+        }
+        if (this.bulkIngestion) {
+            this.promote(region);
+            return;
+        }
+
+        final @Nullable ColumnMask mask = this.chunks.get(coord);
+        if (mask != null) {
+            if (wholeChunk) {
+                mask.setAll();
+            } else {
+                mask.set(blockX, blockZ);
+            }
+            return;
+        }
+        this.track(coord, region, wholeChunk ? ColumnMask.full() : ColumnMask.of(blockX, blockZ));
+    }
+
+    /**
+     * Restore a dirty chunk from a checkpoint.
+     *
+     * @param coord chunk
+     * @param mask  dirty columns
+     */
+    public synchronized void restore(final ChunkCoordinate coord, final ColumnMask mask) {
+        this.modifications++;
+        final RegionCoordinate region = coord.regionCoordinate();
+        if (this.promotedRegions.containsKey(region)) {
+            return;
+        }
+        final @Nullable ColumnMask existing = this.chunks.get(coord);
+        if (existing != null) {
+            existing.or(mask);
+            return;
+        }
+        this.track(coord, region, mask);
+    }
+
+    private void track(final ChunkCoordinate coord, final RegionCoordinate region, final ColumnMask mask) {
+        this.chunks.put(coord, mask);
+        final int dirty = this.dirtyChunksPerRegion.merge(region, 1, Integer::sum);
+        if (this.promotionThreshold != -1 && dirty >= this.promotionThreshold) {
+            this.promote(region);
+        }
+    }
+
+    private void promote(final RegionCoordinate region) {
+        this.modifications++;
+        this.promotedRegions.put(region, System.currentTimeMillis());
+        this.dropChunks(region);
+    }
+
+    private void dropChunks(final RegionCoordinate region) {
+        if (this.dirtyChunksPerRegion.remove(region) == null) {
+            return;
+        }
+        final int startX = region.getChunkX();
+        final int startZ = region.getChunkZ();
+        for (int x = startX; x < startX + 32; x++) {
+            for (int z = startZ; z < startZ + 32; z++) {
+                this.chunks.remove(new ChunkCoordinate(x, z));
+            }
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.chunks.isEmpty() && this.promotedRegions.isEmpty() && this.requestedRegions.isEmpty();
+    }
+
+    public synchronized int dirtyChunks() {
+        return this.chunks.size();
+    }
+
+    public synchronized int promotedRegions() {
+        return this.promotedRegions.size();
+    }
+
+    /**
+     * Remove and return up to {@code max} dirty chunks. The chunks are still included in snapshots
+     * until {@link #chunksRendered(Collection)} is called for them.
+     *
+     * @param max max chunks
+     * @return dirty chunks and their column masks
+     */
+    public synchronized Map<ChunkCoordinate, ColumnMask> pollChunks(final int max) {
+        this.generation++;
+        final Map<ChunkCoordinate, ColumnMask> polled = new HashMap<>();
+        final Iterator<Map.Entry<ChunkCoordinate, ColumnMask>> it = this.chunks.entrySet().iterator();
+        while (it.hasNext() && polled.size() < max) {
+            final Map.Entry<ChunkCoordinate, ColumnMask> entry = it.next();
+            it.remove();
+            polled.put(entry.getKey(), entry.getValue());
+            this.inFlightChunks.merge(entry.getKey(), entry.getValue().copy(), (existing, mask) -> {
+                existing.or(mask);
+                return existing;
+            });
+            final RegionCoordinate region = entry.getKey().regionCoordinate();
+            this.dirtyChunksPerRegion.computeIfPresent(region, (key, count) -> count == 1 ? null : count - 1);
+        }
+        if (!polled.isEmpty()) {
+            this.modifications++;
+        }
+        return polled;
+    }
+
+    /**
+     * Remove and return up to {@code max} requested regions, along with any dirty chunks and promotion of
+     * them, as rendering the whole region covers those.
+     *
+     * @param max max regions
+     * @return requested regions
+     */
+    public synchronized List<RegionCoordinate> pollRequestedRegions(final int max) {
+        this.generation++;
+        final List<RegionCoordinate> polled = new ArrayList<>();
+        final Iterator<RegionCoordinate> it = this.requestedRegions.iterator();
+        while (it.hasNext() && polled.size() < max) {
+            final RegionCoordinate region = it.next();
+            it.remove();
+            polled.add(region);
+            final boolean promoted = this.promotedRegions.remove(region) != null;
+            if (promoted || this.dirtyChunksPerRegion.containsKey(region)) {
+                this.dropChunks(region);
+                this.modifications++;
+            }
+        }
+        return polled;
+    }
+
+    /**
+     * Remove and return up to {@code max} promoted regions. While in bulk ingestion mode, only
+     * regions which have not been marked for at least {@code settleMillis} are returned, so regions
+     * which are still being generated are not rendered over and over. The regions are still included in
+     * snapshots until {@link #regionsRendered(Collection)} is called for them.
+     *
+     * @param max          max regions
+     * @param settleMillis time a region must go unmarked while in bulk ingestion mode
+     * @return promoted regions
+     */
+    public synchronized List<RegionCoordinate> pollRegions(final int max, final long settleMillis) {
+        this.generation++;
+        final List<RegionCoordinate> polled = new ArrayList<>();
+        final long settledBefore = System.currentTimeMillis() - settleMillis;
+        final Iterator<Map.Entry<RegionCoordinate, Long>> it = this.promotedRegions.entrySet().iterator();
+        while (it.hasNext() && polled.size() < max) {
+            final Map.Entry<RegionCoordinate, Long> entry = it.next();
+            if (this.bulkIngestion && entry.getValue() > settledBefore) {
+                continue;
+            }
+            it.remove();
+            polled.add(entry.getKey());
+            this.inFlightRegions.add(entry.getKey());
+        }
+        if (!polled.isEmpty()) {
+            this.modifications++;
+        }
+        return polled;
+    }
+
+    /**
+     * Mark polled chunks as rendered, so they are no longer checkpointed.
+     *
+     * @param rendered rendered chunks
+     */
+    public synchronized void chunksRendered(final Collection<ChunkCoordinate> rendered) {
+        if (this.inFlightChunks.keySet().removeAll(rendered)) {
+            this.modifications++;
+        }
+    }
+
+    /**
+     * Mark polled regions as rendered, so they are no longer checkpointed.
+     *
+     * @param rendered rendered regions
+     */
+    public synchronized void regionsRendered(final Collection<RegionCoordinate> rendered) {
+        if (this.inFlightRegions.removeAll(rendered)) {
+            this.modifications++;
+        }
+    }
+
+    public synchronized long modifications() {
+        return this.modifications;
+    }
+
+    /**
+     * Take a snapshot of the tracked chunks and regions, including those which are being rendered, for checkpointing.
+     *
+     * @return snapshot
+     */
+    public synchronized Snapshot snapshot() {
+        final Map<ChunkCoordinate, ColumnMask> allChunks = new HashMap<>(this.inFlightChunks.size() + this.chunks.size());
+        this.inFlightChunks.forEach((coord, mask) -> allChunks.put(coord, mask.copy()));
+        this.chunks.forEach((coord, mask) -> allChunks.merge(coord, mask.copy(), (existing, copy) -> {
+            existing.or(copy);
+            return existing;
+        }));
+        final long[] chunkKeys = new long[allChunks.size()];
+        final ColumnMask[] masks = new ColumnMask[chunkKeys.length];
+        int i = 0;
+        for (final Map.Entry<ChunkCoordinate, ColumnMask> entry : allChunks.entrySet()) {
+            chunkKeys[i] = DirtyChunkCheckpoint.pack(entry.getKey().x(), entry.getKey().z());
+            masks[i++] = entry.getValue();
+        }
+        final Set<RegionCoordinate> allRegions = new HashSet<>(this.inFlightRegions);
+        allRegions.addAll(this.promotedRegions.keySet());
+        final long[] regionKeys = new long[allRegions.size()];
+        i = 0;
+        for (final RegionCoordinate region : allRegions) {
+            regionKeys[i++] = DirtyChunkCheckpoint.pack(region.x(), region.z());
+        }
+        return new Snapshot(this.modifications, chunkKeys, masks, regionKeys);
+    }
+
+    public record Snapshot(long modifications, long[] chunks, ColumnMask[] masks, long[] regions) {
+    }
+}
@@ -1,111 +1,154 @@
 package net.pl3x.map.plugin.data;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Arrays;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import net.minecraft.util.Mth;
 import net.pl3x.map.plugin.Logging;
-import net.pl3x.map.plugin.configuration.Config;
 import net.pl3x.map.plugin.configuration.Lang;
+import net.pl3x.map.plugin.data.storage.TileStorage;
 
 public final class Image {
     private static final int TRANSPARENT = new Color(0, 0, 0, 0).getRGB();
+    private static final int UNSET = Integer.MIN_VALUE;
+    private static final AtomicLong CREATED = new AtomicLong();
     public static final int SIZE = 512;
     private final int[][] pixels = new int[SIZE][SIZE];
     private final int maxZoom;
     private final RegionCoordinate region;
-    private final Path directory;
+    private final TileStorage storage;
+    // orders images of the same region, a later image was rendered later
+    private final long created = CREATED.getAndIncrement();
 
-    public Image(final RegionCoordinate region, final Path directory, final int maxZoom) {
+    public Image(final RegionCoordinate region, final TileStorage storage, final int maxZoom) {
         this.region = region;
-        this.directory = directory;
+        this.storage = storage;
         this.maxZoom = maxZoom;
         for (int[] arr : this.pixels) {
-            Arrays.fill(arr, Integer.MIN_VALUE);
+            Arrays.fill(arr, UNSET);
         }
     }
 
+    /**
+     * Merge images of the same region into a new image. Pixels set in later images win.
+     *
+     * @param images images of one region
+     * @return merged image
+     */
+    static Image merge(final List<Image> images) {
+        final List<Image> sorted = images.stream().sorted(Comparator.comparingLong(image -> image.created)).toList();
+        final Image first = sorted.get(0);
+        final Image merged = new Image(first.region, first.storage, first.maxZoom);
+        for (final Image image : sorted) {
+            synchronized (image) {
+                for (int x = 0; x < SIZE; x++) {
+                    for (int z = 0; z < SIZE; z++) {
+                        final int pixel = image.pixels[x][z];
+                        if (pixel != UNSET) {
+                            merged.pixels[x][z] = pixel;
+                        }
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
     public synchronized void setPixel(final int x, final int z, final int color) {
         this.pixels[x & (SIZE - 1)][z & (SIZE - 1)] = color;
     }
 
-    public void save() {
-        for (int zoom = 0; zoom <= this.maxZoom; zoom++) {
-            final Path dir = Path.of(this.directory.toString(), Integer.toString(this.maxZoom - zoom));
-            try {
-                Files.createDirectories(dir);
-            } catch (final IOException e) {
-                Logging.severe(Lang.LOG_COULD_NOT_CREATE_DIR.replace("<path>", dir.toAbsolutePath().toString()), e);
-                continue;
+    public RegionCoordinate region() {
+        return this.region;
+    }
+
+    /**
+     * Write the raw pixel buffer, including unset pixels.
+     *
+     * @param out output
+     * @throws IOException when writing fails
+     */
+    public synchronized void writePixels(final DataOutput out) throws IOException {
+        for (final int[] column : this.pixels) {
+            for (final int pixel : column) {
+                out.writeInt(pixel);
             }
+        }
+    }
 
+    /**
+     * Read a raw pixel buffer written by {@link #writePixels(DataOutput)}.
+     *
+     * @param in input
+     * @throws IOException when reading fails
+     */
+    public synchronized void readPixels(final DataInput in) throws IOException {
+        for (final int[] column : this.pixels) {
+            for (int i = 0; i < column.length; i++) {
+                column[i] = in.readInt();
+            }
+        }
+    }
+
+    public void save() {
+        for (int zoom = 0; zoom <= this.maxZoom; zoom++) {
             int step = (int) Math.pow(2, zoom);
             int size = SIZE / step;
             int scaledX = Mth.floor((double) this.region.x() / step);
             int scaledZ = Mth.floor((double) this.region.z() / step);
+            final int tileZoom = this.maxZoom - zoom;
 
-            final String fileName = scaledX + "_" + scaledZ + ".png";
-            final Path file = dir.resolve(fileName);
-
-            final BufferedImage image;
-            if (Files.isRegularFile(file)) {
+            BufferedImage image;
+            try {
+                image = this.storage.read(tileZoom, scaledX, scaledZ);
+            } catch (final IOException ex) {
                 try {
-                    image = ImageIO.read(file.toFile());
-                } catch (final IOException ex) {
-                    try {
-                        Files.delete(file);
-                    } catch (final IOException x) {
-                        ex.addSuppressed(x);
-                    }
-                    Logging.severe(this.replaceXZ(Lang.LOG_COULD_NOT_READ_REGION), ex);
-                    continue;
+                    this.storage.delete(tileZoom, scaledX, scaledZ);
+                } catch (final IOException x) {
+                    ex.addSuppressed(x);
                 }
-            } else {
+                Logging.severe(this.replaceXZ(Lang.LOG_COULD_NOT_READ_REGION), ex);
+                continue;
+            }
+            if (image == null) {
                 image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
             }
 
             int baseX = (this.region.x() * size) & (SIZE - 1);
             int baseZ = (this.region.z() * size) & (SIZE - 1);
+            int minX = SIZE;
+            int minZ = SIZE;
+            int maxX = -1;
+            int maxZ = -1;
             for (int x = 0; x < SIZE; x += step) {
                 for (int z = 0; z < SIZE; z += step) {
                     final int pixel = this.pixels[x][z];
-                    if (pixel != Integer.MIN_VALUE) {
+                    if (pixel != UNSET) {
                         final int color = pixel == 0 ? TRANSPARENT : pixel;
-                        image.setRGB(baseX + (x / step), baseZ + (z / step), color);
+                        final int imageX = baseX + (x / step);
+                        final int imageZ = baseZ + (z / step);
+                        image.setRGB(imageX, imageZ, color);
+                        minX = Math.min(minX, imageX);
+                        minZ = Math.min(minZ, imageZ);
+                        maxX = Math.max(maxX, imageX);
+                        maxZ = Math.max(maxZ, imageZ);
                     }
                 }
             }
+            if (maxX < 0) {
+                continue; // nothing was rendered into this tile
+            }
 
             try {
-                if (Config.COMPRESS_IMAGES) {
-                    final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
-                    try (
-                        final OutputStream outputStream = Files.newOutputStream(file);
-                        final ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)
-                    ) {
-                        writer.setOutput(imageOutputStream);
-                        ImageWriteParam param = writer.getDefaultWriteParam();
-                        if (param.canWriteCompressed()) {
-                            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                            if (param.getCompressionType() == null) {
-                                param.setCompressionType(param.getCompressionTypes()[0]);
-                            }
-                            param.setCompressionQuality(Config.COMPRESSION_RATIO);
-                        }
-                        writer.write(null, new IIOImage(image, null, null), param);
-                    }
-                } else {
-                    ImageIO.write(image, "png", file.toFile());
-                }
+                final Rectangle changed = new Rectangle(minX, minZ, maxX - minX + 1, maxZ - minZ + 1);
+                this.storage.write(tileZoom, scaledX, scaledZ, image, changed);
             } catch (final IOException ex) {
                 Logging.severe(this.replaceXZ(Lang.LOG_COULD_NOT_SAVE_REGION), ex);
             }
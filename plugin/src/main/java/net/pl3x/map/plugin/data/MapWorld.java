@@ -10,15 +10,14 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -33,20 +32,32 @@ import net.pl3x.map.plugin.api.SpawnIconProvider;
 import net.pl3x.map.plugin.api.WorldBorderProvider;
 import net.pl3x.map.plugin.configuration.WorldAdvanced;
 import net.pl3x.map.plugin.configuration.WorldConfig;
+import net.pl3x.map.plugin.data.storage.TileStorage;
 import net.pl3x.map.plugin.task.UpdateMarkers;
 import net.pl3x.map.plugin.task.render.AbstractRender;
 import net.pl3x.map.plugin.task.render.BackgroundRender;
 import net.pl3x.map.plugin.task.render.FullRender;
 import net.pl3x.map.plugin.util.Colors;
+import net.pl3x.map.plugin.util.FileUtil;
+import net.pl3x.map.plugin.util.Numbers;
 import net.pl3x.map.plugin.util.RecordTypeAdapterFactory;
 import net.pl3x.map.plugin.util.ReflectionUtil;
 import net.pl3x.map.plugin.util.Util;
 import net.pl3x.map.plugin.visibilitylimit.VisibilityLimit;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import xyz.jpenilla.squaremap.plugin.util.ChunkLoadLimiter;
 
 public final class MapWorld implements net.pl3x.map.api.MapWorld {
-    private static final String DIRTY_CHUNKS_FILE_NAME = "dirty_chunks.json";
+    private static final String DIRTY_CHUNKS_CHECKPOINT_FILE_NAME = "dirty_chunks.bin";
+    private static final String LEGACY_DIRTY_CHUNKS_FILE_NAME = "dirty_chunks.json";
+    private static final String LEGACY_DIRTY_REGIONS_FILE_NAME = "dirty_regions.json";
     private static final String RENDER_PROGRESS_FILE_NAME = "resume_render.json";
+    private static final String SURFACE_FINGERPRINTS_DIRECTORY_NAME = "fingerprints";
+    private static final String PENDING_TILES_DIRECTORY_NAME = "pending_tiles";
+    private static final int MAX_REQUESTED_REGIONS = 4096;
     private static final Gson GSON = new GsonBuilder()
         .registerTypeAdapterFactory(new RecordTypeAdapterFactory())
         .enableComplexMapKeySerialization()
@@ -58,7 +69,18 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
     private final Path dataPath;
     private final ExecutorService imageIOexecutor = Executors.newSingleThreadExecutor();
     private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-    private final Set<ChunkCoordinate> modifiedChunks = ConcurrentHashMap.newKeySet();
+    // image -> number of queued saves
+    private final Map<Image, Integer> pendingImages = new ConcurrentHashMap<>();
+    // region -> time until which requests for it are ignored
+    private final Map<RegionCoordinate, Long> requestedRegions = new ConcurrentHashMap<>();
+    private final PendingTiles pendingTiles;
+    private final TileStorage tileStorage;
+    private final DirtyChunkTracker dirtyChunks;
+    private final ChunkLoadLimiter chunkLoadLimiter;
+    private final UpdateQueue updateQueue;
+    private final @Nullable SurfaceFingerprints surfaceFingerprints;
+    private final BukkitTask checkpointTask;
+    private final BukkitTask tileStorageTask;
     private final UpdateMarkers updateMarkersTask;
     private final BlockColors blockColors;
     private final VisibilityLimit visibilityLimit;
@@ -66,12 +88,15 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
     private AbstractRender activeRender = null;
     private ScheduledFuture<?> backgroundRender = null;
     private boolean pauseRenders = false;
+    private long checkpointedModifications = -1L;
 
     private MapWorld(final org.bukkit.@NonNull World world) {
         this.world = world;
         this.level = ReflectionUtil.CraftBukkit.serverLevel(world);
 
         this.blockColors = new BlockColors(this);
+        this.dirtyChunks = new DirtyChunkTracker(this.config().BACKGROUND_RENDER_REGION_PROMOTION_THRESHOLD);
+        this.chunkLoadLimiter = new ChunkLoadLimiter(this.level, this.config().MAP_CHUNK_LOADS_MAX_OUTSTANDING, ChunkLoadLimiter.Priority.parse(this.config().MAP_CHUNK_LOADS_PRIORITY));
 
         this.dataPath = Pl3xMapPlugin.getInstance().getDataFolder().toPath().resolve("data").resolve(world.getName());
         try {
@@ -81,7 +106,6 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
         } catch (IOException e) {
             throw this.failedToCreateDataDirectory(e);
         }
-        this.startBackgroundRender();
 
         this.updateMarkersTask = new UpdateMarkers(this);
         this.updateMarkersTask.runTaskTimer(Pl3xMapPlugin.getInstance(), 20 * 5, 20L * this.config().MARKER_API_UPDATE_INTERVAL_SECONDS);
@@ -97,7 +121,22 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
         this.visibilityLimit = new VisibilityLimit(world);
         this.visibilityLimit.parse(this.config().VISIBILITY_LIMITS);
 
-        this.deserializeDirtyChunks();
+        this.updateQueue = new UpdateQueue(this);
+        this.surfaceFingerprints = this.config().CHANGE_DETECTION_SURFACE_FINGERPRINTS
+            ? new SurfaceFingerprints(this.dataPath.resolve(SURFACE_FINGERPRINTS_DIRECTORY_NAME))
+            : null;
+
+        this.restoreDirtyChunks();
+        this.tileStorage = TileStorage.create(this.config().MAP_TILE_STORAGE_TYPE, world.getName(), FileUtil.getWorldFolder(world));
+        this.pendingTiles = new PendingTiles(this.dataPath.resolve(PENDING_TILES_DIRECTORY_NAME));
+        this.pendingTiles.load(this.tileStorage, this.config().ZOOM_MAX).forEach(this::saveImage);
+        final long checkpointInterval = 20L * this.config().BACKGROUND_RENDER_CHECKPOINT_INTERVAL_SECONDS;
+        this.checkpointTask = Bukkit.getScheduler().runTaskTimerAsynchronously(Pl3xMapPlugin.getInstance(), this::checkpointDirtyChunks, checkpointInterval, checkpointInterval);
+        final long maintenanceInterval = 20L * 60L * this.config().MAP_TILE_STORAGE_MAINTENANCE_INTERVAL_MINUTES;
+        this.tileStorageTask = Bukkit.getScheduler().runTaskTimerAsynchronously(Pl3xMapPlugin.getInstance(), this.tileStorage::maintain, maintenanceInterval, maintenanceInterval);
+
+        // renders use the tile storage, pending tiles and update tracking set up above
+        this.startBackgroundRender();
 
         if (this.getRenderProgress() != null) {
             this.startRender(new FullRender(this));
@@ -127,28 +166,63 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
         }
     }
 
-    private void serializeDirtyChunks() {
+    private synchronized void checkpointDirtyChunks() {
+        if (this.dirtyChunks.modifications() == this.checkpointedModifications) {
+            return;
+        }
+        final DirtyChunkTracker.Snapshot snapshot = this.dirtyChunks.snapshot();
         try {
-            Files.writeString(this.dataPath.resolve(DIRTY_CHUNKS_FILE_NAME), GSON.toJson(this.modifiedChunks));
+            DirtyChunkCheckpoint.write(this.dataPath.resolve(DIRTY_CHUNKS_CHECKPOINT_FILE_NAME), snapshot);
+            this.checkpointedModifications = snapshot.modifications();
         } catch (IOException e) {
-            Logging.warn(String.format("Failed to serialize dirty chunks for world '%s'", this.name()), e);
+            Logging.warn(String.format("Failed to checkpoint dirty chunks for world '%s'", this.name()), e);
         }
     }
 
-    private void deserializeDirtyChunks() {
+    private void restoreDirtyChunks() {
+        final Path checkpoint = this.dataPath.resolve(DIRTY_CHUNKS_CHECKPOINT_FILE_NAME);
+        if (Files.exists(checkpoint)) {
+            try {
+                DirtyChunkCheckpoint.read(checkpoint, this.dirtyChunks);
+            } catch (IOException e) {
+                Logging.warn(String.format("Failed to restore dirty chunks for world '%s'", this.name()), e);
+            }
+            this.checkpointedModifications = this.dirtyChunks.modifications();
+            return;
+        }
+        this.migrateLegacyDirtyChunks();
+    }
+
+    // dirty chunks used to be stored as json, convert them to a checkpoint
+    private void migrateLegacyDirtyChunks() {
+        final Path chunksFile = this.dataPath.resolve(LEGACY_DIRTY_CHUNKS_FILE_NAME);
+        final Path regionsFile = this.dataPath.resolve(LEGACY_DIRTY_REGIONS_FILE_NAME);
+        if (!Files.exists(chunksFile) && !Files.exists(regionsFile)) {
+            return;
+        }
         try {
-            final Path file = this.dataPath.resolve(DIRTY_CHUNKS_FILE_NAME);
-            if (Files.exists(file)) {
-                this.modifiedChunks.addAll(
-                    GSON.fromJson(
-                        new FileReader(file.toFile()),
-                        TypeToken.getParameterized(List.class, ChunkCoordinate.class).getType()
-                    )
-                );
+            if (Files.exists(chunksFile)) {
+                try (final FileReader reader = new FileReader(chunksFile.toFile())) {
+                    final List<ChunkCoordinate> chunks = GSON.fromJson(reader, TypeToken.getParameterized(List.class, ChunkCoordinate.class).getType());
+                    chunks.forEach(this.dirtyChunks::markChunk);
+                }
+            }
+            if (Files.exists(regionsFile)) {
+                try (final FileReader reader = new FileReader(regionsFile.toFile())) {
+                    final List<RegionCoordinate> regions = GSON.fromJson(reader, TypeToken.getParameterized(List.class, RegionCoordinate.class).getType());
+                    regions.forEach(this.dirtyChunks::markRegion);
+                }
             }
         } catch (JsonIOException | JsonSyntaxException | IOException e) {
             Logging.warn(String.format("Failed to deserialize dirty chunks for world '%s'", this.name()), e);
         }
+        this.checkpointDirtyChunks();
+        try {
+            Files.deleteIfExists(chunksFile);
+            Files.deleteIfExists(regionsFile);
+        } catch (IOException e) {
+            Logging.warn(String.format("Failed to delete legacy dirty chunk data for world '%s'", this.name()), e);
+        }
     }
 
     private void startBackgroundRender() {
@@ -176,19 +250,98 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
 
     public void chunkModified(final @NonNull ChunkCoordinate coord) {
         if (this.visibilityLimit().shouldRenderChunk(coord)) {
-            this.modifiedChunks.add(coord);
+            this.dirtyChunks.markChunk(coord);
+        }
+    }
+
+    /**
+     * Mark a single block column as modified. Only the affected column (and the column
+     * south of it, which depends on it for shading) will be re-scanned.
+     *
+     * @param blockX block x
+     * @param blockZ block z
+     */
+    public void columnModified(final int blockX, final int blockZ) {
+        if (this.visibilityLimit().shouldRenderChunk(Numbers.blockToChunk(blockX), Numbers.blockToChunk(blockZ))) {
+            this.dirtyChunks.markColumn(blockX, blockZ);
+        }
+    }
+
+    /**
+     * Render a region whose highest zoom tile was requested from the web map but doesn't exist, ahead of
+     * other background render work. Requests for a region are ignored for a while after, whether or not it
+     * turned out to have anything to render.
+     *
+     * @param region region
+     */
+    public void requestRegion(final @NonNull RegionCoordinate region) {
+        if (!this.config().LAZY_RENDER_ENABLED || !this.backgroundRendering()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Long retryAt = this.requestedRegions.get(region);
+        if (retryAt != null && retryAt > now) {
+            return;
+        }
+        if (this.requestedRegions.size() >= MAX_REQUESTED_REGIONS) {
+            this.requestedRegions.values().removeIf(time -> time <= now);
+            if (this.requestedRegions.size() >= MAX_REQUESTED_REGIONS) {
+                return;
+            }
+        }
+        this.requestedRegions.put(region, now + this.config().LAZY_RENDER_RETRY_SECONDS * 1000L);
+        if (!this.visibilityLimit().shouldRenderRegion(region) || !this.regionExists(region)) {
+            return;
+        }
+        this.dirtyChunks.request(region);
+    }
+
+    private boolean regionExists(final @NonNull RegionCoordinate region) {
+        final Path file = FileUtil.getRegionFolder(this.world).resolve("r." + region.x() + "." + region.z() + ".mca");
+        try {
+            return Files.size(file) > 0L;
+        } catch (final IOException e) {
+            return false;
         }
     }
 
-    public boolean hasModifiedChunks() {
-        return !this.modifiedChunks.isEmpty();
+    public @NonNull UpdateQueue updateQueue() {
+        return this.updateQueue;
+    }
+
+    /**
+     * Get the surface fingerprints of this world.
+     *
+     * @return surface fingerprints, or {@code null} if surface fingerprint change detection is disabled
+     */
+    public @Nullable SurfaceFingerprints surfaceFingerprints() {
+        return this.surfaceFingerprints;
+    }
+
+    public @NonNull DirtyChunkTracker dirtyChunks() {
+        return this.dirtyChunks;
+    }
+
+    public @NonNull TileStorage tileStorage() {
+        return this.tileStorage;
     }
 
-    public @NonNull ChunkCoordinate nextModifiedChunk() {
-        final Iterator<ChunkCoordinate> it = this.modifiedChunks.iterator();
-        final ChunkCoordinate coord = it.next();
-        it.remove();
-        return coord;
+    public @NonNull ChunkLoadLimiter chunkLoadLimiter() {
+        return this.chunkLoadLimiter;
+    }
+
+    public @NonNull UpdateMarkers updateMarkers() {
+        return this.updateMarkersTask;
+    }
+
+    @Override
+    public boolean bulkIngestion() {
+        return this.dirtyChunks.bulkIngestion();
+    }
+
+    @Override
+    public void bulkIngestion(final boolean bulkIngestion) {
+        this.dirtyChunks.bulkIngestion(bulkIngestion);
     }
 
     public static @NonNull MapWorld forWorld(final org.bukkit.@NonNull World world) {
@@ -213,6 +366,10 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
         return WorldAdvanced.get(this.world);
     }
 
+    public @NonNull Path dataPath() {
+        return this.dataPath;
+    }
+
     public ServerLevel serverLevel() {
         return this.level;
     }
@@ -276,7 +433,9 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
         if (this.layerRegistry().hasEntry(WorldBorderProvider.WORLDBORDER_KEY)) {
             this.layerRegistry().unregister(WorldBorderProvider.WORLDBORDER_KEY);
         }
-        this.updateMarkersTask.cancel();
+        this.updateMarkersTask.shutdown();
+        this.checkpointTask.cancel();
+        this.tileStorageTask.cancel();
         if (this.isRendering()) {
             this.stopRender();
         }
@@ -285,11 +444,29 @@ public final class MapWorld implements net.pl3x.map.api.MapWorld {
         }
         Util.shutdownExecutor(this.executor, TimeUnit.SECONDS, 1L);
         Util.shutdownExecutor(this.imageIOexecutor, TimeUnit.SECONDS, 2L);
-        this.serializeDirtyChunks();
+        // anything which did not get saved in time is saved on the next start instead
+        this.pendingTiles.spill(this.pendingImages.keySet());
+        this.tileStorage.close();
+        this.updateQueue.shutdown();
+        if (this.surfaceFingerprints != null) {
+            this.surfaceFingerprints.shutdown();
+        }
+        this.checkpointDirtyChunks();
     }
 
     public void saveImage(final @NonNull Image image) {
-        this.imageIOexecutor.submit(image::save);
+        this.pendingImages.merge(image, 1, Integer::sum);
+        try {
+            this.imageIOexecutor.submit(() -> {
+                try {
+                    image.save();
+                } finally {
+                    this.pendingImages.computeIfPresent(image, (key, count) -> count == 1 ? null : count - 1);
+                }
+            });
+        } catch (final RejectedExecutionException ignore) {
+            // shutting down, the image stays pending and is spilled to disk
+        }
     }
 
     @Override
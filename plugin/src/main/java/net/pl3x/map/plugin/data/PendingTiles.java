@@ -0,0 +1,123 @@
+package net.pl3x.map.plugin.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import net.pl3x.map.plugin.Logging;
+import net.pl3x.map.plugin.data.storage.TileStorage;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Spills the pixel buffers of rendered regions which could not be saved before shutdown,
+ * so they can be saved on the next start instead of being rendered again.
+ *
+ * <p>Each region is stored in its own deflate compressed file: magic, version,
+ * region x and z, followed by the raw pixel buffer of the region.</p>
+ */
+@DefaultQualifier(NonNull.class)
+final class PendingTiles {
+    private static final int MAGIC = 0x53515054; // SQPT
+    private static final int VERSION = 1;
+
+    private final Path directory;
+
+    PendingTiles(final Path directory) {
+        this.directory = directory;
+    }
+
+    void spill(final Collection<Image> images) {
+        if (images.isEmpty()) {
+            return;
+        }
+        try {
+            Files.createDirectories(this.directory);
+        } catch (final IOException ex) {
+            Logging.warn(String.format("Failed to create directory '%s'", this.directory), ex);
+            return;
+        }
+        // a region can have images of several renders pending, they would overwrite each other's file
+        final Map<RegionCoordinate, List<Image>> regions = new HashMap<>();
+        for (final Image image : images) {
+            regions.computeIfAbsent(image.region(), r -> new ArrayList<>()).add(image);
+        }
+        for (final List<Image> regionImages : regions.values()) {
+            final Image image = regionImages.size() == 1 ? regionImages.get(0) : Image.merge(regionImages);
+            final RegionCoordinate region = image.region();
+            try {
+                FileUtil.atomicWrite(this.directory.resolve(region.x() + "_" + region.z() + ".bin"), tmp -> {
+                    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    try (final OutputStream stream = Files.newOutputStream(tmp);
+                         final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(stream, deflater, 8192)))) {
+                        out.writeInt(MAGIC);
+                        out.writeByte(VERSION);
+                        out.writeInt(region.x());
+                        out.writeInt(region.z());
+                        image.writePixels(out);
+                    } finally {
+                        deflater.end();
+                    }
+                });
+            } catch (final IOException ex) {
+                Logging.warn(String.format("Failed to spill pending tiles for region %s", region), ex);
+            }
+        }
+        Logging.debug(String.format("Spilled %d pending region images to '%s'", regions.size(), this.directory));
+    }
+
+    /**
+     * Load spilled images, deleting them from disk. The caller is responsible for saving them.
+     *
+     * @param storage tile storage the images save to
+     * @param maxZoom max zoom
+     * @return loaded images
+     */
+    List<Image> load(final TileStorage storage, final int maxZoom) {
+        final List<Image> images = new ArrayList<>();
+        if (!Files.isDirectory(this.directory)) {
+            return images;
+        }
+        final List<Path> files;
+        try (final Stream<Path> stream = Files.list(this.directory)) {
+            files = stream.filter(file -> file.getFileName().toString().endsWith(".bin")).toList();
+        } catch (final IOException ex) {
+            Logging.warn(String.format("Failed to list pending tiles in '%s'", this.directory), ex);
+            return images;
+        }
+        for (final Path file : files) {
+            try (final InputStream stream = Files.newInputStream(file);
+                 final DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(stream)))) {
+                if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                    throw new IOException("Not a pending tile file");
+                }
+                final Image image = new Image(new RegionCoordinate(in.readInt(), in.readInt()), storage, maxZoom);
+                image.readPixels(in);
+                images.add(image);
+            } catch (final IOException ex) {
+                Logging.warn(String.format("Failed to load pending tiles from '%s'", file), ex);
+            }
+            try {
+                Files.delete(file);
+            } catch (final IOException ex) {
+                Logging.warn(String.format("Failed to delete pending tiles file '%s'", file), ex);
+            }
+        }
+        return images;
+    }
+}
@@ -0,0 +1,256 @@
+package net.pl3x.map.plugin.data;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.pl3x.map.plugin.Logging;
+import net.pl3x.map.plugin.util.FileUtil;
+import net.pl3x.map.plugin.util.Numbers;
+import net.pl3x.map.plugin.util.Util;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+import xyz.jpenilla.squaremap.plugin.util.ChunkSnapshot;
+
+/**
+ * Fingerprints of the visible surface of every rendered chunk, used to detect changes made
+ * without firing any events (i.e. by world editing plugins) when chunks are unloaded.
+ *
+ * <p>A fingerprint is a hash of the surface height and top block state of all 256 columns of
+ * a chunk. Fingerprints are stored per region as 1024 longs, {@code 0} meaning unknown.</p>
+ *
+ * <p>The monitor only guards the loaded regions, files are read and written without holding it.
+ * Modified regions are saved periodically, when they are unloaded and on shutdown.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class SurfaceFingerprints {
+    private static final int MAX_LOADED_REGIONS = 64;
+    private static final long UNKNOWN = 0L;
+    private static final long SAVE_INTERVAL_MINUTES = 5L;
+
+    private final Path directory;
+    // runs the checks and writes, writes run in the order they were queued
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<RegionCoordinate, long[]> regions = new LinkedHashMap<>(16, 0.75F, true);
+    private final Set<RegionCoordinate> modifiedRegions = new HashSet<>();
+    // copies of regions queued to be written, newer than their files until they are
+    private final Map<RegionCoordinate, long[]> pendingWrites = new HashMap<>();
+
+    public SurfaceFingerprints(final Path directory) {
+        this.directory = directory;
+        this.executor.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Asynchronously check whether a chunk's surface changed since it was last rendered.
+     *
+     * <p>The stored fingerprint is left alone when the chunk changed, it is only updated by the render
+     * which picks up the change (see {@link #rendered(int, int, long)}), so a change is not lost if the
+     * server stops before that render completes. A chunk without a known fingerprint only has its
+     * fingerprint recorded.</p>
+     *
+     * @param chunkX      chunk x
+     * @param chunkZ      chunk z
+     * @param fingerprint current fingerprint
+     * @param onChanged   called off the main thread when the chunk needs to be re-rendered
+     */
+    public void checkChanged(final int chunkX, final int chunkZ, final long fingerprint, final Runnable onChanged) {
+        this.executor.execute(() -> {
+            final RegionCoordinate region = region(chunkX, chunkZ);
+            final long[] loaded = this.load(region);
+            final boolean changed;
+            synchronized (this) {
+                final long[] fingerprints = this.loaded(region, loaded);
+                final int index = index(chunkX, chunkZ);
+                final long previous = fingerprints[index];
+                if (previous == UNKNOWN) {
+                    fingerprints[index] = fingerprint;
+                    this.modifiedRegions.add(region);
+                }
+                changed = previous != UNKNOWN && previous != fingerprint;
+            }
+            if (changed) {
+                onChanged.run();
+            }
+        });
+    }
+
+    /**
+     * Record the fingerprint of a freshly rendered chunk.
+     *
+     * @param chunkX      chunk x
+     * @param chunkZ      chunk z
+     * @param fingerprint fingerprint
+     */
+    public void rendered(final int chunkX, final int chunkZ, final long fingerprint) {
+        final RegionCoordinate region = region(chunkX, chunkZ);
+        final long[] loaded = this.load(region);
+        synchronized (this) {
+            final long[] fingerprints = this.loaded(region, loaded);
+            final int index = index(chunkX, chunkZ);
+            if (fingerprints[index] != fingerprint) {
+                fingerprints[index] = fingerprint;
+                this.modifiedRegions.add(region);
+            }
+        }
+    }
+
+    public void shutdown() {
+        Util.shutdownExecutor(this.executor, TimeUnit.SECONDS, 1L);
+        final Map<RegionCoordinate, long[]> writes;
+        synchronized (this) {
+            writes = new HashMap<>(this.pendingWrites);
+            for (final RegionCoordinate region : this.modifiedRegions) {
+                writes.put(region, this.regions.get(region).clone());
+            }
+            this.modifiedRegions.clear();
+            this.pendingWrites.clear();
+        }
+        writes.forEach(this::write);
+    }
+
+    private synchronized void save() {
+        for (final RegionCoordinate region : this.modifiedRegions) {
+            this.queueWrite(region, this.regions.get(region));
+        }
+        this.modifiedRegions.clear();
+    }
+
+    // reads the region without holding the monitor if it is not loaded
+    private long[] load(final RegionCoordinate region) {
+        synchronized (this) {
+            final long @Nullable [] fingerprints = this.regions.get(region);
+            if (fingerprints != null) {
+                return fingerprints;
+            }
+        }
+        return this.read(region);
+    }
+
+    // the loaded region, or the given one which is loaded in its place if another thread did not do so first
+    private long[] loaded(final RegionCoordinate region, final long[] read) {
+        long @Nullable [] fingerprints = this.regions.get(region);
+        if (fingerprints != null) {
+            return fingerprints;
+        }
+        final long @Nullable [] pending = this.pendingWrites.get(region);
+        fingerprints = pending != null ? pending.clone() : read;
+        this.regions.put(region, fingerprints);
+        if (this.regions.size() > MAX_LOADED_REGIONS) {
+            final Map.Entry<RegionCoordinate, long[]> eldest = this.regions.entrySet().iterator().next();
+            if (this.modifiedRegions.remove(eldest.getKey())) {
+                this.queueWrite(eldest.getKey(), eldest.getValue());
+            }
+            this.regions.remove(eldest.getKey());
+        }
+        return fingerprints;
+    }
+
+    private void queueWrite(final RegionCoordinate region, final long[] fingerprints) {
+        final long[] copy = fingerprints.clone();
+        this.pendingWrites.put(region, copy);
+        try {
+            this.executor.execute(() -> {
+                this.write(region, copy);
+                synchronized (this) {
+                    this.pendingWrites.remove(region, copy);
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            // shutting down, written by shutdown
+        }
+    }
+
+    private Path file(final RegionCoordinate region) {
+        return this.directory.resolve(region.x() + "_" + region.z() + ".bin");
+    }
+
+    private long[] read(final RegionCoordinate region) {
+        final long[] fingerprints = new long[1024];
+        final Path file = this.file(region);
+        if (!Files.exists(file)) {
+            return fingerprints;
+        }
+        try (final InputStream stream = Files.newInputStream(file);
+             final DataInputStream in = new DataInputStream(stream)) {
+            for (int i = 0; i < fingerprints.length; i++) {
+                fingerprints[i] = in.readLong();
+            }
+        } catch (final IOException ex) {
+            Logging.warn(String.format("Failed to read surface fingerprints for region %s", region), ex);
+            return new long[1024];
+        }
+        return fingerprints;
+    }
+
+    private void write(final RegionCoordinate region, final long[] fingerprints) {
+        try {
+            Files.createDirectories(this.directory);
+            FileUtil.atomicWrite(this.file(region), tmp -> {
+                try (final OutputStream stream = Files.newOutputStream(tmp);
+                     final DataOutputStream out = new DataOutputStream(stream)) {
+                    for (final long fingerprint : fingerprints) {
+                        out.writeLong(fingerprint);
+                    }
+                }
+            });
+        } catch (final IOException ex) {
+            Logging.warn(String.format("Failed to write surface fingerprints for region %s", region), ex);
+        }
+    }
+
+    private static RegionCoordinate region(final int chunkX, final int chunkZ) {
+        return new RegionCoordinate(Numbers.chunkToRegion(chunkX), Numbers.chunkToRegion(chunkZ));
+    }
+
+    private static int index(final int chunkX, final int chunkZ) {
+        return (chunkZ & 31) << 5 | (chunkX & 31);
+    }
+
+    public static long fingerprint(final ChunkSnapshot chunk) {
+        return fingerprint(chunk::getHeight, chunk::getBlockState, chunk.pos().getMinBlockX(), chunk.pos().getMinBlockZ());
+    }
+
+    public static long fingerprint(final LevelChunk chunk) {
+        return fingerprint(chunk::getHeight, chunk::getBlockState, chunk.getPos().getMinBlockX(), chunk.getPos().getMinBlockZ());
+    }
+
+    private static long fingerprint(final HeightGetter heights, final Function<BlockPos, BlockState> states, final int minBlockX, final int minBlockZ) {
+        final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
+        long hash = 1L;
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                final int y = heights.getHeight(Heightmap.Types.WORLD_SURFACE, x, z);
+                mutablePos.set(minBlockX + x, y, minBlockZ + z);
+                final int state = Block.getId(states.apply(mutablePos));
+                hash = HashCommon.mix(hash * 31L + ((long) y << 32 | state & 0xFFFFFFFFL));
+            }
+        }
+        return hash == UNKNOWN ? 1L : hash;
+    }
+
+    @FunctionalInterface
+    private interface HeightGetter {
+        int getHeight(Heightmap.Types type, int x, int z);
+    }
+}
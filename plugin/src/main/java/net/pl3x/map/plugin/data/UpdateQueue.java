@@ -0,0 +1,200 @@
+package net.pl3x.map.plugin.data;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.pl3x.map.plugin.Logging;
+import net.pl3x.map.plugin.util.MpscLongRingBuffer;
+import net.pl3x.map.plugin.util.Util;
+import org.bukkit.Bukkit;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Hands map updates from event listeners off the main thread.
+ *
+ * <p>Listeners push packed block coordinates into a lock-free ring buffer, which is drained by a
+ * background thread that does the visibility filtering, de-duplication and dirty marking.</p>
+ *
+ * <p>Layout of a packed update, from most to least significant bit: 26 bits x, 26 bits z,
+ * 10 bits y and 2 bits of flags. x and z are chunk coordinates when {@link #FLAG_CHUNK} is set.
+ * y is stored relative to the world's min build height. Blocks more than {@link #MAX_RELATIVE_Y}
+ * above it don't fit and are queued with {@link #FLAG_SKIP_VISIBILITY} instead.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class UpdateQueue {
+    private static final int CAPACITY = 1 << 16;
+    private static final int FILTER_SIZE = 1 << 13;
+    private static final long DRAIN_INTERVAL_MILLIS = 50L;
+
+    private static final int FLAG_CHUNK = 1;
+    private static final int FLAG_SKIP_VISIBILITY = 2;
+    private static final int MAX_RELATIVE_Y = (1 << 10) - 1;
+
+    private final MapWorld mapWorld;
+    private final int minY;
+    private final MpscLongRingBuffer buffer = new MpscLongRingBuffer(CAPACITY);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // direct mapped filter of chunks updated since the dirty chunks were last polled, only touched on the main thread
+    private final long[] recentChunks = new long[FILTER_SIZE];
+    private final int[] recentGenerations = new int[FILTER_SIZE];
+    private final boolean[] recentWholeChunk = new boolean[FILTER_SIZE];
+    // columns marked during the current drain, only touched by the consumer thread
+    private final LongOpenHashSet markedColumns = new LongOpenHashSet();
+
+    public UpdateQueue(final MapWorld mapWorld) {
+        this.mapWorld = mapWorld;
+        this.minY = mapWorld.serverLevel().getMinBuildHeight();
+        this.executor.scheduleWithFixedDelay(this::drain, DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a block change. The block's column is marked when the block is
+     * close enough to the surface to possibly be visible on the map.
+     *
+     * @param x block x
+     * @param y block y
+     * @param z block z
+     * @return {@code false} if the update was dropped as a duplicate
+     */
+    public boolean block(final int x, final int y, final int z) {
+        final int relativeY = y - this.minY;
+        if (relativeY < 0 || relativeY > MAX_RELATIVE_Y) {
+            // can't be packed, mark the column without checking visibility rather than dropping a real edit
+            return this.blockUnchecked(x, z);
+        }
+        return this.offer(pack(x, relativeY, z, 0));
+    }
+
+    /**
+     * Queue a block column without checking whether the change is visible.
+     *
+     * @param x block x
+     * @param z block z
+     * @return {@code false} if the update was dropped as a duplicate
+     */
+    public boolean blockUnchecked(final int x, final int z) {
+        return this.offer(pack(x, 0, z, FLAG_SKIP_VISIBILITY));
+    }
+
+    /**
+     * Queue a whole chunk.
+     *
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return {@code false} if the update was dropped as a duplicate
+     */
+    public boolean chunk(final int chunkX, final int chunkZ) {
+        return this.offer(pack(chunkX, 0, chunkZ, FLAG_CHUNK));
+    }
+
+    /**
+     * Drops updates to chunks which were already queued since the dirty chunks were last polled by the
+     * background render. Those are still pending, so the render that picks them up will see this change as well.
+     *
+     * <p>Updates are keyed by chunk, so physics and fluid cascades collapse into a handful of queued updates
+     * per chunk. The first block update to a chunk is queued as is, so the consumer can still skip it when it is
+     * not visible. A second one marks the whole chunk instead, as the first may have been dropped for not being
+     * visible, and anything after that is dropped. The filter is only used on the main thread, updates from
+     * other threads are always queued.</p>
+     */
+    private boolean offer(final long packed) {
+        if (!Bukkit.isPrimaryThread()) {
+            this.enqueue(packed);
+            return true;
+        }
+        final boolean wholeChunk = (packed & FLAG_CHUNK) != 0;
+        final int x = (int) (packed >> 38);
+        final int z = (int) (packed << 26 >> 38);
+        final int chunkX = wholeChunk ? x : x >> 4;
+        final int chunkZ = wholeChunk ? z : z >> 4;
+        final long chunk = (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+        final int generation = this.mapWorld.dirtyChunks().generation();
+        final int slot = (int) HashCommon.mix(chunk) & (FILTER_SIZE - 1);
+        if (this.recentChunks[slot] == chunk && this.recentGenerations[slot] == generation) {
+            if (this.recentWholeChunk[slot]) {
+                return false;
+            }
+            this.recentWholeChunk[slot] = true;
+            this.enqueue(pack(chunkX, 0, chunkZ, FLAG_CHUNK));
+            return true;
+        }
+        this.recentChunks[slot] = chunk;
+        this.recentGenerations[slot] = generation;
+        this.recentWholeChunk[slot] = wholeChunk;
+        this.enqueue(packed);
+        return true;
+    }
+
+    private void enqueue(final long packed) {
+        if (!this.buffer.offer(packed)) {
+            // queue is full, mark directly without checking visibility
+            final int x = (int) (packed >> 38);
+            final int z = (int) (packed << 26 >> 38);
+            if ((packed & FLAG_CHUNK) != 0) {
+                this.mapWorld.chunkModified(new ChunkCoordinate(x, z));
+            } else {
+                this.mapWorld.columnModified(x, z);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            while (this.buffer.drain(this::process, CAPACITY) > 0) {
+                // keep going until we catch up with the producers
+            }
+        } catch (final Exception ex) {
+            Logging.warn(String.format("Failed to process map updates for world '%s'", this.mapWorld.name()), ex);
+        } finally {
+            this.markedColumns.clear();
+        }
+    }
+
+    private void process(final long packed) {
+        final int x = (int) (packed >> 38);
+        final int z = (int) (packed << 26 >> 38);
+        final int flags = (int) (packed & 3L);
+
+        if ((flags & FLAG_CHUNK) != 0) {
+            this.mapWorld.chunkModified(new ChunkCoordinate(x, z));
+            return;
+        }
+
+        final long column = (long) x << 32 | (z & 0xFFFFFFFFL);
+        if (this.markedColumns.contains(column)) {
+            return;
+        }
+        if ((flags & FLAG_SKIP_VISIBILITY) == 0 && !this.visible(x, (int) (packed >>> 2 & MAX_RELATIVE_Y) + this.minY, z)) {
+            return;
+        }
+        this.markedColumns.add(column);
+        this.mapWorld.columnModified(x, z);
+    }
+
+    private boolean visible(final int x, final int y, final int z) {
+        final @Nullable LevelChunk chunk = this.mapWorld.serverLevel().getChunkSource().getChunkAtIfLoadedImmediately(x >> 4, z >> 4);
+        if (chunk == null) {
+            return true; // can't tell without loading the chunk, better to render it than to miss the change
+        }
+        return y >= chunk.getHeight(Heightmap.Types.MOTION_BLOCKING, x & 15, z & 15) - 10;
+    }
+
+    public void shutdown() {
+        Util.shutdownExecutor(this.executor, TimeUnit.SECONDS, 1L);
+        this.drain();
+    }
+
+    // relativeY must be within 0..MAX_RELATIVE_Y, it is not range checked here
+    private static long pack(final int x, final int relativeY, final int z, final int flags) {
+        return (long) (x & 0x3FFFFFF) << 38
+            | (long) (z & 0x3FFFFFF) << 12
+            | (long) relativeY << 2
+            | flags;
+    }
+}
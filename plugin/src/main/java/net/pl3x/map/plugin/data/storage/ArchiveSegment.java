@@ -0,0 +1,301 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.pl3x.map.plugin.Logging;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * The tiles of one group of {@link #TILES} tiles on one zoom, in two files.
+ *
+ * <p>{@code <name>.<generation>.dat} holds png data, only ever appended to. {@code <name>.idx} holds
+ * a header and the offset, length and modification time of every tile in the data file, updated in
+ * place once the appended data was forced to disk. Compaction copies the live tiles into a data file of the next
+ * generation and then replaces the index as a whole, so a crash at any point leaves either the
+ * old or the new generation intact. Data files of other generations are leftovers and deleted on open.</p>
+ *
+ * <p>Writers (writes, deletes, compaction) are serialized on the segment's monitor. Reads are positional reads
+ * of the data file under the read lock, writers only take the write lock to publish index entries or swap in a
+ * compacted data file, so reads don't wait for appends or the copying of a compaction.</p>
+ */
+@DefaultQualifier(NonNull.class)
+final class ArchiveSegment {
+    static final int SHIFT = 5;
+    static final int TILES = 1 << SHIFT * 2;
+    private static final int MAGIC = 0x73716d61; // sqma
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    private static final int ENTRY_SIZE = 8 + 4 + 8;
+    private static final long COMPACT_MIN_BYTES = 1L << 20;
+
+    private final Path directory;
+    private final String name;
+    private final long[] offsets = new long[TILES];
+    private final int[] lengths = new int[TILES];
+    private final long[] modified = new long[TILES];
+    private long generation;
+    private long liveBytes;
+    private @Nullable FileChannel index;
+    private @Nullable FileChannel data;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    ArchiveSegment(final Path directory, final String name) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        Files.createDirectories(directory);
+        final Path indexFile = this.indexFile();
+        if (Files.isRegularFile(indexFile)) {
+            this.readIndex(indexFile);
+        } else {
+            Arrays.fill(this.offsets, -1L);
+            this.writeIndex(indexFile, this.generation, this.offsets);
+        }
+        this.deleteOtherGenerations();
+        this.index = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.data = FileChannel.open(this.dataFile(this.generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    static int tileIndex(final int x, final int z) {
+        return (z & (1 << SHIFT) - 1) << SHIFT | x & (1 << SHIFT) - 1;
+    }
+
+    private Path indexFile() {
+        return this.directory.resolve(this.name + ".idx");
+    }
+
+    private Path dataFile(final long generation) {
+        return this.directory.resolve(this.name + "." + generation + ".dat");
+    }
+
+    private void readIndex(final Path indexFile) throws IOException {
+        try (final InputStream stream = Files.newInputStream(indexFile);
+             final DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a tile archive index: " + indexFile);
+            }
+            this.generation = in.readLong();
+            for (int i = 0; i < TILES; i++) {
+                this.offsets[i] = in.readLong();
+                this.lengths[i] = in.readInt();
+                this.modified[i] = in.readLong();
+                if (this.offsets[i] >= 0L) {
+                    this.liveBytes += this.lengths[i];
+                }
+            }
+        }
+    }
+
+    // written to a temporary file which is forced to disk before it replaces the index, the index is
+    // what decides which data file is current
+    private void writeIndex(final Path indexFile, final long generation, final long[] offsets) throws IOException {
+        final Path tmp = indexFile.resolveSibling("." + indexFile.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            for (int i = 0; i < TILES; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(this.lengths[i]);
+                out.writeLong(this.modified[i]);
+            }
+            out.flush();
+            channel.force(true);
+        } catch (final IOException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        try {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteOtherGenerations() {
+        final Path current = this.dataFile(this.generation);
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, this.name + ".*.dat")) {
+            for (final Path file : files) {
+                if (!file.equals(current)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (final IOException ex) {
+            Logging.warn(String.format("Failed to delete old tile archive data of '%s'", this.directory.resolve(this.name)), ex);
+        }
+    }
+
+    TileStorage.@Nullable EncodedTile read(final int tile) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            if (this.data == null || this.offsets[tile] < 0L) {
+                return null;
+            }
+            final long offset = this.offsets[tile];
+            final ByteBuffer buffer = ByteBuffer.allocate(this.lengths[tile]);
+            while (buffer.hasRemaining()) {
+                if (this.data.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException(String.format("Tile data of '%s' ends before tile %d", this.directory.resolve(this.name), tile));
+                }
+            }
+            return new TileStorage.EncodedTile(buffer.flip().asReadOnlyBuffer(), this.modified[tile]);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    synchronized void write(final int tile, final byte[] png, final int length) throws IOException {
+        if (this.data == null || this.index == null) {
+            throw new IOException("Tile archive is closed");
+        }
+        if (this.data.size() + length > Integer.MAX_VALUE) {
+            this.compact(true);
+        }
+        final long offset = this.data.size();
+        final ByteBuffer buffer = ByteBuffer.wrap(png, 0, length);
+        while (buffer.hasRemaining()) {
+            this.data.write(buffer, offset + buffer.position());
+        }
+        // the data has to be on disk before an index entry points at it
+        this.data.force(false);
+        this.setEntry(tile, offset, length, System.currentTimeMillis());
+    }
+
+    synchronized void delete(final int tile) throws IOException {
+        if (this.index == null || this.offsets[tile] < 0L) {
+            return;
+        }
+        this.setEntry(tile, -1L, 0, 0L);
+    }
+
+    private void setEntry(final int tile, final long offset, final int length, final long modified) throws IOException {
+        if (this.offsets[tile] >= 0L) {
+            this.liveBytes -= this.lengths[tile];
+        }
+        if (offset >= 0L) {
+            this.liveBytes += length;
+        }
+        this.lock.writeLock().lock();
+        try {
+            this.offsets[tile] = offset;
+            this.lengths[tile] = length;
+            this.modified[tile] = modified;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE).putLong(offset).putInt(length).putLong(modified).flip();
+        final long position = HEADER_SIZE + (long) tile * ENTRY_SIZE;
+        while (entry.hasRemaining()) {
+            this.index.write(entry, position + entry.position());
+        }
+    }
+
+    /**
+     * Rewrite the data file without the space taken by replaced and deleted tiles, once that's at least
+     * as much as the live tiles take.
+     *
+     * @param force compact regardless of how much space would be freed
+     * @return bytes freed, {@code 0} if the segment was not compacted
+     * @throws IOException when compacting fails, the segment is left as it was
+     */
+    synchronized long compact(final boolean force) throws IOException {
+        if (this.data == null) {
+            return 0L;
+        }
+        final long size = this.data.size();
+        final long garbage = size - this.liveBytes;
+        if (!force && (size < COMPACT_MIN_BYTES || garbage < this.liveBytes)) {
+            return 0L;
+        }
+
+        final long nextGeneration = this.generation + 1;
+        final Path nextFile = this.dataFile(nextGeneration);
+        final long[] nextOffsets = new long[TILES];
+        final FileChannel next = FileChannel.open(nextFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long position = 0L;
+            for (int i = 0; i < TILES; i++) {
+                if (this.offsets[i] < 0L) {
+                    nextOffsets[i] = -1L;
+                    continue;
+                }
+                nextOffsets[i] = position;
+                long copied = 0L;
+                while (copied < this.lengths[i]) {
+                    copied += this.data.transferTo(this.offsets[i] + copied, this.lengths[i] - copied, next);
+                }
+                position += this.lengths[i];
+            }
+            next.force(true);
+        } catch (final IOException ex) {
+            next.close();
+            Files.deleteIfExists(nextFile);
+            throw ex;
+        }
+
+        try {
+            this.writeIndex(this.indexFile(), nextGeneration, nextOffsets);
+        } catch (final IOException ex) {
+            next.close();
+            Files.deleteIfExists(nextFile);
+            throw ex;
+        }
+
+        // readers use the previous data file until now
+        final FileChannel previous = this.data;
+        this.lock.writeLock().lock();
+        try {
+            System.arraycopy(nextOffsets, 0, this.offsets, 0, TILES);
+            this.generation = nextGeneration;
+            this.data = next;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        // the index was replaced, reopen it
+        if (this.index != null) {
+            this.index.close();
+        }
+        this.index = FileChannel.open(this.indexFile(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        previous.close();
+        this.deleteOtherGenerations();
+        return garbage;
+    }
+
+    synchronized void close() {
+        this.lock.writeLock().lock();
+        try {
+            if (this.index != null) {
+                this.index.close();
+            }
+            if (this.data != null) {
+                this.data.close();
+            }
+        } catch (final IOException ex) {
+            Logging.warn(String.format("Failed to close tile archive '%s'", this.directory.resolve(this.name)), ex);
+        } finally {
+            this.index = null;
+            this.data = null;
+            this.lock.writeLock().unlock();
+        }
+    }
+}
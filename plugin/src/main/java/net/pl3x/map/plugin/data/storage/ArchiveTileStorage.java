@@ -0,0 +1,163 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+import net.pl3x.map.plugin.Logging;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Packs tiles into {@link ArchiveSegment}s of 32x32 tiles each, at
+ * {@code <world tiles directory>/archive/<zoom>/<group x>_<group z>.*}. A world keeps a few
+ * dozen files instead of one per tile, at the cost of only being servable by the integrated web server.
+ */
+@DefaultQualifier(NonNull.class)
+public final class ArchiveTileStorage implements TileStorage {
+    static final String DIRECTORY_NAME = "archive";
+
+    private final String world;
+    private final Path directory;
+    private final Map<SegmentKey, ArchiveSegment> segments = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public ArchiveTileStorage(final String world, final Path directory) {
+        this.world = world;
+        this.directory = directory;
+    }
+
+    private @Nullable ArchiveSegment segment(final int zoom, final int x, final int z, final boolean create) throws IOException {
+        if (this.closed) {
+            return null;
+        }
+        final SegmentKey key = new SegmentKey(zoom, x >> ArchiveSegment.SHIFT, z >> ArchiveSegment.SHIFT);
+        final @Nullable ArchiveSegment segment = this.segments.get(key);
+        if (segment != null) {
+            return segment;
+        }
+        final Path zoomDirectory = this.directory.resolve(Integer.toString(zoom));
+        final String name = key.x() + "_" + key.z();
+        if (!create && !Files.isRegularFile(zoomDirectory.resolve(name + ".idx"))) {
+            return null;
+        }
+        synchronized (this.segments) {
+            final @Nullable ArchiveSegment existing = this.segments.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            final ArchiveSegment opened = new ArchiveSegment(zoomDirectory, name);
+            this.segments.put(key, opened);
+            return opened;
+        }
+    }
+
+    @Override
+    public @Nullable BufferedImage read(final int zoom, final int x, final int z) throws IOException {
+        final @Nullable EncodedTile tile = this.readEncoded(zoom, x, z);
+        if (tile == null) {
+            return null;
+        }
+        final byte[] png = new byte[tile.data().remaining()];
+        tile.data().get(png);
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    @Override
+    public @Nullable EncodedTile readEncoded(final int zoom, final int x, final int z) throws IOException {
+        final @Nullable ArchiveSegment segment = this.segment(zoom, x, z, false);
+        if (segment == null) {
+            return null;
+        }
+        return segment.read(ArchiveSegment.tileIndex(x, z));
+    }
+
+    @Override
+    public void write(final int zoom, final int x, final int z, final BufferedImage image, final @Nullable Rectangle changed) throws IOException {
+        final @Nullable ArchiveSegment segment = this.segment(zoom, x, z, true);
+        if (segment == null) {
+            throw new IOException("Tile archive is closed");
+        }
+        final Buffer out = new Buffer();
+        TileImages.encode(image, out);
+        boolean written = false;
+        try {
+            segment.write(ArchiveSegment.tileIndex(x, z), out.array(), out.size());
+            written = true;
+        } finally {
+            TileChanges.changed(new TileCache.Key(this.world, zoom, x, z), written ? image : null, changed);
+        }
+    }
+
+    @Override
+    public void delete(final int zoom, final int x, final int z) throws IOException {
+        final @Nullable ArchiveSegment segment = this.segment(zoom, x, z, false);
+        if (segment != null) {
+            segment.delete(ArchiveSegment.tileIndex(x, z));
+            TileChanges.changed(new TileCache.Key(this.world, zoom, x, z));
+        }
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        synchronized (this.segments) {
+            this.segments.values().forEach(ArchiveSegment::close);
+            this.segments.clear();
+            try {
+                if (Files.isDirectory(this.directory)) {
+                    FileUtil.deleteDirectory(this.directory);
+                }
+            } finally {
+                TileChanges.cleared(this.world);
+            }
+        }
+    }
+
+    /**
+     * Compact segments which are mostly taken up by replaced tiles.
+     */
+    @Override
+    public void maintain() {
+        for (final ArchiveSegment segment : this.segments.values()) {
+            try {
+                final long freed = segment.compact(false);
+                if (freed > 0L) {
+                    Logging.debug(String.format("Compacted tile archive in '%s', freed %d bytes", this.directory, freed));
+                }
+            } catch (final IOException ex) {
+                Logging.warn(String.format("Failed to compact tile archive in '%s'", this.directory), ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        synchronized (this.segments) {
+            this.segments.values().forEach(ArchiveSegment::close);
+            this.segments.clear();
+        }
+    }
+
+    private record SegmentKey(int zoom, int x, int z) {
+    }
+
+    // exposes the backing array to avoid copying every encoded tile
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return this.buf;
+        }
+    }
+}
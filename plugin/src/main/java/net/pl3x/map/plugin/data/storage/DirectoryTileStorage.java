@@ -0,0 +1,88 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * One png file per tile, at {@code <world tiles directory>/<zoom>/<x>_<z>.png}.
+ */
+@DefaultQualifier(NonNull.class)
+public final class DirectoryTileStorage implements TileStorage {
+    private final String world;
+    private final Path directory;
+
+    public DirectoryTileStorage(final String world, final Path directory) {
+        this.world = world;
+        this.directory = directory;
+    }
+
+    @Override
+    public Path file(final int zoom, final int x, final int z) {
+        return this.directory.resolve(Integer.toString(zoom)).resolve(x + "_" + z + ".png");
+    }
+
+    @Override
+    public @Nullable BufferedImage read(final int zoom, final int x, final int z) throws IOException {
+        final Path file = this.file(zoom, x, z);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        return ImageIO.read(file.toFile());
+    }
+
+    @Override
+    public @Nullable EncodedTile readEncoded(final int zoom, final int x, final int z) throws IOException {
+        final Path file = this.file(zoom, x, z);
+        try {
+            final long lastModified = Files.getLastModifiedTime(file).toMillis();
+            return new EncodedTile(ByteBuffer.wrap(Files.readAllBytes(file)).asReadOnlyBuffer(), lastModified);
+        } catch (final NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void write(final int zoom, final int x, final int z, final BufferedImage image, final @Nullable Rectangle changed) throws IOException {
+        final Path file = this.file(zoom, x, z);
+        Files.createDirectories(file.getParent());
+        boolean written = false;
+        try {
+            // tiles are served straight from their files, which must never be seen half written
+            FileUtil.atomicWrite(file, tmp -> {
+                try (final OutputStream out = Files.newOutputStream(tmp)) {
+                    TileImages.encode(image, out);
+                }
+            });
+            written = true;
+        } finally {
+            // a failed write may have left anything behind
+            TileChanges.changed(new TileCache.Key(this.world, zoom, x, z), written ? image : null, changed);
+        }
+    }
+
+    @Override
+    public void delete(final int zoom, final int x, final int z) throws IOException {
+        Files.deleteIfExists(this.file(zoom, x, z));
+        TileChanges.changed(new TileCache.Key(this.world, zoom, x, z));
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        try {
+            FileUtil.deleteSubdirectories(this.directory);
+        } finally {
+            TileChanges.cleared(this.world);
+        }
+    }
+}
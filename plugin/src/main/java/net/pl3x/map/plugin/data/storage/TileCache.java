@@ -0,0 +1,212 @@
+package net.pl3x.map.plugin.data.storage;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Size bounded, least recently used cache of encoded tiles, shared by every world.
+ *
+ * <p>Tile storages invalidate entries as they write tiles, so cached tiles are never checked against
+ * their storage. A tile is only cached on its second request within a while, so tiles which are
+ * requested once, like those passed by while zooming, don't push out the ones which are requested over and over.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class TileCache {
+    private static final TileCache INSTANCE = new TileCache();
+    private static final int MAGIC = 0x73716874; // sqht
+    private static final int VERSION = 1;
+    private static final int MAX_SEEN = 8192;
+    private static final int INVALIDATION_SLOTS = 1 << 12;
+
+    private final LinkedHashMap<Key, TileStorage.EncodedTile> tiles = new LinkedHashMap<>(256, 0.75F, true);
+    private final LinkedHashMap<Key, Boolean> seen = new LinkedHashMap<>(256, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Boolean> eldest) {
+            return this.size() > MAX_SEEN;
+        }
+    };
+    private volatile long maxBytes = 64L << 20;
+    private long bytes;
+    // invalidations of tiles hashed into slots, and of whole worlds or everything
+    private final long[] invalidations = new long[INVALIDATION_SLOTS];
+    private long clears;
+
+    private TileCache() {
+    }
+
+    public static TileCache instance() {
+        return INSTANCE;
+    }
+
+    public synchronized void maxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.evict();
+    }
+
+    public synchronized TileStorage.@Nullable EncodedTile get(final Key key) {
+        final TileStorage.@Nullable EncodedTile tile = this.tiles.get(key);
+        return tile == null ? null : new TileStorage.EncodedTile(tile.data().duplicate(), tile.lastModified());
+    }
+
+    /**
+     * Record a request for a tile which isn't cached.
+     *
+     * @param key tile
+     * @return whether the tile was requested recently before, and should be cached
+     */
+    public synchronized boolean admit(final Key key) {
+        return this.seen.put(key, Boolean.TRUE) != null;
+    }
+
+    /**
+     * Take a stamp before reading a tile to {@link #put(Key, TileStorage.EncodedTile, long)}, so a tile read
+     * while it was being replaced isn't cached.
+     *
+     * @param key tile
+     * @return stamp
+     */
+    public synchronized long stamp(final Key key) {
+        // both only ever grow, so the sum changes when either does
+        return this.invalidations[slot(key)] + this.clears;
+    }
+
+    /**
+     * Cache a tile, unless it was invalidated since the stamp was taken.
+     *
+     * @param key   tile
+     * @param tile  encoded tile, copied
+     * @param stamp {@link #stamp(Key)} from before the tile was read
+     */
+    public void put(final Key key, final TileStorage.EncodedTile tile, final long stamp) {
+        final ByteBuffer source = tile.data().duplicate();
+        if (source.remaining() > this.maxBytes / 16) {
+            return;
+        }
+        final byte[] copy = new byte[source.remaining()];
+        source.get(copy);
+        synchronized (this) {
+            if (stamp != this.stamp(key)) {
+                return;
+            }
+            final TileStorage.@Nullable EncodedTile previous = this.tiles.put(key, new TileStorage.EncodedTile(ByteBuffer.wrap(copy).asReadOnlyBuffer(), tile.lastModified()));
+            if (previous != null) {
+                this.bytes -= previous.data().capacity();
+            }
+            this.bytes += copy.length;
+            this.evict();
+        }
+    }
+
+    public synchronized void invalidate(final Key key) {
+        this.invalidations[slot(key)]++;
+        final TileStorage.@Nullable EncodedTile removed = this.tiles.remove(key);
+        if (removed != null) {
+            this.bytes -= removed.data().capacity();
+        }
+    }
+
+    public synchronized void invalidateWorld(final String world) {
+        this.clears++;
+        final Iterator<Map.Entry<Key, TileStorage.EncodedTile>> iterator = this.tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, TileStorage.EncodedTile> entry = iterator.next();
+            if (entry.getKey().world().equals(world)) {
+                this.bytes -= entry.getValue().data().capacity();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.clears++;
+        this.tiles.clear();
+        this.seen.clear();
+        this.bytes = 0L;
+    }
+
+    private static int slot(final Key key) {
+        return HashCommon.mix(key.hashCode()) & (INVALIDATION_SLOTS - 1);
+    }
+
+    private void evict() {
+        final Iterator<TileStorage.EncodedTile> iterator = this.tiles.values().iterator();
+        while (this.bytes > this.maxBytes && iterator.hasNext()) {
+            this.bytes -= iterator.next().data().capacity();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Save which tiles are cached, least recently used first, to warm the cache up with after a restart.
+     *
+     * @param file file
+     * @throws IOException when writing fails
+     */
+    public void saveHotSet(final Path file) throws IOException {
+        final List<Key> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(this.tiles.keySet());
+        }
+        Files.createDirectories(file.getParent());
+        FileUtil.atomicWrite(file, tmp -> {
+            try (final OutputStream stream = Files.newOutputStream(tmp);
+                 final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(keys.size());
+                for (final Key key : keys) {
+                    out.writeUTF(key.world());
+                    out.writeInt(key.zoom());
+                    out.writeInt(key.x());
+                    out.writeInt(key.z());
+                }
+            }
+        });
+    }
+
+    /**
+     * Load a hot set saved by {@link #saveHotSet(Path)}.
+     *
+     * @param file file
+     * @return tiles, least recently used first
+     * @throws IOException when reading fails
+     */
+    public static List<Key> loadHotSet(final Path file) throws IOException {
+        final List<Key> keys = new ArrayList<>();
+        if (!Files.isRegularFile(file)) {
+            return keys;
+        }
+        try (final InputStream stream = Files.newInputStream(file);
+             final DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Not a hot tile set: " + file);
+            }
+            final int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                keys.add(new Key(in.readUTF(), in.readInt(), in.readInt(), in.readInt()));
+            }
+        }
+        return keys;
+    }
+
+    public record Key(String world, int zoom, int x, int z) {
+    }
+}
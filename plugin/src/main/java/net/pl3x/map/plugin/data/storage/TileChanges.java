@@ -0,0 +1,81 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Where tile storages report written and deleted tiles, keeping the {@link TileCache} and
+ * {@link TileJournal} up to date and telling a {@link Listener}, if any, which tiles changed.
+ */
+@DefaultQualifier(NonNull.class)
+public final class TileChanges {
+    private static volatile @Nullable Listener listener;
+
+    private TileChanges() {
+    }
+
+    public static void listener(final @Nullable Listener listener) {
+        TileChanges.listener = listener;
+    }
+
+    static void changed(final TileCache.Key key) {
+        changed(key, null, null);
+    }
+
+    /**
+     * Report a tile change.
+     *
+     * @param key     tile
+     * @param image   the tile as written, or {@code null} if it was deleted
+     * @param changed the area of the tile which changed, or {@code null} if unknown
+     */
+    static void changed(final TileCache.Key key, final @Nullable BufferedImage image, final @Nullable Rectangle changed) {
+        TileCache.instance().invalidate(key);
+        final TileJournal.Change change = TileJournal.of(key.world()).changed(key);
+        final @Nullable Listener listener = TileChanges.listener;
+        if (listener != null && listener.listening()) {
+            // only worth taking a patch of when someone listens, and when it applies on top of a known version
+            final @Nullable TilePatch patch = image == null || changed == null || change.previous() < 0L ? null : TilePatch.of(image, changed);
+            listener.tileChanged(key, change.previous(), change.version(), patch);
+        }
+    }
+
+    static void cleared(final String world) {
+        TileCache.instance().invalidateWorld(world);
+        TileJournal.of(world).reset();
+        final @Nullable Listener listener = TileChanges.listener;
+        if (listener != null) {
+            listener.worldCleared(world);
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Whether tile changes are wanted right now. Changed tiles are not reported otherwise, and no patches are taken.
+         *
+         * @return whether anyone listens
+         */
+        boolean listening();
+
+        /**
+         * Called after a tile was written or deleted, on the thread which did so.
+         *
+         * @param key      tile
+         * @param previous the tile's previous version in its world's {@link TileJournal}, or -1 if the epoch changed
+         * @param version  the tile's new version
+         * @param patch    the pixels which changed, turning the previous version into the new one, or
+         *                 {@code null} if too many changed or they aren't known
+         */
+        void tileChanged(TileCache.Key key, long previous, long version, @Nullable TilePatch patch);
+
+        /**
+         * Called after all tiles of a world were deleted.
+         *
+         * @param world world name
+         */
+        void worldCleared(String world);
+    }
+}
@@ -0,0 +1,48 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import net.pl3x.map.plugin.configuration.Config;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+@DefaultQualifier(NonNull.class)
+final class TileImages {
+    private TileImages() {
+    }
+
+    /**
+     * Encode a tile as png, compressed as configured.
+     *
+     * @param image tile
+     * @param out   output, not closed
+     * @throws IOException when encoding fails
+     */
+    static void encode(final BufferedImage image, final OutputStream out) throws IOException {
+        if (!Config.COMPRESS_IMAGES) {
+            ImageIO.write(image, "png", out);
+            return;
+        }
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        try (final ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(imageOutputStream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(Config.COMPRESSION_RATIO);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
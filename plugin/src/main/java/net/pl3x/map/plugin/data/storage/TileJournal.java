@@ -0,0 +1,110 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Versions of the tiles of one world, so the web map can request tiles by version and let browsers cache them for good.
+ *
+ * <p>Every write of a tile bumps the journal's version and sets the tile's version to it, tiles which
+ * weren't written since the journal started have version 0. Versions only mean anything together with
+ * the epoch, which changes every time the journal starts over: on startup, when the world's tiles are
+ * deleted and when more tiles changed than the journal keeps track of.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class TileJournal {
+    private static final Map<String, TileJournal> JOURNALS = new ConcurrentHashMap<>();
+    private static volatile int maxSize = 32768;
+
+    private final Map<TileCache.Key, Long> versions = new HashMap<>();
+    private long epoch;
+    private long version;
+
+    private TileJournal() {
+        this.epoch = System.currentTimeMillis();
+    }
+
+    public static TileJournal of(final String world) {
+        return JOURNALS.computeIfAbsent(world, name -> new TileJournal());
+    }
+
+    public static void maxSize(final int maxSize) {
+        TileJournal.maxSize = maxSize;
+    }
+
+    public synchronized long epoch() {
+        return this.epoch;
+    }
+
+    synchronized Change changed(final TileCache.Key key) {
+        long previous = this.versions.getOrDefault(key, 0L);
+        if (this.versions.size() >= maxSize && !this.versions.containsKey(key)) {
+            this.reset();
+            previous = -1L;
+        }
+        this.version++;
+        this.versions.put(key, this.version);
+        return new Change(previous, this.version);
+    }
+
+    synchronized void reset() {
+        // clients tell epochs apart by value, never hand out the same one twice
+        this.epoch = Math.max(System.currentTimeMillis(), this.epoch + 1);
+        this.version = 0L;
+        this.versions.clear();
+    }
+
+    /**
+     * Get the current tag of a tile, {@code <epoch>-<version>}, as the web map puts it in tile urls.
+     *
+     * @param key tile
+     * @return tag
+     */
+    public synchronized String tag(final TileCache.Key key) {
+        return this.epoch + "-" + this.versions.getOrDefault(key, 0L);
+    }
+
+    /**
+     * Get the tiles which changed since a version.
+     *
+     * @param epoch epoch the version is from
+     * @param since version, 0 for every tile in the journal
+     * @return changes, every tile in the journal when the epoch doesn't match
+     */
+    public synchronized Changes changesSince(final long epoch, final long since) {
+        final boolean reset = epoch != this.epoch;
+        final long from = reset ? 0L : since;
+        final List<long[]> tiles = new ArrayList<>();
+        this.versions.forEach((key, version) -> {
+            if (version > from) {
+                tiles.add(new long[]{key.zoom(), key.x(), key.z(), version});
+            }
+        });
+        return new Changes(this.epoch, this.version, reset, tiles);
+    }
+
+    /**
+     * A version bump of one tile.
+     *
+     * @param previous version the tile had, or -1 if the epoch changed with it
+     * @param version  version the tile has now
+     */
+    record Change(long previous, long version) {
+    }
+
+    /**
+     * Tiles which changed.
+     *
+     * @param epoch   current epoch
+     * @param version current version
+     * @param reset   whether the epoch changed, and every version the client knows is void
+     * @param tiles   {@code [zoom, x, z, version]} of every changed tile
+     */
+    public record Changes(long epoch, long version, boolean reset, List<long[]> tiles) {
+    }
+}
@@ -0,0 +1,69 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * The pixels of an area of a tile, as a palette of argb colors and runs of palette indices, row by row.
+ * A render updating a chunk changes a 16x16 area of a tile at most, which this carries in a few dozen
+ * numbers rather than the whole tile.
+ *
+ * @param x       area x within the tile
+ * @param z       area z within the tile
+ * @param width   area width
+ * @param height  area height
+ * @param palette argb colors
+ * @param runs    pairs of run length and palette index
+ */
+@DefaultQualifier(NonNull.class)
+public record TilePatch(int x, int z, int width, int height, int[] palette, int[] runs) {
+    // past this much of a tile, fetching the tile itself is about as cheap
+    private static final int MAX_AREA = 128 * 128;
+
+    /**
+     * Take a patch of an area of a tile.
+     *
+     * @param image tile
+     * @param area  area
+     * @return patch, or {@code null} if the area is too large to be worth patching
+     */
+    public static @Nullable TilePatch of(final BufferedImage image, final Rectangle area) {
+        if (area.isEmpty() || area.width * area.height > MAX_AREA) {
+            return null;
+        }
+        final int[] pixels = image.getRGB(area.x, area.y, area.width, area.height, null, 0, area.width);
+        final Map<Integer, Integer> indices = new HashMap<>();
+        int[] palette = new int[16];
+        int[] runs = new int[32];
+        int runCount = 0;
+        for (int i = 0; i < pixels.length; ) {
+            final int color = pixels[i];
+            int length = 1;
+            while (i + length < pixels.length && pixels[i + length] == color) {
+                length++;
+            }
+            Integer index = indices.get(color);
+            if (index == null) {
+                index = indices.size();
+                indices.put(color, index);
+                if (index == palette.length) {
+                    palette = Arrays.copyOf(palette, palette.length * 2);
+                }
+                palette[index] = color;
+            }
+            if (runCount + 2 > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[runCount++] = length;
+            runs[runCount++] = index;
+            i += length;
+        }
+        return new TilePatch(area.x, area.y, area.width, area.height, Arrays.copyOf(palette, indices.size()), Arrays.copyOf(runs, runCount));
+    }
+}
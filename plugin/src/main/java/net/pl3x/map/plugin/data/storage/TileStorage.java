@@ -0,0 +1,125 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Locale;
+import net.pl3x.map.plugin.Logging;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Where the tiles of a world are kept. Tiles are addressed by zoom and tile coordinates, the same
+ * {@code <zoom>/<x>_<z>.png} addressing the web map requests them by.
+ *
+ * <p>Implementations must be safe to read from the web server while tiles are being written, and
+ * report tiles they write or delete to {@link TileChanges}.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public interface TileStorage {
+
+    /**
+     * Create the configured storage for a world.
+     *
+     * @param type           {@code directory} or {@code archive}
+     * @param world          world name
+     * @param tilesDirectory world tiles directory
+     * @return tile storage
+     */
+    static TileStorage create(final String type, final String world, final Path tilesDirectory) {
+        return switch (type.toLowerCase(Locale.ROOT)) {
+            case "archive" -> new ArchiveTileStorage(world, tilesDirectory.resolve(ArchiveTileStorage.DIRECTORY_NAME));
+            case "directory" -> new DirectoryTileStorage(world, tilesDirectory);
+            default -> {
+                Logging.logger().warn(String.format("Unknown tile storage type '%s', using 'directory'", type));
+                yield new DirectoryTileStorage(world, tilesDirectory);
+            }
+        };
+    }
+
+    /**
+     * Read and decode a tile.
+     *
+     * @param zoom zoom
+     * @param x    tile x
+     * @param z    tile z
+     * @return tile, or {@code null} if there is none
+     * @throws IOException when the tile can't be read or decoded
+     */
+    @Nullable BufferedImage read(int zoom, int x, int z) throws IOException;
+
+    /**
+     * Read a tile as encoded png, for serving it as is.
+     *
+     * @param zoom zoom
+     * @param x    tile x
+     * @param z    tile z
+     * @return tile, or {@code null} if there is none
+     * @throws IOException when the tile can't be read
+     */
+    @Nullable EncodedTile readEncoded(int zoom, int x, int z) throws IOException;
+
+    /**
+     * Encode and write a tile, replacing the existing one.
+     *
+     * @param zoom    zoom
+     * @param x       tile x
+     * @param z       tile z
+     * @param image   tile
+     * @param changed the area of the tile which changed, or {@code null} if unknown
+     * @throws IOException when the tile can't be written
+     */
+    void write(int zoom, int x, int z, BufferedImage image, @Nullable Rectangle changed) throws IOException;
+
+    /**
+     * Delete a tile, if it exists.
+     *
+     * @param zoom zoom
+     * @param x    tile x
+     * @param z    tile z
+     * @throws IOException when the tile can't be deleted
+     */
+    void delete(int zoom, int x, int z) throws IOException;
+
+    /**
+     * Delete every tile.
+     *
+     * @throws IOException when the tiles can't be deleted
+     */
+    void deleteAll() throws IOException;
+
+    /**
+     * Get the plain file a tile is kept in, for storages which lay tiles out as plain files under the
+     * world tiles directory, which any web server can serve without going through this storage.
+     *
+     * @param zoom zoom
+     * @param x    tile x
+     * @param z    tile z
+     * @return file, which may not exist, or {@code null} if tiles are not kept as plain files
+     */
+    default @Nullable Path file(final int zoom, final int x, final int z) {
+        return null;
+    }
+
+    /**
+     * Periodic housekeeping, run off the main thread.
+     */
+    default void maintain() {
+    }
+
+    /**
+     * Release any open files.
+     */
+    default void close() {
+    }
+
+    /**
+     * @param data         png data, read only
+     * @param lastModified time the tile was last written, in epoch millis
+     */
+    record EncodedTile(ByteBuffer data, long lastModified) {
+    }
+}
@@ -9,16 +9,24 @@ import io.undertow.util.ETag;
 import io.undertow.util.Headers;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import net.kyori.adventure.text.minimessage.Template;
 import net.pl3x.map.plugin.Logging;
 import net.pl3x.map.plugin.configuration.Config;
 import net.pl3x.map.plugin.configuration.Lang;
+import net.pl3x.map.plugin.data.storage.TileCache;
+import net.pl3x.map.plugin.data.storage.TileJournal;
+import net.pl3x.map.plugin.data.storage.TileStorage;
 import net.pl3x.map.plugin.util.FileUtil;
 
 public class IntegratedServer {
+    private static final String HOT_SET_FILE_NAME = "hot_tiles.bin";
     private static Undertow server;
+    private static LiveUpdates liveUpdates;
 
     public static void startServer() {
         try {
@@ -46,18 +54,34 @@ public class IntegratedServer {
                 }
             });
 
+            final TileHandler tileHandler = new TileHandler(resourceHandler);
+            TileCache.instance().maxBytes(Math.max(0L, Config.HTTPD_TILE_CACHE_MAX_SIZE_MB) << 20);
+            TileJournal.maxSize(Math.max(1, Config.HTTPD_TILE_JOURNAL_MAX_SIZE));
+            if (Config.HTTPD_LIVE_UPDATES_ENABLED) {
+                liveUpdates = LiveUpdates.start();
+            }
+
             server = Undertow.builder()
                     .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
                     .addHttpListener(Config.HTTPD_PORT, Config.HTTPD_BIND)
                     .setHandler(exchange -> {
+                        if (liveUpdates != null && exchange.getRelativePath().equals("/live")) {
+                            liveUpdates.handler().handleRequest(exchange);
+                            return;
+                        }
                         if (exchange.getRelativePath().startsWith("/tiles")) {
                             exchange.getResponseHeaders().put(Headers.CACHE_CONTROL,
                                                               "max-age=0, must-revalidate, no-cache");
+                            tileHandler.handleRequest(exchange);
+                            return;
                         }
                         resourceHandler.handleRequest(exchange);
                     })
                     .build();
             server.start();
+            if (Config.HTTPD_TILE_CACHE_PERSIST_HOT_SET) {
+                ForkJoinPool.commonPool().execute(IntegratedServer::warmTileCache);
+            }
 
             Logging.info(
                     Lang.LOG_INTERNAL_WEB_STARTED,
@@ -66,6 +90,7 @@ public class IntegratedServer {
             );
         } catch (Exception e) {
             server = null;
+            stopLiveUpdates();
             Logging.severe(Lang.LOG_INTERNAL_WEB_START_ERROR, e);
         }
     }
@@ -76,8 +101,60 @@ public class IntegratedServer {
             return;
         }
 
+        stopLiveUpdates();
         server.stop();
         server = null;
+        if (Config.HTTPD_TILE_CACHE_PERSIST_HOT_SET) {
+            try {
+                TileCache.instance().saveHotSet(hotSetFile());
+            } catch (IOException e) {
+                Logging.warn("Failed to save hot tile set", e);
+            }
+        }
+        TileCache.instance().clear();
         Logging.info(Lang.LOG_INTERNAL_WEB_STOPPED);
     }
+
+    private static void stopLiveUpdates() {
+        if (liveUpdates != null) {
+            liveUpdates.stop();
+            liveUpdates = null;
+        }
+    }
+
+    private static Path hotSetFile() {
+        return FileUtil.PLUGIN_DIR.resolve("data").resolve(HOT_SET_FILE_NAME);
+    }
+
+    // read the tiles which were cached when the server stopped back into the cache
+    private static void warmTileCache() {
+        final List<TileCache.Key> keys;
+        try {
+            keys = TileCache.loadHotSet(hotSetFile());
+        } catch (IOException e) {
+            Logging.warn("Failed to load hot tile set", e);
+            return;
+        }
+        int warmed = 0;
+        for (final TileCache.Key key : keys) {
+            if (server == null) {
+                return; // stopped while warming up
+            }
+            final TileStorage storage = TileHandler.storage(key.world());
+            if (storage == null) {
+                continue;
+            }
+            final long stamp = TileCache.instance().stamp(key);
+            try {
+                final TileStorage.EncodedTile tile = storage.readEncoded(key.zoom(), key.x(), key.z());
+                if (tile != null) {
+                    TileCache.instance().put(key, tile, stamp);
+                    warmed++;
+                }
+            } catch (IOException e) {
+                Logging.debug(String.format("Failed to warm up tile %s: %s", key, e.getMessage()));
+            }
+        }
+        Logging.debug(String.format("Warmed up tile cache with %d of %d tiles", warmed, keys.size()));
+    }
 }
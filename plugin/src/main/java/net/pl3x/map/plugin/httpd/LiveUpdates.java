@@ -0,0 +1,228 @@
+package net.pl3x.map.plugin.httpd;
+
+import com.google.gson.Gson;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.pl3x.map.plugin.Logging;
+import net.pl3x.map.plugin.data.storage.TileCache;
+import net.pl3x.map.plugin.data.storage.TileChanges;
+import net.pl3x.map.plugin.data.storage.TileJournal;
+import net.pl3x.map.plugin.data.storage.TilePatch;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Pushes player positions, marker layer changes and changed tiles to web clients over server-sent events,
+ * so they don't have to poll for them.
+ *
+ * <p>Events are {@code players}, carrying the same json as {@code players.json}, {@code markers}, carrying
+ * the name of a world whose {@code markers.json} changed, and {@code tiles}, carrying the tiles of a world
+ * which were written since the last one with their {@link TileJournal} versions as
+ * {@code {"world":..,"epoch":..,"tiles":[[zoom,x,z,version],..],"patches":[..]}}, or
+ * {@code {"world":..,"all":true}} when too many changed to list.</p>
+ *
+ * <p>Tiles of which only a small area changed come with {@link TilePatch}es, as
+ * {@code {"tile":[zoom,x,z],"from":version,"to":version,"rects":[{"x":..,"z":..,"width":..,"height":..,"palette":[..],"runs":[..]},..]}},
+ * for clients showing the tile at the {@code from} version to apply in order instead of fetching it again.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class LiveUpdates implements TileChanges.Listener {
+    private static final long FLUSH_INTERVAL_MILLIS = 1000L;
+    private static final long KEEP_ALIVE_MILLIS = 15000L;
+    private static final int MAX_TILES_PER_EVENT = 512;
+    private static final int MAX_PATCHES_PER_TILE = 16;
+    private static volatile @Nullable LiveUpdates instance;
+
+    private final Gson gson = new Gson();
+    private final ServerSentEventHandler handler = new ServerSentEventHandler(this::connected);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, Map<TileCache.Key, ChangedTile>> changedTiles = new HashMap<>();
+    private final Set<String> clearedWorlds = new LinkedHashSet<>();
+    private volatile @Nullable String players;
+
+    private LiveUpdates() {
+    }
+
+    static LiveUpdates start() {
+        final LiveUpdates live = new LiveUpdates();
+        live.executor.scheduleWithFixedDelay(live::flushTiles, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        TileChanges.listener(live);
+        instance = live;
+        return live;
+    }
+
+    void stop() {
+        instance = null;
+        TileChanges.listener(null);
+        this.executor.shutdownNow();
+        for (final ServerSentEventConnection connection : this.handler.getConnections()) {
+            connection.shutdown();
+        }
+    }
+
+    HttpHandler handler() {
+        return this.handler;
+    }
+
+    private void connected(final ServerSentEventConnection connection, final @Nullable String lastEventId) {
+        connection.setKeepAliveTime(KEEP_ALIVE_MILLIS);
+        final @Nullable String players = this.players;
+        if (players != null) {
+            connection.send(players, "players", null, null);
+        }
+    }
+
+    /**
+     * Push the player list, if it changed since it was last pushed.
+     *
+     * @param json players json
+     */
+    public static void players(final String json) {
+        final @Nullable LiveUpdates live = instance;
+        if (live == null || json.equals(live.players)) {
+            return;
+        }
+        live.players = json;
+        live.broadcast("players", json);
+    }
+
+    /**
+     * Tell clients to reload the markers of a world, after its {@code markers.json} was written.
+     *
+     * @param world world name
+     */
+    public static void markersChanged(final String world) {
+        final @Nullable LiveUpdates live = instance;
+        if (live != null) {
+            live.broadcast("markers", world);
+        }
+    }
+
+    @Override
+    public boolean listening() {
+        return !this.handler.getConnections().isEmpty();
+    }
+
+    @Override
+    public void tileChanged(final TileCache.Key key, final long previous, final long version, final @Nullable TilePatch patch) {
+        synchronized (this.changedTiles) {
+            if (this.clearedWorlds.contains(key.world())) {
+                return;
+            }
+            final Map<TileCache.Key, ChangedTile> tiles = this.changedTiles.computeIfAbsent(key.world(), world -> new LinkedHashMap<>());
+            final @Nullable ChangedTile tile = tiles.get(key);
+            if (tile == null) {
+                tiles.put(key, new ChangedTile(previous, version, patch));
+            } else {
+                tile.changed(previous, version, patch);
+            }
+            if (tiles.size() > MAX_TILES_PER_EVENT) {
+                this.changedTiles.remove(key.world());
+                this.clearedWorlds.add(key.world());
+            }
+        }
+    }
+
+    @Override
+    public void worldCleared(final String world) {
+        synchronized (this.changedTiles) {
+            this.changedTiles.remove(world);
+            this.clearedWorlds.add(world);
+        }
+    }
+
+    // tiles are batched, a render writes every zoom level of a region at once and often many regions in a row
+    private void flushTiles() {
+        final Map<String, Map<TileCache.Key, ChangedTile>> changed;
+        final List<String> cleared;
+        synchronized (this.changedTiles) {
+            if (this.changedTiles.isEmpty() && this.clearedWorlds.isEmpty()) {
+                return;
+            }
+            changed = new HashMap<>(this.changedTiles);
+            cleared = new ArrayList<>(this.clearedWorlds);
+            this.changedTiles.clear();
+            this.clearedWorlds.clear();
+        }
+        try {
+            for (final String world : cleared) {
+                this.broadcast("tiles", this.gson.toJson(Map.of("world", world, "all", true)));
+            }
+            changed.forEach((world, changedTiles) -> {
+                final List<long[]> tiles = new ArrayList<>(changedTiles.size());
+                final List<Map<String, Object>> patches = new ArrayList<>();
+                changedTiles.forEach((key, tile) -> {
+                    tiles.add(new long[]{key.zoom(), key.x(), key.z(), tile.version});
+                    if (tile.patches != null) {
+                        patches.add(Map.of(
+                            "tile", new int[]{key.zoom(), key.x(), key.z()},
+                            "from", tile.from,
+                            "to", tile.version,
+                            "rects", tile.patches
+                        ));
+                    }
+                });
+                final long epoch = TileJournal.of(world).epoch();
+                this.broadcast("tiles", this.gson.toJson(Map.of("world", world, "epoch", epoch, "tiles", tiles, "patches", patches)));
+            });
+        } catch (final Exception ex) {
+            Logging.warn("Failed to push changed tiles", ex);
+        }
+    }
+
+    private void broadcast(final String event, final String data) {
+        for (final ServerSentEventConnection connection : this.handler.getConnections()) {
+            connection.send(data, event, null, null);
+        }
+    }
+
+    // a tile written again before it was pushed keeps its patches as long as they chain up
+    private static final class ChangedTile {
+        private final long from;
+        private long version;
+        private @Nullable List<Map<String, Object>> patches;
+
+        ChangedTile(final long previous, final long version, final @Nullable TilePatch patch) {
+            this.from = previous;
+            this.version = version;
+            if (patch != null) {
+                this.patches = new ArrayList<>();
+                this.patches.add(serialize(patch));
+            }
+        }
+
+        void changed(final long previous, final long version, final @Nullable TilePatch patch) {
+            if (this.patches != null) {
+                if (patch == null || previous != this.version || this.patches.size() >= MAX_PATCHES_PER_TILE) {
+                    this.patches = null;
+                } else {
+                    this.patches.add(serialize(patch));
+                }
+            }
+            this.version = version;
+        }
+
+        private static Map<String, Object> serialize(final TilePatch patch) {
+            return Map.of(
+                "x", patch.x(),
+                "z", patch.z(),
+                "width", patch.width(),
+                "height", patch.height(),
+                "palette", patch.palette(),
+                "runs", patch.runs()
+            );
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package net.pl3x.map.plugin.httpd;
+
+import com.google.gson.Gson;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Deque;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.pl3x.map.plugin.Pl3xMapPlugin;
+import net.pl3x.map.plugin.data.MapWorld;
+import net.pl3x.map.plugin.data.RegionCoordinate;
+import net.pl3x.map.plugin.data.storage.TileCache;
+import net.pl3x.map.plugin.data.storage.TileJournal;
+import net.pl3x.map.plugin.data.storage.TileStorage;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Serves map tiles out of the {@link TileCache}, or their {@link TileStorage} on a miss, passing
+ * every other request on to the next handler.
+ *
+ * <p>Cache hits, including revalidations answered with 304, are served on the io thread without touching
+ * the disk. Misses of plain file tiles are sent with {@link FileChannel#transferTo}, so the tile never
+ * passes through the heap unless it turns out to be hot enough to cache.</p>
+ *
+ * <p>Tiles requested with their current {@link TileJournal} tag as {@code ?v=<epoch>-<version>} are sent
+ * as immutable, a changed tile gets a new tag. {@code /tiles/<world>/changes?epoch=..&since=..} lists the
+ * tiles which changed since a version, for the web map to know which tags to request.</p>
+ */
+@DefaultQualifier(NonNull.class)
+final class TileHandler implements HttpHandler {
+    private static final Pattern TILE_PATH = Pattern.compile("^/tiles/([^/]+)/(\\d+)/(-?\\d+)_(-?\\d+)\\.png$");
+    private static final Pattern CHANGES_PATH = Pattern.compile("^/tiles/([^/]+)/changes$");
+    private static final String CACHE_FOREVER = "public, max-age=31536000, immutable";
+
+    private final Gson gson = new Gson();
+    private final HttpHandler next;
+
+    TileHandler(final HttpHandler next) {
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final Matcher matcher = TILE_PATH.matcher(exchange.getRelativePath());
+        if (!matcher.matches()) {
+            final Matcher changes = CHANGES_PATH.matcher(exchange.getRelativePath());
+            if (changes.matches()) {
+                this.sendChanges(exchange, changes.group(1));
+                return;
+            }
+            this.next.handleRequest(exchange);
+            return;
+        }
+        final TileCache.Key key = new TileCache.Key(
+            matcher.group(1),
+            Integer.parseInt(matcher.group(2)),
+            Integer.parseInt(matcher.group(3)),
+            Integer.parseInt(matcher.group(4))
+        );
+
+        final TileStorage.@Nullable EncodedTile cached = TileCache.instance().get(key);
+        if (cached != null) {
+            cacheIfCurrent(exchange, key);
+            send(exchange, cached);
+            return;
+        }
+
+        final @Nullable TileStorage storage = storage(key.world());
+        if (storage == null) {
+            this.next.handleRequest(exchange);
+            return;
+        }
+        cacheIfCurrent(exchange, key);
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+
+        final boolean admit = TileCache.instance().admit(key);
+        final long stamp = TileCache.instance().stamp(key);
+        final @Nullable Path file = storage.file(key.zoom(), key.x(), key.z());
+        if (file != null && !admit) {
+            transferFile(exchange, key, file);
+            return;
+        }
+
+        final TileStorage.@Nullable EncodedTile tile = storage.readEncoded(key.zoom(), key.x(), key.z());
+        if (tile == null) {
+            sendMissing(exchange, key);
+            return;
+        }
+        if (admit) {
+            TileCache.instance().put(key, tile, stamp);
+        }
+        send(exchange, tile);
+    }
+
+    private void sendChanges(final HttpServerExchange exchange, final String world) throws Exception {
+        if (storage(world) == null) {
+            this.next.handleRequest(exchange);
+            return;
+        }
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+        final TileJournal.Changes changes = TileJournal.of(world).changesSince(
+            longParameter(exchange, "epoch", -1L),
+            longParameter(exchange, "since", 0L)
+        );
+        final String json = this.gson.toJson(Map.of(
+            "epoch", changes.epoch(),
+            "version", changes.version(),
+            "reset", changes.reset(),
+            "tiles", changes.tiles()
+        ));
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(json);
+    }
+
+    private static long longParameter(final HttpServerExchange exchange, final String name, final long def) {
+        final @Nullable Deque<String> values = exchange.getQueryParameters().get(name);
+        if (values == null || values.isEmpty()) {
+            return def;
+        }
+        try {
+            return Long.parseLong(values.getFirst());
+        } catch (final NumberFormatException ex) {
+            return def;
+        }
+    }
+
+    // a tag which isn't current may still be answered with a newer tile, which must not stick
+    private static void cacheIfCurrent(final HttpServerExchange exchange, final TileCache.Key key) {
+        final @Nullable Deque<String> tag = exchange.getQueryParameters().get("v");
+        if (tag != null && !tag.isEmpty() && tag.getFirst().equals(TileJournal.of(key.world()).tag(key))) {
+            exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, CACHE_FOREVER);
+        }
+    }
+
+    private static void send(final HttpServerExchange exchange, final TileStorage.EncodedTile tile) {
+        if (notModified(exchange, tile.lastModified())) {
+            return;
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "image/png");
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, tile.data().remaining());
+        exchange.getResponseSender().send(tile.data());
+    }
+
+    private static void transferFile(final HttpServerExchange exchange, final TileCache.Key key, final Path file) throws IOException {
+        final long lastModified;
+        final FileChannel channel;
+        try {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+            if (notModified(exchange, lastModified)) {
+                return;
+            }
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (final NoSuchFileException ex) {
+            sendMissing(exchange, key);
+            return;
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "image/png");
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, channel.size());
+        exchange.getResponseSender().transferFrom(channel, new IoCallback() {
+            @Override
+            public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+                close(channel);
+                IoCallback.END_EXCHANGE.onComplete(exchange, sender);
+            }
+
+            @Override
+            public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+                close(channel);
+                IoCallback.END_EXCHANGE.onException(exchange, sender, exception);
+            }
+        });
+    }
+
+    private static boolean notModified(final HttpServerExchange exchange, final long lastModified) {
+        final ETag etag = new ETag(false, Long.toString(lastModified));
+        exchange.getResponseHeaders().put(Headers.ETAG, etag.toString());
+        if (ETagUtils.handleIfNoneMatch(exchange, etag, true)) {
+            return false;
+        }
+        exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+        exchange.endExchange();
+        return true;
+    }
+
+    private static void sendMissing(final HttpServerExchange exchange, final TileCache.Key key) {
+        final @Nullable MapWorld world = world(key.world());
+        if (world != null && key.zoom() == world.config().ZOOM_MAX) {
+            // highest zoom tiles are one region each
+            world.requestRegion(new RegionCoordinate(key.x(), key.z()));
+        }
+        // same as before, the map asks for tiles which were never rendered all the time
+        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+        exchange.setStatusCode(StatusCodes.OK);
+        exchange.endExchange();
+    }
+
+    private static void close(final FileChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException ignore) {
+        }
+    }
+
+    static @Nullable TileStorage storage(final String worldName) {
+        final @Nullable MapWorld world = world(worldName);
+        return world == null ? null : world.tileStorage();
+    }
+
+    private static @Nullable MapWorld world(final String worldName) {
+        for (final MapWorld world : Pl3xMapPlugin.getInstance().worldManager().worlds().values()) {
+            if (world.name().equals(worldName)) {
+                return world;
+            }
+        }
+        return null;
+    }
+}
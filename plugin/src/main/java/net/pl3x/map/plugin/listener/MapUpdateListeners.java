@@ -1,19 +1,27 @@
 package net.pl3x.map.plugin.listener;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import net.pl3x.map.plugin.Pl3xMapPlugin;
 import net.pl3x.map.plugin.configuration.Advanced;
 import net.pl3x.map.plugin.data.ChunkCoordinate;
+import net.pl3x.map.plugin.data.MapWorld;
+import net.pl3x.map.plugin.data.SurfaceFingerprints;
+import net.pl3x.map.plugin.data.UpdateQueue;
 import net.pl3x.map.plugin.util.Numbers;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
+import org.bukkit.craftbukkit.v1_18_R1.CraftChunk;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
@@ -41,13 +49,16 @@ import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkPopulateEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.StructureGrowEvent;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public final class MapUpdateListeners {
 
     private final Pl3xMapPlugin plugin;
     private final List<Listener> registeredListeners = new ArrayList<>();
+    private final Map<Class<? extends Event>, Counters> counters = new LinkedHashMap<>();
 
     public MapUpdateListeners(final @NonNull Pl3xMapPlugin plugin) {
         this.plugin = plugin;
@@ -78,17 +89,29 @@ public final class MapUpdateListeners {
         this.registerListener(StructureGrowEvent.class, this::handleStructureGrowEvent);
         this.registerListener(ChunkPopulateEvent.class, this::handleChunkPopulateEvent);
         this.registerListener(ChunkLoadEvent.class, this::handleChunkLoadEvent);
+        this.registerListener(ChunkUnloadEvent.class, this::handleChunkUnloadEvent);
     }
 
     public void unregister() {
         this.registeredListeners.forEach(HandlerList::unregisterAll);
         this.registeredListeners.clear();
+        this.counters.clear();
     }
 
-    private <E extends Event> void registerListener(final @NonNull Class<E> eventClass, final @NonNull Consumer<E> eventConsumer) {
+    public @NonNull Map<Class<? extends Event>, Counters> counters() {
+        return Collections.unmodifiableMap(this.counters);
+    }
+
+    /**
+     * @param eventClass   event class
+     * @param eventHandler handler, returns what happened to the map updates of the event
+     */
+    private <E extends Event> void registerListener(final @NonNull Class<E> eventClass, final @NonNull Function<E, Result> eventHandler) {
         if (!Advanced.listenerEnabled(eventClass)) {
             return;
         }
+        final Counters counters = new Counters();
+        this.counters.put(eventClass, counters);
         final Listener listener = new Listener() {};
         this.registeredListeners.add(listener);
         Bukkit.getPluginManager().registerEvent(
@@ -99,7 +122,12 @@ public final class MapUpdateListeners {
                 if (!eventClass.isAssignableFrom(event.getClass())) {
                     return;
                 }
-                eventConsumer.accept(eventClass.cast(event));
+                counters.received.increment();
+                switch (eventHandler.apply(eventClass.cast(event))) {
+                    case FORWARDED -> counters.forwarded.increment();
+                    case DEDUPLICATED -> counters.deduplicated.increment();
+                    case IGNORED -> counters.ignored.increment();
+                }
             },
             this.plugin,
             true
@@ -114,100 +142,198 @@ public final class MapUpdateListeners {
         this.registerListener(eventClass, this::handlePlayerEvent);
     }
 
-    private void markChunk(final @NonNull Location loc) {
-        this.markChunk(loc, false);
+    // These run on the main thread for every event, so they only push packed coordinates into the
+    // world's update queue. Visibility checks, de-duplication and marking happen off the main thread.
+    // Updates already queued since the last background render cycle are dropped by the queue.
+
+    private @Nullable UpdateQueue queue(final @NonNull World world) {
+        final @Nullable MapWorld mapWorld = this.plugin.worldManager().getWorldIfEnabledOrNull(world);
+        return mapWorld == null ? null : mapWorld.updateQueue();
     }
 
-    private void markChunk(final @NonNull Location loc, final boolean skipVisibilityCheck) {
-        this.plugin.worldManager().getWorldIfEnabled(loc.getWorld()).ifPresent(mapWorld -> {
-            if (skipVisibilityCheck || locationVisible(loc)) {
-                mapWorld.chunkModified(
-                    new ChunkCoordinate(
-                        Numbers.blockToChunk(loc.getBlockX()),
-                        Numbers.blockToChunk(loc.getBlockZ())
-                    )
-                );
-            }
-        });
+    private @NonNull Result markBlock(final @NonNull Block block) {
+        final @Nullable UpdateQueue queue = this.queue(block.getWorld());
+        if (queue == null) {
+            return Result.IGNORED;
+        }
+        return Result.of(queue.block(block.getX(), block.getY(), block.getZ()));
     }
 
-    private void markLocations(final @NonNull World world, final @NonNull List<Location> locations) {
-        this.plugin.worldManager().getWorldIfEnabled(world).ifPresent(mapWorld -> locations.stream()
-            .filter(MapUpdateListeners::locationVisible)
-            .map(loc -> new ChunkCoordinate(
-                Numbers.blockToChunk(loc.getBlockX()),
-                Numbers.blockToChunk(loc.getBlockZ())
-            ))
-            .distinct()
-            .forEach(mapWorld::chunkModified));
+    private @NonNull Result markChunk(final @NonNull World world, final int chunkX, final int chunkZ) {
+        final @Nullable UpdateQueue queue = this.queue(world);
+        if (queue == null) {
+            return Result.IGNORED;
+        }
+        return Result.of(queue.chunk(chunkX, chunkZ));
     }
 
-    private void markChunksFromBlocks(final @NonNull World world, final @NonNull List<BlockState> blockStates) {
-        this.plugin.worldManager().getWorldIfEnabled(world).ifPresent(mapWorld ->
-            blockStates.stream()
-                .map(BlockState::getLocation)
-                .filter(MapUpdateListeners::locationVisible)
-                .map(loc -> new ChunkCoordinate(
-                    Numbers.blockToChunk(loc.getBlockX()),
-                    Numbers.blockToChunk(loc.getBlockZ())
-                ))
-                .distinct()
-                .forEach(mapWorld::chunkModified));
+    private @NonNull Result markBlockStates(final @NonNull World world, final @NonNull List<BlockState> blockStates) {
+        final @Nullable UpdateQueue queue = this.queue(world);
+        if (queue == null || blockStates.isEmpty()) {
+            return Result.IGNORED;
+        }
+        boolean queued = false;
+        for (int i = 0, size = blockStates.size(); i < size; i++) {
+            final BlockState state = blockStates.get(i);
+            queued |= queue.block(state.getX(), state.getY(), state.getZ());
+        }
+        return Result.of(queued);
     }
 
-    private static boolean locationVisible(final @NonNull Location loc) {
-        return loc.getY() >= loc.getWorld().getHighestBlockYAt(loc) - 10;
+    private @NonNull Result markBlocks(final @NonNull World world, final @NonNull List<Block> blocks) {
+        final @Nullable UpdateQueue queue = this.queue(world);
+        if (queue == null || blocks.isEmpty()) {
+            return Result.IGNORED;
+        }
+        boolean queued = false;
+        for (int i = 0, size = blocks.size(); i < size; i++) {
+            final Block block = blocks.get(i);
+            queued |= queue.block(block.getX(), block.getY(), block.getZ());
+        }
+        return Result.of(queued);
+    }
+
+    private @NonNull Result handleBlockPistonExtendEvent(final @NonNull BlockPistonExtendEvent event) {
+        return this.markPiston(event.getBlock(), event.getBlocks(), event.getDirection());
     }
 
-    private void handleBlockPistonExtendEvent(final @NonNull BlockPistonExtendEvent event) {
-        this.markLocations(event.getBlock().getWorld(), event.getBlocks().stream().map(Block::getLocation).collect(Collectors.toList()));
+    private @NonNull Result handleBlockPistonRetractEvent(final @NonNull BlockPistonRetractEvent event) {
+        return this.markPiston(event.getBlock(), event.getBlocks(), event.getDirection());
     }
 
-    private void handleBlockPistonRetractEvent(final @NonNull BlockPistonRetractEvent event) {
-        this.markLocations(event.getBlock().getWorld(), event.getBlocks().stream().map(Block::getLocation).collect(Collectors.toList()));
+    // moved blocks change both the column they leave and the column they enter
+    private @NonNull Result markPiston(final @NonNull Block piston, final @NonNull List<Block> blocks, final @NonNull BlockFace direction) {
+        final @Nullable UpdateQueue queue = this.queue(piston.getWorld());
+        if (queue == null) {
+            return Result.IGNORED;
+        }
+        final int modX = direction.getModX();
+        final int modY = direction.getModY();
+        final int modZ = direction.getModZ();
+        boolean queued = queue.block(piston.getX() + modX, piston.getY() + modY, piston.getZ() + modZ);
+        for (int i = 0, size = blocks.size(); i < size; i++) {
+            final Block block = blocks.get(i);
+            final int x = block.getX();
+            final int y = block.getY();
+            final int z = block.getZ();
+            queued |= queue.block(x, y, z);
+            queued |= queue.block(x + modX, y + modY, z + modZ);
+            queued |= queue.block(x - modX, y - modY, z - modZ);
+        }
+        return Result.of(queued);
     }
 
-    private void handleBlockEvent(final @NonNull BlockEvent blockEvent) {
-        this.markChunk(blockEvent.getBlock().getLocation());
+    private @NonNull Result handleBlockEvent(final @NonNull BlockEvent blockEvent) {
+        return this.markBlock(blockEvent.getBlock());
     }
 
-    private void handlePlayerEvent(final @NonNull PlayerEvent playerEvent) {
-        this.markChunk(playerEvent.getPlayer().getLocation(), true);
+    private @NonNull Result handlePlayerEvent(final @NonNull PlayerEvent playerEvent) {
+        final Location loc = playerEvent.getPlayer().getLocation();
+        return this.markChunk(loc.getWorld(), Numbers.blockToChunk(loc.getBlockX()), Numbers.blockToChunk(loc.getBlockZ()));
     }
 
-    private void handleStructureGrowEvent(final @NonNull StructureGrowEvent event) {
-        this.markChunksFromBlocks(event.getWorld(), event.getBlocks());
+    private @NonNull Result handleStructureGrowEvent(final @NonNull StructureGrowEvent event) {
+        return this.markBlockStates(event.getWorld(), event.getBlocks());
     }
 
-    private void handleBlockFromToEvent(final @NonNull BlockFromToEvent event) {
-        //this.handleBlockEvent(event);
-        //this.markChunk(event.getToBlock().getLocation());
+    private @NonNull Result handleBlockFromToEvent(final @NonNull BlockFromToEvent event) {
         // this event gets spammed really hard, to the point where checking the highest Y becomes quite expensive.
         // it's better to queue some unnecessary map updates than to cause tps lag if this listener is enabled.
-        this.markChunk(event.getToBlock().getLocation(), true);
+        final Block to = event.getToBlock();
+        final @Nullable UpdateQueue queue = this.queue(to.getWorld());
+        if (queue == null) {
+            return Result.IGNORED;
+        }
+        return Result.of(queue.blockUnchecked(to.getX(), to.getZ()));
     }
 
-    private void handleEntityChangeBlockEvent(final @NonNull EntityChangeBlockEvent event) {
-        this.markChunk(event.getBlock().getLocation());
+    private @NonNull Result handleEntityChangeBlockEvent(final @NonNull EntityChangeBlockEvent event) {
+        return this.markBlock(event.getBlock());
     }
 
-    private void handleEntityExplodeEvent(final @NonNull EntityExplodeEvent event) {
-        this.markChunksFromBlocks(event.getLocation().getWorld(), event.blockList().stream().map(Block::getState).collect(Collectors.toList()));
+    private @NonNull Result handleEntityExplodeEvent(final @NonNull EntityExplodeEvent event) {
+        return this.markBlocks(event.getLocation().getWorld(), event.blockList());
     }
 
-    private void handleFluidLevelChangeEvent(final @NonNull FluidLevelChangeEvent event) {
+    private @NonNull Result handleFluidLevelChangeEvent(final @NonNull FluidLevelChangeEvent event) {
         if (event.getBlock().getBlockData().getMaterial() != event.getNewData().getMaterial()) {
-            this.handleBlockEvent(event);
+            return this.handleBlockEvent(event);
         }
+        return Result.IGNORED;
+    }
+
+    private @NonNull Result handleChunkPopulateEvent(final @NonNull ChunkPopulateEvent event) {
+        final Chunk chunk = event.getChunk();
+        return this.markChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
     }
 
-    private void handleChunkPopulateEvent(final @NonNull ChunkPopulateEvent event) {
+    private @NonNull Result handleChunkLoadEvent(final @NonNull ChunkLoadEvent event) {
         final Chunk chunk = event.getChunk();
-        this.markChunk(new Location(chunk.getWorld(), Numbers.chunkToBlock(chunk.getX()), 0, Numbers.chunkToBlock(chunk.getZ())), true);
+        return this.markChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
     }
 
-    private void handleChunkLoadEvent(final @NonNull ChunkLoadEvent event) {
+    private @NonNull Result handleChunkUnloadEvent(final @NonNull ChunkUnloadEvent event) {
         final Chunk chunk = event.getChunk();
-        this.markChunk(new Location(chunk.getWorld(), Numbers.chunkToBlock(chunk.getX()), 0, Numbers.chunkToBlock(chunk.getZ())), true);
+        final @Nullable MapWorld mapWorld = this.plugin.worldManager().getWorldIfEnabledOrNull(chunk.getWorld());
+        if (mapWorld == null) {
+            return Result.IGNORED;
+        }
+        final @Nullable SurfaceFingerprints fingerprints = mapWorld.surfaceFingerprints();
+        if (fingerprints == null) {
+            return Result.IGNORED;
+        }
+        // catches changes which did not fire any events, i.e. from world editing plugins
+        final int chunkX = chunk.getX();
+        final int chunkZ = chunk.getZ();
+        final long fingerprint = SurfaceFingerprints.fingerprint(((CraftChunk) chunk).getHandle());
+        fingerprints.checkChanged(chunkX, chunkZ, fingerprint, () -> mapWorld.chunkModified(new ChunkCoordinate(chunkX, chunkZ)));
+        // whether the chunk changed is only known off the main thread, changed chunks are marked from there
+        return Result.IGNORED;
+    }
+
+    private enum Result {
+        /**
+         * At least one map update was queued.
+         */
+        FORWARDED,
+        /**
+         * All map updates were already queued.
+         */
+        DEDUPLICATED,
+        /**
+         * The event had no map updates, i.e. its world is not mapped.
+         */
+        IGNORED;
+
+        static @NonNull Result of(final boolean queued) {
+            return queued ? FORWARDED : DEDUPLICATED;
+        }
+    }
+
+    /**
+     * Event counters for a listener. Events which did not queue any map updates because
+     * the changes were already queued count as deduplicated, others without map updates as ignored.
+     */
+    public static final class Counters {
+        private final LongAdder received = new LongAdder();
+        private final LongAdder deduplicated = new LongAdder();
+        private final LongAdder forwarded = new LongAdder();
+        private final LongAdder ignored = new LongAdder();
+
+        public long received() {
+            return this.received.sum();
+        }
+
+        public long deduplicated() {
+            return this.deduplicated.sum();
+        }
+
+        public long forwarded() {
+            return this.forwarded.sum();
+        }
+
+        public long ignored() {
+            return this.ignored.sum();
+        }
     }
 }
@@ -0,0 +1,213 @@
+package net.pl3x.map.plugin.task;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Writes markers in a compact binary form, decoded by {@code js/workers/MarkerDecoder.js} in the web map.
+ *
+ * <p>The file starts with {@code SQM} and the format version, then a table of strings and a table of styles,
+ * followed by the markers. A style is the json of everything about a marker but its geometry, popup and tooltip,
+ * popups, tooltips and other text are indexes in the string table. Numbers are varints, points are zigzag varint
+ * deltas from the previous point of the same marker and radii are little endian doubles.</p>
+ */
+@DefaultQualifier(NonNull.class)
+final class MarkerBinary {
+    private static final byte[] MAGIC = {'S', 'Q', 'M'};
+    private static final int VERSION = 2;
+    private static final List<String> TYPES = List.of("rectangle", "polyline", "polygon", "circle", "ellipse", "icon", "cluster");
+
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private final Map<String, Integer> styles = new LinkedHashMap<>();
+    private final ByteArrayOutputStream markers = new ByteArrayOutputStream();
+    private int lastX;
+    private int lastZ;
+
+    private MarkerBinary() {
+    }
+
+    /**
+     * Write markers to a file.
+     *
+     * @param file    file
+     * @param markers json of each marker, as written to the json form of the file
+     * @throws IOException when writing fails
+     */
+    static void write(final Path file, final List<String> markers) throws IOException {
+        final byte[] bytes = encode(markers);
+        FileUtil.atomicWrite(file, tmp -> Files.write(tmp, bytes));
+    }
+
+    /**
+     * Encode markers.
+     *
+     * @param markers json of each marker, as written to the json form of the file
+     * @return binary form
+     * @throws IOException when encoding fails
+     */
+    static byte[] encode(final List<String> markers) throws IOException {
+        final MarkerBinary binary = new MarkerBinary();
+        writeVarint(binary.markers, markers.size());
+        for (final String marker : markers) {
+            binary.marker(JsonParser.parseString(marker).getAsJsonObject());
+        }
+        final int[] styles = binary.styles.keySet().stream().mapToInt(binary::string).toArray();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(binary.markers.size() + 256);
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarint(out, binary.strings.size());
+        for (final String string : binary.strings.keySet()) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        writeVarint(out, styles.length);
+        for (final int style : styles) {
+            writeVarint(out, style);
+        }
+        binary.markers.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private void marker(final JsonObject json) throws IOException {
+        final JsonObject style = json.deepCopy();
+        final String type = style.remove("type").getAsString();
+        final int typeIndex = TYPES.indexOf(type);
+        if (typeIndex == -1) {
+            throw new IllegalArgumentException("unknown marker type " + type);
+        }
+        final @Nullable JsonElement id = style.remove("id");
+        final @Nullable JsonElement popup = style.remove("popup");
+        final @Nullable JsonElement tooltip = style.remove("tooltip");
+        final @Nullable JsonElement points = style.remove("points");
+        final @Nullable JsonElement point = style.remove(type.equals("icon") || type.equals("cluster") ? "point" : "center");
+        final @Nullable JsonElement radius = style.remove("radius");
+        final @Nullable JsonElement radiusX = style.remove("radiusX");
+        final @Nullable JsonElement radiusZ = style.remove("radiusZ");
+        final @Nullable JsonElement size = style.remove("size");
+        final @Nullable JsonElement anchor = style.remove("anchor");
+        final @Nullable JsonElement tooltipAnchor = style.remove("tooltip_anchor");
+        final @Nullable JsonElement icon = style.remove("icon");
+        final @Nullable JsonElement count = style.remove("count");
+
+        // the first point of a marker is a delta from 0, 0
+        this.lastX = 0;
+        this.lastZ = 0;
+        writeVarint(this.markers, typeIndex);
+        writeVarint(this.markers, this.styles.computeIfAbsent(style.toString(), s -> this.styles.size()));
+        this.optionalString(id);
+        this.optionalString(popup);
+        this.optionalString(tooltip);
+        switch (type) {
+            case "rectangle", "polyline", "polygon" -> {
+                final JsonArray array = required(points, "points").getAsJsonArray();
+                final int depth = depth(array);
+                writeVarint(this.markers, depth);
+                this.points(array, depth);
+            }
+            case "circle" -> {
+                this.point(required(point, "center"));
+                writeDouble(this.markers, required(radius, "radius").getAsDouble());
+            }
+            case "ellipse" -> {
+                this.point(required(point, "center"));
+                writeDouble(this.markers, required(radiusX, "radiusX").getAsDouble());
+                writeDouble(this.markers, required(radiusZ, "radiusZ").getAsDouble());
+            }
+            case "cluster" -> {
+                this.point(required(point, "point"));
+                writeVarint(this.markers, required(count, "count").getAsInt());
+            }
+            default -> {
+                this.point(required(point, "point"));
+                this.point(required(size, "size"));
+                this.point(required(anchor, "anchor"));
+                this.point(required(tooltipAnchor, "tooltip_anchor"));
+                writeVarint(this.markers, this.string(required(icon, "icon").getAsString()));
+            }
+        }
+    }
+
+    private static JsonElement required(final @Nullable JsonElement element, final String name) {
+        if (element == null) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return element;
+    }
+
+    // a list of points is depth 1, polygons with holes or multi polylines are 2, multi polygons are 3
+    private static int depth(final JsonArray array) {
+        int depth = 1;
+        JsonElement element = array;
+        while (element.isJsonArray() && element.getAsJsonArray().size() > 0 && element.getAsJsonArray().get(0).isJsonArray()) {
+            element = element.getAsJsonArray().get(0);
+            depth++;
+        }
+        return depth;
+    }
+
+    private void points(final JsonArray array, final int depth) throws IOException {
+        writeVarint(this.markers, array.size());
+        for (final JsonElement element : array) {
+            if (depth == 1) {
+                this.point(element);
+            } else {
+                this.points(element.getAsJsonArray(), depth - 1);
+            }
+        }
+    }
+
+    private void point(final JsonElement element) throws IOException {
+        final JsonObject point = element.getAsJsonObject();
+        final int x = point.get("x").getAsInt();
+        final int z = point.get("z").getAsInt();
+        writeVarint(this.markers, zigzag((long) x - this.lastX));
+        writeVarint(this.markers, zigzag((long) z - this.lastZ));
+        this.lastX = x;
+        this.lastZ = z;
+    }
+
+    // 0 for none, otherwise the index in the string table plus one
+    private void optionalString(final @Nullable JsonElement element) throws IOException {
+        writeVarint(this.markers, element == null || element.isJsonNull() ? 0 : this.string(element.getAsString()) + 1);
+    }
+
+    private int string(final String string) {
+        return this.strings.computeIfAbsent(string, s -> this.strings.size());
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarint(final OutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static void writeDouble(final OutputStream out, final double value) throws IOException {
+        final long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < Long.BYTES; i++) {
+            out.write((int) (bits >>> (i * 8)));
+        }
+    }
+}
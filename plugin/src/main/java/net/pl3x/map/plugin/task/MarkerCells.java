@@ -0,0 +1,360 @@
+package net.pl3x.map.plugin.task;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import net.pl3x.map.api.Point;
+import net.pl3x.map.api.marker.Circle;
+import net.pl3x.map.api.marker.Ellipse;
+import net.pl3x.map.api.marker.Icon;
+import net.pl3x.map.api.marker.Marker;
+import net.pl3x.map.api.marker.MultiPolygon;
+import net.pl3x.map.api.marker.Polygon;
+import net.pl3x.map.api.marker.Polyline;
+import net.pl3x.map.api.marker.Rectangle;
+import net.pl3x.map.plugin.util.FileUtil;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Writes the markers of each layer into a grid of cell files, so the web map only loads the markers in view.
+ *
+ * <p>A marker is written to every cell it overlaps, with its id so the web map shows it once. Markers
+ * overlapping more than {@link #MAX_CELLS_PER_MARKER} cells, like the world border, go into the index
+ * instead. The index lists the version of every cell, which only changes when the markers in it do.</p>
+ *
+ * <p>Cells with simplified lines or polygons get a file for every level of detail they have, the index
+ * lists how many.</p>
+ *
+ * <p>Every cell file can also be written in the binary form of {@link MarkerBinary}, next to the json.</p>
+ *
+ * <p>The cells of a layer are in a directory named after its id. Ids which aren't a plain file name, like
+ * {@code ".."}, are hex encoded behind an underscore, the index lists the directory of every layer.</p>
+ */
+@DefaultQualifier(NonNull.class)
+final class MarkerCells {
+    private static final int MAX_CELLS_PER_MARKER = 64;
+    private static final String INDEX_FILE_NAME = "index.json";
+    // starts with a letter or digit, so no encoded name is also a plain one, and doesn't end with a dot
+    private static final Pattern PLAIN_NAME = Pattern.compile("[a-zA-Z0-9]([a-zA-Z0-9._-]*[a-zA-Z0-9_-])?");
+
+    private final Path directory;
+    private final int cellSize;
+    private final boolean binary;
+    // layer id -> cells written for it
+    private final Map<String, WrittenLayer> written = new HashMap<>();
+
+    MarkerCells(final Path directory, final int cellSize, final boolean binary) {
+        this.directory = directory;
+        this.cellSize = cellSize;
+        this.binary = binary;
+    }
+
+    Path index() {
+        return this.directory.resolve(INDEX_FILE_NAME);
+    }
+
+    /**
+     * Write the cells of the layers which changed since the last write, and the index.
+     *
+     * @param layers every layer
+     * @throws IOException when writing fails
+     */
+    void write(final List<UpdateMarkers.Serialized> layers) throws IOException {
+        if (!Files.exists(this.index())) {
+            // first write, or the files were deleted along with the map
+            this.written.clear();
+            if (Files.exists(this.directory)) {
+                FileUtil.deleteDirectory(this.directory);
+            }
+        }
+        Files.createDirectories(this.directory);
+
+        final Map<String, WrittenLayer> current = new LinkedHashMap<>();
+        for (final UpdateMarkers.Serialized layer : layers) {
+            final String id = layer.info().id();
+            final @Nullable WrittenLayer previous = this.written.get(id);
+            current.put(id, previous != null && previous.layer == layer ? previous : this.writeLayer(layer, previous));
+        }
+        for (final String id : this.written.keySet()) {
+            final Path layerDirectory = this.layerDirectory(id);
+            if (!current.containsKey(id) && Files.exists(layerDirectory)) {
+                FileUtil.deleteDirectory(layerDirectory);
+            }
+        }
+        this.written.clear();
+        this.written.putAll(current);
+
+        this.writeIndex(current.values());
+    }
+
+    private WrittenLayer writeLayer(final UpdateMarkers.Serialized layer, final @Nullable WrittenLayer previous) throws IOException {
+        final Map<Long, List<UpdateMarkers.Fragment>> cells = new HashMap<>();
+        final List<UpdateMarkers.Fragment> global = new ArrayList<>();
+        for (final UpdateMarkers.Fragment fragment : layer.markers()) {
+            if (this.cellCount(fragment) > MAX_CELLS_PER_MARKER) {
+                global.add(fragment);
+                continue;
+            }
+            for (int x = this.cell(fragment.minX()); x <= this.cell(fragment.maxX()); x++) {
+                for (int z = this.cell(fragment.minZ()); z <= this.cell(fragment.maxZ()); z++) {
+                    cells.computeIfAbsent(cellKey(x, z), k -> new ArrayList<>()).add(fragment);
+                }
+            }
+        }
+
+        final Path layerDirectory = this.layerDirectory(layer.info().id());
+        Files.createDirectories(layerDirectory);
+        final Map<Long, Cell> written = new HashMap<>();
+        for (final Map.Entry<Long, List<UpdateMarkers.Fragment>> entry : cells.entrySet()) {
+            final long key = entry.getKey();
+            final @Nullable Cell cell = previous == null ? null : previous.cells.get(key);
+            // unchanged markers keep their fragments, a cell whose fragments are all the same is unchanged
+            if (cell != null && sameFragments(cell.fragments(), entry.getValue())) {
+                written.put(key, cell);
+                continue;
+            }
+            final int levels = levels(entry.getValue());
+            for (int level = 0; level < levels; level++) {
+                this.writeCell(layerDirectory, fileName(key, level), entry.getValue(), level);
+            }
+            for (int level = levels; cell != null && level < cell.levels(); level++) {
+                deleteCell(layerDirectory, fileName(key, level));
+            }
+            written.put(key, new Cell(entry.getValue(), layer.timestamp(), levels));
+        }
+        if (previous != null) {
+            for (final Map.Entry<Long, Cell> cell : previous.cells.entrySet()) {
+                if (!written.containsKey(cell.getKey())) {
+                    for (int level = 0; level < cell.getValue().levels(); level++) {
+                        deleteCell(layerDirectory, fileName(cell.getKey(), level));
+                    }
+                }
+            }
+        }
+        return new WrittenLayer(layer, written, global);
+    }
+
+    private void writeCell(final Path layerDirectory, final String name, final List<UpdateMarkers.Fragment> fragments, final int level) throws IOException {
+        final List<String> markers = new ArrayList<>(fragments.size());
+        for (final UpdateMarkers.Fragment fragment : fragments) {
+            final @Nullable String json = fragment.json(level);
+            if (json == null) {
+                continue;
+            }
+            if (this.cellCount(fragment) > 1) {
+                // shown once by the web map, no matter how many of its cells are loaded, or at which of its levels
+                final String id = fragment.id() + "_" + Math.min(level, fragment.levels().size() - 1);
+                markers.add("{\"id\":\"" + id + "\"," + json.substring(1));
+            } else {
+                markers.add(json);
+            }
+        }
+        FileUtil.atomicWrite(layerDirectory.resolve(name + ".json"), tmp -> {
+            try (final Writer writer = Files.newBufferedWriter(tmp);
+                 final JsonWriter json = new JsonWriter(writer)) {
+                json.beginArray();
+                for (final String marker : markers) {
+                    json.jsonValue(marker);
+                }
+                json.endArray();
+            }
+        });
+        if (this.binary) {
+            MarkerBinary.write(layerDirectory.resolve(name + ".bin"), markers);
+        }
+    }
+
+    private static void deleteCell(final Path layerDirectory, final String name) throws IOException {
+        Files.deleteIfExists(layerDirectory.resolve(name + ".json"));
+        Files.deleteIfExists(layerDirectory.resolve(name + ".bin"));
+    }
+
+    private void writeIndex(final Iterable<WrittenLayer> layers) throws IOException {
+        FileUtil.atomicWrite(this.index(), tmp -> {
+            try (final Writer writer = Files.newBufferedWriter(tmp);
+                 final JsonWriter json = new JsonWriter(writer)) {
+                json.beginObject();
+                json.name("cell_size").value(this.cellSize);
+                json.name("binary").value(this.binary);
+                json.name("layers").beginArray();
+                for (final WrittenLayer layer : layers) {
+                    final UpdateMarkers.LayerInfo info = layer.layer.info();
+                    json.beginObject();
+                    json.name("id").value(info.id());
+                    json.name("dir").value(directoryName(info.id()));
+                    json.name("name").value(info.name());
+                    json.name("control").value(info.control());
+                    json.name("hide").value(info.hide());
+                    json.name("order").value(info.order());
+                    json.name("z_index").value(info.zIndex());
+                    json.name("timestamp").value(layer.layer.timestamp());
+                    // the global markers of each level of detail
+                    json.name("markers").beginArray();
+                    for (int level = 0; level < levels(layer.global); level++) {
+                        json.beginArray();
+                        for (final UpdateMarkers.Fragment fragment : layer.global) {
+                            final @Nullable String markerJson = fragment.json(level);
+                            if (markerJson != null) {
+                                json.jsonValue(markerJson);
+                            }
+                        }
+                        json.endArray();
+                    }
+                    json.endArray();
+                    // [x, z, version, levels]
+                    json.name("cells").beginArray();
+                    for (final Map.Entry<Long, Cell> cell : layer.cells.entrySet()) {
+                        json.beginArray()
+                            .value(cellX(cell.getKey()))
+                            .value(cellZ(cell.getKey()))
+                            .value(cell.getValue().version())
+                            .value(cell.getValue().levels())
+                            .endArray();
+                    }
+                    json.endArray();
+                    json.endObject();
+                }
+                json.endArray();
+                json.endObject();
+            }
+        });
+    }
+
+    private Path layerDirectory(final String id) throws IOException {
+        final Path directory = this.directory.toAbsolutePath().normalize();
+        final Path layerDirectory = directory.resolve(directoryName(id)).normalize();
+        // layers are never written, or deleted, anywhere but in their own directory
+        if (!directory.equals(layerDirectory.getParent())) {
+            throw new IOException(String.format("Directory of layer '%s' is outside of %s", id, directory));
+        }
+        return layerDirectory;
+    }
+
+    static String directoryName(final String id) {
+        if (PLAIN_NAME.matcher(id).matches()) {
+            return id;
+        }
+        final StringBuilder name = new StringBuilder("_");
+        for (final byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            name.append(String.format("%02x", b));
+        }
+        return name.toString();
+    }
+
+    private int cell(final int block) {
+        return Math.floorDiv(block, this.cellSize);
+    }
+
+    private long cellCount(final UpdateMarkers.Fragment fragment) {
+        return (long) (this.cell(fragment.maxX()) - this.cell(fragment.minX()) + 1) * (this.cell(fragment.maxZ()) - this.cell(fragment.minZ()) + 1);
+    }
+
+    private static boolean sameFragments(final List<UpdateMarkers.Fragment> a, final List<UpdateMarkers.Fragment> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long cellKey(final int x, final int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static int cellX(final long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int cellZ(final long key) {
+        return (int) key;
+    }
+
+    private static String fileName(final long key, final int level) {
+        return cellX(key) + "_" + cellZ(key) + (level == 0 ? "" : "_lod" + level);
+    }
+
+    private static int levels(final List<UpdateMarkers.Fragment> fragments) {
+        int levels = 1;
+        for (final UpdateMarkers.Fragment fragment : fragments) {
+            levels = Math.max(levels, fragment.levels().size());
+        }
+        return levels;
+    }
+
+    /**
+     * Get the bounds of a marker in blocks.
+     *
+     * @param marker marker
+     * @return {@code [minX, minZ, maxX, maxZ]}
+     */
+    static int[] bounds(final Marker marker) {
+        final Bounds bounds = new Bounds();
+        if (marker instanceof Polyline polyline) {
+            polyline.points().forEach(bounds::add);
+        } else if (marker instanceof Polygon polygon) {
+            bounds.add(polygon.mainPolygon());
+        } else if (marker instanceof MultiPolygon multiPolygon) {
+            multiPolygon.subPolygons().forEach(part -> bounds.add(part.mainPolygon()));
+        } else if (marker instanceof Rectangle rectangle) {
+            bounds.add(rectangle.point1().x(), rectangle.point1().z());
+            bounds.add(rectangle.point2().x(), rectangle.point2().z());
+        } else if (marker instanceof Circle circle) {
+            bounds.add(circle.center().x() - circle.radius(), circle.center().z() - circle.radius());
+            bounds.add(circle.center().x() + circle.radius(), circle.center().z() + circle.radius());
+        } else if (marker instanceof Ellipse ellipse) {
+            bounds.add(ellipse.center().x() - ellipse.radiusX(), ellipse.center().z() - ellipse.radiusZ());
+            bounds.add(ellipse.center().x() + ellipse.radiusX(), ellipse.center().z() + ellipse.radiusZ());
+        } else if (marker instanceof Icon icon) {
+            bounds.add(icon.point().x(), icon.point().z());
+        }
+        return bounds.toArray();
+    }
+
+    private static final class Bounds {
+        private double minX = Double.POSITIVE_INFINITY;
+        private double minZ = Double.POSITIVE_INFINITY;
+        private double maxX = Double.NEGATIVE_INFINITY;
+        private double maxZ = Double.NEGATIVE_INFINITY;
+
+        void add(final List<Point> points) {
+            for (final Point point : points) {
+                this.add(point.x(), point.z());
+            }
+        }
+
+        void add(final double x, final double z) {
+            this.minX = Math.min(this.minX, x);
+            this.minZ = Math.min(this.minZ, z);
+            this.maxX = Math.max(this.maxX, x);
+            this.maxZ = Math.max(this.maxZ, z);
+        }
+
+        int[] toArray() {
+            if (this.minX > this.maxX) {
+                return new int[]{0, 0, 0, 0};
+            }
+            return new int[]{(int) Math.floor(this.minX), (int) Math.floor(this.minZ), (int) Math.floor(this.maxX), (int) Math.floor(this.maxZ)};
+        }
+    }
+
+    private record Cell(List<UpdateMarkers.Fragment> fragments, long version, int levels) {
+    }
+
+    private record WrittenLayer(UpdateMarkers.Serialized layer, Map<Long, Cell> cells, List<UpdateMarkers.Fragment> global) {
+    }
+}
@@ -0,0 +1,257 @@
+package net.pl3x.map.plugin.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.pl3x.map.api.Point;
+import net.pl3x.map.api.marker.MarkerOptions;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Reduces the geometry of markers before it is written: points are quantized to blocks and simplified
+ * for zoomed out levels of detail, adjacent rectangles of the same style are merged and icons are clustered.
+ */
+@DefaultQualifier(NonNull.class)
+final class MarkerGeometry {
+    private MarkerGeometry() {
+    }
+
+    /**
+     * Quantize points to blocks, the way they are written, and simplify them with Douglas-Peucker.
+     * Without a tolerance the points are returned as they are, full detail output is not altered.
+     *
+     * @param points    points
+     * @param tolerance how far in blocks a line may move, or {@code 0} to keep every point
+     * @param closed    whether the points are a ring
+     * @return simplified points
+     */
+    static List<Point> simplify(final List<Point> points, final double tolerance, final boolean closed) {
+        if (tolerance <= 0) {
+            return points;
+        }
+        final List<Point> quantized = new ArrayList<>(points.size());
+        @Nullable Point last = null;
+        for (final Point point : points) {
+            final Point block = Point.of((int) point.x(), (int) point.z());
+            if (!block.equals(last)) {
+                quantized.add(block);
+                last = block;
+            }
+        }
+        if (closed && quantized.size() > 1 && quantized.get(0).equals(last)) {
+            quantized.remove(quantized.size() - 1);
+        }
+        if (quantized.size() <= (closed ? 4 : 2)) {
+            return quantized;
+        }
+
+        // a ring is split in two lines at the point farthest from its first
+        final List<Point> line = closed ? new ArrayList<>(quantized) : quantized;
+        final boolean[] keep = new boolean[closed ? line.size() + 1 : line.size()];
+        if (closed) {
+            line.add(line.get(0));
+            final int farthest = farthest(line, 0, line.size() - 1);
+            keep[farthest] = true;
+        }
+        keep[0] = true;
+        keep[keep.length - 1] = true;
+        douglasPeucker(line, tolerance * tolerance, keep);
+
+        final List<Point> simplified = new ArrayList<>();
+        for (int i = 0; i < quantized.size(); i++) {
+            if (keep[i]) {
+                simplified.add(quantized.get(i));
+            }
+        }
+        // a ring simplified to a line stays as it was
+        return closed && simplified.size() < 3 ? quantized : simplified;
+    }
+
+    private static void douglasPeucker(final List<Point> line, final double toleranceSquared, final boolean[] keep) {
+        // iterative, lines can have many thousands of points
+        final Deque<int[]> ranges = new ArrayDeque<>();
+        int start = 0;
+        for (int i = 1; i < keep.length; i++) {
+            if (keep[i]) {
+                ranges.push(new int[]{start, i});
+                start = i;
+            }
+        }
+        while (!ranges.isEmpty()) {
+            final int[] range = ranges.pop();
+            if (range[1] - range[0] < 2) {
+                continue;
+            }
+            final Point a = line.get(range[0]);
+            final Point b = line.get(range[1]);
+            int index = -1;
+            double max = toleranceSquared;
+            for (int i = range[0] + 1; i < range[1]; i++) {
+                final double distance = distanceSquared(line.get(i), a, b);
+                if (distance > max) {
+                    max = distance;
+                    index = i;
+                }
+            }
+            if (index != -1) {
+                keep[index] = true;
+                ranges.push(new int[]{range[0], index});
+                ranges.push(new int[]{index, range[1]});
+            }
+        }
+    }
+
+    private static int farthest(final List<Point> line, final int from, final int to) {
+        final Point origin = line.get(from);
+        int index = from;
+        double max = -1;
+        for (int i = from + 1; i < to; i++) {
+            final double dx = line.get(i).x() - origin.x();
+            final double dz = line.get(i).z() - origin.z();
+            if (dx * dx + dz * dz > max) {
+                max = dx * dx + dz * dz;
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    // squared distance from p to the segment a-b
+    private static double distanceSquared(final Point p, final Point a, final Point b) {
+        final double dx = b.x() - a.x();
+        final double dz = b.z() - a.z();
+        final double lengthSquared = dx * dx + dz * dz;
+        double t = lengthSquared == 0 ? 0 : ((p.x() - a.x()) * dx + (p.z() - a.z()) * dz) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        final double x = a.x() + t * dx - p.x();
+        final double z = a.z() + t * dz - p.z();
+        return x * x + z * z;
+    }
+
+    /**
+     * Find rectangles of the same style which together cover a rectangle, like the chunks of a claim.
+     * Only fragments with {@link UpdateMarkers.Fragment#mergeOptions()} are considered.
+     *
+     * @param fragments fragments of a layer
+     * @return groups of at least two fragments, in the order of the given fragments
+     */
+    static List<List<UpdateMarkers.Fragment>> mergeRectangles(final List<UpdateMarkers.Fragment> fragments) {
+        final Map<MarkerOptions, List<Rect>> byStyle = new LinkedHashMap<>();
+        for (int i = 0; i < fragments.size(); i++) {
+            final UpdateMarkers.Fragment fragment = fragments.get(i);
+            final @Nullable MarkerOptions options = fragment.mergeOptions();
+            if (options != null) {
+                byStyle.computeIfAbsent(options, o -> new ArrayList<>())
+                        .add(new Rect(fragment.minX(), fragment.minZ(), fragment.maxX(), fragment.maxZ(), List.of(i)));
+            }
+        }
+
+        final List<List<Integer>> groups = new ArrayList<>();
+        for (final List<Rect> style : byStyle.values()) {
+            List<Rect> rects = style;
+            int count;
+            do {
+                count = rects.size();
+                rects = merge(rects, true);
+                rects = merge(rects, false);
+            } while (rects.size() < count);
+            for (final Rect rect : rects) {
+                if (rect.members().size() > 1) {
+                    groups.add(rect.members().stream().sorted().toList());
+                }
+            }
+        }
+        groups.sort(Comparator.comparingInt(group -> group.get(0)));
+        return groups.stream().map(group -> group.stream().map(fragments::get).toList()).toList();
+    }
+
+    // merges rectangles with the same width which touch along z, or with the same height which touch along x
+    private static List<Rect> merge(final List<Rect> rects, final boolean alongZ) {
+        final List<Rect> sorted = new ArrayList<>(rects);
+        sorted.sort(alongZ
+                ? Comparator.comparingInt(Rect::minX).thenComparingInt(Rect::maxX).thenComparingInt(Rect::minZ)
+                : Comparator.comparingInt(Rect::minZ).thenComparingInt(Rect::maxZ).thenComparingInt(Rect::minX));
+        final List<Rect> merged = new ArrayList<>(sorted.size());
+        @Nullable Rect current = null;
+        for (final Rect rect : sorted) {
+            if (current != null && (alongZ
+                    ? current.minX() == rect.minX() && current.maxX() == rect.maxX() && current.maxZ() == rect.minZ()
+                    : current.minZ() == rect.minZ() && current.maxZ() == rect.maxZ() && current.maxX() == rect.minX())) {
+                current = current.union(rect);
+                continue;
+            }
+            if (current != null) {
+                merged.add(current);
+            }
+            current = rect;
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * Group clusters by the cells of a grid, the clusters of one level become the input of the next.
+     *
+     * @param clusters clusters, or single icons
+     * @param size     size of a grid cell in blocks
+     * @return a cluster for each grid cell with any
+     */
+    static List<Cluster> cluster(final List<Cluster> clusters, final int size) {
+        final Map<Long, Cluster> grid = new LinkedHashMap<>();
+        for (final Cluster cluster : clusters) {
+            final long cellX = (long) Math.floor(cluster.x() / size);
+            final long cellZ = (long) Math.floor(cluster.z() / size);
+            grid.merge((cellX << 32) | (cellZ & 0xFFFFFFFFL), cluster, Cluster::union);
+        }
+        return new ArrayList<>(grid.values());
+    }
+
+    /**
+     * Icons in one cell of a clustering grid.
+     *
+     * @param sumX   sum of the x of the icons
+     * @param sumZ   sum of the z of the icons
+     * @param ids    fragment ids of the icons
+     * @param single the icon, if there is only one
+     */
+    record Cluster(double sumX, double sumZ, List<Long> ids, UpdateMarkers.@Nullable Fragment single) {
+        static Cluster of(final UpdateMarkers.Fragment icon) {
+            return new Cluster(icon.minX(), icon.minZ(), List.of(icon.id()), icon);
+        }
+
+        int count() {
+            return this.ids.size();
+        }
+
+        double x() {
+            return this.sumX / this.ids.size();
+        }
+
+        double z() {
+            return this.sumZ / this.ids.size();
+        }
+
+        Cluster union(final Cluster other) {
+            final List<Long> ids = new ArrayList<>(this.ids.size() + other.ids.size());
+            ids.addAll(this.ids);
+            ids.addAll(other.ids);
+            return new Cluster(this.sumX + other.sumX, this.sumZ + other.sumZ, ids, null);
+        }
+    }
+
+    private record Rect(int minX, int minZ, int maxX, int maxZ, List<Integer> members) {
+        Rect union(final Rect other) {
+            final List<Integer> members = new ArrayList<>(this.members);
+            members.addAll(other.members);
+            return new Rect(Math.min(this.minX, other.minX), Math.min(this.minZ, other.minZ), Math.max(this.maxX, other.maxX), Math.max(this.maxZ, other.maxZ), members);
+        }
+    }
+}
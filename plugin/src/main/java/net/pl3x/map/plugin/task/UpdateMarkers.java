@@ -1,21 +1,39 @@
 package net.pl3x.map.plugin.task;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.awt.Color;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import net.pl3x.map.api.Key;
 import net.pl3x.map.api.LayerProvider;
+import net.pl3x.map.api.Pair;
 import net.pl3x.map.api.Point;
-import net.pl3x.map.api.Registry;
+import net.pl3x.map.api.VersionedLayerProvider;
 import net.pl3x.map.api.marker.Circle;
 import net.pl3x.map.api.marker.Ellipse;
 import net.pl3x.map.api.marker.Icon;
@@ -25,133 +43,602 @@ import net.pl3x.map.api.marker.MultiPolygon;
 import net.pl3x.map.api.marker.Polygon;
 import net.pl3x.map.api.marker.Polyline;
 import net.pl3x.map.api.marker.Rectangle;
+import net.pl3x.map.plugin.Logging;
 import net.pl3x.map.plugin.Pl3xMapPlugin;
 import net.pl3x.map.plugin.data.MapWorld;
+import net.pl3x.map.plugin.httpd.LiveUpdates;
 import net.pl3x.map.plugin.util.FileUtil;
+import net.pl3x.map.plugin.util.Util;
 import org.bukkit.Bukkit;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public final class UpdateMarkers extends BukkitRunnable {
 
     private final MapWorld mapWorld;
-    private final Gson gson = new Gson();
+    private final ExecutorService executor;
 
     public UpdateMarkers(final @NonNull MapWorld mapWorld) {
         this.mapWorld = mapWorld;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, mapWorld.config().MARKER_API_THREADS));
+        this.cells = mapWorld.config().MARKER_CELLS_ENABLED
+                ? new MarkerCells(FileUtil.getWorldFolder(mapWorld.bukkit()).resolve("markers"), Math.max(16, mapWorld.config().MARKER_CELL_SIZE), mapWorld.config().MARKER_CELLS_BINARY)
+                : null;
     }
 
-    private final Map<Key, Long> lastUpdatedTime = new HashMap<>();
-    private final Map<Key, Map<String, Object>> layerCache = new HashMap<>();
-    private final Map<Key, Map<String, Object>> serializedLayerCache = new HashMap<>();
+    private final Map<Key, SerializedLayer> layers = new ConcurrentHashMap<>();
+    private final AtomicLong fragmentIds = new AtomicLong();
+    private final @Nullable MarkerCells cells;
+    private final Map<Key, LayerStats> stats = new ConcurrentHashMap<>();
+    // layers which are still being updated, after running past the timeout
+    private final Set<Key> updating = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private int lastLayerCount = -1;
 
     @Override
     public void run() {
-        final Registry<LayerProvider> layerRegistry = this.mapWorld.layerRegistry();
+        if (!this.running.compareAndSet(false, true)) {
+            Logging.debug(String.format("Skipping marker update for world '%s', the previous one is still running", this.mapWorld.name()));
+            return;
+        }
 
-        final List<Map<String, Object>> layers = new ArrayList<>();
-        layerRegistry.entries().forEach(registeredLayer -> {
-            final LayerProvider provider = registeredLayer.right();
+        // layers which aren't thread safe are updated here on the server thread, as they may be changed on it meanwhile
+        final List<Key> keys = new ArrayList<>();
+        final List<Pair<Key, LayerProvider>> layers = new ArrayList<>();
+        for (final Pair<Key, LayerProvider> registeredLayer : this.mapWorld.layerRegistry().entries()) {
             final Key key = registeredLayer.left();
-            final List<Marker> markers = List.copyOf(provider.getMarkers());
+            final LayerProvider provider = registeredLayer.right();
+            keys.add(key);
+            if (provider.threadSafe()) {
+                layers.add(registeredLayer);
+                continue;
+            }
+            final LayerStats stats = this.stats(key);
+            final long start = System.nanoTime();
+            try {
+                this.updateLayer(key, provider);
+            } catch (final RuntimeException e) {
+                stats.failures.increment();
+                Logging.warn(String.format("Failed to update layer '%s' in world '%s'", key.getKey(), this.mapWorld.name()), e);
+            }
+            stats.mainThreadNanos = System.nanoTime() - start;
+        }
 
-            final Map<String, Object> current = this.createMap(key, provider);
-            current.put("markers", markers.hashCode());
+        Bukkit.getServer().getScheduler().runTaskAsynchronously(Pl3xMapPlugin.getInstance(), () -> {
+            try {
+                this.update(keys, layers);
+            } finally {
+                this.running.set(false);
+            }
+        });
+    }
 
-            final Map<String, Object> previous = this.layerCache.get(key);
+    private void update(final @NonNull List<Key> keys, final @NonNull List<Pair<Key, LayerProvider>> registeredLayers) {
+        final Map<Key, LayerUpdate> updates = new LinkedHashMap<>();
+        for (final Pair<Key, LayerProvider> registeredLayer : registeredLayers) {
+            final Key key = registeredLayer.left();
+            if (!this.updating.add(key)) {
+                // still busy with an earlier update, its last serialized state is used meanwhile
+                continue;
+            }
+            final AtomicLong started = new AtomicLong();
+            final CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                final long start = System.nanoTime();
+                started.set(start);
+                this.updateLayer(key, registeredLayer.right());
+                final LayerStats stats = this.stats(key);
+                stats.workerNanos = System.nanoTime() - start;
+                stats.maxWorkerNanos = Math.max(stats.maxWorkerNanos, stats.workerNanos);
+            }, this.executor);
+            future.whenComplete((result, thrown) -> this.updating.remove(key));
+            updates.put(key, new LayerUpdate(started, future));
+        }
 
-            if (previous == null || !previous.equals(current)) {
-                this.layerCache.put(key, current);
+        // every layer gets the timeout from when it starts updating, layers which don't get to start are left queued
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(this.mapWorld.config().MARKER_API_PROVIDER_TIMEOUT_MILLIS);
+        for (final Map.Entry<Key, LayerUpdate> entry : updates.entrySet()) {
+            final LayerUpdate update = entry.getValue();
+            final long waitStart = System.nanoTime();
+            try {
+                while (true) {
+                    final long started = update.started().get();
+                    try {
+                        update.future().get(Math.max(0L, (started == 0L ? waitStart : started) + timeout - System.nanoTime()), TimeUnit.NANOSECONDS);
+                        break;
+                    } catch (final TimeoutException e) {
+                        if (update.started().get() == 0L) {
+                            break;
+                        }
+                        if (started == 0L) {
+                            continue;
+                        }
+                        this.stats(entry.getKey()).timeouts.increment();
+                        Logging.logger().warn(String.format("Layer '%s' in world '%s' took longer than %dms to update, using its previous markers", entry.getKey().getKey(), this.mapWorld.name(), this.mapWorld.config().MARKER_API_PROVIDER_TIMEOUT_MILLIS));
+                        break;
+                    }
+                }
+            } catch (final ExecutionException e) {
+                this.stats(entry.getKey()).failures.increment();
+                Logging.warn(String.format("Failed to update layer '%s' in world '%s'", entry.getKey().getKey(), this.mapWorld.name()), e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        // also picks up layers which finished after an earlier update gave up on them
+        final boolean changed = this.changed.getAndSet(false);
+
+        // layers which failed or are still updating keep what they last showed
+        final List<Serialized> layers = new ArrayList<>();
+        for (final Key key : keys) {
+            final SerializedLayer layer = this.layers.get(key);
+            final Serialized serialized = layer == null ? null : layer.serialized;
+            if (serialized != null) {
+                layers.add(serialized);
+            }
+        }
+        final Set<Key> registered = new HashSet<>(keys);
+        this.layers.keySet().retainAll(registered);
+        this.stats.keySet().retainAll(registered);
+
+        // layers which were unregistered only show in the count
+        final Path file = this.cells == null
+                ? levelFile(this.mapWorld, 0)
+                : this.cells.index();
+        if (!changed && layers.size() == this.lastLayerCount && Files.exists(file)) {
+            return;
+        }
+        this.lastLayerCount = layers.size();
 
-                final Map<String, Object> serializedLayer = this.serializeLayer(key, provider, markers);
-                this.serializedLayerCache.put(key, serializedLayer);
+        try {
+            if (this.cells == null) {
+                for (int level = 0; level < levels(this.mapWorld); level++) {
+                    write(levelFile(this.mapWorld, level), layers, level);
+                }
+            } else {
+                this.cells.write(layers);
+            }
+        } catch (final IOException e) {
+            this.changed.set(true);
+            Logging.warn(String.format("Failed to write markers for world '%s'", this.mapWorld.name()), e);
+            return;
+        }
+        LiveUpdates.markersChanged(this.mapWorld.name());
+    }
 
-                final long time = System.currentTimeMillis();
-                this.lastUpdatedTime.put(key, System.currentTimeMillis());
+    static int levels(final @NonNull MapWorld mapWorld) {
+        return Math.max(1, mapWorld.config().MARKER_LEVELS);
+    }
 
-                final Map<String, Object> timeStampedLayer = new HashMap<>(serializedLayer);
-                timeStampedLayer.put("timestamp", time);
-                layers.add(timeStampedLayer);
-            } else {
-                final Map<String, Object> serializedLayer = this.serializedLayerCache.get(key);
-                final long lastUpdate = this.lastUpdatedTime.get(key);
+    // markers.json has every point, the levels after it are for zooming out further and further
+    private static @NonNull Path levelFile(final @NonNull MapWorld mapWorld, final int level) {
+        return FileUtil.getWorldFolder(mapWorld.bukkit()).resolve(level == 0 ? "markers.json" : "markers_lod" + level + ".json");
+    }
 
-                final Map<String, Object> timeStampedLayer = new HashMap<>(serializedLayer);
-                timeStampedLayer.put("timestamp", lastUpdate);
-                layers.add(timeStampedLayer);
+    // the markers of each layer were serialized when they changed, and are copied into the file as they are
+    private static void write(final @NonNull Path file, final @NonNull List<Serialized> layers, final int level) throws IOException {
+        FileUtil.atomicWrite(file, tmp -> {
+            try (final Writer writer = Files.newBufferedWriter(tmp);
+                 final JsonWriter json = new JsonWriter(writer)) {
+                json.beginArray();
+                for (final Serialized layer : layers) {
+                    final LayerInfo info = layer.info();
+                    json.beginObject();
+                    json.name("id").value(info.id());
+                    json.name("name").value(info.name());
+                    json.name("control").value(info.control());
+                    json.name("hide").value(info.hide());
+                    json.name("order").value(info.order());
+                    json.name("z_index").value(info.zIndex());
+                    json.name("timestamp").value(layer.timestamp());
+                    json.name("markers").beginArray();
+                    for (final Fragment marker : layer.markers()) {
+                        final String markerJson = marker.json(level);
+                        if (markerJson != null) {
+                            json.jsonValue(markerJson);
+                        }
+                    }
+                    json.endArray();
+                    json.endObject();
+                }
+                json.endArray();
             }
         });
+    }
 
-        Bukkit.getServer().getScheduler().runTaskAsynchronously(Pl3xMapPlugin.getInstance(), () -> {
-            Path file = FileUtil.getWorldFolder(this.mapWorld.bukkit()).resolve("markers.json");
-            FileUtil.write(this.gson.toJson(layers), file);
-        });
+    private void updateLayer(final @NonNull Key key, final @NonNull LayerProvider provider) {
+        final SerializedLayer layer = this.layers.computeIfAbsent(key, k -> new SerializedLayer());
+        final boolean changed = provider instanceof VersionedLayerProvider versioned
+                ? this.updateVersionedLayer(layer, LayerInfo.of(key, versioned), versioned)
+                : this.updateUnversionedLayer(layer, LayerInfo.of(key, provider), provider);
+        if (changed) {
+            this.changed.set(true);
+        }
     }
 
-    private @NonNull Map<String, Object> serializeLayer(final @NonNull Key key, final @NonNull LayerProvider provider, final @NonNull List<Marker> markers) {
-        final Map<String, Object> map = this.createMap(key, provider);
-        map.put("markers", this.serializeMarkers(markers));
-        return map;
+    private @NonNull LayerStats stats(final @NonNull Key key) {
+        return this.stats.computeIfAbsent(key, k -> new LayerStats());
     }
 
-    private Map<String, Object> createMap(Key key, LayerProvider provider) {
-        final Map<String, Object> map = new HashMap<>();
-        map.put("id", key.getKey());
-        map.put("name", provider.getLabel());
-        map.put("control", provider.showControls());
-        map.put("hide", provider.defaultHidden());
-        map.put("order", provider.layerPriority());
-        map.put("z_index", provider.zIndex());
-        return map;
+    /**
+     * Get how long updating each layer took
+     *
+     * @return stats by layer
+     */
+    public @NonNull Map<Key, LayerStats> stats() {
+        return Collections.unmodifiableMap(this.stats);
     }
 
-    private @NonNull List<Map<String, Object>> serializeMarkers(final @NonNull Collection<Marker> markers) {
-        final List<Map<String, Object>> processed = new ArrayList<>();
+    public void shutdown() {
+        this.cancel();
+        Util.shutdownExecutor(this.executor, TimeUnit.SECONDS, 1L);
+    }
 
-        for (final Marker marker : markers) {
-            final Map<String, Object> markerMap = new HashMap<>();
-            populateOptions(markerMap, marker.markerOptions());
-            serialize(marker, markerMap);
-            processed.add(markerMap);
+    private boolean updateUnversionedLayer(final @NonNull SerializedLayer layer, final @NonNull LayerInfo info, final @NonNull LayerProvider provider) {
+        final List<Marker> markers = List.copyOf(provider.getMarkers());
+
+        // the same as markers.hashCode(), keeping the hash code of each marker
+        final int[] hashCodes = new int[markers.size()];
+        int hashCode = 1;
+        for (int i = 0; i < hashCodes.length; i++) {
+            hashCodes[i] = markers.get(i).hashCode();
+            hashCode = 31 * hashCode + hashCodes[i];
+        }
+
+        final Serialized previous = layer.serialized;
+        if (previous != null && previous.info().equals(info) && layer.hashCode == hashCode) {
+            return false;
         }
 
-        return processed;
+        // a marker which is still the same instance with the same hash code as last time is not serialized again
+        final Map<Marker, Fragment> fragments = new IdentityHashMap<>(markers.size());
+        final List<Fragment> serialized = new ArrayList<>(markers.size());
+        for (int i = 0; i < hashCodes.length; i++) {
+            final Marker marker = markers.get(i);
+            Fragment fragment = layer.fragmentsByMarker.get(marker);
+            if (fragment == null || fragment.markerHashCode() != hashCodes[i]) {
+                fragment = this.fragment(hashCodes[i], marker);
+            }
+            fragments.put(marker, fragment);
+            serialized.add(fragment);
+        }
+        layer.fragmentsByMarker = fragments;
+        layer.hashCode = hashCode;
+        layer.serialized = new Serialized(info, System.currentTimeMillis(), this.cluster(layer, this.merge(layer, serialized)));
+        return true;
     }
 
-    private static void populateOptions(final @NonNull Map<String, Object> marker, final @NonNull MarkerOptions options) {
+    private boolean updateVersionedLayer(final @NonNull SerializedLayer layer, final @NonNull LayerInfo info, final @NonNull VersionedLayerProvider provider) {
+        // read the version before the markers, markers changing in between are serialized again next time
+        final long version = provider.version();
+
+        final Serialized previous = layer.serialized;
+        if (previous != null && previous.info().equals(info) && layer.version == version) {
+            return false;
+        }
+
+        final Map<Key, Marker> markers = provider.getMarkersByKey();
+        final @Nullable Set<Key> changed = layer.version < 0 ? null : provider.changedSince(layer.version);
+        if (changed == null) {
+            layer.fragmentsByKey.clear();
+            markers.forEach((markerKey, marker) -> layer.fragmentsByKey.put(markerKey, this.fragment(0, marker)));
+        } else {
+            for (final Key markerKey : changed) {
+                final Marker marker = markers.get(markerKey);
+                if (marker == null) {
+                    layer.fragmentsByKey.remove(markerKey);
+                } else {
+                    layer.fragmentsByKey.put(markerKey, this.fragment(0, marker));
+                }
+            }
+        }
+        layer.version = version;
+        layer.serialized = new Serialized(info, System.currentTimeMillis(), this.cluster(layer, this.merge(layer, List.copyOf(layer.fragmentsByKey.values()))));
+        return true;
+    }
+
+    // adjacent rectangles of the same style are written as one, a merged rectangle is kept while its rectangles are
+    private @NonNull List<Fragment> merge(final @NonNull SerializedLayer layer, final @NonNull List<Fragment> fragments) {
+        final List<List<Fragment>> groups = MarkerGeometry.mergeRectangles(fragments);
+        if (groups.isEmpty()) {
+            layer.merged = Map.of();
+            return fragments;
+        }
+        final Map<List<Long>, Fragment> merged = new HashMap<>();
+        // first rectangle of a group -> the merged rectangle, other rectangles of the group -> null
+        final Map<Fragment, Fragment> replaced = new IdentityHashMap<>();
+        for (final List<Fragment> group : groups) {
+            final List<Long> ids = group.stream().map(Fragment::id).toList();
+            Fragment fragment = layer.merged.get(ids);
+            if (fragment == null) {
+                int minX = Integer.MAX_VALUE;
+                int minZ = Integer.MAX_VALUE;
+                int maxX = Integer.MIN_VALUE;
+                int maxZ = Integer.MIN_VALUE;
+                for (final Fragment rectangle : group) {
+                    minX = Math.min(minX, rectangle.minX());
+                    minZ = Math.min(minZ, rectangle.minZ());
+                    maxX = Math.max(maxX, rectangle.maxX());
+                    maxZ = Math.max(maxZ, rectangle.maxZ());
+                }
+                final Marker rectangle = Marker.rectangle(Point.of(minX, minZ), Point.of(maxX, maxZ))
+                        .markerOptions(Objects.requireNonNull(group.get(0).mergeOptions()));
+                fragment = this.fragment(0, rectangle);
+            }
+            merged.put(ids, fragment);
+            replaced.put(group.get(0), fragment);
+            for (int i = 1; i < group.size(); i++) {
+                replaced.put(group.get(i), null);
+            }
+        }
+        layer.merged = merged;
+
+        final List<Fragment> result = new ArrayList<>(fragments.size() - replaced.size() + groups.size());
+        for (final Fragment fragment : fragments) {
+            if (!replaced.containsKey(fragment)) {
+                result.add(fragment);
+                continue;
+            }
+            final Fragment rectangle = replaced.get(fragment);
+            if (rectangle != null) {
+                result.add(rectangle);
+            }
+        }
+        return result;
+    }
+
+    // from the first clustered level on icons are hidden, and shown by the clusters of each level instead
+    private @NonNull List<Fragment> cluster(final @NonNull SerializedLayer layer, final @NonNull List<Fragment> fragments) {
+        final int levels = levels(this.mapWorld);
+        final int from = this.mapWorld.config().MARKER_CLUSTER_FROM_LEVEL;
+        if (!this.mapWorld.config().MARKER_CLUSTER_ENABLED || from < 1 || from >= levels) {
+            layer.hiddenIcons = Map.of();
+            layer.clusters = Map.of();
+            return fragments;
+        }
+
+        final List<Fragment> result = new ArrayList<>(fragments.size());
+        final Map<Long, Fragment> hiddenIcons = new HashMap<>();
+        List<MarkerGeometry.Cluster> clusters = new ArrayList<>();
+        for (final Fragment fragment : fragments) {
+            if (!fragment.icon()) {
+                result.add(fragment);
+                continue;
+            }
+            Fragment hidden = layer.hiddenIcons.get(fragment.id());
+            if (hidden == null) {
+                final List<String> shown = new ArrayList<>();
+                for (int level = 0; level < from; level++) {
+                    shown.add(fragment.json(level));
+                }
+                shown.add(null);
+                hidden = new Fragment(fragment.id(), fragment.markerHashCode(), Collections.unmodifiableList(shown), fragment.minX(), fragment.minZ(), fragment.maxX(), fragment.maxZ(), null, true);
+            }
+            hiddenIcons.put(fragment.id(), hidden);
+            result.add(hidden);
+            clusters.add(MarkerGeometry.Cluster.of(fragment));
+        }
+        layer.hiddenIcons = hiddenIcons;
+        if (clusters.isEmpty()) {
+            layer.clusters = Map.of();
+            return fragments;
+        }
+
+        // a cluster is kept for as long as it has the same icons
+        final Map<ClusterKey, Fragment> cached = new HashMap<>();
+        for (int level = from; level < levels; level++) {
+            // the grid of each level is twice as coarse as the one before, and made of its clusters
+            clusters = MarkerGeometry.cluster(clusters, this.mapWorld.config().MARKER_CLUSTER_GRID_SIZE_PIXELS * (1 << level));
+            for (final MarkerGeometry.Cluster cluster : clusters) {
+                final ClusterKey key = new ClusterKey(level, cluster.ids());
+                Fragment fragment = layer.clusters.get(key);
+                if (fragment == null) {
+                    fragment = this.clusterFragment(cluster, level, levels);
+                }
+                cached.put(key, fragment);
+                result.add(fragment);
+            }
+        }
+        layer.clusters = cached;
+        return result;
+    }
+
+    // a cluster is only shown on its level, a cluster of one is the icon itself
+    private @NonNull Fragment clusterFragment(final MarkerGeometry.@NonNull Cluster cluster, final int level, final int levels) {
+        final List<String> shown = new ArrayList<>(Collections.nCopies(level, null));
+        final Fragment single = cluster.single();
+        if (single != null) {
+            shown.add(single.json(level));
+        } else {
+            final StringWriter writer = new StringWriter();
+            try (final JsonWriter json = new JsonWriter(writer)) {
+                json.beginObject();
+                json.name("type").value("cluster");
+                json.name("point");
+                writePoint(json, Point.of(cluster.x(), cluster.z()));
+                json.name("count").value(cluster.count());
+                json.endObject();
+            } catch (final IOException e) {
+                // a StringWriter doesn't throw
+                throw new UncheckedIOException(e);
+            }
+            shown.add(writer.toString());
+        }
+        if (level + 1 < levels) {
+            shown.add(null);
+        }
+        final int x = (int) Math.floor(cluster.x());
+        final int z = (int) Math.floor(cluster.z());
+        return new Fragment(this.fragmentIds.incrementAndGet(), 0, Collections.unmodifiableList(shown), x, z, x, z, null, false);
+    }
+
+    private @NonNull Fragment fragment(final int markerHashCode, final @NonNull Marker marker) {
+        final int[] bounds = MarkerCells.bounds(marker);
+        return new Fragment(this.fragmentIds.incrementAndGet(), markerHashCode, this.serializeLevels(marker), bounds[0], bounds[1], bounds[2], bounds[3], this.mergeOptions(marker), marker instanceof Icon);
+    }
+
+    // only lines and polygons are simplified, other markers are the same on every level
+    private @NonNull List<String> serializeLevels(final @NonNull Marker marker) {
+        final String json = serializeMarker(marker, 0);
+        if (!(marker instanceof Polyline) && !(marker instanceof Polygon) && !(marker instanceof MultiPolygon)) {
+            return List.of(json);
+        }
+        // at each level zoomed out a pixel covers twice as many blocks
+        final List<String> levels = new ArrayList<>();
+        levels.add(json);
+        final int count = levels(this.mapWorld);
+        for (int level = 1; level < count; level++) {
+            final String simplified = serializeMarker(marker, this.mapWorld.config().MARKER_SIMPLIFY_TOLERANCE * (1 << level));
+            final String previous = levels.get(level - 1);
+            levels.add(simplified.equals(previous) ? previous : simplified);
+        }
+        // levels past the last change are left out, the last one is used for them
+        while (levels.size() > 1 && levels.get(levels.size() - 1) == levels.get(levels.size() - 2)) {
+            levels.remove(levels.size() - 1);
+        }
+        return List.copyOf(levels);
+    }
+
+    private @Nullable MarkerOptions mergeOptions(final @NonNull Marker marker) {
+        if (!this.mapWorld.config().MARKER_MERGE_RECTANGLES || !(marker instanceof Rectangle rectangle)) {
+            return null;
+        }
+        // the bounds only match the points written when those are whole blocks
+        final Point point1 = rectangle.point1();
+        final Point point2 = rectangle.point2();
+        if (point1.x() % 1 != 0 || point1.z() % 1 != 0 || point2.x() % 1 != 0 || point2.z() % 1 != 0) {
+            return null;
+        }
+        return rectangle.markerOptions();
+    }
+
+    private static @NonNull String serializeMarker(final @NonNull Marker marker, final double tolerance) {
+        final StringWriter writer = new StringWriter();
+        try (final JsonWriter json = new JsonWriter(writer)) {
+            json.beginObject();
+            writeOptions(json, marker.markerOptions());
+            serialize(marker, json, tolerance);
+            json.endObject();
+        } catch (final IOException e) {
+            // a StringWriter doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private record LayerUpdate(@NonNull AtomicLong started, @NonNull CompletableFuture<Void> future) {
+    }
+
+    public static final class LayerStats {
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private volatile long mainThreadNanos;
+        private volatile long workerNanos;
+        private volatile long maxWorkerNanos;
+
+        public long mainThreadNanos() {
+            return this.mainThreadNanos;
+        }
+
+        public long workerNanos() {
+            return this.workerNanos;
+        }
+
+        public long maxWorkerNanos() {
+            return this.maxWorkerNanos;
+        }
+
+        public long timeouts() {
+            return this.timeouts.sum();
+        }
+
+        public long failures() {
+            return this.failures.sum();
+        }
+    }
+
+    private static final class SerializedLayer {
+        // versioned layers: markers by key
+        private final Map<Key, Fragment> fragmentsByKey = new LinkedHashMap<>();
+        private volatile long version = -1L;
+        // other layers: markers by instance, along with the hash code they had
+        private Map<Marker, Fragment> fragmentsByMarker = new IdentityHashMap<>();
+        private int hashCode;
+        // ids of merged rectangles -> the rectangle they were merged into
+        private Map<List<Long>, Fragment> merged = Map.of();
+        // icon ids -> the icon hidden from the first clustered level on
+        private Map<Long, Fragment> hiddenIcons = Map.of();
+        private Map<ClusterKey, Fragment> clusters = Map.of();
+        private volatile @Nullable Serialized serialized;
+    }
+
+    record LayerInfo(@NonNull String id, @NonNull String name, boolean control, boolean hide, int order, int zIndex) {
+        static @NonNull LayerInfo of(final @NonNull Key key, final @NonNull LayerProvider provider) {
+            return new LayerInfo(key.getKey(), provider.getLabel(), provider.showControls(), provider.defaultHidden(), provider.layerPriority(), provider.zIndex());
+        }
+    }
+
+    record Serialized(@NonNull LayerInfo info, long timestamp, @NonNull List<Fragment> markers) {
+    }
+
+    private record ClusterKey(int level, @NonNull List<Long> ids) {
+    }
+
+    /**
+     * A serialized marker. A marker which changes becomes a new fragment, with a new id.
+     *
+     * @param id             unique id
+     * @param markerHashCode hash code of the marker, for layers which aren't versioned
+     * @param levels         marker json for each level of detail up to the last one which differs, null where it isn't shown
+     * @param minX           min x of the marker's bounds
+     * @param minZ           min z of the marker's bounds
+     * @param maxX           max x of the marker's bounds
+     * @param maxZ           max z of the marker's bounds
+     * @param mergeOptions   options of a rectangle which may be merged with others with the same options
+     * @param icon           whether the marker is an icon, which may be clustered
+     */
+    record Fragment(long id, int markerHashCode, @NonNull List<String> levels, int minX, int minZ, int maxX, int maxZ, @Nullable MarkerOptions mergeOptions, boolean icon) {
+        @Nullable String json(final int level) {
+            return this.levels.get(Math.min(level, this.levels.size() - 1));
+        }
+    }
+
+    private static void writeOptions(final @NonNull JsonWriter json, final @NonNull MarkerOptions options) throws IOException {
         final MarkerOptions defaults = MarkerOptions.defaultOptions();
         if (options.stroke() != defaults.stroke()) {
-            marker.put("stroke", options.stroke());
+            json.name("stroke").value(options.stroke());
         }
         if (!options.strokeColor().equals(defaults.strokeColor())) {
-            marker.put("color", toHexString(options.strokeColor()));
+            json.name("color").value(toHexString(options.strokeColor()));
         }
         if (options.strokeWeight() != defaults.strokeWeight()) {
-            marker.put("weight", options.strokeWeight());
+            json.name("weight").value(options.strokeWeight());
         }
         if (options.strokeOpacity() != defaults.strokeOpacity()) {
-            marker.put("opacity", options.strokeOpacity());
+            json.name("opacity").value(options.strokeOpacity());
         }
         if (options.fill() != defaults.fill()) {
-            marker.put("fill", options.fill());
+            json.name("fill").value(options.fill());
         }
         final Color fillColor = options.fillColor();
         if (fillColor != null) {
-            marker.put("fillColor", toHexString(fillColor));
+            json.name("fillColor").value(toHexString(fillColor));
         }
         if (options.fillOpacity() != defaults.fillOpacity()) {
-            marker.put("fillOpacity", options.fillOpacity());
+            json.name("fillOpacity").value(options.fillOpacity());
         }
         if (options.fillRule() != defaults.fillRule()) {
-            marker.put("fillRule", options.fillRule().toString().toLowerCase(Locale.ENGLISH));
+            json.name("fillRule").value(options.fillRule().toString().toLowerCase(Locale.ENGLISH));
         }
         final String clickTooltip = options.clickTooltip();
         if (clickTooltip != null) {
-            marker.put("popup", clickTooltip);
+            json.name("popup").value(clickTooltip);
         }
         final String hoverTooltip = options.hoverTooltip();
         if (hoverTooltip != null) {
-            marker.put("tooltip", hoverTooltip);
+            json.name("tooltip").value(hoverTooltip);
         }
     }
 
@@ -160,13 +647,13 @@ public final class UpdateMarkers extends BukkitRunnable {
     }
 
     @SuppressWarnings("unchecked")
-    private static <T extends Marker> void serialize(final @NonNull T marker, final @NonNull Map<String, Object> destination) {
+    private static <T extends Marker> void serialize(final @NonNull T marker, final @NonNull JsonWriter json, final double tolerance) throws IOException {
         final Class<? extends Marker> markerClass = marker.getClass();
         final MarkerSerializer<T> markerSerializer = (MarkerSerializer<T>) serializers.get(markerClass);
         if (markerSerializer == null) {
             throw new IllegalStateException("unknown marker type! no serializer present for " + markerClass.getName());
         }
-        markerSerializer.serialize(destination, marker);
+        markerSerializer.serialize(json, marker, tolerance);
     }
 
     private static final Map<Class<? extends Marker>, MarkerSerializer<?>> serializers = new HashMap<>();
@@ -176,87 +663,99 @@ public final class UpdateMarkers extends BukkitRunnable {
     }
 
     static {
-        register(Polyline.class, (destination, line) -> {
-            destination.put("type", "polyline");
-            final Object points;
+        register(Polyline.class, (json, line, tolerance) -> {
+            json.name("type").value("polyline");
+            json.name("points");
             if (line.points().size() == 1) {
-                points = line.points().get(0).stream()
-                        .map(UpdateMarkers::toMap)
-                        .collect(Collectors.toList());
+                writePoints(json, MarkerGeometry.simplify(line.points().get(0), tolerance, false));
             } else {
-                points = serializePoints(line.points().stream());
+                json.beginArray();
+                for (final List<Point> points : line.points()) {
+                    writePoints(json, MarkerGeometry.simplify(points, tolerance, false));
+                }
+                json.endArray();
             }
-            destination.put("points", points);
         });
 
-        register(Rectangle.class, (destination, rectangle) -> {
-            destination.put("type", "rectangle");
-            destination.put("points", List.of(
-                    toMap(rectangle.point1()),
-                    toMap(rectangle.point2())
-            ));
+        register(Rectangle.class, (json, rectangle, tolerance) -> {
+            json.name("type").value("rectangle");
+            json.name("points").beginArray();
+            writePoint(json, rectangle.point1());
+            writePoint(json, rectangle.point2());
+            json.endArray();
         });
 
-        register(Circle.class, (destination, circle) -> {
-            destination.put("type", "circle");
-            destination.put("center", toMap(circle.center()));
-            destination.put("radius", circle.radius());
+        register(Circle.class, (json, circle, tolerance) -> {
+            json.name("type").value("circle");
+            json.name("center");
+            writePoint(json, circle.center());
+            json.name("radius").value(circle.radius());
         });
 
-        register(Ellipse.class, (destination, ellipse) -> {
-            destination.put("type", "ellipse");
-            destination.put("center", toMap(ellipse.center()));
-            destination.put("radiusX", ellipse.radiusX());
-            destination.put("radiusZ", ellipse.radiusZ());
+        register(Ellipse.class, (json, ellipse, tolerance) -> {
+            json.name("type").value("ellipse");
+            json.name("center");
+            writePoint(json, ellipse.center());
+            json.name("radiusX").value(ellipse.radiusX());
+            json.name("radiusZ").value(ellipse.radiusZ());
         });
 
-        register(Polygon.class, (destination, polygon) -> {
-            destination.put("type", "polygon");
-            final List<List<Point>> list = new ArrayList<>(Collections.singleton(polygon.mainPolygon()));
-            list.addAll(polygon.negativeSpace());
-            destination.put(
-                    "points",
-                    serializePoints(list.stream())
-            );
+        register(Polygon.class, (json, polygon, tolerance) -> {
+            json.name("type").value("polygon");
+            json.name("points");
+            writePolygon(json, polygon.mainPolygon(), polygon.negativeSpace(), tolerance);
         });
 
-        register(MultiPolygon.class, (destination, multiPolygon) -> {
-            destination.put("type", "polygon");
-            destination.put(
-                    "points",
-                    multiPolygon.subPolygons().stream().map(subPoly -> {
-                        final List<List<Point>> list = new ArrayList<>(Collections.singleton(subPoly.mainPolygon()));
-                        list.addAll(subPoly.negativeSpace());
-                        return serializePoints(list.stream());
-                    }).collect(Collectors.toList())
-            );
+        register(MultiPolygon.class, (json, multiPolygon, tolerance) -> {
+            json.name("type").value("polygon");
+            json.name("points").beginArray();
+            for (final MultiPolygon.MultiPolygonPart subPoly : multiPolygon.subPolygons()) {
+                writePolygon(json, subPoly.mainPolygon(), subPoly.negativeSpace(), tolerance);
+            }
+            json.endArray();
         });
 
-        register(Icon.class, (destination, icon) -> {
-            destination.put("type", "icon");
-            destination.put("point", toMap(icon.point()));
-            destination.put("size", toMap(Point.of(icon.sizeX(), icon.sizeZ())));
-            destination.put("anchor", toMap(icon.anchor()));
-            destination.put("tooltip_anchor", toMap(icon.tooltipAnchor()));
-            destination.put("icon", icon.image().getKey());
+        register(Icon.class, (json, icon, tolerance) -> {
+            json.name("type").value("icon");
+            json.name("point");
+            writePoint(json, icon.point());
+            json.name("size");
+            writePoint(json, Point.of(icon.sizeX(), icon.sizeZ()));
+            json.name("anchor");
+            writePoint(json, icon.anchor());
+            json.name("tooltip_anchor");
+            writePoint(json, icon.tooltipAnchor());
+            json.name("icon").value(icon.image().getKey());
         });
     }
 
-    private static @NonNull List<List<Map<String, Integer>>> serializePoints(final @NonNull Stream<List<Point>> stream) {
-        return stream.map(points ->
-                points.stream()
-                        .map(UpdateMarkers::toMap)
-                        .collect(Collectors.toList())
-        ).collect(Collectors.toList());
+    private static void writePolygon(final @NonNull JsonWriter json, final @NonNull List<Point> mainPolygon, final @NonNull List<List<Point>> negativeSpace, final double tolerance) throws IOException {
+        json.beginArray();
+        writePoints(json, MarkerGeometry.simplify(mainPolygon, tolerance, true));
+        for (final List<Point> points : negativeSpace) {
+            writePoints(json, MarkerGeometry.simplify(points, tolerance, true));
+        }
+        json.endArray();
+    }
+
+    private static void writePoints(final @NonNull JsonWriter json, final @NonNull List<Point> points) throws IOException {
+        json.beginArray();
+        for (final Point point : points) {
+            writePoint(json, point);
+        }
+        json.endArray();
     }
 
-    @FunctionalInterface
-    private interface MarkerSerializer<T extends Marker> {
-        void serialize(@NonNull Map<String, Object> destination, @NonNull T marker);
+    private static void writePoint(final @NonNull JsonWriter json, final @NonNull Point point) throws IOException {
+        json.beginObject();
+        json.name("x").value((int) point.x());
+        json.name("z").value((int) point.z());
+        json.endObject();
     }
 
-    private static @NonNull Map<String, Integer> toMap(final @NonNull Point point) {
-        return Map.of("x", (int) point.x(), "z", (int) point.z());
+    @FunctionalInterface
+    private interface MarkerSerializer<T extends Marker> {
+        void serialize(@NonNull JsonWriter json, @NonNull T marker, double tolerance) throws IOException;
     }
 
 }
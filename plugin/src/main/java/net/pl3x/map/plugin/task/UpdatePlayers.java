@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Map;
 import net.pl3x.map.plugin.Pl3xMapPlugin;
 import net.pl3x.map.plugin.configuration.WorldConfig;
+import net.pl3x.map.plugin.httpd.LiveUpdates;
 import net.pl3x.map.plugin.util.FileUtil;
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
@@ -68,7 +69,9 @@ public class UpdatePlayers extends BukkitRunnable {
         map.put("players", players);
         map.put("max", Bukkit.getMaxPlayers());
 
-        FileUtil.write(this.gson.toJson(map), FileUtil.TILES_DIR.resolve("players.json"));
+        final String json = this.gson.toJson(map);
+        FileUtil.write(json, FileUtil.TILES_DIR.resolve("players.json"));
+        LiveUpdates.players(json);
     }
 
     private static int getArmorPoints(Player player) {
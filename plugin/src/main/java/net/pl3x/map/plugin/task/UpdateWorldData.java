@@ -59,6 +59,8 @@ public class UpdateWorldData extends BukkitRunnable {
             settings.put("player_tracker", playerTracker);
             settings.put("zoom", zoom);
             settings.put("marker_update_interval", worldConfig.MARKER_API_UPDATE_INTERVAL_SECONDS);
+            settings.put("marker_levels", Math.max(1, worldConfig.MARKER_LEVELS));
+            settings.put("marker_cell_size", worldConfig.MARKER_CELLS_ENABLED ? Math.max(16, worldConfig.MARKER_CELL_SIZE) : 0);
             settings.put("tiles_update_interval", worldConfig.BACKGROUND_RENDER_INTERVAL_SECONDS);
 
             FileUtil.write(this.gson.toJson(settings), FileUtil.getWorldFolder(world).resolve("settings.json"));
@@ -94,6 +96,7 @@ public class UpdateWorldData extends BukkitRunnable {
         Map<String, Object> map = new HashMap<>();
         map.put("worlds", worlds);
         map.put("ui", ui);
+        map.put("live_updates", Config.HTTPD_ENABLED && Config.HTTPD_LIVE_UPDATES_ENABLED);
 
         FileUtil.write(this.gson.toJson(map), FileUtil.TILES_DIR.resolve("settings.json"));
     }
@@ -1,10 +1,11 @@
 package net.pl3x.map.plugin.task.render;
 
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
@@ -25,11 +26,13 @@ import net.pl3x.map.plugin.Logging;
 import net.pl3x.map.plugin.configuration.Lang;
 import net.pl3x.map.plugin.data.BiomeColors;
 import net.pl3x.map.plugin.data.ChunkCoordinate;
+import net.pl3x.map.plugin.data.ColumnMask;
 import net.pl3x.map.plugin.data.Image;
 import net.pl3x.map.plugin.data.MapWorld;
 import net.pl3x.map.plugin.data.RegionCoordinate;
+import net.pl3x.map.plugin.data.SurfaceFingerprints;
+import net.pl3x.map.plugin.data.storage.TileStorage;
 import net.pl3x.map.plugin.util.Colors;
-import net.pl3x.map.plugin.util.FileUtil;
 import net.pl3x.map.plugin.util.Numbers;
 import net.pl3x.map.plugin.util.ReflectionUtil;
 import net.pl3x.map.plugin.util.Util;
@@ -45,11 +48,13 @@ public abstract class AbstractRender implements Runnable {
     private final ExecutorService executor;
     private final FutureTask<Void> futureTask;
     protected volatile boolean cancelled = false;
+    // chunk loads the render threads wait on, cancelled with the render so queued loads are dropped
+    private final Set<CompletableFuture<?>> chunkLoads = ConcurrentHashMap.newKeySet();
 
     protected final MapWorld mapWorld;
     protected final World world;
     protected final ServerLevel level;
-    protected final Path worldTilesDir;
+    protected final TileStorage tileStorage;
 
     private final ThreadLocal<BiomeColors> biomeColors;
 
@@ -68,9 +73,9 @@ public abstract class AbstractRender implements Runnable {
         this.executor = executor;
         this.world = mapWorld.bukkit();
         this.level = ReflectionUtil.CraftBukkit.serverLevel(this.world);
-        this.worldTilesDir = FileUtil.getWorldFolder(world);
+        this.tileStorage = mapWorld.tileStorage();
         this.biomeColors = this.mapWorld.config().MAP_BIOMES
-            ? ThreadLocal.withInitial(() -> new BiomeColors(mapWorld))
+            ? ThreadLocal.withInitial(() -> new BiomeColors(mapWorld, this::trackChunkLoad))
             : null; // this should be null if we are not mapping biomes
     }
 
@@ -86,6 +91,7 @@ public abstract class AbstractRender implements Runnable {
             this.timer.cancel();
         }
         this.cancelled = true;
+        this.chunkLoads.forEach(future -> future.cancel(false));
         Util.shutdownExecutor(this.executor, TimeUnit.SECONDS, 1L);
         this.futureTask.cancel(false);
     }
@@ -127,7 +133,7 @@ public abstract class AbstractRender implements Runnable {
     }
 
     protected final void mapRegion(final @NonNull RegionCoordinate region) {
-        Image image = new Image(region, this.worldTilesDir, this.mapWorld.config().ZOOM_MAX);
+        Image image = new Image(region, this.tileStorage, this.mapWorld.config().ZOOM_MAX);
         int startX = region.getChunkX();
         int startZ = region.getChunkZ();
         final List<CompletableFuture<Void>> futures = new ArrayList<>();
@@ -145,9 +151,8 @@ public abstract class AbstractRender implements Runnable {
         for (final Exception exception : exceptions) {
             LOGGER.warn("Exception mapping region {}", region, exception);
         }
-        if (!this.cancelled) {
-            this.mapWorld.saveImage(image);
-        }
+        // save even when cancelled, everything rendered so far is still valid
+        this.mapWorld.saveImage(image);
     }
 
     protected final @NonNull CompletableFuture<Void> mapChunkColumn(final @NonNull Image image, final int chunkX, final int startChunkZ) {
@@ -174,6 +179,7 @@ public abstract class AbstractRender implements Runnable {
                 chunk = this.chunkSnapshot(this.level, chunkX, chunkZ);
                 if (chunk != null) {
                     this.scanChunk(image, lastY, chunk);
+                    this.recordFingerprint(chunk);
                 }
                 this.curChunks.incrementAndGet();
             }
@@ -199,6 +205,7 @@ public abstract class AbstractRender implements Runnable {
             chunk = this.chunkSnapshot(this.level, chunkX, chunkZ);
             if (chunk != null) {
                 this.scanChunk(image, lastY, chunk);
+                this.recordFingerprint(chunk);
             }
 
             // queue up the southern chunk in case it was stored with improper yDiff
@@ -221,6 +228,115 @@ public abstract class AbstractRender implements Runnable {
         });
     }
 
+    /**
+     * Re-scan only the dirty columns of a chunk. For every x with dirty columns, the run from the
+     * northernmost dirty column through the column just south of the southernmost dirty column is
+     * re-scanned, as each column is shaded relative to the column north of it.
+     *
+     * @param image  image to draw to
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @param mask   dirty columns
+     * @return future
+     */
+    protected final @NonNull CompletableFuture<Void> mapPartialChunk(final @NonNull Image image, final int chunkX, final int chunkZ, final @NonNull ColumnMask mask) {
+        if (mask.isFull()) {
+            return this.mapSingleChunk(image, chunkX, chunkZ);
+        }
+        return CompletableFuture.runAsync(() -> {
+            final ChunkSnapshot chunk = this.chunkSnapshot(this.level, chunkX, chunkZ);
+            if (chunk == null) {
+                this.curChunks.incrementAndGet();
+                return;
+            }
+            while (this.mapWorld.rendersPaused()) {
+                sleep(500);
+            }
+
+            final int[] lastY = new int[16];
+            final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
+            @Nullable ChunkSnapshot north = null;
+            boolean loadedNorth = false;
+            int southColumns = 0;
+
+            for (int x = 0; x < 16; x++) {
+                if (this.cancelled) return;
+                final int minZ = mask.minZ(x);
+                if (minZ == -1) {
+                    continue;
+                }
+                final int maxZ = mask.maxZ(x);
+
+                // find the height of the column north of the first dirty column for shading
+                if (minZ > 0) {
+                    lastY[x] = this.surfaceY(chunk, x, minZ - 1, mutablePos);
+                } else {
+                    if (!loadedNorth) {
+                        north = this.chunkSnapshot(this.level, chunkX, chunkZ - 1);
+                        loadedNorth = true;
+                    }
+                    lastY[x] = north == null ? 0 : this.surfaceY(north, x, 15, mutablePos);
+                }
+
+                final int endZ = Math.min(maxZ + 1, 15);
+                for (int z = minZ; z <= endZ; z++) {
+                    this.scanColumn(image, chunk, x, z, lastY);
+                }
+                if (maxZ == 15) {
+                    southColumns |= 1 << x;
+                }
+            }
+
+            this.recordFingerprint(chunk);
+
+            // the top row of the southern chunk is shaded from our bottom row
+            if (southColumns != 0 && !this.cancelled) {
+                final int down = chunkZ + 1;
+                if (Numbers.chunkToRegion(chunkZ) == Numbers.chunkToRegion(down)) {
+                    final ChunkSnapshot south = this.chunkSnapshot(this.level, chunkX, down);
+                    if (south != null) {
+                        for (int x = 0; x < 16; x++) {
+                            if ((southColumns & 1 << x) != 0) {
+                                this.scanColumn(image, south, x, 0, lastY);
+                            }
+                        }
+                    }
+                } else {
+                    // chunk belongs to a different region, add to queue
+                    final int blockX = Numbers.chunkToBlock(chunkX);
+                    final int blockZ = Numbers.chunkToBlock(down);
+                    for (int x = 0; x < 16; x++) {
+                        if ((southColumns & 1 << x) != 0) {
+                            this.mapWorld.columnModified(blockX + x, blockZ);
+                        }
+                    }
+                }
+            }
+
+            this.curChunks.incrementAndGet();
+        }, this.executor).exceptionally(thr -> {
+            LOGGER.warn("mapPartialChunk failed!", thr);
+            return null;
+        });
+    }
+
+    // also called after partial scans, changes made without events to columns which were not re-scanned
+    // are then only picked up by the next full render of the chunk
+    private void recordFingerprint(final @NonNull ChunkSnapshot chunk) {
+        final @Nullable SurfaceFingerprints fingerprints = this.mapWorld.surfaceFingerprints();
+        if (fingerprints != null && !this.cancelled) {
+            fingerprints.rendered(chunk.pos().x, chunk.pos().z, SurfaceFingerprints.fingerprint(chunk));
+        }
+    }
+
+    private void scanColumn(final @NonNull Image image, final @NonNull ChunkSnapshot chunk, final int x, final int z, final int @NonNull [] lastY) {
+        final int blockX = chunk.pos().getMinBlockX() + x;
+        final int blockZ = chunk.pos().getMinBlockZ() + z;
+        if (this.mapWorld.visibilityLimit().shouldRenderColumn(blockX, blockZ)) {
+            image.setPixel(blockX, blockZ, this.scanBlock(chunk, x, z, lastY));
+        }
+    }
+
     private void scanChunk(Image image, int[] lastY, ChunkSnapshot chunk) {
         while (this.mapWorld.rendersPaused()) {
             sleep(500);
@@ -253,22 +369,26 @@ public abstract class AbstractRender implements Runnable {
         final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
         for (int x = 0; x < 16; x++) {
             if (this.cancelled) return lastY;
-            final int yDiff = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x, 15) + 1;
-            int height = this.mapWorld.config().MAP_MAX_HEIGHT == -1 ? chunk.dimensionType().logicalHeight() : this.mapWorld.config().MAP_MAX_HEIGHT;
-            mutablePos.set(
-                chunk.pos().getMinBlockX() + x,
-                Math.min(yDiff, height),
-                chunk.pos().getMinBlockZ() + 15
-            );
-            final BlockState state = this.mapWorld.config().MAP_ITERATE_UP ? this.iterateUp(chunk, mutablePos) : this.iterateDown(chunk, mutablePos);
-            if (this.mapWorld.config().MAP_GLASS_CLEAR && isGlass(state)) {
-                this.handleGlass(chunk, mutablePos);
-            }
-            lastY[x] = mutablePos.getY();
+            lastY[x] = this.surfaceY(chunk, x, 15, mutablePos);
         }
         return lastY;
     }
 
+    private int surfaceY(final @NonNull ChunkSnapshot chunk, final int x, final int z, final BlockPos.@NonNull MutableBlockPos mutablePos) {
+        final int yDiff = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x, z) + 1;
+        int height = this.mapWorld.config().MAP_MAX_HEIGHT == -1 ? chunk.dimensionType().logicalHeight() : this.mapWorld.config().MAP_MAX_HEIGHT;
+        mutablePos.set(
+            chunk.pos().getMinBlockX() + x,
+            Math.min(yDiff, height),
+            chunk.pos().getMinBlockZ() + z
+        );
+        final BlockState state = this.mapWorld.config().MAP_ITERATE_UP ? this.iterateUp(chunk, mutablePos) : this.iterateDown(chunk, mutablePos);
+        if (this.mapWorld.config().MAP_GLASS_CLEAR && isGlass(state)) {
+            this.handleGlass(chunk, mutablePos);
+        }
+        return mutablePos.getY();
+    }
+
     private int scanBlock(ChunkSnapshot chunk, int imgX, int imgZ, int[] lastY) {
         int blockX = chunk.pos().getMinBlockX() + imgX;
         int blockZ = chunk.pos().getMinBlockZ() + imgZ;
@@ -423,13 +543,22 @@ public abstract class AbstractRender implements Runnable {
     }
 
     private @Nullable ChunkSnapshot chunkSnapshot(final ServerLevel level, final int x, final int z) {
-        final CompletableFuture<ChunkSnapshot> future = ChunkSnapshot.asyncSnapshot(level, x, z);
+        final CompletableFuture<ChunkSnapshot> future = this.trackChunkLoad(ChunkSnapshot.asyncSnapshot(this.mapWorld.chunkLoadLimiter(), x, z, this.mapWorld.config().MAP_READ_UNLOADED_CHUNKS));
         while (!future.isDone()) {
             if (this.cancelled) {
                 return null;
             }
         }
-        return future.join();
+        return future.isCancelled() ? null : future.join();
+    }
+
+    private <T> CompletableFuture<T> trackChunkLoad(final CompletableFuture<T> future) {
+        this.chunkLoads.add(future);
+        future.whenComplete((result, throwable) -> this.chunkLoads.remove(future));
+        if (this.cancelled) {
+            future.cancel(false);
+        }
+        return future;
     }
 
     static void sleep(int ms) {
@@ -1,15 +1,14 @@
 package net.pl3x.map.plugin.task.render;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import net.pl3x.map.plugin.Logging;
 import net.pl3x.map.plugin.data.ChunkCoordinate;
+import net.pl3x.map.plugin.data.ColumnMask;
 import net.pl3x.map.plugin.data.Image;
 import net.pl3x.map.plugin.data.MapWorld;
 import net.pl3x.map.plugin.data.RegionCoordinate;
@@ -34,24 +33,50 @@ public final class BackgroundRender extends AbstractRender {
     @Override
     protected void render() {
         long time = System.currentTimeMillis();
-        final Set<ChunkCoordinate> chunks = new HashSet<>();
-        while (mapWorld.hasModifiedChunks() && chunks.size() < mapWorld.config().BACKGROUND_RENDER_MAX_CHUNKS_PER_INTERVAL) {
-            chunks.add(mapWorld.nextModifiedChunk());
+
+        // regions someone is looking at, but which were never rendered, go first
+        final List<RegionCoordinate> requested = mapWorld.dirtyChunks().pollRequestedRegions(mapWorld.config().LAZY_RENDER_MAX_REGIONS_PER_INTERVAL);
+        for (final RegionCoordinate region : requested) {
+            if (this.cancelled) {
+                return;
+            }
+            mapRegion(region);
+        }
+
+        // regions with many dirty chunks are rendered whole, one chunk column at a time
+        final long settleMillis = mapWorld.config().BACKGROUND_RENDER_INTERVAL_SECONDS * 2000L;
+        final List<RegionCoordinate> regions = mapWorld.dirtyChunks().pollRegions(mapWorld.config().BACKGROUND_RENDER_MAX_REGIONS_PER_INTERVAL, settleMillis);
+        for (final RegionCoordinate region : regions) {
+            if (this.cancelled) {
+                return;
+            }
+            if (mapWorld.visibilityLimit().shouldRenderRegion(region)) {
+                mapRegion(region);
+            }
+            if (!this.cancelled) {
+                mapWorld.dirtyChunks().regionsRendered(List.of(region));
+            }
         }
-        final Map<RegionCoordinate, List<ChunkCoordinate>> coordMap = chunks.stream().collect(Collectors.groupingBy(ChunkCoordinate::regionCoordinate));
+
+        final Map<ChunkCoordinate, ColumnMask> chunks = mapWorld.dirtyChunks().pollChunks(mapWorld.config().BACKGROUND_RENDER_MAX_CHUNKS_PER_INTERVAL);
+        final Map<RegionCoordinate, List<ChunkCoordinate>> coordMap = chunks.keySet().stream().collect(Collectors.groupingBy(ChunkCoordinate::regionCoordinate));
 
         List<CompletableFuture<Void>> futures = new ArrayList<>();
         coordMap.forEach((region, chunkCoords) -> {
-            final Image img = new Image(region, worldTilesDir, mapWorld.config().ZOOM_MAX);
+            final Image img = new Image(region, tileStorage, mapWorld.config().ZOOM_MAX);
 
             final CompletableFuture<Void> future = CompletableFuture.allOf(chunkCoords.stream().map(coord ->
-                    mapSingleChunk(img, coord.x(), coord.z())).toArray(CompletableFuture[]::new));
+                    mapPartialChunk(img, coord.x(), coord.z(), chunks.get(coord))).toArray(CompletableFuture[]::new));
 
             future.whenComplete((result, throwable) -> mapWorld.saveImage(img));
             futures.add(future);
         });
-        if (!futures.isEmpty()) {
+        if (!futures.isEmpty() || !regions.isEmpty() || !requested.isEmpty()) {
             CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            // chunks of a cancelled render stay in the checkpoint, and are rendered after a restart
+            if (!this.cancelled) {
+                mapWorld.dirtyChunks().chunksRendered(chunks.keySet());
+            }
             Logging.debug(String.format("Finished background render cycle in %.2f seconds",
                     (double) (System.currentTimeMillis() - time) / 1000.0D));
         }
@@ -76,7 +76,7 @@ public final class RadiusRender extends AbstractRender {
 
             Image image = images.get(region);
             if (image == null) {
-                image = new Image(region, worldTilesDir, mapWorld.config().ZOOM_MAX);
+                image = new Image(region, tileStorage, mapWorld.config().ZOOM_MAX);
                 images.put(region, image);
             }
 
@@ -88,11 +88,7 @@ public final class RadiusRender extends AbstractRender {
                 regionFutureMap.put(region, CompletableFuture.allOf(futureCollection.toArray(CompletableFuture[]::new))));
 
         regionFutureMap.forEach((region, combinedFuture) ->
-                combinedFuture.whenComplete((result, throwable) -> {
-                    if (!this.cancelled) {
-                        this.mapWorld.saveImage(images.get(region));
-                    }
-                }));
+                combinedFuture.whenComplete((result, throwable) -> this.mapWorld.saveImage(images.get(region))));
 
         CompletableFuture.allOf(regionFutureMap.values().toArray(CompletableFuture[]::new)).join();
 
@@ -174,10 +174,21 @@ public class FileUtil {
     }
 
     private static void replaceFile(Path path, String str) throws IOException {
+        atomicWrite(path, tmp -> Files.writeString(tmp, str, StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Write a file by writing to a temporary sibling file first, then moving it in place.
+     *
+     * @param path   file to write
+     * @param writer writes the contents to the given temporary file
+     * @throws IOException when writing fails
+     */
+    public static void atomicWrite(Path path, PathWriter writer) throws IOException {
         final Path tmp = path.resolveSibling("." + path.getFileName().toString() + ".tmp");
 
         try {
-            Files.writeString(tmp, str, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            writer.write(tmp);
         } catch (IOException e) {
             try {
                 Files.deleteIfExists(tmp);
@@ -196,4 +207,9 @@ public class FileUtil {
         } catch (NoSuchFileException ignore) {
         }
     }
+
+    @FunctionalInterface
+    public interface PathWriter {
+        void write(Path path) throws IOException;
+    }
 }
@@ -0,0 +1,94 @@
+package net.pl3x.map.plugin.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/**
+ * Bounded lock-free multi-producer single-consumer queue of primitive longs.
+ *
+ * <p>Each slot has a sequence number which tells producers and the consumer whose turn it is to
+ * use the slot, so neither {@link #offer(long)} nor {@link #drain(LongConsumer, int)} ever block
+ * or allocate. Producers claim slots with a CAS on the tail, the single consumer owns the head.</p>
+ */
+public final class MpscLongRingBuffer {
+    private final int mask;
+    private final long[] buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0L;
+
+    /**
+     * @param capacity capacity, rounded up to the next power of two
+     */
+    public MpscLongRingBuffer(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.buffer = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add a value to the queue. Safe to call from any thread.
+     *
+     * @param value value
+     * @return {@code false} if the queue is full
+     */
+    public boolean offer(final long value) {
+        long pos = this.tail.get();
+        while (true) {
+            final int index = (int) pos & this.mask;
+            final long seq = this.sequences.get(index);
+            final long diff = seq - pos;
+            if (diff == 0L) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    this.buffer[index] = value;
+                    // publishes the value written above
+                    this.sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = this.tail.get();
+            } else if (diff < 0L) {
+                return false;
+            } else {
+                pos = this.tail.get();
+            }
+        }
+    }
+
+    /**
+     * Remove up to {@code max} values from the queue. Must only be called from a single consumer thread.
+     *
+     * @param consumer value consumer
+     * @param max      max values to drain
+     * @return number of values drained
+     */
+    public int drain(final LongConsumer consumer, final int max) {
+        long pos = this.head;
+        int drained = 0;
+        while (drained < max) {
+            final int index = (int) pos & this.mask;
+            if (this.sequences.get(index) != pos + 1) {
+                break; // empty, or the producer claiming this slot has not published yet
+            }
+            final long value = this.buffer[index];
+            this.sequences.lazySet(index, pos + this.mask + 1);
+            pos++;
+            drained++;
+            consumer.accept(value);
+        }
+        this.head = pos;
+        return drained;
+    }
+
+    public boolean isEmpty() {
+        return this.sequences.get((int) this.head & this.mask) != this.head + 1;
+    }
+
+    public int capacity() {
+        return this.mask + 1;
+    }
+}
@@ -0,0 +1,192 @@
+package xyz.jpenilla.squaremap.plugin.util;
+
+import com.mojang.datafixers.util.Either;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.pl3x.map.plugin.Logging;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Limits the number of chunk loads renders have outstanding at once, so they don't
+ * crowd out the chunk loads of players.
+ *
+ * <p>At {@link Priority#LOW} the limit is adjusted as loads complete, based on how long our own loads
+ * take: chunk loads queue behind each other, so when players start loading chunks, ours slow down.
+ * The limit grows by roughly one for every limit's worth of loads while the recent load latency stays
+ * close to its long term average, and is halved (at most once per {@link #DECREASE_INTERVAL_MILLIS})
+ * once it rises well above it. At the other priorities the limit stays at the configured maximum.
+ * Requests over the limit wait in a queue.</p>
+ */
+@DefaultQualifier(NonNull.class)
+public final class ChunkLoadLimiter {
+    private static final long DECREASE_INTERVAL_MILLIS = 1000L;
+    // weights of a completed load in the recent and long term latency averages
+    private static final double RECENT_WEIGHT = 0.2D;
+    private static final double LONG_TERM_WEIGHT = 0.01D;
+    // how far the recent latency may rise above the long term average before backing off
+    private static final double CONTENDED_LATENCY_FACTOR = 2.0D;
+    // loads faster than this are never treated as contended, whatever the averages say
+    private static final long MIN_CONTENDED_LATENCY_NANOS = 5_000_000L;
+
+    private final ServerLevel level;
+    private final Priority priority;
+    private final int maxOutstanding;
+    private final Queue<Request> queue = new ArrayDeque<>();
+    private double limit;
+    private int outstanding = 0;
+    private long lastDecrease = 0L;
+    private double recentLatencyNanos = -1.0D;
+    private double longTermLatencyNanos = -1.0D;
+
+    /**
+     * @param level          level
+     * @param maxOutstanding max outstanding chunk loads
+     * @param priority       priority of render chunk loads
+     */
+    public ChunkLoadLimiter(final ServerLevel level, final int maxOutstanding, final Priority priority) {
+        this.level = level;
+        this.maxOutstanding = Math.max(1, maxOutstanding);
+        this.priority = priority;
+        this.limit = this.maxOutstanding;
+    }
+
+    public ServerLevel level() {
+        return this.level;
+    }
+
+    /**
+     * Load a chunk without generating it, once there is room under the limit.
+     * Cancelling the returned future while the load is still queued drops it.
+     *
+     * @param x chunk x
+     * @param z chunk z
+     * @return load future
+     */
+    public CompletableFuture<Either<ChunkAccess, ChunkHolder.ChunkLoadingFailure>> load(final int x, final int z) {
+        final Request request = new Request(x, z, new CompletableFuture<>());
+        synchronized (this) {
+            this.queue.add(request);
+        }
+        request.future().whenComplete((result, throwable) -> {
+            if (request.future().isCancelled()) {
+                synchronized (this) {
+                    this.queue.remove(request);
+                }
+            }
+        });
+        this.dispatch();
+        return request.future();
+    }
+
+    public synchronized int limit() {
+        return (int) this.limit;
+    }
+
+    public synchronized int outstanding() {
+        return this.outstanding;
+    }
+
+    private void dispatch() {
+        final List<Request> dispatched = new ArrayList<>();
+        synchronized (this) {
+            while (this.outstanding < (int) this.limit && !this.queue.isEmpty()) {
+                final Request request = this.queue.poll();
+                if (request.future().isDone()) {
+                    continue; // cancelled
+                }
+                this.outstanding++;
+                dispatched.add(request);
+            }
+        }
+        for (final Request request : dispatched) {
+            final long start = System.nanoTime();
+            this.level.getChunkSource().getChunkAtAsynchronously(request.x(), request.z(), false, this.priority == Priority.URGENT)
+                .whenComplete((result, throwable) -> {
+                    this.completed(System.nanoTime() - start);
+                    if (throwable != null) {
+                        request.future().completeExceptionally(throwable);
+                    } else {
+                        request.future().complete(result);
+                    }
+                });
+        }
+    }
+
+    private void completed(final long latencyNanos) {
+        synchronized (this) {
+            this.outstanding--;
+            if (this.priority == Priority.LOW) {
+                this.adjustLimit(latencyNanos);
+            }
+        }
+        this.dispatch();
+    }
+
+    private void adjustLimit(final long latencyNanos) {
+        if (this.longTermLatencyNanos < 0.0D) {
+            this.recentLatencyNanos = latencyNanos;
+            this.longTermLatencyNanos = latencyNanos;
+            return;
+        }
+        this.recentLatencyNanos += (latencyNanos - this.recentLatencyNanos) * RECENT_WEIGHT;
+        this.longTermLatencyNanos += (latencyNanos - this.longTermLatencyNanos) * LONG_TERM_WEIGHT;
+        final boolean contended = this.recentLatencyNanos > MIN_CONTENDED_LATENCY_NANOS
+            && this.recentLatencyNanos > this.longTermLatencyNanos * CONTENDED_LATENCY_FACTOR;
+        if (contended) {
+            final long now = System.currentTimeMillis();
+            if (now - this.lastDecrease >= DECREASE_INTERVAL_MILLIS) {
+                this.limit = Math.max(1.0D, this.limit / 2.0D);
+                this.lastDecrease = now;
+            }
+        } else {
+            this.limit = Math.min(this.maxOutstanding, this.limit + 1.0D / this.limit);
+        }
+    }
+
+    private record Request(int x, int z, CompletableFuture<Either<ChunkAccess, ChunkHolder.ChunkLoadingFailure>> future) {
+    }
+
+    /**
+     * Priority of the chunk loads of renders, relative to other chunk loads.
+     */
+    public enum Priority {
+        /**
+         * Back off when other chunk loads slow ours down.
+         */
+        LOW,
+        /**
+         * Always keep up to the max outstanding loads going, at the server's normal priority.
+         */
+        NORMAL,
+        /**
+         * Always keep up to the max outstanding loads going, loaded ahead of other chunks.
+         */
+        URGENT;
+
+        /**
+         * Parse a configured priority.
+         *
+         * @param name {@code low}, {@code normal} or {@code urgent}
+         * @return priority
+         */
+        public static Priority parse(final String name) {
+            return switch (name.toLowerCase(Locale.ROOT)) {
+                case "low" -> LOW;
+                case "normal" -> NORMAL;
+                case "urgent" -> URGENT;
+                default -> {
+                    Logging.logger().warn(String.format("Unknown chunk load priority '%s', using 'low'", name));
+                    yield LOW;
+                }
+            };
+        }
+    }
+}
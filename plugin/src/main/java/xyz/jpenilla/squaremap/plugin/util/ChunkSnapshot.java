@@ -1,5 +1,6 @@
 package xyz.jpenilla.squaremap.plugin.util;
 
+import com.mojang.datafixers.util.Either;
 import com.mojang.serialization.Codec;
 import java.util.EnumMap;
 import java.util.concurrent.CompletableFuture;
@@ -7,6 +8,7 @@ import net.minecraft.Util;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Registry;
 import net.minecraft.nbt.NbtOps;
+import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.LevelHeightAccessor;
@@ -14,6 +16,7 @@ import net.minecraft.world.level.biome.Biome;
 import net.minecraft.world.level.biome.BiomeManager;
 import net.minecraft.world.level.biome.Biomes;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.minecraft.world.level.chunk.PalettedContainer;
@@ -42,16 +45,44 @@ public interface ChunkSnapshot extends LevelHeightAccessor, BiomeManager.NoiseBi
     boolean sectionEmpty(int sectionIndex);
 
     static CompletableFuture<@Nullable ChunkSnapshot> asyncSnapshot(final ServerLevel level, final int x, final int z) {
-        return level.getChunkSource().getChunkAtAsynchronously(x, z, false, true)
-            .thenApply(result -> result.left()
-                .map(chunk -> {
-                    final LevelChunk levelChunk = (LevelChunk) chunk;
-                    if (levelChunk.isEmpty()) {
-                        return null;
-                    }
-                    return ChunkSnapshot.snapshot(levelChunk);
-                })
-                .orElse(null));
+        return snapshot(level.getChunkSource().getChunkAtAsynchronously(x, z, false, true));
+    }
+
+    /**
+     * Snapshot a chunk.
+     *
+     * @param loader       chunk load limiter
+     * @param x            chunk x
+     * @param z            chunk z
+     * @param readUnloaded whether to read chunks which are not loaded straight from the region files instead of
+     *                     loading them, in which case this blocks on IO and must not be called from the main thread
+     * @return snapshot future, completing with {@code null} for chunks which are not fully generated,
+     *     cancelling it drops the chunk load if it is still queued
+     */
+    static CompletableFuture<@Nullable ChunkSnapshot> asyncSnapshot(final ChunkLoadLimiter loader, final int x, final int z, final boolean readUnloaded) {
+        if (readUnloaded && loader.level().getChunkSource().getChunkAtIfLoadedImmediately(x, z) == null) {
+            return RegionFileChunkReader.read(loader, x, z);
+        }
+        return snapshot(loader.load(x, z));
+    }
+
+    private static CompletableFuture<@Nullable ChunkSnapshot> snapshot(final CompletableFuture<Either<ChunkAccess, ChunkHolder.ChunkLoadingFailure>> future) {
+        final CompletableFuture<@Nullable ChunkSnapshot> snapshot = future.thenApply(result -> result.left()
+            .map(chunk -> {
+                final LevelChunk levelChunk = (LevelChunk) chunk;
+                if (levelChunk.isEmpty()) {
+                    return null;
+                }
+                return ChunkSnapshot.snapshot(levelChunk);
+            })
+            .orElse(null));
+        // cancelling the snapshot drops the load if it is still queued
+        snapshot.whenComplete((result, throwable) -> {
+            if (snapshot.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+        return snapshot;
     }
 
     @SuppressWarnings({"unchecked", "deprecation", "rawtypes"})
@@ -62,12 +93,7 @@ public interface ChunkSnapshot extends LevelHeightAccessor, BiomeManager.NoiseBi
         final PalettedContainer<Biome>[] biomes = new PalettedContainer[sections.length];
 
         final Registry<Biome> biomeRegistry = chunk.level.registryAccess().registryOrThrow(Registry.BIOME_REGISTRY);
-        final Codec<PalettedContainer<Biome>> biomeCodec = PalettedContainer.codec(
-            biomeRegistry,
-            biomeRegistry.byNameCodec(),
-            PalettedContainer.Strategy.SECTION_BIOMES,
-            biomeRegistry.getOrThrow(Biomes.PLAINS)
-        );
+        final Codec<PalettedContainer<Biome>> biomeCodec = biomeCodec(biomeRegistry);
 
         for (int i = 0; i < sections.length; i++) {
             states[i] = ChunkSerializer.BLOCK_STATE_CODEC.parse(
@@ -83,8 +109,10 @@ public interface ChunkSnapshot extends LevelHeightAccessor, BiomeManager.NoiseBi
             ).get().left().orElseThrow();
         }
 
-        final Heightmap heightmap = new Heightmap(chunk, Heightmap.Types.WORLD_SURFACE);
-        heightmap.setRawData(chunk, Heightmap.Types.WORLD_SURFACE, chunk.heightmaps.get(Heightmap.Types.WORLD_SURFACE).getRawData());
+        final int[] heights = new int[256];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, i & 15, i >> 4);
+        }
 
         final boolean[] empty = new boolean[sections.length];
         for (int i = 0; i < sections.length; i++) {
@@ -95,11 +123,21 @@ public interface ChunkSnapshot extends LevelHeightAccessor, BiomeManager.NoiseBi
             LevelHeightAccessor.create(chunk.getMinBuildHeight(), chunk.getMaxBuildHeight()),
             states,
             biomes,
-            Util.make(new EnumMap<>(Heightmap.Types.class), map -> map.put(Heightmap.Types.WORLD_SURFACE, heightmap)),
+            Util.make(new EnumMap<>(Heightmap.Types.class), map -> map.put(Heightmap.Types.WORLD_SURFACE, heights)),
             empty,
             chunk.level.dimensionType(),
             chunk.level.getSeed(),
             chunk.getPos()
         );
     }
+
+    @SuppressWarnings("deprecation")
+    static Codec<PalettedContainer<Biome>> biomeCodec(final Registry<Biome> biomeRegistry) {
+        return PalettedContainer.codec(
+            biomeRegistry,
+            biomeRegistry.byNameCodec(),
+            PalettedContainer.Strategy.SECTION_BIOMES,
+            biomeRegistry.getOrThrow(Biomes.PLAINS)
+        );
+    }
 }
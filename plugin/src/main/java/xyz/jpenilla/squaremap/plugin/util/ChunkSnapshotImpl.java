@@ -23,7 +23,7 @@ final class ChunkSnapshotImpl implements ChunkSnapshot {
     private final LevelHeightAccessor heightAccessor;
     private final PalettedContainer<BlockState>[] states;
     private final PalettedContainer<Biome>[] biomes;
-    private final Map<Heightmap.Types, Heightmap> heightmaps;
+    private final Map<Heightmap.Types, int[]> heightmaps;
     private final boolean[] emptySections;
     private final DimensionType dimensionType;
     private final BiomeManager biomeManager;
@@ -33,7 +33,7 @@ final class ChunkSnapshotImpl implements ChunkSnapshot {
         final LevelHeightAccessor heightAccessor,
         final PalettedContainer<BlockState>[] states,
         final PalettedContainer<Biome>[] biomes,
-        final Map<Heightmap.Types, Heightmap> heightmaps,
+        final Map<Heightmap.Types, int[]> heightmaps,
         final boolean[] emptySections,
         final DimensionType dimensionType,
         final long seed,
@@ -77,11 +77,11 @@ final class ChunkSnapshotImpl implements ChunkSnapshot {
 
     @Override
     public int getHeight(final Heightmap.Types type, final int x, final int z) {
-        final Heightmap heightmap = this.heightmaps.get(type);
-        if (heightmap == null) {
+        final int[] heights = this.heightmaps.get(type);
+        if (heights == null) {
             throw new RuntimeException("Missing heightmaps " + type);
         }
-        return heightmap.getFirstAvailable(x & 15, z & 15) - 1;
+        return heights[(z & 15) << 4 | x & 15];
     }
 
     @Override
@@ -0,0 +1,163 @@
+package xyz.jpenilla.squaremap.plugin.util;
+
+import com.destroystokyo.paper.io.PaperFileIOThread;
+import com.destroystokyo.paper.io.PrioritizedTaskQueue;
+import com.mojang.serialization.Codec;
+import java.util.EnumMap;
+import java.util.concurrent.CompletableFuture;
+import net.minecraft.SharedConstants;
+import net.minecraft.Util;
+import net.minecraft.core.Registry;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.Mth;
+import net.minecraft.util.SimpleBitStorage;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.LevelHeightAccessor;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.biome.Biomes;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkStatus;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.chunk.storage.ChunkSerializer;
+import net.minecraft.world.level.chunk.storage.ChunkStorage;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.pl3x.map.plugin.Logging;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.framework.qual.DefaultQualifier;
+
+/**
+ * Builds {@link ChunkSnapshot}s straight from the chunk data in the world's region files,
+ * without loading the chunk into the world.
+ *
+ * <p>Reads go through Paper's file IO thread, so chunk data which was queued for saving but
+ * not written yet is still seen. Chunks saved by an older version of the game would need to be
+ * upgraded by the data fixer first, those are loaded through the chunk system instead.</p>
+ */
+@DefaultQualifier(NonNull.class)
+final class RegionFileChunkReader {
+    private RegionFileChunkReader() {
+    }
+
+    /**
+     * Read a chunk which is not loaded. Blocks the calling thread on IO, so this
+     * must never be called from the main thread.
+     *
+     * @param loader chunk load limiter, used for chunks which can't be read
+     * @param x      chunk x
+     * @param z      chunk z
+     * @return snapshot future, completing with {@code null} for chunks which are not fully generated
+     */
+    static CompletableFuture<@Nullable ChunkSnapshot> read(final ChunkLoadLimiter loader, final int x, final int z) {
+        final ServerLevel level = loader.level();
+        final PaperFileIOThread.ChunkData data = PaperFileIOThread.Holder.INSTANCE.loadChunkData(level, x, z, PrioritizedTaskQueue.LOW_PRIORITY, false, true);
+        if (data == PaperFileIOThread.FAILURE_VALUE) {
+            Logging.debug(String.format("Failed to read chunk [%d, %d] from region file, loading it instead", x, z));
+            return ChunkSnapshot.asyncSnapshot(loader, x, z, false);
+        }
+        final @Nullable CompoundTag tag = data.chunkData;
+        if (tag == null || ChunkSerializer.getChunkTypeFromTag(tag) != ChunkStatus.ChunkType.LEVELCHUNK) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (ChunkStorage.getVersion(tag) != SharedConstants.getCurrentVersion().getWorldVersion()) {
+            return ChunkSnapshot.asyncSnapshot(loader, x, z, false);
+        }
+        try {
+            return CompletableFuture.completedFuture(snapshot(level, new ChunkPos(x, z), tag));
+        } catch (final RuntimeException ex) {
+            Logging.debug(String.format("Failed to parse chunk [%d, %d] from region file, loading it instead: %s", x, z, ex));
+            return ChunkSnapshot.asyncSnapshot(loader, x, z, false);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "deprecation", "rawtypes"})
+    private static ChunkSnapshot snapshot(final ServerLevel level, final ChunkPos pos, final CompoundTag tag) {
+        final int sectionCount = level.getSectionsCount();
+        final PalettedContainer<BlockState>[] states = new PalettedContainer[sectionCount];
+        final PalettedContainer<Biome>[] biomes = new PalettedContainer[sectionCount];
+        final boolean[] empty = new boolean[sectionCount];
+
+        final Registry<Biome> biomeRegistry = level.registryAccess().registryOrThrow(Registry.BIOME_REGISTRY);
+        final Codec<PalettedContainer<Biome>> biomeCodec = ChunkSnapshot.biomeCodec(biomeRegistry);
+
+        final ListTag sections = tag.getList("sections", Tag.TAG_COMPOUND);
+        for (int i = 0; i < sections.size(); i++) {
+            final CompoundTag section = sections.getCompound(i);
+            final int index = level.getSectionIndexFromSectionY(section.getByte("Y"));
+            if (index < 0 || index >= sectionCount) {
+                continue; // light only sections above and below the world
+            }
+            if (section.contains("block_states", Tag.TAG_COMPOUND)) {
+                states[index] = ChunkSerializer.BLOCK_STATE_CODEC.parse(NbtOps.INSTANCE, section.getCompound("block_states"))
+                    .getOrThrow(false, message -> {});
+            }
+            if (section.contains("biomes", Tag.TAG_COMPOUND)) {
+                biomes[index] = biomeCodec.parse(NbtOps.INSTANCE, section.getCompound("biomes"))
+                    .getOrThrow(false, message -> {});
+            }
+        }
+
+        for (int i = 0; i < sectionCount; i++) {
+            if (biomes[i] == null) {
+                biomes[i] = new PalettedContainer<>(biomeRegistry, biomeRegistry.getOrThrow(Biomes.PLAINS), PalettedContainer.Strategy.SECTION_BIOMES);
+            }
+            // states of empty sections are never read
+            empty[i] = states[i] == null || new LevelChunkSection(level.getSectionYFromSectionIndex(i), states[i], biomes[i]).hasOnlyAir();
+        }
+
+        final LevelHeightAccessor heightAccessor = LevelHeightAccessor.create(level.getMinBuildHeight(), level.getMaxBuildHeight());
+        return new ChunkSnapshotImpl(
+            heightAccessor,
+            states,
+            biomes,
+            Util.make(new EnumMap<>(Heightmap.Types.class), map -> map.put(Heightmap.Types.WORLD_SURFACE, worldSurface(heightAccessor, tag, states, empty))),
+            empty,
+            level.dimensionType(),
+            level.getSeed(),
+            pos
+        );
+    }
+
+    /**
+     * Heights of the saved world surface heightmap, or calculated from the block states when it is missing or malformed.
+     */
+    private static int[] worldSurface(final LevelHeightAccessor heightAccessor, final CompoundTag tag, final PalettedContainer<BlockState>[] states, final boolean[] empty) {
+        final int[] heights = new int[256];
+        final long[] raw = tag.getCompound("Heightmaps").getLongArray(Heightmap.Types.WORLD_SURFACE.getSerializationKey());
+        if (raw.length != 0) {
+            try {
+                final SimpleBitStorage storage = new SimpleBitStorage(Mth.ceillog2(heightAccessor.getHeight() + 1), 256, raw);
+                for (int i = 0; i < heights.length; i++) {
+                    heights[i] = storage.get(i) + heightAccessor.getMinBuildHeight() - 1;
+                }
+                return heights;
+            } catch (final RuntimeException ignore) {
+                // wrong length, fall through and calculate it
+            }
+        }
+
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = heightAccessor.getMinBuildHeight() - 1;
+            column:
+            for (int section = states.length - 1; section >= 0; section--) {
+                if (empty[section]) {
+                    continue;
+                }
+                for (int y = 15; y >= 0; y--) {
+                    // heightmap indices are x + z * 16, section indices y << 8 | z << 4 | x
+                    if (!Heightmap.Types.WORLD_SURFACE.isOpaque().test(states[section].get(y << 8 | i))) {
+                        continue;
+                    }
+                    heights[i] = heightAccessor.getSectionYFromSectionIndex(section) * 16 + y;
+                    break column;
+                }
+            }
+        }
+        return heights;
+    }
+}
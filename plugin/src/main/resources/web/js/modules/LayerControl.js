@@ -73,7 +73,8 @@ class LayerControl {
         return new Pl3xmapTileLayer(`tiles/${world.name}/{z}/{x}_{y}.png`, {
             tileSize: 512,
             minNativeZoom: 0,
-            maxNativeZoom: world.zoom.max
+            maxNativeZoom: world.zoom.max,
+            versions: world.tileVersions
         }).addTo(P.map)
         .addEventListener("load", () => {
             // when all tiles are loaded, switch to this layer
@@ -81,6 +82,9 @@ class LayerControl {
         });
     }
     updateTileLayer() {
+        if (this.tileLayer1 == null) {
+            return;
+        }
         // redraw background tile layer
         if (this.currentLayer == 1) {
             this.tileLayer2.redraw();
@@ -88,6 +92,14 @@ class LayerControl {
             this.tileLayer1.redraw();
         }
     }
+    updateTiles(epoch, tiles, patches) {
+        if (this.tileLayer1 == null) {
+            return;
+        }
+        // update only the tiles which changed, in both layers as the lower one shows through transparent pixels
+        this.tileLayer1.updateTiles(epoch, tiles, patches);
+        this.tileLayer2.updateTiles(epoch, tiles, patches);
+    }
     switchTileLayer() {
         // swap current tile layer
         if (this.currentLayer == 1) {
@@ -0,0 +1,60 @@
+import { P } from './Pl3xMap.js';
+
+class LiveUpdates {
+    constructor() {
+        // while not connected the map polls like it always did
+        this.connected = false;
+        this.reconnecting = false;
+        this.players = null;
+    }
+    connect() {
+        if (typeof EventSource === "undefined") {
+            return;
+        }
+        this.source = new EventSource("live");
+        this.source.onopen = () => {
+            this.connected = true;
+            if (this.reconnecting) {
+                // catch up on whatever was missed while disconnected
+                this.reconnecting = false;
+                P.worldList.curWorld.updateTiles();
+                this.showCurrent(P.worldList.curWorld);
+            }
+        };
+        this.source.onerror = () => {
+            // the browser keeps retrying on its own
+            this.connected = false;
+            this.reconnecting = true;
+        };
+        this.source.addEventListener("players", (e) => {
+            this.players = JSON.parse(e.data);
+            P.playerList.update(this.players);
+        });
+        this.source.addEventListener("markers", (e) => {
+            if (e.data === P.worldList.curWorld.name) {
+                P.worldList.curWorld.updateMarkers();
+            }
+        });
+        this.source.addEventListener("tiles", (e) => {
+            const json = JSON.parse(e.data);
+            const world = P.worldList.curWorld;
+            if (json.world !== world.name) {
+                return;
+            }
+            if (json.all === true || json.epoch !== world.tileVersions.epoch) {
+                world.updateTiles();
+            } else {
+                world.tileVersions.update(json.tiles);
+                P.layerControl.updateTiles(json.epoch, json.tiles, json.patches);
+            }
+        });
+    }
+    showCurrent(world) {
+        world.updateMarkers();
+        if (this.players != null) {
+            P.playerList.update(this.players);
+        }
+    }
+}
+
+export { LiveUpdates };
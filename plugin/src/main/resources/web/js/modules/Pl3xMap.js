@@ -4,6 +4,9 @@ import { WorldList } from "./WorldList.js";
 import { UICoordinates } from "./UICoordinates.js";
 import { UILink } from "./UILink.js";
 import { LayerControl } from "./LayerControl.js";
+import { LiveUpdates } from "./LiveUpdates.js";
+import { MarkerDecoder } from "./util/MarkerDecoder.js";
+import { IconAtlas } from "./util/IconAtlas.js";
 
 class Pl3xMap {
     constructor() {
@@ -25,11 +28,20 @@ class Pl3xMap {
         })
         .on('dblclick', (e) => {
             this.playerList.followPlayerMarker(null);
+        })
+        .on('moveend', (e) => {
+            // load the markers which came into view, or for the new zoom level
+            if (this.worldList != null) {
+                this.worldList.curWorld.viewChanged();
+            }
         });
 
         this.tick_count = 1;
 
         this.layerControl = new LayerControl();
+        this.live = new LiveUpdates();
+        this.markerDecoder = new MarkerDecoder();
+        this.iconAtlas = new IconAtlas();
 
         this.init();
     }
@@ -47,6 +59,7 @@ class Pl3xMap {
         this.worldList.curWorld.tick();
     }
     init() {
+        this.iconAtlas.load();
         this.getJSON("tiles/settings.json", (json) => {
             this.layerControl.init();
 
@@ -59,6 +72,9 @@ class Pl3xMap {
 
             this.worldList.loadWorld(this.getUrlParam("world", json.worlds[0].name), (world) => {
                 this.loop();
+                if (json.live_updates === true) {
+                    this.live.connect();
+                }
                 this.centerOn(
                     this.getUrlParam("x", world.spawn.x),
                     this.getUrlParam("z", world.spawn.z),
@@ -109,6 +125,14 @@ class Pl3xMap {
                 }
             });
     }
+    getBinary(url, fn) {
+        fetch(url, {cache: "no-store"})
+            .then(async res => {
+                if (res.ok) {
+                    fn(await res.arrayBuffer());
+                }
+            });
+    }
     getUrlParam(query, def) {
         const url = window.location.search.substring(1);
         const vars = url.split('&');
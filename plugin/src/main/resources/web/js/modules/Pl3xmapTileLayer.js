@@ -2,41 +2,114 @@ export var Pl3xmapTileLayer = L.TileLayer.extend({
 
     // @method createTile(coords: Object, done?: Function): HTMLElement
     // Called only internally, overrides GridLayer's [`createTile()`](#gridlayer-createtile)
-    // to return an `<img>` HTML element with the appropriate image URL given `coords`. The `done`
+    // to return a `<canvas>` HTML element with the tile at `coords` drawn on it. The `done`
     // callback is called when the tile has been loaded.
     createTile: function (coords, done) {
-        var tile = document.createElement('img');
+        const tile = document.createElement('canvas');
+        const size = this.getTileSize();
+        tile.width = size.x;
+        tile.height = size.y;
+        tile.setAttribute('role', 'presentation');
 
-        L.DomEvent.on(tile, 'load', () => {
-            //Once image has loaded revoke the object URL as we don't need it anymore
-            URL.revokeObjectURL(tile.src);
-            this._tileOnLoad(done, tile)
+        //Draw onto a canvas instead of using an img, so live updates can patch the pixels which changed in place.
+        //Leaflet checks `complete` like on an img, to keep tiles of the previous zoom shown until the new ones are in
+        this._drawTile(tile, coords, () => {
+            tile.complete = true;
+            this._tileOnLoad(done, tile);
+        }, (e) => {
+            tile.complete = true;
+            this._tileOnError(done, tile, e);
         });
-        L.DomEvent.on(tile, 'error', L.Util.bind(this._tileOnError, this, done, tile));
 
-        if (this.options.crossOrigin || this.options.crossOrigin === '') {
-            tile.crossOrigin = this.options.crossOrigin === true ? '' : this.options.crossOrigin;
-        }
+        return tile;
+    },
 
-        tile.alt = '';
-        tile.setAttribute('role', 'presentation');
+    // @method getTileUrl(coords: Object): String
+    // Adds the tile's version to the url, when the tile versions are known.
+    getTileUrl: function (coords) {
+        const url = L.TileLayer.prototype.getTileUrl.call(this, coords);
+        const tag = this._getTag(coords);
+        return tag == null ? url : `${url}?v=${tag}`;
+    },
+
+    _getTag: function (coords) {
+        const versions = this.options.versions;
+        return versions == null ? null : versions.tag(this._getZoomForUrl(), coords.x, coords.y);
+    },
 
-        //Retrieve image via a fetch instead of just setting the src
-        //This works around the fact that browsers usually don't make a request for an image that was previously loaded,
-        //without resorting to changing the URL (which would break caching).
+    _drawTile: function (tile, coords, onLoad, onError) {
+        //Retrieve image via a fetch, as browsers usually don't make a request for an image that was previously loaded.
+        //Versioned urls are cached by the browser for good, a changed tile gets a new version.
+        const tag = this._getTag(coords);
+        tile.pending = tag;
         fetch(this.getTileUrl(coords))
             .then(res => {
                 //Call leaflet's error handler if request fails for some reason
                 if (!res.ok) {
-                    this._tileOnError(this, done, tile);
+                    onError(new Error(res.statusText));
                     return;
                 }
+                return res.blob().then(async blob => {
+                    //Tiles which were never rendered come back empty
+                    const bitmap = blob.size === 0 ? null : await createImageBitmap(blob);
+                    //A newer version was requested in the meantime
+                    if (tile.pending !== tag) {
+                        return;
+                    }
+                    const context = tile.getContext('2d');
+                    context.clearRect(0, 0, tile.width, tile.height);
+                    if (bitmap != null) {
+                        context.drawImage(bitmap, 0, 0);
+                        bitmap.close();
+                    }
+                    tile.tag = tag;
+                    onLoad();
+                });
+            }).catch((e) => onError(e));
+    },
 
-                //Get image data and convert into object URL so it can be used as a src
-                //Leaflet's onload listener will take it from here
-                res.blob().then(blob => tile.src = URL.createObjectURL(blob));
-            }).catch(() => this._tileOnError(this, done, tile));
+    // @method updateTiles(epoch: Number, tiles: Array, patches: Array)
+    // Brings tiles which changed up to date, if they are currently shown, without redrawing the whole layer.
+    // Tiles shown at the version a patch applies to are patched in place, others are fetched again.
+    updateTiles: function (epoch, tiles, patches) {
+        const patchesByTile = new Map();
+        for (let i = 0; i < patches.length; i++) {
+            patchesByTile.set(patches[i].tile.join(":"), patches[i]);
+        }
+        for (let i = 0; i < tiles.length; i++) {
+            const [zoom, x, z] = tiles[i];
+            const tile = this._tiles[`${x}:${z}:${zoom}`];
+            if (tile == null || !tile.loaded || zoom !== this._tileZoom) {
+                continue;
+            }
+            const patch = patchesByTile.get(`${zoom}:${x}:${z}`);
+            if (patch != null && tile.el.tag === `${epoch}-${patch.from}`) {
+                this._applyPatches(tile.el, patch.rects);
+                tile.el.tag = tile.el.pending = `${epoch}-${patch.to}`;
+            } else {
+                this._drawTile(tile.el, tile.coords, () => {}, () => {});
+            }
+        }
+    },
 
-        return tile;
+    _applyPatches: function (tile, rects) {
+        const context = tile.getContext('2d');
+        for (let i = 0; i < rects.length; i++) {
+            const rect = rects[i];
+            const image = context.createImageData(rect.width, rect.height);
+            const data = image.data;
+            let pixel = 0;
+            for (let run = 0; run < rect.runs.length; run += 2) {
+                //argb, as java has it
+                const color = rect.palette[rect.runs[run + 1]];
+                for (let n = 0; n < rect.runs[run]; n++, pixel += 4) {
+                    data[pixel] = (color >>> 16) & 0xff;
+                    data[pixel + 1] = (color >>> 8) & 0xff;
+                    data[pixel + 2] = color & 0xff;
+                    data[pixel + 3] = color >>> 24;
+                }
+            }
+            context.putImageData(image, rect.x, rect.z);
+        }
     }
 });
@@ -11,18 +11,25 @@ class PlayerList {
         P.map.createPane("nameplate").style.zIndex = 1000;
     }
     tick() {
+        // players are pushed while connected to live updates
+        if (P.live.connected) {
+            return;
+        }
         if (P.tick_count % P.worldList.curWorld.player_tracker.update_interval == 0) {
             P.getJSON("tiles/players.json", (json) => {
-                this.updatePlayerList(json.players);
-                const title = `${this.label}`
-                    .replace(/{cur}/g, json.players.length)
-                    .replace(/{max}/g, json.max == null ? "???" : json.max)
-                if (P.sidebar.players.legend.innerHTML !== title) {
-                    P.sidebar.players.legend.innerHTML = title;
-                }
+                this.update(json);
             });
         }
     }
+    update(json) {
+        this.updatePlayerList(json.players);
+        const title = `${this.label}`
+            .replace(/{cur}/g, json.players.length)
+            .replace(/{max}/g, json.max == null ? "???" : json.max)
+        if (P.sidebar.players.legend.innerHTML !== title) {
+            P.sidebar.players.legend.innerHTML = title;
+        }
+    }
     showPlayer(uuid) {
         const player = this.players.get(uuid);
         if (!P.worldList.worlds.has(player.world)) {
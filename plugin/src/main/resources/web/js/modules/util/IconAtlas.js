@@ -0,0 +1,53 @@
+// registered icons packed into one image by the plugin, see IconRegistry.java
+const DIRECTORY = "images/icon/registered/";
+const RELOAD_INTERVAL = 10000;
+
+class IconAtlas {
+    constructor() {
+        this.atlas = null;
+        this.loading = false;
+        this.lastLoad = 0;
+    }
+    load() {
+        if (this.loading) {
+            return;
+        }
+        this.loading = true;
+        this.lastLoad = Date.now();
+        fetch(`${DIRECTORY}atlas.json`, {cache: "no-store"})
+            .then(async res => {
+                if (res.ok) {
+                    this.atlas = await res.json();
+                }
+            })
+            .catch(() => {})
+            .finally(() => this.loading = false);
+    }
+    icon(key, size, anchor, tooltipAnchor) {
+        const options = {
+            iconSize: [size.x, size.z],
+            iconAnchor: [anchor.x, anchor.z],
+            popupAnchor: [tooltipAnchor.x, tooltipAnchor.z],
+            tooltipAnchor: [tooltipAnchor.x, tooltipAnchor.z]
+        };
+        const entry = this.atlas == null ? null : this.atlas.icons[key];
+        if (entry == null) {
+            // registered after the atlas was loaded, the icon is also written on its own
+            if (Date.now() - this.lastLoad > RELOAD_INTERVAL) {
+                this.load();
+            }
+            options.iconUrl = `${DIRECTORY}${key}.png`;
+            return L.icon(options);
+        }
+        // the atlas is scaled so the icon fills the marker
+        const scaleX = size.x / entry[2];
+        const scaleZ = size.z / entry[3];
+        options.className = "registered-icon";
+        options.html = `<div style="background-image:url('${DIRECTORY}atlas.png?v=${this.atlas.signature}');`
+            + `background-position:${-entry[0] * scaleX}px ${-entry[1] * scaleZ}px;`
+            + `background-size:${this.atlas.width * scaleX}px ${this.atlas.height * scaleZ}px"></div>`;
+        return L.divIcon(options);
+    }
+}
+
+export { IconAtlas };
@@ -0,0 +1,42 @@
+class MarkerDecoder {
+    constructor() {
+        this.callbacks = new Map();
+        this.nextId = 0;
+        this.worker = null;
+        if (window.Worker == null || window.TextDecoder == null) {
+            return; // json only
+        }
+        try {
+            this.worker = new Worker("js/workers/MarkerDecoder.js");
+            this.worker.onmessage = (e) => {
+                const callback = this.callbacks.get(e.data.id);
+                this.callbacks.delete(e.data.id);
+                callback(e.data.markers);
+            };
+            this.worker.onerror = () => {
+                // fall back to json for everything
+                this.worker = null;
+                for (const callback of this.callbacks.values()) {
+                    callback(null);
+                }
+                this.callbacks.clear();
+            };
+        } catch (e) {
+            this.worker = null;
+        }
+    }
+    available() {
+        return this.worker != null;
+    }
+    decode(buffer, callback) {
+        if (this.worker == null) {
+            callback(null);
+            return;
+        }
+        const id = this.nextId++;
+        this.callbacks.set(id, callback);
+        this.worker.postMessage({id: id, buffer: buffer}, [buffer]);
+    }
+}
+
+export { MarkerDecoder };
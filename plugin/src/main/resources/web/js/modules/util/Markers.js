@@ -146,13 +146,7 @@ class Icon extends Marker {
         const anchor = this.opts.pop("anchor");
         const tooltipAnchor = this.opts.pop("tooltip_anchor", L.point(0, -size.z / 2));
         this.marker = L.marker(P.toLatLng(point.x, point.z), {
-            icon: L.icon({
-                iconUrl: `images/icon/registered/${opts.pop("icon")}.png`,
-                iconSize: [size.x, size.z],
-                iconAnchor: [anchor.x, anchor.z],
-                popupAnchor: [tooltipAnchor.x, tooltipAnchor.z],
-                tooltipAnchor: [tooltipAnchor.x, tooltipAnchor.z]
-            })
+            icon: P.iconAtlas.icon(opts.pop("icon"), size, anchor, tooltipAnchor)
         });
         this.popup_sticky = false;
         this.tooltip_sticky = false;
@@ -160,4 +154,25 @@ class Icon extends Marker {
     }
 }
 
-export { Marker, Options, Rectangle, PolyLine, Polygon, Circle, Ellipse, Icon };
+class Cluster extends Marker {
+    constructor(opts) {
+        super(opts);
+        const point = this.opts.pop("point");
+        const count = this.opts.pop("count");
+        const size = count < 100 ? 30 : count < 1000 ? 36 : 44;
+        this.marker = L.marker(P.toLatLng(point.x, point.z), {
+            icon: L.divIcon({
+                html: `<span>${count}</span>`,
+                className: "marker-cluster",
+                iconSize: [size, size]
+            })
+        });
+        // zoom in to where the icons are shown
+        this.marker.on('click', (e) => {
+            P.map.setView(e.latlng, P.map.getZoom() + 1);
+        });
+        super.init();
+    }
+}
+
+export { Marker, Options, Rectangle, PolyLine, Polygon, Circle, Ellipse, Icon, Cluster };
@@ -0,0 +1,44 @@
+class TileVersions {
+    constructor(world) {
+        this.world = world;
+        // null until the versions are known, or when the tiles aren't served by the integrated web server
+        this.epoch = null;
+        this.version = 0;
+        this.tiles = new Map();
+    }
+    tag(zoom, x, z) {
+        if (this.epoch == null) {
+            return null;
+        }
+        const version = this.tiles.get(`${zoom}:${x}:${z}`);
+        return `${this.epoch}-${version == null ? 0 : version}`;
+    }
+    sync(callback) {
+        // calls back with the tiles which changed, reset when every tile may have, or null when unknown
+        const query = this.epoch == null ? "" : `?epoch=${this.epoch}&since=${this.version}`;
+        fetch(`tiles/${this.world}/changes${query}`, {cache: "no-store"})
+            .then(async res => {
+                if (!res.ok) {
+                    callback(null);
+                    return;
+                }
+                const json = await res.json();
+                if (json.reset) {
+                    this.tiles.clear();
+                }
+                this.epoch = json.epoch;
+                this.version = json.version;
+                this.update(json.tiles);
+                callback({reset: json.reset, tiles: json.tiles});
+            })
+            .catch(() => callback(null));
+    }
+    update(tiles) {
+        for (let i = 0; i < tiles.length; i++) {
+            const [zoom, x, z, version] = tiles[i];
+            this.tiles.set(`${zoom}:${x}:${z}`, version);
+        }
+    }
+}
+
+export { TileVersions };
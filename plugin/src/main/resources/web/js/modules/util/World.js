@@ -1,5 +1,6 @@
-import { Options, Rectangle, PolyLine, Polygon, Circle, Ellipse, Icon } from "./Markers.js";
+import { Options, Rectangle, PolyLine, Polygon, Circle, Ellipse, Icon, Cluster } from "./Markers.js";
 import { P } from '../Pl3xMap.js';
+import { TileVersions } from "./TileVersions.js";
 
 class World {
     constructor(json) {
@@ -11,18 +12,70 @@ class World {
         this.markerLayers = new Map();
         this.player_tracker = {};
         this.marker_update_interval = 5;
+        this.marker_cell_size = 0;
+        this.marker_levels = 1;
+        this.marker_binary = false;
+        this.marker_level = 0;
         this.tiles_update_interval = 15;
+        this.tileVersions = new TileVersions(this.name);
     }
     tick() {
+        // changes are pushed while connected to live updates
+        if (P.live.connected) {
+            return;
+        }
         // refresh map tile layer
         if (P.tick_count % this.tiles_update_interval == 0) {
-            P.layerControl.updateTileLayer();
+            this.updateTiles();
         }
         // load and draw markers
         if (P.tick_count % this.marker_update_interval == 0) {
-            P.getJSON(`tiles/${this.name}/markers.json`, (json) => {
-                this.markers(json);
+            this.updateMarkers();
+        }
+    }
+    updateTiles() {
+        if (this.tileVersions.epoch == null) {
+            P.layerControl.updateTileLayer();
+            return;
+        }
+        // only refetch the tiles which changed
+        this.tileVersions.sync((changes) => {
+            if (changes == null || P.worldList.curWorld !== this) {
+                return;
+            }
+            if (changes.reset) {
+                P.layerControl.updateTileLayer();
+            } else {
+                P.layerControl.updateTiles(this.tileVersions.epoch, changes.tiles, []);
+            }
+        });
+    }
+    updateMarkers() {
+        if (this.marker_cell_size > 0) {
+            P.getJSON(`tiles/${this.name}/markers/index.json`, (json) => {
+                this.markerIndex(json);
             });
+            return;
+        }
+        const level = this.markerLevel();
+        this.marker_level = level;
+        P.getJSON(`tiles/${this.name}/${level === 0 ? "markers" : `markers_lod${level}`}.json`, (json) => {
+            this.markers(json, level);
+        });
+    }
+    markerLevel() {
+        // every zoom level below the max uses the next simplified level of detail
+        const level = this.zoom.max - P.map.getZoom();
+        return Math.min(this.marker_levels - 1, Math.max(0, level));
+    }
+    viewChanged() {
+        if (this.zoom == null) {
+            return;
+        }
+        if (this.marker_cell_size > 0) {
+            this.loadMarkerCells();
+        } else if (this.markerLevel() !== this.marker_level) {
+            this.updateMarkers();
         }
     }
     unload() {
@@ -41,6 +94,8 @@ class World {
             this.zoom = json.zoom;
             this.spawn = json.spawn;
             this.marker_update_interval = json.marker_update_interval;
+            this.marker_cell_size = json.marker_cell_size || 0;
+            this.marker_levels = json.marker_levels || 1;
             this.tiles_update_interval = json.tiles_update_interval;
 
             // set the scale for our projection calculations
@@ -58,8 +113,12 @@ class World {
             // setup background
             document.getElementById("map").style.background = this.getBackground();
 
-            // setup tile layers
-            P.layerControl.setupTileLayers(this);
+            // setup tile layers, once it is known which tile versions to request
+            this.tileVersions.sync(() => {
+                if (P.worldList.curWorld === this) {
+                    P.layerControl.setupTileLayers(this);
+                }
+            });
 
             // force clear player markers
             P.playerList.clearPlayerMarkers();
@@ -71,6 +130,11 @@ class World {
             // force clear player markers
             P.playerList.clearPlayerMarkers();
 
+            // live updates only push changes, show what is current
+            if (P.live.connected) {
+                P.live.showCurrent(this);
+            }
+
             if (callback != null) {
                 callback(this);
             }
@@ -87,7 +151,7 @@ class World {
                 return "url('images/overworld_sky.png')";
         }
     }
-    markers(json) {
+    markers(json, level) {
         // check if json is iterable
         if (json == null || !(Symbol.iterator in Object(json))) {
             return;
@@ -97,7 +161,7 @@ class World {
             // check if layer exists and needs updating
             let layer = this.markerLayers.get(entry.id);
             if (layer != null) {
-                if (layer.timestamp === entry.timestamp) {
+                if (layer.timestamp === entry.timestamp && layer.level === level) {
                     continue; // skip
                 }
                 // clear existing layer to rebuild
@@ -108,36 +172,232 @@ class World {
             }
 
             // setup the layer
-            layer = new L.LayerGroup();
-            layer.order = entry.order;
-            layer.id = entry.id;
-            layer.timestamp = entry.timestamp;
-            layer.setZIndex(entry.z_index);
-            this.markerLayers.set(layer.id, layer);
-
-            // setup the layer control
-            if (entry.control === true) {
-                P.layerControl.addOverlay(entry.name, layer, entry.hide);
-            }
+            layer = this.setupMarkerLayer(entry);
+            layer.level = level;
 
             // setup the markers
             for (const shape in entry.markers) {
-                let marker;
-                const opts = new Options(entry.markers[shape]);
-                switch(opts.pop("type")) {
-                    case "rectangle": marker = new Rectangle(opts); break;
-                    case "polyline": marker = new PolyLine(opts); break;
-                    case "polygon": marker = new Polygon(opts); break;
-                    case "circle": marker = new Circle(opts); break;
-                    case "ellipse": marker = new Ellipse(opts); break;
-                    case "icon": marker = new Icon(opts); break;
-                }
+                const marker = this.createMarker(entry.markers[shape]);
                 if (marker != null) {
                     marker.addTo(layer);
                 }
             }
         }
     }
+    markerIndex(json) {
+        if (json == null || json.layers == null) {
+            return;
+        }
+        this.marker_cell_size = json.cell_size;
+        this.marker_binary = json.binary === true;
+        const ids = new Set();
+        for (const entry of json.layers) {
+            ids.add(entry.id);
+            // only rebuild the layer when its settings changed, its markers are in the cells
+            const info = JSON.stringify([entry.name, entry.control, entry.hide, entry.order, entry.z_index]);
+            let layer = this.markerLayers.get(entry.id);
+            if (layer == null || layer.info !== info) {
+                if (layer != null) {
+                    P.layerControl.removeOverlay(layer);
+                }
+                layer = this.setupMarkerLayer(entry);
+                layer.info = info;
+                layer.cells = new Map(); // "x_z" -> loaded cell
+                layer.pending = new Map(); // "x_z" -> version being fetched
+                layer.shared = new Map(); // id -> marker in more than one cell
+                layer.global = [];
+                layer.timestamp = null;
+            }
+            layer.dir = entry.dir;
+            layer.index = new Map();
+            for (const cell of entry.cells) {
+                layer.index.set(`${cell[0]}_${cell[1]}`, {version: cell[2], levels: cell[3] || 1});
+            }
+            // markers too big for cells are in the index, for each level of detail
+            if (layer.timestamp !== entry.timestamp) {
+                layer.timestamp = entry.timestamp;
+                layer.globalLevels = entry.markers;
+                layer.globalShown = null;
+            }
+        }
+        // remove layers which are no longer registered
+        for (const [id, layer] of this.markerLayers) {
+            if (!ids.has(id)) {
+                P.layerControl.removeOverlay(layer);
+                this.markerLayers.delete(id);
+            }
+        }
+        this.loadMarkerCells();
+    }
+    loadMarkerCells() {
+        if (!(this.marker_cell_size > 0) || P.worldList.curWorld !== this) {
+            return;
+        }
+        const bounds = P.map.getBounds();
+        const nw = P.toPoint(bounds.getNorthWest());
+        const se = P.toPoint(bounds.getSouthEast());
+        const size = this.marker_cell_size;
+        const view = {
+            minX: Math.floor(Math.min(nw.x, se.x) / size),
+            maxX: Math.floor(Math.max(nw.x, se.x) / size),
+            minZ: Math.floor(Math.min(nw.y, se.y) / size),
+            maxZ: Math.floor(Math.max(nw.y, se.y) / size)
+        };
+        const level = this.markerLevel();
+        for (const layer of this.markerLayers.values()) {
+            if (layer.index == null) {
+                continue;
+            }
+            this.loadGlobalMarkers(layer, level);
+            // unload cells which are out of view or changed
+            for (const [key, cell] of layer.cells) {
+                const entry = layer.index.get(key);
+                if (entry == null || entry.version !== cell.version || !this.inView(view, cell.x, cell.z)) {
+                    this.unloadMarkerCell(layer, key);
+                }
+            }
+            for (let x = view.minX; x <= view.maxX; x++) {
+                for (let z = view.minZ; z <= view.maxZ; z++) {
+                    const key = `${x}_${z}`;
+                    const entry = layer.index.get(key);
+                    if (entry == null) {
+                        continue;
+                    }
+                    // cells without simplified markers have less levels
+                    const cellLevel = Math.min(level, entry.levels - 1);
+                    const version = `${entry.version}_${cellLevel}`;
+                    const cell = layer.cells.get(key);
+                    if ((cell != null && cell.level === cellLevel) || layer.pending.get(key) === version) {
+                        continue;
+                    }
+                    layer.pending.set(key, version);
+                    const file = cellLevel === 0 ? key : `${key}_lod${cellLevel}`;
+                    this.fetchMarkerCell(`tiles/${this.name}/markers/${layer.dir}/${file}`, entry.version, (json) => {
+                        if (layer.pending.get(key) !== version) {
+                            return; // a newer version is being fetched
+                        }
+                        layer.pending.delete(key);
+                        const current = layer.index.get(key);
+                        if (this.markerLayers.get(layer.id) !== layer || current == null || current.version !== entry.version) {
+                            this.loadMarkerCells();
+                            return;
+                        }
+                        this.loadMarkerCell(layer, key, x, z, entry.version, cellLevel, json);
+                    });
+                }
+            }
+        }
+    }
+    fetchMarkerCell(path, version, callback) {
+        // binary cells are decoded off the main thread, json is the fallback
+        if (!this.marker_binary || !P.markerDecoder.available()) {
+            P.getJSON(`${path}.json?v=${version}`, callback);
+            return;
+        }
+        P.getBinary(`${path}.bin?v=${version}`, (buffer) => {
+            P.markerDecoder.decode(buffer, (markers) => {
+                if (markers != null) {
+                    callback(markers);
+                } else {
+                    P.getJSON(`${path}.json?v=${version}`, callback);
+                }
+            });
+        });
+    }
+    loadGlobalMarkers(layer, level) {
+        const levels = layer.globalLevels;
+        const markers = levels == null || levels.length === 0 ? [] : levels[Math.min(level, levels.length - 1)];
+        if (layer.globalShown === markers) {
+            return;
+        }
+        layer.globalShown = markers;
+        for (const marker of layer.global) {
+            layer.removeLayer(marker.marker);
+        }
+        layer.global = [];
+        for (const data of markers) {
+            const marker = this.createMarker(data);
+            if (marker != null) {
+                marker.addTo(layer);
+                layer.global.push(marker);
+            }
+        }
+    }
+    loadMarkerCell(layer, key, x, z, version, level, json) {
+        this.unloadMarkerCell(layer, key);
+        const cell = {x: x, z: z, version: version, level: level, markers: [], shared: []};
+        for (const data of json) {
+            // markers in more than one cell have an id, so they are only shown once
+            const id = data.id;
+            if (id != null) {
+                const shared = layer.shared.get(id);
+                if (shared != null) {
+                    shared.count++;
+                    cell.shared.push(id);
+                    continue;
+                }
+            }
+            const marker = this.createMarker(data);
+            if (marker == null) {
+                continue;
+            }
+            marker.addTo(layer);
+            if (id != null) {
+                layer.shared.set(id, {marker: marker, count: 1});
+                cell.shared.push(id);
+            } else {
+                cell.markers.push(marker);
+            }
+        }
+        layer.cells.set(key, cell);
+    }
+    unloadMarkerCell(layer, key) {
+        const cell = layer.cells.get(key);
+        if (cell == null) {
+            return;
+        }
+        layer.cells.delete(key);
+        for (const marker of cell.markers) {
+            layer.removeLayer(marker.marker);
+        }
+        for (const id of cell.shared) {
+            const shared = layer.shared.get(id);
+            if (--shared.count <= 0) {
+                layer.removeLayer(shared.marker.marker);
+                layer.shared.delete(id);
+            }
+        }
+    }
+    inView(view, x, z) {
+        return x >= view.minX && x <= view.maxX && z >= view.minZ && z <= view.maxZ;
+    }
+    setupMarkerLayer(entry) {
+        const layer = new L.LayerGroup();
+        layer.order = entry.order;
+        layer.id = entry.id;
+        layer.timestamp = entry.timestamp;
+        layer.setZIndex(entry.z_index);
+        this.markerLayers.set(layer.id, layer);
+
+        // setup the layer control
+        if (entry.control === true) {
+            P.layerControl.addOverlay(entry.name, layer, entry.hide);
+        }
+        return layer;
+    }
+    createMarker(data) {
+        const opts = new Options(data);
+        switch(opts.pop("type")) {
+            case "rectangle": return new Rectangle(opts);
+            case "polyline": return new PolyLine(opts);
+            case "polygon": return new Polygon(opts);
+            case "circle": return new Circle(opts);
+            case "ellipse": return new Ellipse(opts);
+            case "icon": return new Icon(opts);
+            case "cluster": return new Cluster(opts);
+        }
+        return null;
+    }
 }
 
 export { World };
@@ -0,0 +1,125 @@
+// decodes the binary marker cells written by the plugin, see MarkerBinary.java for the format
+const TYPES = ["rectangle", "polyline", "polygon", "circle", "ellipse", "icon", "cluster"];
+const decoder = new TextDecoder("utf-8");
+
+class Reader {
+    constructor(buffer) {
+        this.view = new DataView(buffer);
+        this.bytes = new Uint8Array(buffer);
+        this.pos = 0;
+        this.x = 0;
+        this.z = 0;
+    }
+    varint() {
+        let value = 0;
+        let scale = 1;
+        let b;
+        do {
+            b = this.bytes[this.pos++];
+            value += (b & 0x7f) * scale;
+            scale *= 128;
+        } while (b & 0x80);
+        return value;
+    }
+    zigzag() {
+        const value = this.varint();
+        return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+    }
+    double() {
+        const value = this.view.getFloat64(this.pos, true);
+        this.pos += 8;
+        return value;
+    }
+    string() {
+        const length = this.varint();
+        const value = decoder.decode(this.bytes.subarray(this.pos, this.pos + length));
+        this.pos += length;
+        return value;
+    }
+    point() {
+        this.x += this.zigzag();
+        this.z += this.zigzag();
+        return {x: this.x, z: this.z};
+    }
+    points(depth) {
+        const count = this.varint();
+        const points = new Array(count);
+        for (let i = 0; i < count; i++) {
+            points[i] = depth === 1 ? this.point() : this.points(depth - 1);
+        }
+        return points;
+    }
+}
+
+function decode(buffer) {
+    const reader = new Reader(buffer);
+    if (reader.bytes[0] !== 0x53 || reader.bytes[1] !== 0x51 || reader.bytes[2] !== 0x4d || reader.bytes[3] !== 2) {
+        throw new Error("unknown marker format");
+    }
+    reader.pos = 4;
+    const strings = new Array(reader.varint());
+    for (let i = 0; i < strings.length; i++) {
+        strings[i] = reader.string();
+    }
+    const styles = new Array(reader.varint());
+    for (let i = 0; i < styles.length; i++) {
+        styles[i] = JSON.parse(strings[reader.varint()]);
+    }
+    const markers = new Array(reader.varint());
+    for (let i = 0; i < markers.length; i++) {
+        const type = TYPES[reader.varint()];
+        const marker = Object.assign({}, styles[reader.varint()]);
+        marker.type = type;
+        const id = reader.varint();
+        if (id > 0) {
+            marker.id = strings[id - 1];
+        }
+        const popup = reader.varint();
+        if (popup > 0) {
+            marker.popup = strings[popup - 1];
+        }
+        const tooltip = reader.varint();
+        if (tooltip > 0) {
+            marker.tooltip = strings[tooltip - 1];
+        }
+        reader.x = 0;
+        reader.z = 0;
+        switch (type) {
+            case "rectangle":
+            case "polyline":
+            case "polygon":
+                marker.points = reader.points(reader.varint());
+                break;
+            case "circle":
+                marker.center = reader.point();
+                marker.radius = reader.double();
+                break;
+            case "ellipse":
+                marker.center = reader.point();
+                marker.radiusX = reader.double();
+                marker.radiusZ = reader.double();
+                break;
+            case "icon":
+                marker.point = reader.point();
+                marker.size = reader.point();
+                marker.anchor = reader.point();
+                marker.tooltip_anchor = reader.point();
+                marker.icon = strings[reader.varint()];
+                break;
+            case "cluster":
+                marker.point = reader.point();
+                marker.count = reader.varint();
+                break;
+        }
+        markers[i] = marker;
+    }
+    return markers;
+}
+
+onmessage = (e) => {
+    try {
+        postMessage({id: e.data.id, markers: decode(e.data.buffer)});
+    } catch (err) {
+        postMessage({id: e.data.id, markers: null});
+    }
+};
@@ -0,0 +1,95 @@
+package net.pl3x.map.plugin.data;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnMaskTest {
+
+    @Test
+    void setOnlyMarksThatColumn() {
+        final ColumnMask mask = new ColumnMask();
+        assertTrue(mask.isEmpty());
+        mask.set(3, 7);
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                assertEquals(x == 3 && z == 7, mask.get(x, z), x + "," + z);
+            }
+        }
+        assertFalse(mask.isEmpty());
+        assertFalse(mask.isFull());
+    }
+
+    @Test
+    void blockCoordinatesWrapToTheChunk() {
+        final ColumnMask mask = ColumnMask.of(-1, 33);
+        assertTrue(mask.get(15, 1));
+        assertTrue(mask.get(-17, 17));
+    }
+
+    @Test
+    void cornersUseTheOutermostBits() {
+        final ColumnMask mask = ColumnMask.of(0, 0);
+        mask.set(15, 15);
+        final long[] bits = mask.toLongArray();
+        assertEquals(1L, bits[0]);
+        assertEquals(Long.MIN_VALUE, bits[3]);
+    }
+
+    @Test
+    void fullAfterEveryColumnIsSet() {
+        final ColumnMask mask = new ColumnMask();
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                assertFalse(mask.isFull());
+                mask.set(x, z);
+            }
+        }
+        assertTrue(mask.isFull());
+        assertTrue(ColumnMask.full().isFull());
+    }
+
+    @Test
+    void minAndMaxZPerRow() {
+        final ColumnMask mask = ColumnMask.of(4, 2);
+        mask.set(4, 11);
+        assertEquals(2, mask.minZ(4));
+        assertEquals(11, mask.maxZ(4));
+        assertEquals(-1, mask.minZ(5));
+        assertEquals(-1, mask.maxZ(5));
+    }
+
+    @Test
+    void orCombinesMasks() {
+        final ColumnMask mask = ColumnMask.of(1, 1);
+        mask.or(ColumnMask.of(14, 14));
+        assertTrue(mask.get(1, 1));
+        assertTrue(mask.get(14, 14));
+        assertFalse(mask.get(1, 14));
+    }
+
+    @Test
+    void longArrayRoundTrip() {
+        final ColumnMask mask = ColumnMask.of(9, 0);
+        mask.set(0, 9);
+        mask.set(15, 15);
+        final ColumnMask read = ColumnMask.fromLongArray(mask.toLongArray());
+        assertArrayEquals(mask.toLongArray(), read.toLongArray());
+        assertTrue(read.get(9, 0));
+        assertTrue(read.get(0, 9));
+    }
+
+    @Test
+    void copiesAreIndependent() {
+        final ColumnMask mask = ColumnMask.of(2, 3);
+        final ColumnMask copy = mask.copy();
+        copy.set(4, 5);
+        assertFalse(mask.get(4, 5));
+        assertTrue(copy.get(2, 3));
+        mask.toLongArray()[0] = -1L;
+        assertFalse(mask.get(0, 0));
+    }
+}
@@ -0,0 +1,129 @@
+package net.pl3x.map.plugin.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirtyChunkCheckpointTest {
+
+    @Test
+    void roundTrip() throws IOException {
+        final DirtyChunkTracker tracker = new DirtyChunkTracker(-1);
+        tracker.markChunk(new ChunkCoordinate(0, 0));
+        tracker.markChunk(new ChunkCoordinate(-1, 1));
+        tracker.markColumn(-33, 70);
+        tracker.markColumn(-34, 71);
+        tracker.markChunk(new ChunkCoordinate(Integer.MAX_VALUE, Integer.MIN_VALUE));
+        tracker.markRegion(new RegionCoordinate(-5, 12));
+        tracker.markRegion(new RegionCoordinate(40, -40));
+
+        final DirtyChunkTracker restored = new DirtyChunkTracker(-1);
+        DirtyChunkCheckpoint.read(write(tracker), restored);
+
+        assertSameContents(tracker.snapshot(), restored.snapshot());
+        assertEquals(4, restored.dirtyChunks());
+        assertEquals(2, restored.promotedRegions());
+    }
+
+    @Test
+    void partialMasksAreKept() throws IOException {
+        final DirtyChunkTracker tracker = new DirtyChunkTracker(-1);
+        tracker.markColumn(17, -2);
+        tracker.markColumn(31, -16);
+
+        final DirtyChunkTracker restored = new DirtyChunkTracker(-1);
+        DirtyChunkCheckpoint.read(write(tracker), restored);
+
+        final ColumnMask mask = restored.pollChunks(1).get(new ChunkCoordinate(1, -1));
+        assertTrue(mask.get(1, 14));
+        assertTrue(mask.get(15, 0));
+        assertEquals(2, Arrays.stream(mask.toLongArray()).map(Long::bitCount).sum());
+    }
+
+    @Test
+    void inFlightChunksAreKeptUntilRendered() throws IOException {
+        final DirtyChunkTracker tracker = new DirtyChunkTracker(-1);
+        tracker.markColumn(17, -2);
+        tracker.markRegion(new RegionCoordinate(2, 3));
+        final Map<ChunkCoordinate, ColumnMask> polled = tracker.pollChunks(1);
+        final List<RegionCoordinate> regions = tracker.pollRegions(1, 0L);
+        tracker.markColumn(18, -2);
+
+        final DirtyChunkTracker restored = new DirtyChunkTracker(-1);
+        DirtyChunkCheckpoint.read(write(tracker), restored);
+        assertEquals(1, restored.promotedRegions());
+        final ColumnMask mask = restored.pollChunks(1).get(new ChunkCoordinate(1, -1));
+        assertTrue(mask.get(1, 14));
+        assertTrue(mask.get(2, 14));
+
+        tracker.chunksRendered(polled.keySet());
+        tracker.regionsRendered(regions);
+        final DirtyChunkTracker afterRender = new DirtyChunkTracker(-1);
+        DirtyChunkCheckpoint.read(write(tracker), afterRender);
+        assertEquals(0, afterRender.promotedRegions());
+        final ColumnMask remaining = afterRender.pollChunks(1).get(new ChunkCoordinate(1, -1));
+        assertFalse(remaining.get(1, 14));
+        assertTrue(remaining.get(2, 14));
+    }
+
+    @Test
+    void emptyRoundTrip() throws IOException {
+        final DirtyChunkTracker restored = new DirtyChunkTracker(-1);
+        DirtyChunkCheckpoint.read(write(new DirtyChunkTracker(-1)), restored);
+        assertTrue(restored.isEmpty());
+    }
+
+    @Test
+    void corruptionIsDetected() throws IOException {
+        final DirtyChunkTracker tracker = new DirtyChunkTracker(-1);
+        tracker.markChunk(new ChunkCoordinate(3, 4));
+        final byte[] bytes = write(tracker);
+
+        for (int i = 0; i < bytes.length; i++) {
+            final byte[] corrupt = bytes.clone();
+            corrupt[i] ^= 0x10;
+            assertThrows(IOException.class, () -> DirtyChunkCheckpoint.read(corrupt, new DirtyChunkTracker(-1)));
+        }
+        assertThrows(IOException.class, () -> DirtyChunkCheckpoint.read(Arrays.copyOf(bytes, bytes.length - 1), new DirtyChunkTracker(-1)));
+        assertThrows(IOException.class, () -> DirtyChunkCheckpoint.read(new byte[3], new DirtyChunkTracker(-1)));
+    }
+
+    private static byte[] write(final DirtyChunkTracker tracker) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirtyChunkCheckpoint.write(out, tracker.snapshot());
+        return out.toByteArray();
+    }
+
+    private static void assertSameContents(final DirtyChunkTracker.Snapshot expected, final DirtyChunkTracker.Snapshot actual) {
+        assertArrayEquals(sorted(expected.regions()), sorted(actual.regions()));
+        assertArrayEquals(sorted(expected.chunks()), sorted(actual.chunks()));
+        for (int i = 0; i < expected.chunks().length; i++) {
+            final int index = indexOf(actual.chunks(), expected.chunks()[i]);
+            assertArrayEquals(expected.masks()[i].toLongArray(), actual.masks()[index].toLongArray());
+        }
+    }
+
+    private static long[] sorted(final long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int indexOf(final long[] values, final long value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        throw new AssertionError("missing " + value);
+    }
+}
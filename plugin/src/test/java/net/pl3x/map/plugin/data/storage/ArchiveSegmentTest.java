@@ -0,0 +1,151 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveSegmentTest {
+
+    @Test
+    void writeAndRead(@TempDir final Path root) throws IOException {
+        final ArchiveSegment segment = new ArchiveSegment(root, "0_0");
+        try {
+            assertNull(segment.read(0));
+            write(segment, 0, "first");
+            write(segment, ArchiveSegment.TILES - 1, "last");
+
+            final TileStorage.EncodedTile tile = segment.read(0);
+            assertNotNull(tile);
+            assertArrayEquals(bytes("first"), bytes(tile));
+            assertTrue(tile.lastModified() > 0L);
+            assertArrayEquals(bytes("last"), bytes(segment.read(ArchiveSegment.TILES - 1)));
+            assertNull(segment.read(1));
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    void overwriteReadsTheLatestTile(@TempDir final Path root) throws IOException {
+        final ArchiveSegment segment = new ArchiveSegment(root, "0_0");
+        try {
+            write(segment, 5, "old");
+            write(segment, 5, "new and longer");
+            assertArrayEquals(bytes("new and longer"), bytes(segment.read(5)));
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    void deleteRemovesOnlyThatTile(@TempDir final Path root) throws IOException {
+        final ArchiveSegment segment = new ArchiveSegment(root, "0_0");
+        try {
+            write(segment, 1, "one");
+            write(segment, 2, "two");
+            segment.delete(1);
+            segment.delete(3); // never written
+            assertNull(segment.read(1));
+            assertNull(segment.read(3));
+            assertArrayEquals(bytes("two"), bytes(segment.read(2)));
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    void compactionMovesLiveTilesToTheNextGeneration(@TempDir final Path root) throws IOException {
+        final ArchiveSegment segment = new ArchiveSegment(root, "0_0");
+        try {
+            write(segment, 0, "replaced");
+            write(segment, 0, "kept");
+            write(segment, 1, "deleted");
+            write(segment, 2, "also kept");
+            segment.delete(1);
+
+            assertEquals(0L, segment.compact(false)); // too small to be worth it
+            assertEquals(bytes("replaced").length + bytes("deleted").length, segment.compact(true));
+
+            assertFalse(Files.exists(root.resolve("0_0.0.dat")));
+            assertEquals(bytes("kept").length + bytes("also kept").length, Files.size(root.resolve("0_0.1.dat")));
+            assertArrayEquals(bytes("kept"), bytes(segment.read(0)));
+            assertNull(segment.read(1));
+            assertArrayEquals(bytes("also kept"), bytes(segment.read(2)));
+
+            // appends go to the new generation
+            write(segment, 3, "after");
+            assertArrayEquals(bytes("after"), bytes(segment.read(3)));
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    void reopenKeepsTiles(@TempDir final Path root) throws IOException {
+        final ArchiveSegment segment = new ArchiveSegment(root, "0_0");
+        write(segment, 0, "before compaction");
+        write(segment, 0, "compacted");
+        segment.compact(true);
+        write(segment, 7, "after compaction");
+        segment.delete(8);
+        segment.close();
+
+        final ArchiveSegment reopened = new ArchiveSegment(root, "0_0");
+        try {
+            assertArrayEquals(bytes("compacted"), bytes(reopened.read(0)));
+            assertArrayEquals(bytes("after compaction"), bytes(reopened.read(7)));
+            assertNull(reopened.read(8));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void otherGenerationsAreDeletedOnOpen(@TempDir final Path root) throws IOException {
+        new ArchiveSegment(root, "0_0").close();
+        // left behind by a compaction which didn't get to replace the index
+        Files.write(root.resolve("0_0.1.dat"), bytes("leftover"));
+        Files.write(root.resolve("1_0.1.dat"), bytes("another segment"));
+
+        final ArchiveSegment segment = new ArchiveSegment(root, "0_0");
+        segment.close();
+        assertTrue(Files.exists(root.resolve("0_0.0.dat")));
+        assertFalse(Files.exists(root.resolve("0_0.1.dat")));
+        assertTrue(Files.exists(root.resolve("1_0.1.dat")));
+    }
+
+    @Test
+    void tileIndexWrapsToTheSegment() {
+        assertEquals(0, ArchiveSegment.tileIndex(0, 0));
+        assertEquals(ArchiveSegment.tileIndex(3, 4), ArchiveSegment.tileIndex(3 + 32, 4 - 64));
+        assertEquals(ArchiveSegment.TILES - 1, ArchiveSegment.tileIndex(-1, -1));
+    }
+
+    private static void write(final ArchiveSegment segment, final int tile, final String contents) throws IOException {
+        final byte[] bytes = bytes(contents);
+        segment.write(tile, bytes, bytes.length);
+    }
+
+    private static byte[] bytes(final String contents) {
+        return contents.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(final TileStorage.EncodedTile tile) {
+        assertNotNull(tile);
+        final ByteBuffer data = tile.data().duplicate();
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,79 @@
+package net.pl3x.map.plugin.data.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TilePatchTest {
+
+    @Test
+    void patchRestoresTheArea() {
+        final BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        final Random random = new Random(1L);
+        final int[] colors = {0, 0xFFFFFFFF, 0xFF3A5F0B, 0x80102030};
+        for (int x = 0; x < 512; x++) {
+            for (int z = 0; z < 512; z++) {
+                image.setRGB(x, z, colors[random.nextInt(colors.length)]);
+            }
+        }
+        final Rectangle area = new Rectangle(496, 16, 16, 16);
+        final TilePatch patch = TilePatch.of(image, area);
+        assertNotNull(patch);
+        assertEquals(area, new Rectangle(patch.x(), patch.z(), patch.width(), patch.height()));
+        assertArrayEquals(image.getRGB(area.x, area.y, area.width, area.height, null, 0, area.width), decode(patch));
+    }
+
+    @Test
+    void runsAndPaletteAreCompact() {
+        final BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                image.setRGB(x, z, z < 8 ? 0xFF0000FF : 0xFF00FF00);
+            }
+        }
+        final TilePatch patch = TilePatch.of(image, new Rectangle(0, 0, 16, 16));
+        assertNotNull(patch);
+        // runs continue across rows
+        assertArrayEquals(new int[]{0xFF0000FF, 0xFF00FF00}, patch.palette());
+        assertArrayEquals(new int[]{128, 0, 128, 1}, patch.runs());
+    }
+
+    @Test
+    void colorsKeepTheirPaletteIndex() {
+        final BufferedImage image = new BufferedImage(4, 1, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xFF111111);
+        image.setRGB(1, 0, 0xFF222222);
+        image.setRGB(2, 0, 0xFF111111);
+        image.setRGB(3, 0, 0xFF222222);
+        final TilePatch patch = TilePatch.of(image, new Rectangle(0, 0, 4, 1));
+        assertNotNull(patch);
+        assertEquals(2, patch.palette().length);
+        assertArrayEquals(new int[]{1, 0, 1, 1, 1, 0, 1, 1}, patch.runs());
+    }
+
+    @Test
+    void emptyOrLargeAreasAreNotPatched() {
+        final BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        assertNull(TilePatch.of(image, new Rectangle(0, 0, 0, 16)));
+        assertNull(TilePatch.of(image, new Rectangle(0, 0, 129, 128)));
+        assertNotNull(TilePatch.of(image, new Rectangle(0, 0, 128, 128)));
+    }
+
+    private static int[] decode(final TilePatch patch) {
+        final int[] pixels = new int[patch.width() * patch.height()];
+        int i = 0;
+        for (int run = 0; run < patch.runs().length; run += 2) {
+            for (int n = 0; n < patch.runs()[run]; n++) {
+                pixels[i++] = patch.palette()[patch.runs()[run + 1]];
+            }
+        }
+        assertEquals(pixels.length, i);
+        return pixels;
+    }
+}
@@ -0,0 +1,170 @@
+package net.pl3x.map.plugin.task;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarkerBinaryTest {
+
+    @Test
+    void everyMarkerTypeRoundTrips() throws IOException {
+        roundTrip(List.of(
+                "{\"fillColor\":\"#ff0000\",\"type\":\"rectangle\",\"points\":[{\"x\":-16,\"z\":32},{\"x\":0,\"z\":48}]}",
+                "{\"color\":\"#00ff00\",\"weight\":5,\"type\":\"polyline\",\"points\":[{\"x\":2147483647,\"z\":-2147483648},{\"x\":-2147483648,\"z\":2147483647}]}",
+                "{\"type\":\"polyline\",\"points\":[[{\"x\":1,\"z\":2},{\"x\":3,\"z\":4}],[{\"x\":5,\"z\":6}]]}",
+                "{\"type\":\"polygon\",\"points\":[[[{\"x\":0,\"z\":0},{\"x\":10,\"z\":0},{\"x\":10,\"z\":10}],[{\"x\":2,\"z\":2},{\"x\":3,\"z\":3},{\"x\":2,\"z\":3}]]]}",
+                "{\"type\":\"circle\",\"center\":{\"x\":-5,\"z\":7},\"radius\":12.5,\"popup\":\"<b>spawn</b>\"}",
+                "{\"type\":\"ellipse\",\"center\":{\"x\":0,\"z\":0},\"radiusX\":0.1,\"radiusZ\":1.0E9,\"tooltip\":\"\u00fcn\u00efc\u00f6d\u00e9 \u2713\"}",
+                "{\"id\":\"42_0\",\"type\":\"icon\",\"point\":{\"x\":100,\"z\":-100},\"size\":{\"x\":16,\"z\":16},\"anchor\":{\"x\":8,\"z\":8},\"tooltip_anchor\":{\"x\":0,\"z\":-8},\"icon\":\"spawn\"}",
+                "{\"type\":\"cluster\",\"point\":{\"x\":-3,\"z\":4},\"count\":300}"
+        ));
+    }
+
+    @Test
+    void stylesAndStringsAreShared() throws IOException {
+        final List<String> markers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            markers.add("{\"color\":\"#123456\",\"fill\":false,\"type\":\"circle\",\"center\":{\"x\":" + i + ",\"z\":0},\"radius\":3.0,\"popup\":\"same\"}");
+        }
+        final byte[] bytes = roundTrip(markers);
+        // one style and one string, and a few bytes for each marker
+        assertTrue(bytes.length < 100 * 16, bytes.length + " bytes");
+    }
+
+    @Test
+    void emptyCell() throws IOException {
+        roundTrip(List.of());
+        roundTrip(List.of("{\"type\":\"polyline\",\"points\":[]}"));
+    }
+
+    @Test
+    void unknownTypesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> MarkerBinary.encode(List.of("{\"type\":\"hexagon\"}")));
+        assertThrows(IllegalArgumentException.class, () -> MarkerBinary.encode(List.of("{\"type\":\"circle\",\"radius\":1}")));
+    }
+
+    private static byte[] roundTrip(final List<String> markers) throws IOException {
+        final byte[] bytes = MarkerBinary.encode(markers);
+        final JsonArray expected = new JsonArray();
+        for (final String marker : markers) {
+            expected.add(JsonParser.parseString(marker));
+        }
+        assertEquals(expected, new Decoder(bytes).decode());
+        return bytes;
+    }
+
+    // the same as js/workers/MarkerDecoder.js
+    private static final class Decoder {
+        private static final List<String> TYPES = List.of("rectangle", "polyline", "polygon", "circle", "ellipse", "icon", "cluster");
+        private final ByteBuffer buffer;
+        private int x;
+        private int z;
+
+        private Decoder(final byte[] bytes) {
+            this.buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private JsonArray decode() {
+            assertEquals('S', this.buffer.get());
+            assertEquals('Q', this.buffer.get());
+            assertEquals('M', this.buffer.get());
+            assertEquals(2, this.buffer.get());
+            final List<String> strings = new ArrayList<>();
+            for (long i = this.varint(); i > 0; i--) {
+                final byte[] string = new byte[(int) this.varint()];
+                this.buffer.get(string);
+                strings.add(new String(string, StandardCharsets.UTF_8));
+            }
+            final List<JsonObject> styles = new ArrayList<>();
+            for (long i = this.varint(); i > 0; i--) {
+                styles.add(JsonParser.parseString(strings.get((int) this.varint())).getAsJsonObject());
+            }
+            final JsonArray markers = new JsonArray();
+            for (long i = this.varint(); i > 0; i--) {
+                final String type = TYPES.get((int) this.varint());
+                final JsonObject marker = styles.get((int) this.varint()).deepCopy();
+                marker.addProperty("type", type);
+                for (final String name : List.of("id", "popup", "tooltip")) {
+                    final int string = (int) this.varint();
+                    if (string > 0) {
+                        marker.addProperty(name, strings.get(string - 1));
+                    }
+                }
+                this.x = 0;
+                this.z = 0;
+                switch (type) {
+                    case "rectangle", "polyline", "polygon" -> marker.add("points", this.points((int) this.varint()));
+                    case "circle" -> {
+                        marker.add("center", this.point());
+                        marker.addProperty("radius", this.buffer.getDouble());
+                    }
+                    case "ellipse" -> {
+                        marker.add("center", this.point());
+                        marker.addProperty("radiusX", this.buffer.getDouble());
+                        marker.addProperty("radiusZ", this.buffer.getDouble());
+                    }
+                    case "icon" -> {
+                        marker.add("point", this.point());
+                        marker.add("size", this.point());
+                        marker.add("anchor", this.point());
+                        marker.add("tooltip_anchor", this.point());
+                        marker.addProperty("icon", strings.get((int) this.varint()));
+                    }
+                    default -> {
+                        marker.add("point", this.point());
+                        marker.addProperty("count", this.varint());
+                    }
+                }
+                markers.add(marker);
+            }
+            assertEquals(0, this.buffer.remaining());
+            return markers;
+        }
+
+        private long varint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private long zigzag() {
+            final long value = this.varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private JsonElement point() {
+            this.x += (int) this.zigzag();
+            this.z += (int) this.zigzag();
+            final JsonObject point = new JsonObject();
+            point.addProperty("x", this.x);
+            point.addProperty("z", this.z);
+            return point;
+        }
+
+        private JsonArray points(final int depth) {
+            final JsonArray points = new JsonArray();
+            for (long i = this.varint(); i > 0; i--) {
+                points.add(depth == 1 ? this.point() : this.points(depth - 1));
+            }
+            return points;
+        }
+    }
+}
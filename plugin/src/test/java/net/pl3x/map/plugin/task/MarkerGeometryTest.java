@@ -0,0 +1,198 @@
+package net.pl3x.map.plugin.task;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.pl3x.map.api.Point;
+import net.pl3x.map.api.marker.MarkerOptions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarkerGeometryTest {
+    private static final MarkerOptions RED = MarkerOptions.builder().fillColor(Color.RED).build();
+    private static final MarkerOptions BLUE = MarkerOptions.builder().fillColor(Color.BLUE).build();
+
+    @Test
+    void zeroToleranceKeepsThePoints() {
+        final List<Point> points = List.of(Point.of(0.2, 0), Point.of(0.7, 0.9), Point.of(1, 0), Point.of(2, 0), Point.of(3, 5));
+        assertEquals(points, MarkerGeometry.simplify(points, 0, false));
+        final List<Point> ring = List.of(Point.of(0, 0), Point.of(0, 0), Point.of(4, 0), Point.of(4, 4), Point.of(0, 0));
+        assertEquals(ring, MarkerGeometry.simplify(ring, 0, true));
+    }
+
+    @Test
+    void repeatedBlocksAreDroppedWithATolerance() {
+        final List<Point> points = List.of(Point.of(0.2, 0), Point.of(0.7, 0.9), Point.of(1, 0), Point.of(3, 5));
+        assertEquals(List.of(Point.of(0, 0), Point.of(1, 0), Point.of(3, 5)), MarkerGeometry.simplify(points, 0.5, false));
+    }
+
+    @Test
+    void straightLinesKeepTheirEnds() {
+        final List<Point> points = new ArrayList<>();
+        for (int x = 0; x <= 100; x++) {
+            points.add(Point.of(x, 2 * x));
+        }
+        assertEquals(List.of(Point.of(0, 0), Point.of(100, 200)), MarkerGeometry.simplify(points, 1, false));
+    }
+
+    @Test
+    void cornersOutsideTheToleranceAreKept() {
+        final List<Point> points = List.of(Point.of(0, 0), Point.of(5, 0), Point.of(10, 0), Point.of(10, 5), Point.of(10, 10));
+        assertEquals(List.of(Point.of(0, 0), Point.of(10, 0), Point.of(10, 10)), MarkerGeometry.simplify(points, 1, false));
+        // a bump smaller than the tolerance is dropped
+        final List<Point> bump = List.of(Point.of(0, 0), Point.of(5, 1), Point.of(10, 0));
+        assertEquals(List.of(Point.of(0, 0), Point.of(10, 0)), MarkerGeometry.simplify(bump, 2, false));
+        assertEquals(bump, MarkerGeometry.simplify(bump, 0.5, false));
+    }
+
+    @Test
+    void ringsKeepTheirCorners() {
+        final List<Point> ring = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ring.add(Point.of(i, 0));
+        }
+        for (int i = 0; i < 10; i++) {
+            ring.add(Point.of(10, i));
+        }
+        for (int i = 10; i > 0; i--) {
+            ring.add(Point.of(i, 10));
+        }
+        for (int i = 10; i >= 0; i--) {
+            ring.add(Point.of(0, i));
+        }
+        assertEquals(List.of(Point.of(0, 0), Point.of(10, 0), Point.of(10, 10), Point.of(0, 10)), MarkerGeometry.simplify(ring, 1, true));
+    }
+
+    @Test
+    void ringsAreNotSimplifiedToALine() {
+        final List<Point> ring = List.of(Point.of(0, 0), Point.of(50, 0), Point.of(100, 0), Point.of(100, 1), Point.of(50, 1), Point.of(0, 1));
+        assertEquals(ring, MarkerGeometry.simplify(ring, 8, true));
+    }
+
+    @Test
+    void droppedPointsStayWithinTheTolerance() {
+        final Random random = new Random(7L);
+        final List<Point> points = new ArrayList<>();
+        double x = 0;
+        double z = 0;
+        for (int i = 0; i < 100_000; i++) {
+            x += random.nextInt(5) - 1;
+            z += random.nextInt(5) - 2;
+            points.add(Point.of(x, z));
+        }
+        final double tolerance = 4;
+        final List<Point> simplified = MarkerGeometry.simplify(points, tolerance, false);
+        assertTrue(simplified.size() < points.size() / 4, "simplified to " + simplified.size());
+        assertEquals(points.get(0), simplified.get(0));
+        assertEquals(points.get(points.size() - 1), simplified.get(simplified.size() - 1));
+
+        // the simplified points are a subsequence, every point between two of them is near their segment
+        int kept = 0;
+        for (final Point point : points) {
+            if (point.equals(simplified.get(kept))) {
+                if (kept < simplified.size() - 1) {
+                    kept++;
+                }
+                continue;
+            }
+            final double distance = distance(point, simplified.get(kept - 1), simplified.get(kept));
+            assertTrue(distance <= tolerance, point + " is " + distance + " away");
+        }
+        assertEquals(simplified.size() - 1, kept);
+    }
+
+    @Test
+    void adjacentRectanglesOfOneStyleAreMerged() {
+        final List<UpdateMarkers.Fragment> fragments = List.of(
+                rectangle(1, 0, 0, 16, 16, RED),
+                rectangle(2, 16, 16, 32, 32, RED),
+                rectangle(3, 16, 0, 32, 16, RED),
+                rectangle(4, 0, 16, 16, 32, RED)
+        );
+        assertEquals(List.of(fragments), MarkerGeometry.mergeRectangles(fragments));
+    }
+
+    @Test
+    void onlyRectanglesCoveringARectangleAreMerged() {
+        final List<UpdateMarkers.Fragment> fragments = List.of(
+                rectangle(1, 0, 0, 16, 16, RED),
+                rectangle(2, 16, 0, 32, 16, RED),
+                rectangle(3, 0, 16, 16, 32, RED)
+        );
+        final List<List<UpdateMarkers.Fragment>> groups = MarkerGeometry.mergeRectangles(fragments);
+        assertEquals(1, groups.size());
+        assertEquals(2, groups.get(0).size());
+        assertSame(fragments.get(0), groups.get(0).get(0));
+    }
+
+    @Test
+    void differentStylesAndGapsAreNotMerged() {
+        final List<UpdateMarkers.Fragment> fragments = List.of(
+                rectangle(1, 0, 0, 16, 16, RED),
+                rectangle(2, 16, 0, 32, 16, BLUE),
+                rectangle(3, 33, 0, 48, 16, BLUE),
+                rectangle(4, 0, 16, 16, 32, null),
+                rectangle(5, 0, 32, 16, 48, BLUE),
+                rectangle(6, 0, 48, 16, 64, BLUE)
+        );
+        assertEquals(List.of(List.of(fragments.get(4), fragments.get(5))), MarkerGeometry.mergeRectangles(fragments));
+    }
+
+    @Test
+    void iconsInOneCellAreClustered() {
+        final UpdateMarkers.Fragment a = icon(1, 0, 0);
+        final UpdateMarkers.Fragment b = icon(2, 10, 20);
+        final UpdateMarkers.Fragment c = icon(3, 40, 0);
+        final List<MarkerGeometry.Cluster> clusters = MarkerGeometry.cluster(List.of(MarkerGeometry.Cluster.of(a), MarkerGeometry.Cluster.of(b), MarkerGeometry.Cluster.of(c)), 32);
+        assertEquals(2, clusters.size());
+
+        final MarkerGeometry.Cluster pair = clusters.get(0);
+        assertEquals(List.of(1L, 2L), pair.ids());
+        assertEquals(2, pair.count());
+        assertEquals(5, pair.x(), 1e-9);
+        assertEquals(10, pair.z(), 1e-9);
+        assertNull(pair.single());
+        assertSame(c, clusters.get(1).single());
+    }
+
+    @Test
+    void clustersOfALevelAreClusteredAgain() {
+        final List<MarkerGeometry.Cluster> icons = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            icons.add(MarkerGeometry.Cluster.of(icon(i, i * 16, 0)));
+        }
+        final List<MarkerGeometry.Cluster> first = MarkerGeometry.cluster(icons, 32);
+        assertEquals(4, first.size());
+        final List<MarkerGeometry.Cluster> second = MarkerGeometry.cluster(first, 64);
+        assertEquals(2, second.size());
+        assertEquals(List.of(0L, 1L, 2L, 3L), second.get(0).ids());
+        assertEquals(24, second.get(0).x(), 1e-9);
+    }
+
+    @Test
+    void cellsAreSplitAtZero() {
+        final List<MarkerGeometry.Cluster> clusters = MarkerGeometry.cluster(List.of(MarkerGeometry.Cluster.of(icon(1, -1, 5)), MarkerGeometry.Cluster.of(icon(2, 1, 5))), 32);
+        assertEquals(2, clusters.size());
+    }
+
+    private static UpdateMarkers.Fragment rectangle(final long id, final int minX, final int minZ, final int maxX, final int maxZ, final MarkerOptions options) {
+        return new UpdateMarkers.Fragment(id, 0, List.of("{}"), minX, minZ, maxX, maxZ, options, false);
+    }
+
+    private static UpdateMarkers.Fragment icon(final long id, final int x, final int z) {
+        return new UpdateMarkers.Fragment(id, 0, List.of("{}"), x, z, x, z, null, true);
+    }
+
+    private static double distance(final Point p, final Point a, final Point b) {
+        final double dx = b.x() - a.x();
+        final double dz = b.z() - a.z();
+        final double lengthSquared = dx * dx + dz * dz;
+        final double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((p.x() - a.x()) * dx + (p.z() - a.z()) * dz) / lengthSquared));
+        return Math.hypot(a.x() + t * dx - p.x(), a.z() + t * dz - p.z());
+    }
+}
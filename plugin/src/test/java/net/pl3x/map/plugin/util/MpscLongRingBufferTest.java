@@ -0,0 +1,121 @@
+package net.pl3x.map.plugin.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscLongRingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(16, new MpscLongRingBuffer(16).capacity());
+        assertEquals(32, new MpscLongRingBuffer(17).capacity());
+        assertEquals(1024, new MpscLongRingBuffer(1000).capacity());
+    }
+
+    @Test
+    void drainsInOfferOrder() {
+        final MpscLongRingBuffer buffer = new MpscLongRingBuffer(8);
+        assertTrue(buffer.isEmpty());
+        buffer.offer(Long.MIN_VALUE);
+        buffer.offer(0L);
+        buffer.offer(Long.MAX_VALUE);
+        assertFalse(buffer.isEmpty());
+
+        final List<Long> drained = new ArrayList<>();
+        assertEquals(3, buffer.drain(drained::add, Integer.MAX_VALUE));
+        assertEquals(List.of(Long.MIN_VALUE, 0L, Long.MAX_VALUE), drained);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void offerFailsWhenFull() {
+        final MpscLongRingBuffer buffer = new MpscLongRingBuffer(4);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(-1L));
+
+        // draining one frees one slot
+        assertEquals(1, buffer.drain(value -> assertEquals(0L, value), 1));
+        assertTrue(buffer.offer(4L));
+        assertFalse(buffer.offer(-1L));
+    }
+
+    @Test
+    void drainStopsAtMax() {
+        final MpscLongRingBuffer buffer = new MpscLongRingBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer(i);
+        }
+        final List<Long> drained = new ArrayList<>();
+        assertEquals(2, buffer.drain(drained::add, 2));
+        assertEquals(3, buffer.drain(drained::add, 10));
+        assertEquals(0, buffer.drain(drained::add, 10));
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L), drained);
+    }
+
+    @Test
+    void wrapsAroundManyTimes() {
+        final MpscLongRingBuffer buffer = new MpscLongRingBuffer(4);
+        long next = 0;
+        for (int round = 0; round < 1000; round++) {
+            buffer.offer(round * 3L);
+            buffer.offer(round * 3L + 1);
+            buffer.offer(round * 3L + 2);
+            final long[] expected = {next};
+            buffer.drain(value -> assertEquals(expected[0]++, value), Integer.MAX_VALUE);
+            next = expected[0];
+        }
+        assertEquals(3000L, next);
+    }
+
+    @Test
+    void concurrentProducersLoseNothing() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 100_000;
+        final MpscLongRingBuffer buffer = new MpscLongRingBuffer(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final long producer = p;
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(producer << 32 | i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        // values of each producer arrive in the order they were offered
+        final int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            received += buffer.drain(value -> {
+                final int producer = (int) (value >>> 32);
+                assertEquals(next[producer]++, (int) value);
+            }, 256);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(buffer.isEmpty());
+        for (final int count : next) {
+            assertEquals(perProducer, count);
+        }
+    }
+}
@@ -13,6 +13,9 @@ setupSubproject("squaremap-api") {
 setupSubproject("squaremap-plugin") {
     projectDir = file("plugin")
 }
+setupSubproject("squaremap-cli") {
+    projectDir = file("cli")
+}
 
 inline fun setupSubproject(name: String, block: ProjectDescriptor.() -> Unit) {
     include(name)